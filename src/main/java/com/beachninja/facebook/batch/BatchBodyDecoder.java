@@ -0,0 +1,22 @@
+package com.beachninja.facebook.batch;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * Decodes the embedded JSON body of a single batch response item.
+ *
+ * @author bradwee2000@gmail.com
+ */
+@FunctionalInterface
+public interface BatchBodyDecoder<T> {
+
+  /**
+   * @param code HTTP status code of the batch item
+   * @param body parser positioned before the first token of the embedded body, or null if the
+   *             item has no body
+   * @return decoded item
+   */
+  T decode(int code, JsonParser body) throws IOException;
+}
@@ -0,0 +1,181 @@
+package com.beachninja.facebook.batch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Pull-style iterator over a Graph batch response that decodes each item's embedded body
+ * without materializing the item as a BatchResponse.
+ *
+ * The Graph API returns each body as a JSON string. Instead of copying that string into a
+ * String and parsing it again, the body is parsed straight out of the outer parser's text
+ * buffer, and the decoder is picked by the item's code. Items omitted by the API (JSON null)
+ * are returned as null.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BatchBodyIterator<T> implements Iterator<T>, Closeable {
+
+  public static <T> BatchBodyIterator<T> of(final JsonFactory jsonFactory,
+                                            final InputStream is,
+                                            final BatchBodyDecoder<T> decoder) throws IOException {
+    return new BatchBodyIterator<>(jsonFactory, jsonFactory.createParser(is), decoder, null);
+  }
+
+  /**
+   * Also hands each item's headers to the listener. Without a listener, headers are skipped
+   * unparsed.
+   */
+  public static <T> BatchBodyIterator<T> of(final JsonFactory jsonFactory,
+                                            final InputStream is,
+                                            final BatchBodyDecoder<T> decoder,
+                                            final BatchHeaderListener headerListener) throws IOException {
+    return new BatchBodyIterator<>(jsonFactory, jsonFactory.createParser(is), decoder, headerListener);
+  }
+
+  private final JsonFactory jsonFactory;
+  private final JsonParser parser;
+  private final BatchBodyDecoder<T> decoder;
+  private final BatchHeaderListener headerListener;
+
+  private int index = -1;
+  private boolean started;
+  private boolean fetched;
+  private boolean hasNext;
+  private T next;
+
+  private BatchBodyIterator(final JsonFactory jsonFactory,
+                            final JsonParser parser,
+                            final BatchBodyDecoder<T> decoder,
+                            final BatchHeaderListener headerListener) {
+    this.jsonFactory = jsonFactory;
+    this.parser = parser;
+    this.decoder = decoder;
+    this.headerListener = headerListener;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (!fetched) {
+      try {
+        fetch();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      fetched = true;
+    }
+    return hasNext;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    fetched = false;
+    final T result = next;
+    next = null;
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+
+  private void fetch() throws IOException {
+    if (!started) {
+      started = true;
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected batch response array");
+      }
+    }
+
+    final JsonToken token = parser.nextToken();
+    if (token == null || token == JsonToken.END_ARRAY) {
+      hasNext = false;
+    } else if (token == JsonToken.VALUE_NULL) {
+      index++;
+      hasNext = true;
+      next = null;
+    } else if (token == JsonToken.START_OBJECT) {
+      index++;
+      hasNext = true;
+      next = readItem();
+    } else {
+      throw new JsonParseException(parser, "Unexpected token in batch response: " + token);
+    }
+  }
+
+  private T readItem() throws IOException {
+    int code = 0;
+    boolean hasCode = false;
+    boolean hasBody = false;
+    String deferredBody = null;
+    T result = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      final JsonToken value = parser.nextToken();
+
+      if ("code".equals(field)) {
+        code = parser.getIntValue();
+        hasCode = true;
+      } else if ("body".equals(field) && value == JsonToken.VALUE_STRING) {
+        hasBody = true;
+        if (hasCode) {
+          // The text buffer is only valid until the outer parser advances
+          try (final JsonParser body = jsonFactory.createParser(
+              parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())) {
+            result = decoder.decode(code, body);
+          }
+        } else {
+          deferredBody = parser.getText();
+        }
+      } else if ("headers".equals(field) && value == JsonToken.START_ARRAY && headerListener != null) {
+        readHeaders();
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    if (deferredBody != null) {
+      try (final JsonParser body = jsonFactory.createParser(deferredBody)) {
+        result = decoder.decode(code, body);
+      }
+    } else if (!hasBody) {
+      result = decoder.decode(code, null);
+    }
+    return result;
+  }
+
+  private void readHeaders() throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      String name = null;
+      String value = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String field = parser.getCurrentName();
+        parser.nextToken();
+        if ("name".equals(field)) {
+          name = parser.getValueAsString();
+        } else if ("value".equals(field)) {
+          value = parser.getValueAsString();
+        } else {
+          parser.skipChildren();
+        }
+      }
+      if (name != null) {
+        headerListener.onHeader(index, name, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package com.beachninja.facebook.batch;
+
+/**
+ * Receives the headers of each item of a batch response as it is parsed.
+ *
+ * @author bradwee2000@gmail.com
+ */
+@FunctionalInterface
+public interface BatchHeaderListener {
+
+  /**
+   * @param index position of the item in the batch
+   * @param name header name
+   * @param value header value
+   */
+  void onHeader(int index, String name, String value);
+}
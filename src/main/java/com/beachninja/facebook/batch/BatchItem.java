@@ -1,12 +1,27 @@
 package com.beachninja.facebook.batch;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Set;
 
 /**
+ * A single operation of a Graph batch request.
+ *
+ * Operations can depend on earlier ones in the same batch: give the parent a name and refer to
+ * its result with a {@link BatchReference} in the relative URL or body of the child. The Graph
+ * API resolves references server-side, so the whole chain runs in a single round trip.
+ *
+ * An item can carry its own access token, which overrides the batch request's token for that
+ * operation. This lets one batch call act on many pages, each with its own page token.
+ *
  * @author bradwee2000@gmail.com
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -26,6 +41,18 @@ public class BatchItem {
   @JsonProperty("body")
   private final String body;
 
+  @JsonProperty("name")
+  private final String name;
+
+  @JsonProperty("depends_on")
+  private final String dependsOn;
+
+  @JsonProperty("omit_response_on_success")
+  private final Boolean omitResponseOnSuccess;
+
+  @JsonIgnore
+  private final String accessToken; // Already embedded in the body or relative URL
+
   /**
    * For Jackson serialization.
    */
@@ -33,6 +60,10 @@ public class BatchItem {
     this.method = null;
     this.relativeUrl = null;
     this.body = null;
+    this.name = null;
+    this.dependsOn = null;
+    this.omitResponseOnSuccess = null;
+    this.accessToken = null;
   }
 
   /**
@@ -40,10 +71,18 @@ public class BatchItem {
    */
   private BatchItem(final String method,
                     final String relativeUrl,
-                    final String body) {
+                    final String body,
+                    final String name,
+                    final String dependsOn,
+                    final Boolean omitResponseOnSuccess,
+                    final String accessToken) {
     this.method = method;
     this.relativeUrl = relativeUrl;
     this.body = body;
+    this.name = name;
+    this.dependsOn = dependsOn;
+    this.omitResponseOnSuccess = omitResponseOnSuccess;
+    this.accessToken = accessToken;
   }
 
   public String getMethod() {
@@ -58,6 +97,41 @@ public class BatchItem {
     return body;
   }
 
+  public String getName() {
+    return name;
+  }
+
+  public String getDependsOn() {
+    return dependsOn;
+  }
+
+  public Boolean getOmitResponseOnSuccess() {
+    return omitResponseOnSuccess;
+  }
+
+  /**
+   * Returns the operation's own access token, or null if it uses the batch request's token.
+   * Only known for items built locally; the token travels inside the body or relative URL.
+   */
+  public String getAccessToken() {
+    return accessToken;
+  }
+
+  /**
+   * Names of the operations this item needs to run after, from depends_on and from result
+   * references in its relative URL and body.
+   */
+  @JsonIgnore
+  public Set<String> getDependencies() {
+    final Set<String> dependencies = Sets.newLinkedHashSet();
+    if (dependsOn != null) {
+      dependencies.add(dependsOn);
+    }
+    dependencies.addAll(BatchReference.namesIn(relativeUrl));
+    dependencies.addAll(BatchReference.namesIn(body));
+    return dependencies;
+  }
+
   @Override
   public boolean equals(final Object obj) {
     if (obj == null || obj.getClass() != getClass() || !(obj instanceof BatchItem)) {
@@ -69,12 +143,15 @@ public class BatchItem {
     final BatchItem rhs = (BatchItem) obj;
     return Objects.equal(method, rhs.method)
         && Objects.equal(relativeUrl, rhs.relativeUrl)
-        && Objects.equal(body, rhs.body);
+        && Objects.equal(body, rhs.body)
+        && Objects.equal(name, rhs.name)
+        && Objects.equal(dependsOn, rhs.dependsOn)
+        && Objects.equal(omitResponseOnSuccess, rhs.omitResponseOnSuccess);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(method, relativeUrl, body);
+    return Objects.hashCode(method, relativeUrl, body, name, dependsOn, omitResponseOnSuccess);
   }
 
   @Override
@@ -83,6 +160,9 @@ public class BatchItem {
         .add("method", method)
         .add("relativeUrl", relativeUrl)
         .add("body", body)
+        .add("name", name)
+        .add("dependsOn", dependsOn)
+        .add("omitResponseOnSuccess", omitResponseOnSuccess)
         .toString();
   }
 
@@ -96,6 +176,10 @@ public class BatchItem {
     private String method;
     private String relativeUrl;
     private String body;
+    private String name;
+    private String dependsOn;
+    private Boolean omitResponseOnSuccess;
+    private String accessToken;
 
     public Builder get() {
       method = GET_METHOD;
@@ -117,8 +201,60 @@ public class BatchItem {
       return this;
     }
 
+    /**
+     * Names this operation so later operations can depend on it or reference its result.
+     */
+    public Builder name(final String name) {
+      this.name = name;
+      return this;
+    }
+
+    /**
+     * Runs this operation only after the named operation has completed.
+     */
+    public Builder dependsOn(final String dependsOn) {
+      this.dependsOn = dependsOn;
+      return this;
+    }
+
+    /**
+     * Whether to omit this operation's response when it succeeds. The Graph API omits the
+     * response of operations that others depend on unless this is set to false.
+     */
+    public Builder omitResponseOnSuccess(final boolean omitResponseOnSuccess) {
+      this.omitResponseOnSuccess = omitResponseOnSuccess;
+      return this;
+    }
+
+    /**
+     * Access token for this operation only. It is sent in the body of POST operations and in the
+     * relative URL of other operations, as the Graph batch API expects.
+     */
+    public Builder accessToken(final String accessToken) {
+      this.accessToken = accessToken;
+      return this;
+    }
+
     public BatchItem build() {
-      return new BatchItem(method, relativeUrl, body);
+      if (accessToken == null) {
+        return new BatchItem(method, relativeUrl, body, name, dependsOn, omitResponseOnSuccess, null);
+      }
+      final String tokenParam = "access_token=" + encode(accessToken);
+      if (POST_METHOD.equals(method)) {
+        final String tokenBody = body == null || body.isEmpty() ? tokenParam : body + "&" + tokenParam;
+        return new BatchItem(method, relativeUrl, tokenBody, name, dependsOn, omitResponseOnSuccess, accessToken);
+      }
+      final String url = relativeUrl == null ? "" : relativeUrl;
+      final String tokenUrl = url + (url.contains("?") ? "&" : "?") + tokenParam;
+      return new BatchItem(method, tokenUrl, body, name, dependsOn, omitResponseOnSuccess, accessToken);
+    }
+
+    private static String encode(final String value) {
+      try {
+        return URLEncoder.encode(value, "UTF-8");
+      } catch (final UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
     }
   }
 }
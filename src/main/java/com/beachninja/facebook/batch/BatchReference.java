@@ -0,0 +1,98 @@
+package com.beachninja.facebook.batch;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reference to the result of a named operation in the same batch, in the Graph API format
+ * {result=name:$.jsonpath}. Use its string form inside a dependent item's relative URL or body:
+ *
+ * <pre>
+ *   BatchItem.builder().get().relativeUrl("?ids=" + BatchReference.result("create-post", "$.id")).build();
+ * </pre>
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BatchReference {
+  private static final Pattern REFERENCE = Pattern.compile("\\{result=([^:}]+):([^}]*)}");
+
+  /**
+   * @param name name of the referenced operation
+   * @param jsonPath JSONPath into the referenced operation's response body, e.g. $.id
+   */
+  public static BatchReference result(final String name, final String jsonPath) {
+    return new BatchReference(name, jsonPath);
+  }
+
+  /**
+   * Reference to the id of the named operation's response.
+   */
+  public static BatchReference id(final String name) {
+    return result(name, "$.id");
+  }
+
+  /**
+   * Returns the names of all operations referenced in the text.
+   */
+  public static Set<String> namesIn(final String text) {
+    final Set<String> names = Sets.newLinkedHashSet();
+    if (text != null) {
+      final Matcher matcher = REFERENCE.matcher(text);
+      while (matcher.find()) {
+        names.add(matcher.group(1));
+      }
+    }
+    return names;
+  }
+
+  private final String name;
+  private final String jsonPath;
+
+  private BatchReference(final String name, final String jsonPath) {
+    checkArgument(name != null && !name.isEmpty() && name.indexOf(':') < 0 && name.indexOf('}') < 0,
+        "Invalid operation name: %s", name);
+    this.name = name;
+    this.jsonPath = checkNotNull(jsonPath);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getJsonPath() {
+    return jsonPath;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (obj == null || obj.getClass() != getClass()) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    final BatchReference rhs = (BatchReference) obj;
+    return Objects.equal(name, rhs.name)
+        && Objects.equal(jsonPath, rhs.jsonPath);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(name, jsonPath);
+  }
+
+  /**
+   * Returns the reference in Graph API format, e.g. {result=create-post:$.id}
+   */
+  @Override
+  public String toString() {
+    return "{result=" + name + ":" + jsonPath + "}";
+  }
+}
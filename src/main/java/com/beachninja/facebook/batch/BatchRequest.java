@@ -6,9 +6,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * @author bradwee2000@gmail.com
@@ -108,7 +112,15 @@ public class BatchRequest {
       return this;
     }
 
+    /**
+     * @throws IllegalArgumentException if two items share a name
+     */
     public BatchRequest build() {
+      final Set<String> names = Sets.newHashSet();
+      for (final BatchItem item : batchItems) {
+        checkArgument(item.getName() == null || names.add(item.getName()),
+            "Duplicate batch item name: %s", item.getName());
+      }
       return new BatchRequest(accessToken, batchItems);
     }
   }
@@ -0,0 +1,198 @@
+package com.beachninja.facebook.batch;
+
+import com.beachninja.facebook.util.PercentEncodingOutputStream;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Form-encoded HTTP entity for a Graph batch call, with the access_token and batch parameters.
+ *
+ * The batch items are serialized by Jackson and percent-encoded on the fly, without building the
+ * JSON or the encoded form as Strings. The blocking client has the entity write straight into the
+ * connection's output stream. The non-blocking client has it produce content whenever the
+ * connection is writable: each call renders one chunk at a time (the parameters, one batch item or
+ * the closing bracket) into a reusable buffer and stops as soon as the connection is full, so only
+ * the largest single item is ever held in memory.
+ *
+ * The entity is sent with a known Content-Length. It is computed once, by a counting pass that
+ * serializes the items into nowhere, and reused for every later send of the entity.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BatchRequestEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+  private static final byte[] ACCESS_TOKEN_PARAM = "access_token=".getBytes(Charsets.US_ASCII);
+  private static final byte[] BATCH_PARAM = "&batch=".getBytes(Charsets.US_ASCII);
+
+  private final ObjectWriter writer;
+  private final BatchRequest request;
+  private long contentLength = -1;
+
+  // Non-blocking production state, reset by close()
+  private ChunkBuffer chunk;
+  private PercentEncodingOutputStream chunkEncoder;
+  private ByteBuffer pending;
+  private int nextChunk;
+
+  public BatchRequestEntity(final ObjectMapper om, final BatchRequest request) {
+    this.writer = om.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    this.request = request;
+    setContentType(ContentType.APPLICATION_FORM_URLENCODED.toString());
+    setChunked(false);
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  /**
+   * Length of the encoded entity, sent as the Content-Length. Computed on first use with a counting
+   * pass that writes nowhere.
+   */
+  @Override
+  public long getContentLength() {
+    if (contentLength < 0) {
+      final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+      try {
+        writeTo(counter);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      contentLength = counter.getCount();
+    }
+    return contentLength;
+  }
+
+  /**
+   * Renders the entity into an exactly sized array. Neither client uses it: the blocking client
+   * calls writeTo() and the non-blocking client calls produceContent().
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    final byte[] content = new byte[(int) getContentLength()];
+    writeTo(new OutputStream() {
+      private int position;
+
+      @Override
+      public void write(final int b) {
+        content[position++] = (byte) b;
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) {
+        System.arraycopy(b, off, content, position, len);
+        position += len;
+      }
+    });
+    return new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public void writeTo(final OutputStream out) throws IOException {
+    final PercentEncodingOutputStream encoded = new PercentEncodingOutputStream(out);
+    for (int i = 0; i < chunkCount(); i++) {
+      writeChunk(i, encoded);
+    }
+  }
+
+  /**
+   * Writes as much of the entity as the connection takes without blocking. Called on the I/O
+   * reactor each time the connection is writable, until the encoder is complete.
+   */
+  @Override
+  public synchronized void produceContent(final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+    if (chunk == null) {
+      getContentLength(); // Counted before the first byte, in case the client did not ask for it
+      chunk = new ChunkBuffer();
+      chunkEncoder = new PercentEncodingOutputStream(chunk);
+    }
+    while (true) {
+      if (pending != null) {
+        encoder.write(pending);
+        if (pending.hasRemaining()) {
+          return; // Connection is full; called again once it is writable
+        }
+        pending = null;
+      }
+      if (nextChunk == chunkCount()) {
+        encoder.complete();
+        return;
+      }
+      chunk.reset();
+      writeChunk(nextChunk++, chunkEncoder);
+      pending = chunk.toByteBuffer();
+    }
+  }
+
+  /**
+   * Resets the non-blocking production, so the entity can be produced again on a retry.
+   */
+  @Override
+  public synchronized void close() {
+    chunk = null;
+    chunkEncoder = null;
+    pending = null;
+    nextChunk = 0;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  /**
+   * The parameters up to the opening bracket of the batch, one chunk per item and the closing
+   * bracket.
+   */
+  private int chunkCount() {
+    return request.getBatchItems().size() + 2;
+  }
+
+  private void writeChunk(final int index, final PercentEncodingOutputStream out) throws IOException {
+    final List<BatchItem> items = request.getBatchItems();
+    if (index == 0) {
+      out.writeUnencoded(ACCESS_TOKEN_PARAM);
+      if (request.getAccessToken() != null) {
+        out.write(request.getAccessToken().getBytes(Charsets.UTF_8));
+      }
+      out.writeUnencoded(BATCH_PARAM);
+      out.write('[');
+    } else if (index <= items.size()) {
+      if (index > 1) {
+        out.write(',');
+      }
+      writer.writeValue(out, items.get(index - 1));
+    } else {
+      out.write(']');
+    }
+    out.flush();
+  }
+
+  /**
+   * Byte array stream whose contents can be read without copying.
+   */
+  private static final class ChunkBuffer extends ByteArrayOutputStream {
+    private ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
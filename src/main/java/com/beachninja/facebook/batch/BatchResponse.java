@@ -33,7 +33,7 @@ public class BatchResponse {
   }
 
   public List<Header> getHeaders() {
-    return Lists.newArrayList(headers);
+    return headers == null ? Lists.newArrayList() : Lists.newArrayList(headers);
   }
 
   public String getBody() {
@@ -0,0 +1,83 @@
+package com.beachninja.facebook.batch;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily parses a Graph batch response array into BatchResponses. Items omitted by the API
+ * (JSON null), e.g. operations that timed out server-side, are returned as null.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BatchResponseIterator implements Iterator<BatchResponse>, Closeable {
+
+  public static BatchResponseIterator of(final ObjectMapper om, final InputStream is) throws IOException {
+    return new BatchResponseIterator(om.readerFor(BatchResponse.class), om.getFactory().createParser(is));
+  }
+
+  private final ObjectReader reader;
+  private final JsonParser parser;
+
+  private boolean started;
+  private boolean fetched;
+  private JsonToken token;
+
+  private BatchResponseIterator(final ObjectReader reader, final JsonParser parser) {
+    this.reader = reader;
+    this.parser = parser;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (!fetched) {
+      try {
+        fetch();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      fetched = true;
+    }
+    return token != null && token != JsonToken.END_ARRAY;
+  }
+
+  @Override
+  public BatchResponse next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    fetched = false;
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    try {
+      return reader.readValue(parser);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+
+  private void fetch() throws IOException {
+    if (!started) {
+      started = true;
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected batch response array");
+      }
+    }
+    token = parser.nextToken();
+  }
+}
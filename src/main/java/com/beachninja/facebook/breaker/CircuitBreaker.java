@@ -0,0 +1,297 @@
+package com.beachninja.facebook.breaker;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Circuit breaker per page and access token, so calls with a revoked token or against a restricted
+ * page fail fast locally instead of each doing a full round trip.
+ *
+ * A circuit opens after a number of consecutive failures that the caller reports as tripping,
+ * such as auth or permission errors. While open, acquire() throws CircuitOpenException. Once the
+ * open duration has passed the circuit is half-open and lets a single probe call through: success
+ * closes it, another tripping failure opens it again for twice as long, up to the maximum.
+ *
+ * Only circuits with failures are kept; a success removes the circuit. A circuit left idle for its
+ * open duration, counted from the end of any open period, is forgotten as well, so pages and
+ * tokens that are no longer used do not pile up.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class CircuitBreaker {
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the circuit key of a page and access token. The token is only kept as a fingerprint.
+   */
+  public static String keyOf(final String facebookId, final String accessToken) {
+    return facebookId + "#" + Hashing.sha256().hashString(String.valueOf(accessToken), Charsets.UTF_8)
+        .toString().substring(0, 12);
+  }
+
+  private final int failureThreshold;
+  private final Duration openDuration;
+  private final Duration maxOpenDuration;
+  private final Clock clock;
+  private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+  private volatile Instant nextSweep = Instant.MIN;
+
+  private CircuitBreaker(final Builder builder) {
+    this.failureThreshold = builder.failureThreshold;
+    this.openDuration = builder.openDuration;
+    this.maxOpenDuration = builder.maxOpenDuration;
+    this.clock = builder.clock;
+  }
+
+  /**
+   * Lets a call through, or throws if the circuit is open or a half-open probe is already in
+   * flight. Every call let through must be followed by onSuccess(), onFailure() or release().
+   * @throws CircuitOpenException if the call must not be made
+   */
+  public void acquire(final String key) {
+    final Instant now = clock.instant();
+    sweep(now);
+    final Circuit circuit = circuits.get(key);
+    if (circuit != null) {
+      if (circuit.isExpired(now)) {
+        circuits.remove(key, circuit);
+      } else {
+        circuit.acquire(key, now);
+      }
+    }
+  }
+
+  /**
+   * Records a successful call, closing the circuit.
+   */
+  public void onSuccess(final String key) {
+    final Circuit circuit = circuits.remove(key);
+    if (circuit != null && circuit.state != State.CLOSED) {
+      LOG.info("Circuit {} closed", key);
+    }
+  }
+
+  /**
+   * Records a failure that counts towards opening the circuit.
+   * @param error error of the failed call
+   */
+  public void onFailure(final String key, final FacebookError error) {
+    final Instant now = clock.instant();
+    sweep(now);
+    circuits.compute(key, (k, existing) -> {
+      final Circuit circuit = existing == null || existing.isExpired(now) ? new Circuit() : existing;
+      circuit.onFailure(key, error, now);
+      return circuit;
+    });
+  }
+
+  /**
+   * Records a call that ended without telling whether the page and token work, such as a network
+   * error, so a half-open circuit can send another probe.
+   */
+  public void release(final String key) {
+    final Circuit circuit = circuits.get(key);
+    if (circuit != null) {
+      circuit.release(clock.instant());
+    }
+  }
+
+  /**
+   * Closes the circuit, e.g. after the access token was replaced.
+   */
+  public void reset(final String key) {
+    circuits.remove(key);
+  }
+
+  public State getState(final String key) {
+    final Instant now = clock.instant();
+    final Circuit circuit = circuits.get(key);
+    return circuit == null || circuit.isExpired(now) ? State.CLOSED : circuit.stateAt(now);
+  }
+
+  public State getState(final String facebookId, final String accessToken) {
+    return getState(keyOf(facebookId, accessToken));
+  }
+
+  /**
+   * Returns the state of every circuit with recent failures, by key.
+   */
+  public Map<String, State> getStates() {
+    final Instant now = clock.instant();
+    forgetExpired(now);
+    final ImmutableMap.Builder<String, State> states = ImmutableMap.builder();
+    circuits.forEach((key, circuit) -> states.put(key, circuit.stateAt(now)));
+    return states.build();
+  }
+
+  /**
+   * Forgets idle circuits, at most once per open duration.
+   */
+  private void sweep(final Instant now) {
+    if (now.isBefore(nextSweep)) {
+      return;
+    }
+    nextSweep = now.plus(openDuration);
+    forgetExpired(now);
+  }
+
+  private void forgetExpired(final Instant now) {
+    for (final String key : circuits.keySet()) {
+      circuits.computeIfPresent(key, (k, circuit) -> circuit.isExpired(now) ? null : circuit);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("failureThreshold", failureThreshold)
+        .add("openDuration", openDuration)
+        .add("maxOpenDuration", maxOpenDuration)
+        .add("circuits", circuits)
+        .toString();
+  }
+
+  /**
+   * State of one page and token.
+   */
+  private final class Circuit {
+    private State state = State.CLOSED;
+    private int failures;
+    private Instant retryAt;
+    private Duration currentOpenDuration = openDuration;
+    private boolean probing;
+    private FacebookError lastError;
+    private Instant lastUsed = Instant.MIN;
+
+    private synchronized void acquire(final String key, final Instant now) {
+      lastUsed = now;
+      if (stateAt(now) == State.CLOSED) {
+        return;
+      }
+      if (stateAt(now) == State.OPEN || probing) {
+        throw new CircuitOpenException(key, lastError, retryAt);
+      }
+      state = State.HALF_OPEN;
+      probing = true;
+      LOG.debug("Circuit {} half-open, sending probe", key);
+    }
+
+    private synchronized void onFailure(final String key, final FacebookError error, final Instant now) {
+      lastUsed = now;
+      lastError = error;
+      failures++;
+      if (state == State.HALF_OPEN || stateAt(now) == State.HALF_OPEN) {
+        currentOpenDuration = min(currentOpenDuration.multipliedBy(2), maxOpenDuration);
+        open(key, now);
+      } else if (state == State.CLOSED && failures >= failureThreshold) {
+        open(key, now);
+      }
+    }
+
+    private void open(final String key, final Instant now) {
+      state = State.OPEN;
+      probing = false;
+      retryAt = now.plus(currentOpenDuration);
+      LOG.warn("Circuit {} open until {} after {} failures: {}", key, retryAt, failures, lastError);
+    }
+
+    private synchronized void release(final Instant now) {
+      lastUsed = now;
+      probing = false;
+    }
+
+    /**
+     * True once the circuit has been idle for its open duration since it was last used or, if it
+     * opened, since the open period ended. A circuit with a probe in flight never expires.
+     */
+    private synchronized boolean isExpired(final Instant now) {
+      final Instant idleSince = retryAt != null && retryAt.isAfter(lastUsed) ? retryAt : lastUsed;
+      return !probing && !now.isBefore(idleSince.plus(currentOpenDuration));
+    }
+
+    private synchronized State stateAt(final Instant now) {
+      return state == State.OPEN && !now.isBefore(retryAt) ? State.HALF_OPEN : state;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("state", state)
+          .add("failures", failures)
+          .add("retryAt", retryAt)
+          .add("lastError", lastError)
+          .toString();
+    }
+  }
+
+  private static Duration min(final Duration a, final Duration b) {
+    return a.compareTo(b) <= 0 ? a : b;
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private int failureThreshold = 3;
+    private Duration openDuration = Duration.ofMinutes(1);
+    private Duration maxOpenDuration = Duration.ofHours(1);
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * Consecutive tripping failures that open a closed circuit.
+     */
+    public Builder failureThreshold(final int failureThreshold) {
+      checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    /**
+     * Time a circuit stays open before the first probe.
+     */
+    public Builder openDuration(final Duration openDuration) {
+      this.openDuration = checkNotNull(openDuration);
+      return this;
+    }
+
+    /**
+     * Longest time a circuit stays open after repeated failed probes.
+     */
+    public Builder maxOpenDuration(final Duration maxOpenDuration) {
+      this.maxOpenDuration = checkNotNull(maxOpenDuration);
+      return this;
+    }
+
+    public Builder clock(final Clock clock) {
+      this.clock = checkNotNull(clock);
+      return this;
+    }
+
+    public CircuitBreaker build() {
+      return new CircuitBreaker(this);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.beachninja.facebook.bulkhead;
+
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.util.CompletableFutures;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Queues;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * One bulkhead compartment: at most maxConcurrent calls run at once and at most maxQueued more
+ * wait for a slot, in arrival order. Calls beyond that are rejected at once with
+ * BulkheadFullException.
+ *
+ * Waiting does not block a thread; a queued call is started by the call that frees its slot.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class Bulkhead {
+
+  private final String name;
+  private final int maxConcurrent;
+  private final int maxQueued;
+  private final Queue<CompletableFuture<Void>> waiters = Queues.newArrayDeque(); // Guarded by this
+  private int active; // Guarded by this
+  private final AtomicLong rejected = new AtomicLong();
+
+  public Bulkhead(final String name, final int maxConcurrent, final int maxQueued) {
+    checkArgument(maxConcurrent > 0, "maxConcurrent must be positive");
+    checkArgument(maxQueued >= 0, "maxQueued must not be negative");
+    this.name = name;
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+  }
+
+  /**
+   * Takes a slot, waiting in the queue if none is free. Every slot granted must be given back with
+   * release(). Cancelling the returned future gives up the place in the queue.
+   * @return future completed once the slot is granted, or failed with BulkheadFullException
+   */
+  public CompletableFuture<Void> acquire() {
+    final CompletableFuture<Void> waiter;
+    synchronized (this) {
+      if (active < maxConcurrent) {
+        active++;
+        return CompletableFuture.completedFuture(null);
+      }
+      if (waiters.size() >= maxQueued) {
+        waiter = null;
+      } else {
+        waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+      }
+    }
+    if (waiter == null) {
+      rejected.incrementAndGet();
+      return CompletableFutures.failed(new BulkheadFullException(name));
+    }
+    waiter.whenComplete((v, e) -> {
+      if (waiter.isCancelled()) {
+        synchronized (this) {
+          waiters.remove(waiter);
+        }
+      }
+    });
+    return waiter;
+  }
+
+  /**
+   * Gives a slot back, handing it to the longest waiting call if there is one.
+   */
+  public void release() {
+    CompletableFuture<Void> next;
+    do {
+      synchronized (this) {
+        next = waiters.poll();
+        if (next == null) {
+          active--;
+          return;
+        }
+      }
+    } while (!next.complete(null)); // Skip waiters cancelled meanwhile
+  }
+
+  /**
+   * Starts the call once a slot is free, and frees the slot when the call completes.
+   * @param call starts the call
+   * @return result of the call, or failed with BulkheadFullException if the compartment is full.
+   * Cancelling it cancels the call, or takes it out of the queue.
+   */
+  public <T> CompletableFuture<T> call(final Supplier<CompletableFuture<T>> call) {
+    final CompletableFuture<Void> permit = acquire();
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    permit.whenComplete((granted, e) -> {
+      if (e != null) {
+        result.completeExceptionally(e);
+        return;
+      }
+      if (result.isDone()) {
+        release(); // Cancelled while queued
+        return;
+      }
+      final CompletableFuture<T> attempt;
+      try {
+        attempt = call.get();
+      } catch (final RuntimeException ex) {
+        release();
+        result.completeExceptionally(ex);
+        return;
+      }
+      attempt.whenComplete((value, ex) -> {
+        release();
+        if (ex == null) {
+          result.complete(value);
+        } else {
+          result.completeExceptionally(ex);
+        }
+      });
+      result.whenComplete((value, ex) -> {
+        if (result.isCancelled()) {
+          attempt.cancel(true);
+        }
+      });
+    });
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) {
+        permit.cancel(false);
+      }
+    });
+    return result;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Stats getStats() {
+    synchronized (this) {
+      return new Stats(active, waiters.size(), rejected.get());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("name", name)
+        .add("maxConcurrent", maxConcurrent)
+        .add("maxQueued", maxQueued)
+        .add("stats", getStats())
+        .toString();
+  }
+
+  /**
+   * Occupancy of a compartment.
+   */
+  public static final class Stats {
+    private final int active;
+    private final int queued;
+    private final long rejected;
+
+    private Stats(final int active, final int queued, final long rejected) {
+      this.active = active;
+      this.queued = queued;
+      this.rejected = rejected;
+    }
+
+    /**
+     * Calls running.
+     */
+    public int getActive() {
+      return active;
+    }
+
+    /**
+     * Calls waiting for a slot.
+     */
+    public int getQueued() {
+      return queued;
+    }
+
+    /**
+     * Calls rejected since the compartment was created.
+     */
+    public long getRejected() {
+      return rejected;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("active", active)
+          .add("queued", queued)
+          .add("rejected", rejected)
+          .toString();
+    }
+  }
+}
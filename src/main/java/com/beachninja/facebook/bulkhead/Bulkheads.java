@@ -0,0 +1,165 @@
+package com.beachninja.facebook.bulkhead;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Separate bulkhead compartments per operation type, and optionally per page, so a surge of one
+ * kind of call cannot take every connection from the others. A burst of scrapes for one site
+ * then queues behind its own limit while posts for other pages go through.
+ *
+ * A call first takes a slot in its page compartment, if page limits are set and the call is for
+ * a single page, then a slot in its operation compartment. Each compartment rejects calls at once
+ * when both its slots and its queue are full.
+ *
+ * A page compartment is kept only while calls hold or wait for its slots, so calls to ever more
+ * pages do not pile up compartments.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class Bulkheads {
+
+  public enum Operation {
+    POST, SCRAPE, BATCH
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final Map<Operation, Bulkhead> operations;
+  private final int pageMaxConcurrent;
+  private final int pageMaxQueued;
+  private final Map<String, Page> pages = new ConcurrentHashMap<>();
+
+  private Bulkheads(final Builder builder) {
+    final Map<Operation, Bulkhead> operations = new EnumMap<>(Operation.class);
+    for (final Operation operation : Operation.values()) {
+      final int[] limit = builder.limits.get(operation);
+      operations.put(operation, new Bulkhead(operation.name(), limit[0], limit[1]));
+    }
+    this.operations = Maps.immutableEnumMap(operations);
+    this.pageMaxConcurrent = builder.pageMaxConcurrent;
+    this.pageMaxQueued = builder.pageMaxQueued;
+  }
+
+  /**
+   * Runs the call within the compartments of its operation and page.
+   * @param operation operation type
+   * @param facebookId page or user the call is for, or null if it is for several
+   * @param call starts the call
+   * @return result of the call, or failed with BulkheadFullException if a compartment is full
+   */
+  public <T> CompletableFuture<T> call(final Operation operation,
+                                       final String facebookId,
+                                       final Supplier<CompletableFuture<T>> call) {
+    final Bulkhead bulkhead = operations.get(operation);
+    if (pageMaxConcurrent == 0 || facebookId == null) {
+      return bulkhead.call(call);
+    }
+    final String name = operation + ":" + facebookId;
+    final Page page = pages.compute(name, (key, existing) -> {
+      final Page used = existing != null ? existing : new Page(new Bulkhead(key, pageMaxConcurrent, pageMaxQueued));
+      used.calls++;
+      return used;
+    });
+    final CompletableFuture<T> result = page.bulkhead.call(() -> bulkhead.call(call));
+    result.whenComplete((value, e) -> pages.computeIfPresent(name, (key, used) -> --used.calls == 0 ? null : used));
+    return result;
+  }
+
+  /**
+   * Returns the compartment of an operation type, e.g. for blocking calls that take and release
+   * slots themselves.
+   */
+  public Bulkhead get(final Operation operation) {
+    return operations.get(operation);
+  }
+
+  /**
+   * Returns the occupancy of every compartment, keyed by compartment name.
+   */
+  public Map<String, Bulkhead.Stats> getStats() {
+    final ImmutableMap.Builder<String, Bulkhead.Stats> stats = ImmutableMap.builder();
+    for (final Bulkhead bulkhead : operations.values()) {
+      stats.put(bulkhead.getName(), bulkhead.getStats());
+    }
+    for (final Page page : pages.values()) {
+      stats.put(page.bulkhead.getName(), page.bulkhead.getStats());
+    }
+    return stats.build();
+  }
+
+  /**
+   * A page compartment and the number of calls running or queued in it.
+   */
+  private static final class Page {
+    private final Bulkhead bulkhead;
+    private int calls; // Guarded by the pages map entry
+
+    private Page(final Bulkhead bulkhead) {
+      this.bulkhead = bulkhead;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("operations", operations.values())
+        .add("pageMaxConcurrent", pageMaxConcurrent)
+        .add("pageMaxQueued", pageMaxQueued)
+        .toString();
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private final Map<Operation, int[]> limits = new EnumMap<>(ImmutableMap.of(
+        Operation.POST, new int[] {16, 256},
+        Operation.SCRAPE, new int[] {32, 1024},
+        Operation.BATCH, new int[] {32, 1024}));
+    private int pageMaxConcurrent;
+    private int pageMaxQueued;
+
+    /**
+     * Limits of an operation type's compartment.
+     * @param maxConcurrent calls that may run at once
+     * @param maxQueued calls that may wait for a slot; more are rejected
+     */
+    public Builder limit(final Operation operation, final int maxConcurrent, final int maxQueued) {
+      checkNotNull(operation);
+      checkArgument(maxConcurrent > 0, "maxConcurrent must be positive");
+      checkArgument(maxQueued >= 0, "maxQueued must not be negative");
+      limits.put(operation, new int[] {maxConcurrent, maxQueued});
+      return this;
+    }
+
+    /**
+     * Also limits calls for each page, per operation type. Off by default.
+     * @param maxConcurrent calls for one page that may run at once
+     * @param maxQueued calls for one page that may wait for a slot; more are rejected
+     */
+    public Builder pageLimit(final int maxConcurrent, final int maxQueued) {
+      checkArgument(maxConcurrent > 0, "maxConcurrent must be positive");
+      checkArgument(maxQueued >= 0, "maxQueued must not be negative");
+      this.pageMaxConcurrent = maxConcurrent;
+      this.pageMaxQueued = maxQueued;
+      return this;
+    }
+
+    public Bulkheads build() {
+      return new Bulkheads(this);
+    }
+  }
+}
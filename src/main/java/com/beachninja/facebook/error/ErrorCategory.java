@@ -0,0 +1,34 @@
+package com.beachninja.facebook.error;
+
+/**
+ * What a failed Graph API call or batch item means for the caller.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public enum ErrorCategory {
+
+  /**
+   * Transient failure, such as a 5xx or a network error. Worth retrying after a short backoff.
+   */
+  RETRYABLE,
+
+  /**
+   * Rate limited by the app, page or business use case. Worth retrying after a longer backoff.
+   */
+  THROTTLED,
+
+  /**
+   * Invalid, expired or under-privileged access token. Retrying will not help until the token
+   * changes.
+   */
+  AUTH,
+
+  /**
+   * Bad request or any other failure that will fail the same way again.
+   */
+  PERMANENT;
+
+  public boolean isRetryable() {
+    return this == RETRYABLE || this == THROTTLED;
+  }
+}
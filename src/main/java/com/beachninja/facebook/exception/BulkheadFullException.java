@@ -0,0 +1,26 @@
+package com.beachninja.facebook.exception;
+
+import com.beachninja.facebook.error.FacebookError;
+
+/**
+ * Thrown without calling Facebook when a bulkhead compartment has no free slot and its queue is
+ * full.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BulkheadFullException extends FacebookException {
+
+  private final String compartment;
+
+  public BulkheadFullException(final String compartment) {
+    super(FacebookError.builder().message("Bulkhead " + compartment + " is full").build());
+    this.compartment = compartment;
+  }
+
+  /**
+   * Name of the full compartment, e.g. "SCRAPE" or "POST:1234".
+   */
+  public String getCompartment() {
+    return compartment;
+  }
+}
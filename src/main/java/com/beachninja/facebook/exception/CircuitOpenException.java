@@ -0,0 +1,43 @@
+package com.beachninja.facebook.exception;
+
+import com.beachninja.facebook.error.FacebookError;
+
+import java.time.Instant;
+
+/**
+ * Thrown without calling Facebook while the circuit for a page and access token is open.
+ *
+ * The Facebook error is the one that opened the circuit.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class CircuitOpenException extends FacebookException {
+
+  private final String key;
+  private final Instant retryAt;
+
+  public CircuitOpenException(final String key, final FacebookError lastError, final Instant retryAt) {
+    super(lastError);
+    this.key = key;
+    this.retryAt = retryAt;
+  }
+
+  /**
+   * Circuit key: the page id and a fingerprint of the access token.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Earliest time a probe call will be let through.
+   */
+  public Instant getRetryAt() {
+    return retryAt;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Circuit open for " + key + " until " + retryAt + ": " + super.getMessage();
+  }
+}
@@ -9,6 +9,7 @@ import com.beachninja.facebook.error.FacebookErrorResponse;
 public class FacebookException extends RuntimeException {
 
   private final FacebookError facebookError;
+  private final int statusCode;
 
   public FacebookException(final FacebookErrorResponse errorResponse) {
     this(errorResponse.getFacebookError());
@@ -16,11 +17,27 @@ public class FacebookException extends RuntimeException {
   }
 
   public FacebookException(final FacebookError facebookError) {
-    super(facebookError.toString());
+    this(facebookError, 0);
+  }
+
+  public FacebookException(final FacebookErrorResponse errorResponse, final int statusCode) {
+    this(errorResponse.getFacebookError(), statusCode);
+  }
+
+  public FacebookException(final FacebookError facebookError, final int statusCode) {
+    super(String.valueOf(facebookError));
     this.facebookError = facebookError;
+    this.statusCode = statusCode;
   }
 
   public FacebookError getFacebookError() {
     return facebookError;
   }
+
+  /**
+   * HTTP status of the failed response, or 0 if unknown.
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
 }
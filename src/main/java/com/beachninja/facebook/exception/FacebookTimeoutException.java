@@ -0,0 +1,45 @@
+package com.beachninja.facebook.exception;
+
+import com.beachninja.facebook.error.FacebookError;
+
+/**
+ * Thrown when a call to Facebook times out, either because its deadline passed or because a
+ * connect or socket timeout fired first.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookTimeoutException extends FacebookException {
+
+  private final boolean deadlineExceeded;
+  private final boolean sent;
+
+  public FacebookTimeoutException(final String message, final boolean deadlineExceeded, final Throwable cause) {
+    this(message, deadlineExceeded, true, cause);
+  }
+
+  public FacebookTimeoutException(final String message, final boolean deadlineExceeded, final boolean sent,
+                                  final Throwable cause) {
+    super(FacebookError.builder().message(message).build());
+    this.deadlineExceeded = deadlineExceeded;
+    this.sent = sent;
+    if (cause != null) {
+      initCause(cause);
+    }
+  }
+
+  /**
+   * True if the whole call ran out of time, false if only one attempt timed out and another may
+   * still fit within the deadline.
+   */
+  public boolean isDeadlineExceeded() {
+    return deadlineExceeded;
+  }
+
+  /**
+   * False if the request is known never to have left, e.g. because the deadline passed while the
+   * call waited for a rate limit or a bulkhead, or because the connection could not be opened.
+   */
+  public boolean isSent() {
+    return sent;
+  }
+}
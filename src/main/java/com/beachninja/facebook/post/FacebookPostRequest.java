@@ -31,6 +31,7 @@ public class FacebookPostRequest {
   private Optional<String> description; // A description of the link (appears beneath the link as caption).
   private boolean isPublished; // If post is immediately published. Default: True
   private long scheduledPublishTimeEpoch; // Time in Unix timestamp when post will be published.
+  private String idempotencyKey; // Optional caller key that identifies repeats of the same post.
 
   /**
    * For Jackson deserializing.
@@ -49,7 +50,8 @@ public class FacebookPostRequest {
                               final String link,
                               final String imageUrl,
                               final String description,
-                              final LocalDateTime scheduledPublishDateTime) {
+                              final LocalDateTime scheduledPublishDateTime,
+                              final String idempotencyKey) {
     this.accessToken = accessToken;
     this.facebookId = facebookId;
     this.name = Optional.ofNullable(name);
@@ -57,6 +59,7 @@ public class FacebookPostRequest {
     this.link = Optional.ofNullable(link);
     this.imageUrl = Optional.ofNullable(imageUrl);
     this.description = Optional.ofNullable(description);
+    this.idempotencyKey = idempotencyKey;
 
     if (scheduledPublishDateTime == null) {
       this.isPublished = true;
@@ -95,6 +98,31 @@ public class FacebookPostRequest {
     return description;
   }
 
+  /**
+   * Caller key identifying repeats of this post, or null to identify them by content.
+   */
+  public String getIdempotencyKey() {
+    return idempotencyKey;
+  }
+
+  /**
+   * Returns a copy of this request with the given access token.
+   */
+  public FacebookPostRequest withAccessToken(final String accessToken) {
+    final FacebookPostRequest copy = new FacebookPostRequest();
+    copy.accessToken = accessToken;
+    copy.facebookId = facebookId;
+    copy.name = name;
+    copy.message = message;
+    copy.link = link;
+    copy.imageUrl = imageUrl;
+    copy.description = description;
+    copy.isPublished = isPublished;
+    copy.scheduledPublishTimeEpoch = scheduledPublishTimeEpoch;
+    copy.idempotencyKey = idempotencyKey;
+    return copy;
+  }
+
   public FacebookPostRequest setAccessToken(String accessToken) {
     this.accessToken = accessToken;
     return this;
@@ -140,6 +168,11 @@ public class FacebookPostRequest {
     return this;
   }
 
+  public FacebookPostRequest setIdempotencyKey(String idempotencyKey) {
+    this.idempotencyKey = idempotencyKey;
+    return this;
+  }
+
   @JsonIgnore
   public boolean isPublished() {
     return isPublished;
@@ -169,6 +202,7 @@ public class FacebookPostRequest {
     return BatchItem.builder().post()
         .relativeUrl(facebookId + "/feed")
         .body(toUrlParams())
+        .accessToken(accessToken)
         .build();
   }
 
@@ -185,12 +219,14 @@ public class FacebookPostRequest {
             Objects.equals(message, that.message) &&
             Objects.equals(link, that.link) &&
             Objects.equals(imageUrl, that.imageUrl) &&
-            Objects.equals(description, that.description);
+            Objects.equals(description, that.description) &&
+            Objects.equals(idempotencyKey, that.idempotencyKey);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(accessToken, facebookId, name, message, link, imageUrl, description, isPublished, scheduledPublishTimeEpoch);
+    return Objects.hash(accessToken, facebookId, name, message, link, imageUrl, description, isPublished,
+        scheduledPublishTimeEpoch, idempotencyKey);
   }
 
   @Override
@@ -205,6 +241,7 @@ public class FacebookPostRequest {
             ", description=" + description +
             ", isPublished=" + isPublished +
             ", scheduledPublishTimeEpoch=" + scheduledPublishTimeEpoch +
+            ", idempotencyKey=" + idempotencyKey +
             '}';
   }
 
@@ -220,6 +257,7 @@ public class FacebookPostRequest {
     private String imageUrl;
     private String description;
     private LocalDateTime publishDateTime;
+    private String idempotencyKey;
 
     public Builder accessToken(final String accessToken) {
       this.accessToken = accessToken;
@@ -261,9 +299,18 @@ public class FacebookPostRequest {
       return this;
     }
 
+    /**
+     * Key identifying repeats of this post, e.g. an order or message id. Posts with the same key
+     * and facebookId are published once, whatever their content.
+     */
+    public Builder idempotencyKey(final String idempotencyKey) {
+      this.idempotencyKey = idempotencyKey;
+      return this;
+    }
+
     public FacebookPostRequest build() {
       return new FacebookPostRequest(accessToken, facebookId, title, message,
-          link, imageUrl, description, publishDateTime);
+          link, imageUrl, description, publishDateTime, idempotencyKey);
     }
   }
 }
@@ -0,0 +1,78 @@
+package com.beachninja.facebook.post;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * Result of a single post in a batch: either the FacebookPostResponse or the FacebookError.
+ *
+ * @author bradwee2000@gmail.com
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PostResult {
+
+  public static PostResult of(final FacebookPostResponse response) {
+    return new PostResult(response, null);
+  }
+
+  public static PostResult of(final FacebookError error) {
+    return new PostResult(null, error);
+  }
+
+  @JsonProperty("response")
+  private final FacebookPostResponse response;
+
+  @JsonProperty("error")
+  private final FacebookError error;
+
+  public PostResult(@JsonProperty("response") final FacebookPostResponse response,
+                    @JsonProperty("error") final FacebookError error) {
+    this.response = response;
+    this.error = error;
+  }
+
+  public FacebookPostResponse getResponse() {
+    return response;
+  }
+
+  public FacebookError getError() {
+    return error;
+  }
+
+  @JsonIgnore
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (obj == null || obj.getClass() != getClass() || !(obj instanceof PostResult)) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    final PostResult rhs = (PostResult) obj;
+    return Objects.equal(response, rhs.response)
+        && Objects.equal(error, rhs.error);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(response, error);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("response", response)
+        .add("error", error)
+        .toString();
+  }
+}
@@ -0,0 +1,40 @@
+package com.beachninja.facebook.post;
+
+import com.beachninja.facebook.batch.BatchBodyDecoder;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.error.FacebookErrorResponse;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Decodes a post batch item body into a FacebookPostResponse on success, or a FacebookError
+ * otherwise.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class PostResultDecoder implements BatchBodyDecoder<PostResult> {
+
+  private final ObjectMapper om;
+
+  public PostResultDecoder(final ObjectMapper om) {
+    this.om = om;
+  }
+
+  @Override
+  public PostResult decode(final int code, final JsonParser body) throws IOException {
+    if (body == null) {
+      return PostResult.of(FacebookError.builder().code(code).message("Empty batch response body").build());
+    }
+    if (code == 200) {
+      return PostResult.of(om.readValue(body, FacebookPostResponse.class));
+    }
+    final FacebookError error = om.readValue(body, FacebookErrorResponse.class).getFacebookError();
+    if (error == null) {
+      // Not a Graph error, e.g. an empty object from a proxy
+      return PostResult.of(FacebookError.builder().code(code).message("Batch item failed without an error").build());
+    }
+    return PostResult.of(error);
+  }
+}
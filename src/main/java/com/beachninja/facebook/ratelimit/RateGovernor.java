@@ -0,0 +1,416 @@
+package com.beachninja.facebook.ratelimit;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.util.CompletableFutures;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Paces Graph API calls from the usage Facebook reports in the X-App-Usage, X-Page-Usage and
+ * X-Business-Use-Case-Usage headers, so submission slows down before a rate limit is hit instead
+ * of stalling for up to an hour after error 4, 17, 32 or 613.
+ *
+ * Usage is kept per app and per page as the highest of call_count, total_time and total_cputime,
+ * in percent. Below the threshold calls go out at once. Above it calls to the app and to each page
+ * are paced: each call is given the next free slot, maxDelay * f^2 after the slot before it, where
+ * f is how far usage is between the threshold and 100%. Concurrent callers are therefore spread out
+ * instead of all waiting the same time and firing together, and the interval grows smoothly as the
+ * limit approaches, up to maxDelay at 100%. When Facebook gives an estimated_time_to_regain_access,
+ * calls wait until then.
+ *
+ * Facebook measures usage over a rolling hour, so a reading counts for less the older it gets and
+ * is forgotten after the window, once no call is waiting for its slot.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class RateGovernor {
+  private static final Logger LOG = LoggerFactory.getLogger(RateGovernor.class);
+
+  public static final String APP_USAGE = "X-App-Usage";
+  public static final String PAGE_USAGE = "X-Page-Usage";
+  public static final String BUSINESS_USE_CASE_USAGE = "X-Business-Use-Case-Usage";
+
+  /**
+   * Usage key of X-App-Usage.
+   */
+  public static final String APP = "app";
+
+  private static final String[] USAGE_FIELDS = {"call_count", "total_time", "total_cputime"};
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the page or object id a batch item addresses, or null if it addresses none, such as a
+   * scrape item posted to the root.
+   */
+  public static String pageIdOf(final String relativeUrl) {
+    if (Strings.isNullOrEmpty(relativeUrl)) {
+      return null;
+    }
+    int start = relativeUrl.startsWith("/") ? 1 : 0;
+    if (relativeUrl.startsWith("v", start)) {
+      final int slash = relativeUrl.indexOf('/', start);
+      if (slash > 0 && relativeUrl.substring(start + 1, slash).matches("\\d+\\.\\d+")) {
+        start = slash + 1;
+      }
+    }
+    int end = start;
+    while (end < relativeUrl.length() && "/?".indexOf(relativeUrl.charAt(end)) < 0) {
+      end++;
+    }
+    final String id = relativeUrl.substring(start, end);
+    return id.isEmpty() || id.startsWith("{") ? null : id;
+  }
+
+  /**
+   * Returns the page ids the items of a batch request address.
+   */
+  public static Set<String> pageIdsOf(final BatchRequest request) {
+    final Set<String> pageIds = Sets.newHashSet();
+    for (final BatchItem item : request.getBatchItems()) {
+      final String pageId = pageIdOf(item.getRelativeUrl());
+      if (pageId != null) {
+        pageIds.add(pageId);
+      }
+    }
+    return pageIds;
+  }
+
+  private final ObjectMapper om;
+  private final int threshold;
+  private final Duration maxDelay;
+  private final Duration window;
+  private final Clock clock;
+  private final Map<String, Usage> usages = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  private Instant nextSweep = Instant.MIN; // Guarded by lock
+
+  private RateGovernor(final Builder builder) {
+    this.om = checkNotNull(builder.om, "objectMapper is required");
+    this.threshold = builder.threshold;
+    this.maxDelay = builder.maxDelay;
+    this.window = builder.window;
+    this.clock = builder.clock;
+  }
+
+  /**
+   * Records the usage headers of an HTTP response.
+   * @param pageId page the call addressed, used for X-Page-Usage; may be null
+   */
+  public void record(final HttpResponse response, final String pageId) {
+    for (final Header header : response.getAllHeaders()) {
+      record(header.getName(), header.getValue(), pageId);
+    }
+  }
+
+  /**
+   * Records a header if it is a usage header. Other headers are ignored.
+   * @param pageId page the call addressed, used for X-Page-Usage; may be null
+   */
+  public void record(final String name, final String value, final String pageId) {
+    if (name == null || value == null) {
+      return;
+    }
+    try {
+      if (APP_USAGE.equalsIgnoreCase(name)) {
+        update(APP, percentOf(om.readTree(value)), 0);
+      } else if (PAGE_USAGE.equalsIgnoreCase(name)) {
+        if (pageId != null) {
+          update(pageId, percentOf(om.readTree(value)), 0);
+        }
+      } else if (BUSINESS_USE_CASE_USAGE.equalsIgnoreCase(name)) {
+        final Iterator<Map.Entry<String, JsonNode>> ids = om.readTree(value).fields();
+        while (ids.hasNext()) {
+          final Map.Entry<String, JsonNode> id = ids.next();
+          // Several use cases may report for one id; the busiest one paces it
+          int percent = 0;
+          long regainMinutes = 0;
+          for (final JsonNode useCase : id.getValue()) {
+            percent = Math.max(percent, percentOf(useCase));
+            regainMinutes = Math.max(regainMinutes, useCase.path("estimated_time_to_regain_access").asLong());
+          }
+          update(id.getKey(), percent, regainMinutes);
+        }
+      }
+    } catch (final IOException | RuntimeException e) {
+      LOG.debug("Ignoring unreadable {} header: {}", name, value, e);
+    }
+  }
+
+  /**
+   * Returns how long the next call to the given pages would wait, taking app usage into account
+   * too, without taking its slot.
+   */
+  public Duration delayFor(final Collection<String> pageIds) {
+    synchronized (lock) {
+      final Instant now = clock.instant();
+      return Duration.between(now, slotFor(pageIds, now, false));
+    }
+  }
+
+  /**
+   * Takes the next slot for a call to the given pages, taking app usage into account too.
+   * @return how long the call must wait for its slot
+   */
+  Duration reserve(final Collection<String> pageIds) {
+    synchronized (lock) {
+      final Instant now = clock.instant();
+      return Duration.between(now, slotFor(pageIds, now, true));
+    }
+  }
+
+  /**
+   * Returns a future that completes once a call to the given pages may go out, taking its slot.
+   * Completes at once while usage is below the threshold.
+   */
+  public CompletableFuture<Void> acquire(final Collection<String> pageIds) {
+    final Duration delay = reserve(pageIds);
+    if (delay.isZero()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    LOG.debug("Delaying call to {} by {} for rate limits", pageIds, delay);
+    return CompletableFutures.delay(delay);
+  }
+
+  /**
+   * Returns current usage in percent by app ("app") and page id, after decay.
+   */
+  public Map<String, Integer> getUsage() {
+    final ImmutableMap.Builder<String, Integer> snapshot = ImmutableMap.builder();
+    synchronized (lock) {
+      final Instant now = clock.instant();
+      sweep(now);
+      for (final Map.Entry<String, Usage> usage : usages.entrySet()) {
+        snapshot.put(usage.getKey(), (int) Math.round(usage.getValue().percentAt(now)));
+      }
+    }
+    return snapshot.build();
+  }
+
+  private static int percentOf(final JsonNode usage) {
+    int percent = 0;
+    for (final String field : USAGE_FIELDS) {
+      percent = Math.max(percent, usage.path(field).asInt());
+    }
+    return percent;
+  }
+
+  private void update(final String key, final int percent, final long regainMinutes) {
+    synchronized (lock) {
+      final Instant now = clock.instant();
+      final Instant regainAt = regainMinutes > 0 ? now.plus(Duration.ofMinutes(regainMinutes)) : null;
+      final Usage previous = usages.get(key);
+      usages.put(key, new Usage(percent, now, regainAt, previous == null ? null : previous.lastSlot));
+      if (!now.isBefore(nextSweep)) {
+        sweep(now);
+        nextSweep = now.plus(window.dividedBy(10));
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of the next call to the given pages and the app: the latest of the slots each
+   * of them would give it.
+   * @param take whether to take the slot, so the next call is paced after it
+   */
+  private Instant slotFor(final Collection<String> pageIds, final Instant now, final boolean take) {
+    Instant slot = slotFor(APP, now);
+    for (final String pageId : pageIds) {
+      final Instant pageSlot = slotFor(pageId, now);
+      if (pageSlot.isAfter(slot)) {
+        slot = pageSlot;
+      }
+    }
+    if (take && slot.isAfter(now)) {
+      take(APP, now, slot);
+      for (final String pageId : pageIds) {
+        take(pageId, now, slot);
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the next free slot of a key: at once below the threshold, else one interval after the
+   * later of now and the last slot taken, and never before access is regained.
+   */
+  private Instant slotFor(final String key, final Instant now) {
+    final Usage usage = usages.get(key);
+    if (usage == null) {
+      return now;
+    }
+    if (usage.isExpired(now)) {
+      usages.remove(key);
+      return now;
+    }
+    Instant slot = now;
+    final Duration interval = usage.intervalAt(now);
+    if (!interval.isZero()) {
+      slot = (usage.lastSlot != null && usage.lastSlot.isAfter(now) ? usage.lastSlot : now).plus(interval);
+    }
+    if (usage.regainAt != null && usage.regainAt.isAfter(slot)) {
+      slot = usage.regainAt;
+    }
+    return slot;
+  }
+
+  /**
+   * Records a slot as taken by a key that paces calls.
+   */
+  private void take(final String key, final Instant now, final Instant slot) {
+    final Usage usage = usages.get(key);
+    if (usage != null && !usage.intervalAt(now).isZero()) {
+      usage.lastSlot = slot;
+    }
+  }
+
+  /**
+   * Forgets readings that decayed to zero and have no slot or regain time ahead.
+   */
+  private void sweep(final Instant now) {
+    usages.values().removeIf(usage -> usage.isExpired(now));
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("threshold", threshold)
+        .add("maxDelay", maxDelay)
+        .add("window", window)
+        .add("usages", usages)
+        .toString();
+  }
+
+  /**
+   * Latest usage reading of a key, and the last slot taken by a call paced by it.
+   */
+  private final class Usage {
+    private final int percent;
+    private final Instant recordedAt;
+    private final Instant regainAt;
+    private Instant lastSlot; // Guarded by lock
+
+    private Usage(final int percent, final Instant recordedAt, final Instant regainAt, final Instant lastSlot) {
+      this.percent = percent;
+      this.recordedAt = recordedAt;
+      this.regainAt = regainAt;
+      this.lastSlot = lastSlot;
+    }
+
+    /**
+     * Time between calls paced by this reading: zero below the threshold, else maxDelay * f^2.
+     */
+    private Duration intervalAt(final Instant now) {
+      final double percent = percentAt(now);
+      if (percent <= threshold) {
+        return Duration.ZERO;
+      }
+      final double f = Math.min(1, (percent - threshold) / (100 - threshold));
+      return Duration.ofNanos((long) (maxDelay.toNanos() * f * f));
+    }
+
+    /**
+     * True once the reading decayed to zero and no slot or regain time lies ahead.
+     */
+    private boolean isExpired(final Instant now) {
+      return percentAt(now) == 0
+          && (regainAt == null || !regainAt.isAfter(now))
+          && (lastSlot == null || !lastSlot.isAfter(now));
+    }
+
+    /**
+     * Usage decayed linearly to zero over the window.
+     */
+    private double percentAt(final Instant now) {
+      final double age = Duration.between(recordedAt, now).toMillis();
+      return percent * Math.max(0, 1 - age / window.toMillis());
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("percent", percent)
+          .add("recordedAt", recordedAt)
+          .add("regainAt", regainAt)
+          .add("lastSlot", lastSlot)
+          .toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private ObjectMapper om;
+    private int threshold = 60;
+    private Duration maxDelay = Duration.ofSeconds(10);
+    private Duration window = Duration.ofHours(1);
+    private Clock clock = Clock.systemUTC();
+
+    public Builder objectMapper(final ObjectMapper om) {
+      this.om = om;
+      return this;
+    }
+
+    /**
+     * Usage in percent above which calls start to slow down.
+     */
+    public Builder threshold(final int threshold) {
+      checkArgument(threshold >= 0 && threshold < 100, "threshold must be between 0 and 99");
+      this.threshold = threshold;
+      return this;
+    }
+
+    /**
+     * Time between calls to the app or a page as usage reaches 100%.
+     */
+    public Builder maxDelay(final Duration maxDelay) {
+      checkArgument(!maxDelay.isNegative(), "maxDelay must not be negative");
+      this.maxDelay = maxDelay;
+      return this;
+    }
+
+    /**
+     * Time over which a usage reading decays to zero.
+     */
+    public Builder window(final Duration window) {
+      checkArgument(!window.isNegative() && !window.isZero(), "window must be positive");
+      this.window = window;
+      return this;
+    }
+
+    public Builder clock(final Clock clock) {
+      this.clock = checkNotNull(clock);
+      return this;
+    }
+
+    public RateGovernor build() {
+      return new RateGovernor(this);
+    }
+  }
+}
@@ -3,16 +3,21 @@ package com.beachninja.facebook.scrape;
 import com.beachninja.facebook.error.FacebookError;
 import com.beachninja.facebook.model.Website;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * This will contain the Facebook Scrape API response.
  *
+ * Errors returned by Facebook are in errors. Errors of links that failed before and were answered
+ * from the scrape error cache, without calling Facebook, are in cachedErrors.
+ *
  * @author bradwee2000@gmail.com
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -28,10 +33,20 @@ public class FacebookScrapeResponse {
   @JsonProperty("errors")
   private final List<FacebookError> errors;
 
+  @JsonProperty("cachedErrors")
+  @JsonInclude(JsonInclude.Include.NON_EMPTY)
+  private final List<FacebookError> cachedErrors;
+
+  public FacebookScrapeResponse(final List<Website> websites, final List<FacebookError> errors) {
+    this(websites, errors, null);
+  }
+
   public FacebookScrapeResponse(@JsonProperty("websites") final List<Website> websites,
-                                @JsonProperty("errors") final List<FacebookError> errors) {
+                                @JsonProperty("errors") final List<FacebookError> errors,
+                                @JsonProperty("cachedErrors") final List<FacebookError> cachedErrors) {
     this.websites = websites;
     this.errors = errors;
+    this.cachedErrors = cachedErrors == null ? Collections.emptyList() : cachedErrors;
   }
 
   public List<Website> getWebsites() {
@@ -42,6 +57,13 @@ public class FacebookScrapeResponse {
     return errors;
   }
 
+  /**
+   * Errors answered from the scrape error cache without calling Facebook.
+   */
+  public List<FacebookError> getCachedErrors() {
+    return cachedErrors;
+  }
+
   @Override
   public boolean equals(final Object obj) {
     if (obj == null || obj.getClass() != getClass() || !(obj instanceof FacebookScrapeResponse)) {
@@ -52,12 +74,13 @@ public class FacebookScrapeResponse {
     }
     final FacebookScrapeResponse rhs = (FacebookScrapeResponse) obj;
     return Objects.equal(websites, rhs.websites)
-        && Objects.equal(errors, rhs.errors);
+        && Objects.equal(errors, rhs.errors)
+        && Objects.equal(cachedErrors, rhs.cachedErrors);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(websites, errors);
+    return Objects.hashCode(websites, errors, cachedErrors);
   }
 
   @Override
@@ -65,12 +88,14 @@ public class FacebookScrapeResponse {
     return "FacebookScrapeResponse{" +
             "websites=" + websites +
             ", errors=" + errors +
+            ", cachedErrors=" + cachedErrors +
             '}';
   }
 
   public static final class Builder {
     private final List<Website> websites = Lists.newArrayList();
     private final List<FacebookError> errors = Lists.newArrayList();
+    private final List<FacebookError> cachedErrors = Lists.newArrayList();
 
     public Builder addWebsite(final Website website) {
       websites.add(website);
@@ -92,8 +117,13 @@ public class FacebookScrapeResponse {
       return this;
     }
 
+    public Builder addCachedError(final FacebookError error) {
+      cachedErrors.add(error);
+      return this;
+    }
+
     public FacebookScrapeResponse build() {
-      return new FacebookScrapeResponse(websites, errors);
+      return new FacebookScrapeResponse(websites, errors, cachedErrors);
     }
   }
 }
@@ -0,0 +1,285 @@
+package com.beachninja.facebook.scrape;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Repairs the last member of a gzip file that a crashed writer left unfinished, so new members can
+ * be appended after it.
+ *
+ * A writer that sync-flushes ends every flush on a byte-aligned empty stored block (00 00 FF FF).
+ * The member is cut back to its last such flush point whose data ends on a complete line, then
+ * finished with a final empty stored block and the CRC-32 and size trailer of the data before it.
+ * Lines written after the last flush point are dropped. A member whose deflate stream finished but
+ * whose trailer was cut off gets its trailer rewritten.
+ *
+ * @author bradwee2000@gmail.com
+ */
+final class GzipTailRepair {
+  private static final Logger LOG = LoggerFactory.getLogger(GzipTailRepair.class);
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final byte[] SYNC_MARKER = {0, 0, (byte) 0xFF, (byte) 0xFF};
+  private static final byte[] FINAL_EMPTY_BLOCK = {1, 0, 0, (byte) 0xFF, (byte) 0xFF};
+  private static final int TRAILER_SIZE = 8;
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private final FileChannel channel;
+  private final Path path;
+
+  private GzipTailRepair(final FileChannel channel, final Path path) {
+    this.channel = channel;
+    this.path = path;
+  }
+
+  /**
+   * Repairs the file if its last member is unfinished, and fsyncs it.
+   * @return number of bytes cut from the end of the file
+   * @throws IOException if a member before the last is corrupt
+   */
+  static long repair(final Path path) throws IOException {
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return new GzipTailRepair(channel, path).repair();
+    }
+  }
+
+  private long repair() throws IOException {
+    final long size = channel.size();
+    long offset = 0;
+    while (offset < size) {
+      final long dataStart = skipHeader(offset, size);
+      if (dataStart < 0) {
+        return cut(offset, size, "torn header"); // Crashed while writing the header
+      }
+      final Inflated member = inflate(dataStart, size, null);
+      if (member == null || !member.finished) {
+        return repairTornMember(offset, dataStart, size);
+      }
+      final long trailerStart = dataStart + member.bytesRead;
+      if (trailerStart + TRAILER_SIZE > size) {
+        // Deflate stream finished but the trailer was cut off
+        channel.truncate(trailerStart);
+        write(trailer(member));
+        LOG.warn("Rewrote the trailer of the last gzip member of {}", path);
+        return size - trailerStart;
+      }
+      final ByteBuffer trailer = read(trailerStart, TRAILER_SIZE);
+      if (trailer.getInt() != (int) member.crc || trailer.getInt() != (int) member.size) {
+        throw new IOException("Corrupt gzip member at offset " + offset + " of " + path);
+      }
+      offset = trailerStart + TRAILER_SIZE;
+    }
+    return 0;
+  }
+
+  /**
+   * Cuts the member back to its last complete flush point and finishes it there, or drops it if it
+   * has none.
+   */
+  private long repairTornMember(final long memberStart, final long dataStart, final long size) throws IOException {
+    long end = size;
+    long marker;
+    while ((marker = lastIndexOfMarker(dataStart, end)) >= 0) {
+      final long flushPoint = marker + SYNC_MARKER.length;
+      final Inflated finished = inflate(dataStart, flushPoint, FINAL_EMPTY_BLOCK);
+      if (finished != null && finished.finished && finished.remaining == 0 && finished.endsWithLine) {
+        channel.truncate(flushPoint);
+        final ByteBuffer tail = ByteBuffer.allocate(FINAL_EMPTY_BLOCK.length + TRAILER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        tail.put(FINAL_EMPTY_BLOCK).put(trailer(finished));
+        tail.flip();
+        write(tail);
+        LOG.warn("Finished the torn last gzip member of {} at its last flush point, dropping {} bytes",
+            path, size - flushPoint);
+        return size - flushPoint;
+      }
+      end = marker + SYNC_MARKER.length - 1; // Not a flush point; look further back
+    }
+    return cut(memberStart, size, "no flush point in the torn last member");
+  }
+
+  private long cut(final long offset, final long size, final String reason) throws IOException {
+    channel.truncate(offset);
+    channel.force(true);
+    LOG.warn("Dropped the last {} bytes of {}: {}", size - offset, path, reason);
+    return size - offset;
+  }
+
+  /**
+   * @return offset of the deflate data after the member header at the offset, or -1 if the header
+   *         is incomplete
+   */
+  private long skipHeader(final long offset, final long size) throws IOException {
+    if (offset + 10 > size) {
+      return -1;
+    }
+    final ByteBuffer header = read(offset, 10);
+    if (header.get(0) != (byte) 0x1F || header.get(1) != (byte) 0x8B || header.get(2) != 8) {
+      throw new IOException("Not a gzip member at offset " + offset + " of " + path);
+    }
+    final int flags = header.get(3);
+    long position = offset + 10;
+    if ((flags & FEXTRA) != 0) {
+      if (position + 2 > size) {
+        return -1;
+      }
+      position += 2 + (read(position, 2).getShort() & 0xFFFF);
+    }
+    if ((flags & FNAME) != 0) {
+      position = skipZeroTerminated(position, size);
+    }
+    if ((flags & FCOMMENT) != 0) {
+      position = skipZeroTerminated(position, size);
+    }
+    if ((flags & FHCRC) != 0) {
+      position += 2;
+    }
+    return position <= size && position >= 0 ? position : -1;
+  }
+
+  private long skipZeroTerminated(final long position, final long size) throws IOException {
+    if (position < 0) {
+      return position;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+    for (long chunkStart = position; chunkStart < size; chunkStart += buffer.limit()) {
+      buffer.clear();
+      readFully(buffer, chunkStart, (int) Math.min(CHUNK_SIZE, size - chunkStart));
+      for (int i = 0; i < buffer.limit(); i++) {
+        if (buffer.get(i) == 0) {
+          return chunkStart + i + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return start of the last sync marker that ends at or before the end, at or after the start,
+   *         or -1 if there is none
+   */
+  private long lastIndexOfMarker(final long start, final long end) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+    long chunkEnd = end;
+    while (chunkEnd - start >= SYNC_MARKER.length) {
+      final long chunkStart = Math.max(start, chunkEnd - CHUNK_SIZE);
+      buffer.clear();
+      readFully(buffer, chunkStart, (int) (chunkEnd - chunkStart));
+      for (int i = buffer.limit() - SYNC_MARKER.length; i >= 0; i--) {
+        if (buffer.get(i) == SYNC_MARKER[0] && buffer.get(i + 1) == SYNC_MARKER[1]
+            && buffer.get(i + 2) == SYNC_MARKER[2] && buffer.get(i + 3) == SYNC_MARKER[3]) {
+          return chunkStart + i;
+        }
+      }
+      if (chunkStart == start) {
+        break;
+      }
+      chunkEnd = chunkStart + SYNC_MARKER.length - 1; // Overlap so markers across chunks are found
+    }
+    return -1;
+  }
+
+  /**
+   * Inflates raw deflate data from the file, followed by the given extra bytes if any.
+   * @return what was inflated, or null if the data is not valid deflate data
+   */
+  private Inflated inflate(final long from, final long to, final byte[] extra) throws IOException {
+    final Inflater inflater = new Inflater(true);
+    final Inflated inflated = new Inflated();
+    final CRC32 crc = new CRC32();
+    final byte[] input = new byte[CHUNK_SIZE];
+    final byte[] output = new byte[CHUNK_SIZE];
+    try {
+      long position = from;
+      boolean extraFed = extra == null;
+      while (!inflater.finished()) {
+        if (position < to) {
+          final ByteBuffer chunk = ByteBuffer.wrap(input, 0, (int) Math.min(CHUNK_SIZE, to - position));
+          readFully(chunk, position, chunk.limit());
+          inflater.setInput(input, 0, chunk.limit());
+          position += chunk.limit();
+        } else if (!extraFed) {
+          inflater.setInput(extra);
+          extraFed = true;
+        } else {
+          break;
+        }
+        int n;
+        while ((n = inflater.inflate(output)) > 0) {
+          crc.update(output, 0, n);
+          inflated.size += n;
+          inflated.endsWithLine = output[n - 1] == '\n';
+        }
+        if (inflater.needsDictionary()) {
+          return null;
+        }
+      }
+      inflated.finished = inflater.finished();
+      inflated.bytesRead = inflater.getBytesRead();
+      inflated.remaining = inflater.getRemaining() + (to - position) + (extraFed ? 0 : extra.length);
+      inflated.crc = crc.getValue();
+      return inflated;
+    } catch (final DataFormatException e) {
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static ByteBuffer trailer(final Inflated inflated) {
+    final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    trailer.putInt((int) inflated.crc).putInt((int) inflated.size);
+    trailer.flip();
+    return trailer;
+  }
+
+  private ByteBuffer read(final long position, final int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(buffer, position, length);
+    return buffer;
+  }
+
+  private void readFully(final ByteBuffer buffer, final long position, final int length) throws IOException {
+    buffer.limit(buffer.position() + length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + length - buffer.remaining()) < 0) {
+        throw new IOException("Unexpected end of " + path);
+      }
+    }
+    buffer.flip();
+  }
+
+  private void write(final ByteBuffer buffer) throws IOException {
+    long position = channel.size();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    channel.force(true);
+  }
+
+  /**
+   * Outcome of inflating part of a member.
+   */
+  private static final class Inflated {
+    private boolean finished;
+    private long bytesRead;
+    private long remaining;
+    private long crc;
+    private long size;
+    private boolean endsWithLine = true;
+  }
+}
@@ -0,0 +1,245 @@
+package com.beachninja.facebook.scrape;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes scrape results to a file as newline-delimited JSON, one line per link, as they arrive.
+ *
+ * Lines go through a buffer to a FileChannel, optionally gzipped. The file is fsynced at most
+ * once per sync interval and on close, so a crash loses at most the last interval of results.
+ *
+ * Use it directly with write(), or subscribe it to a scrape publisher such as BulkScraper's;
+ * completion() then completes with the number of lines once the publisher completes.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class NdjsonScrapeSink implements Flow.Subscriber<ScrapeResult>, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(NdjsonScrapeSink.class);
+  private static final int NEWLINE = '\n';
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final FileChannel channel;
+  private final OutputStream out;
+  private final ObjectWriter writer;
+  private final long syncIntervalNanos;
+  private final CompletableFuture<Long> completion = new CompletableFuture<>();
+
+  private long count;
+  private long lastSync = System.nanoTime();
+  private boolean closed;
+  private Flow.Subscription subscription;
+
+  private NdjsonScrapeSink(final Builder builder) throws IOException {
+    checkNotNull(builder.path, "path is required");
+    checkNotNull(builder.om, "objectMapper is required");
+    if (builder.gzip && builder.append && Files.exists(builder.path)) {
+      GzipTailRepair.repair(builder.path);
+    }
+    this.channel = builder.append
+        ? FileChannel.open(builder.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+        : FileChannel.open(builder.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    final OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), builder.bufferSize);
+    this.out = builder.gzip ? new GZIPOutputStream(buffered, builder.bufferSize, true) : buffered;
+    this.writer = builder.om.writer()
+        // Flushing per line would defeat the buffer
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+        .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.syncIntervalNanos = builder.syncInterval.toNanos();
+  }
+
+  /**
+   * Appends the result as a line.
+   * @throws UncheckedIOException if the write fails
+   */
+  public synchronized void write(final ScrapeResult result) {
+    if (closed) {
+      throw new IllegalStateException("Sink is closed");
+    }
+    try {
+      writer.writeValue(out, result);
+      out.write(NEWLINE);
+      count++;
+      if (System.nanoTime() - lastSync >= syncIntervalNanos) {
+        sync();
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Flushes buffered lines and forces them to disk.
+   */
+  public synchronized void sync() throws IOException {
+    out.flush();
+    channel.force(false);
+    lastSync = System.nanoTime();
+  }
+
+  /**
+   * Number of lines written.
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Completes with the number of lines written once the subscribed publisher completes and the
+   * file is closed, or fails with the publisher's or the sink's error.
+   */
+  public CompletableFuture<Long> completion() {
+    return completion;
+  }
+
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(Long.MAX_VALUE); // write() blocks the publisher, which is the backpressure
+  }
+
+  @Override
+  public void onNext(final ScrapeResult result) {
+    try {
+      write(result);
+    } catch (final RuntimeException e) {
+      subscription.cancel();
+      closeQuietly();
+      completion.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public void onError(final Throwable t) {
+    closeQuietly();
+    completion.completeExceptionally(t);
+  }
+
+  @Override
+  public void onComplete() {
+    try {
+      close();
+      completion.complete(getCount());
+    } catch (final IOException e) {
+      completion.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Finishes the gzip stream if any, fsyncs and closes the file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (out instanceof GZIPOutputStream) {
+        ((GZIPOutputStream) out).finish();
+      }
+      out.flush();
+      channel.force(true);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (final IOException e) {
+      LOG.warn("Failed to close NDJSON sink", e);
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private Path path;
+    private ObjectMapper om;
+    private boolean gzip;
+    private boolean append;
+    private int bufferSize = 64 * 1024;
+    private Duration syncInterval = Duration.ofSeconds(1);
+
+    public Builder path(final Path path) {
+      this.path = path;
+      return this;
+    }
+
+    public Builder objectMapper(final ObjectMapper om) {
+      this.om = om;
+      return this;
+    }
+
+    /**
+     * Gzips the output. Appending to a gzipped file adds a new gzip member, which readers such
+     * as GZIPInputStream and zcat treat as one stream. If the last member was never finished, e.g.
+     * the sink was not closed before a crash, it is first cut back to its last sync and finished
+     * there, so lines written after that sync are lost.
+     */
+    public Builder gzip(final boolean gzip) {
+      this.gzip = gzip;
+      return this;
+    }
+
+    /**
+     * Appends to an existing file instead of truncating it.
+     */
+    public Builder append(final boolean append) {
+      this.append = append;
+      return this;
+    }
+
+    public Builder bufferSize(final int bufferSize) {
+      checkArgument(bufferSize > 0, "bufferSize must be positive");
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    /**
+     * Minimum time between fsyncs. Duration.ZERO fsyncs after every line.
+     */
+    public Builder syncInterval(final Duration syncInterval) {
+      this.syncInterval = checkNotNull(syncInterval);
+      return this;
+    }
+
+    public NdjsonScrapeSink build() throws IOException {
+      return new NdjsonScrapeSink(this);
+    }
+  }
+}
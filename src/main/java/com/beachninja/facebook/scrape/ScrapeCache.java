@@ -0,0 +1,176 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.model.Website;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Recently scraped Websites keyed by link, so links scraped again within the TTL are answered
+ * locally instead of by another Graph call.
+ *
+ * Entries expire a fixed time after they were scraped. When the cache is full, the least recently
+ * used entries are evicted first. Bound it by entry count, or by weight with a custom weigher.
+ *
+ * With a WebsiteStore, every Website cached is also written to the store, and links missing from
+ * memory are looked up there, so a restarted process starts warm. Store entries honour the same
+ * TTL, counted from when the link was scraped.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class ScrapeCache {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final Duration ttl;
+  private final Cache<String, Website> cache;
+  private final WebsiteStore store;
+  private final AtomicLong storeHits = new AtomicLong();
+
+  private ScrapeCache(final Builder builder) {
+    this.ttl = builder.ttl;
+    final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttl.toNanos(), TimeUnit.NANOSECONDS)
+        .ticker(builder.ticker)
+        .recordStats();
+    if (builder.weigher != null) {
+      cacheBuilder.maximumWeight(builder.maximumWeight).weigher(builder.weigher);
+    } else {
+      cacheBuilder.maximumSize(builder.maximumSize);
+    }
+    this.cache = cacheBuilder.build();
+    this.store = builder.store;
+  }
+
+  /**
+   * Returns the cached Website of a link, or null if it was not scraped within the TTL.
+   */
+  public Website get(final String link) {
+    final Website website = cache.getIfPresent(link);
+    if (website != null || store == null) {
+      return website;
+    }
+    final Website stored = store.get(link, ttl);
+    if (stored != null) {
+      storeHits.incrementAndGet();
+    }
+    return stored;
+  }
+
+  public void put(final String link, final Website website) {
+    cache.put(checkNotNull(link), checkNotNull(website));
+    if (store != null) {
+      store.put(link, website);
+    }
+  }
+
+  public void invalidate(final String link) {
+    cache.invalidate(link);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Approximate number of cached links.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Hit, miss and eviction counts of the in-memory cache since it was created. Links found in the
+   * store count as misses here and as store hits.
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * Links missing from memory that were found in the store.
+   */
+  public long getStoreHits() {
+    return storeHits.get();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("ttl", ttl)
+        .add("size", size())
+        .add("stats", getStats())
+        .add("storeHits", storeHits.get())
+        .toString();
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private Duration ttl = Duration.ofMinutes(10);
+    private long maximumSize = 10_000;
+    private long maximumWeight;
+    private Weigher<String, Website> weigher;
+    private Ticker ticker = Ticker.systemTicker();
+    private WebsiteStore store;
+
+    /**
+     * How long a scraped Website is served from the cache.
+     */
+    public Builder ttl(final Duration ttl) {
+      checkArgument(!ttl.isNegative() && !ttl.isZero(), "ttl must be positive");
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * Maximum number of cached links.
+     */
+    public Builder maximumSize(final long maximumSize) {
+      checkArgument(maximumSize >= 0, "maximumSize must not be negative");
+      this.maximumSize = maximumSize;
+      this.weigher = null;
+      return this;
+    }
+
+    /**
+     * Maximum total weight of cached entries, instead of a maximum number of links.
+     */
+    public Builder maximumWeight(final long maximumWeight, final Weigher<String, Website> weigher) {
+      checkArgument(maximumWeight >= 0, "maximumWeight must not be negative");
+      this.maximumWeight = maximumWeight;
+      this.weigher = checkNotNull(weigher);
+      return this;
+    }
+
+    public Builder ticker(final Ticker ticker) {
+      this.ticker = checkNotNull(ticker);
+      return this;
+    }
+
+    /**
+     * On-disk store backing the cache across restarts. Defaults to none.
+     */
+    public Builder store(final WebsiteStore store) {
+      this.store = store;
+      return this;
+    }
+
+    public ScrapeCache build() {
+      return new ScrapeCache(this);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Negative cache of links whose scrape failed with an error that will not go away by retrying,
+ * such as a page that does not exist or a blocked domain. Cached links are answered with their
+ * last error instead of being sent to Facebook again.
+ *
+ * How long an error is kept depends on its FacebookError code; codes without their own TTL use
+ * the default TTL. A TTL of zero means errors with that code are never cached.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class ScrapeErrorCache {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final Duration defaultTtl;
+  private final Map<Integer, Duration> ttls;
+  private final Ticker ticker;
+  private final Cache<String, Entry> cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private ScrapeErrorCache(final Builder builder) {
+    this.defaultTtl = builder.defaultTtl;
+    this.ttls = ImmutableMap.copyOf(builder.ttls);
+    this.ticker = builder.ticker;
+    Duration maxTtl = defaultTtl;
+    for (final Duration ttl : ttls.values()) {
+      if (ttl.compareTo(maxTtl) > 0) {
+        maxTtl = ttl;
+      }
+    }
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(Math.max(1, maxTtl.toNanos()), TimeUnit.NANOSECONDS)
+        .maximumSize(builder.maximumSize)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the cached error of a link, or null if the link has no unexpired error.
+   */
+  public FacebookError get(final String link) {
+    final Entry entry = cache.getIfPresent(link);
+    if (entry == null || entry.expiresAt - ticker.read() <= 0) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.error;
+  }
+
+  /**
+   * Remembers the error of a link for the TTL of its code.
+   */
+  public void put(final String link, final FacebookError error) {
+    checkNotNull(link);
+    final Duration ttl = getTtl(error.getCode());
+    if (!ttl.isZero()) {
+      cache.put(link, new Entry(error, ticker.read() + ttl.toNanos()));
+    }
+  }
+
+  /**
+   * TTL of errors with the given FacebookError code.
+   */
+  public Duration getTtl(final int errorCode) {
+    return ttls.getOrDefault(errorCode, defaultTtl);
+  }
+
+  public void invalidate(final String link) {
+    cache.invalidate(link);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Approximate number of cached links, including expired ones not yet cleaned up.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Hit, miss and eviction counts since the cache was created.
+   */
+  public CacheStats getStats() {
+    return new CacheStats(hits.get(), misses.get(), 0, 0, 0, cache.stats().evictionCount());
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("defaultTtl", defaultTtl)
+        .add("ttls", ttls)
+        .add("size", size())
+        .add("stats", getStats())
+        .toString();
+  }
+
+  private static final class Entry {
+    private final FacebookError error;
+    private final long expiresAt;
+
+    private Entry(final FacebookError error, final long expiresAt) {
+      this.error = error;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private Duration defaultTtl = Duration.ofHours(1);
+    private final Map<Integer, Duration> ttls = Maps.newHashMap();
+    private long maximumSize = 10_000;
+    private Ticker ticker = Ticker.systemTicker();
+
+    /**
+     * TTL of errors whose code has no TTL of its own.
+     */
+    public Builder defaultTtl(final Duration defaultTtl) {
+      checkArgument(!defaultTtl.isNegative(), "defaultTtl must not be negative");
+      this.defaultTtl = defaultTtl;
+      return this;
+    }
+
+    /**
+     * TTL of errors with the given FacebookError code, or zero to never cache them.
+     */
+    public Builder ttl(final int errorCode, final Duration ttl) {
+      checkArgument(!ttl.isNegative(), "ttl must not be negative");
+      ttls.put(errorCode, ttl);
+      return this;
+    }
+
+    /**
+     * Maximum number of cached links.
+     */
+    public Builder maximumSize(final long maximumSize) {
+      checkArgument(maximumSize >= 0, "maximumSize must not be negative");
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    public Builder ticker(final Ticker ticker) {
+      this.ticker = checkNotNull(ticker);
+      return this;
+    }
+
+    public ScrapeErrorCache build() {
+      return new ScrapeErrorCache(this);
+    }
+  }
+}
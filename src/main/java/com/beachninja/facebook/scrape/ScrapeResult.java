@@ -0,0 +1,125 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.model.Website;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * Result of scraping a single link: either the scraped Website or the FacebookError. Results
+ * from bulk scrapes also carry the link they belong to. Errors answered from the scrape error
+ * cache instead of by Facebook are marked as cached.
+ *
+ * @author bradwee2000@gmail.com
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ScrapeResult {
+
+  public static ScrapeResult of(final Website website) {
+    return new ScrapeResult(null, website, null);
+  }
+
+  public static ScrapeResult of(final FacebookError error) {
+    return new ScrapeResult(null, null, error);
+  }
+
+  /**
+   * Returns an error result served from the scrape error cache.
+   */
+  public static ScrapeResult cached(final FacebookError error) {
+    return new ScrapeResult(null, null, error, true);
+  }
+
+  @JsonProperty("link")
+  private final String link;
+
+  @JsonProperty("website")
+  private final Website website;
+
+  @JsonProperty("error")
+  private final FacebookError error;
+
+  @JsonProperty("cached")
+  private final Boolean cached;
+
+  public ScrapeResult(final String link, final Website website, final FacebookError error) {
+    this(link, website, error, false);
+  }
+
+  public ScrapeResult(@JsonProperty("link") final String link,
+                      @JsonProperty("website") final Website website,
+                      @JsonProperty("error") final FacebookError error,
+                      @JsonProperty("cached") final Boolean cached) {
+    this.link = link;
+    this.website = website;
+    this.error = error;
+    this.cached = Boolean.TRUE.equals(cached) ? Boolean.TRUE : null;
+  }
+
+  /**
+   * Returns a copy of this result for the given link.
+   */
+  public ScrapeResult withLink(final String link) {
+    return new ScrapeResult(link, website, error, cached);
+  }
+
+  public String getLink() {
+    return link;
+  }
+
+  public Website getWebsite() {
+    return website;
+  }
+
+  public FacebookError getError() {
+    return error;
+  }
+
+  @JsonIgnore
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * True if the error was served from the scrape error cache rather than returned by Facebook.
+   */
+  @JsonIgnore
+  public boolean isCached() {
+    return cached != null;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (obj == null || obj.getClass() != getClass() || !(obj instanceof ScrapeResult)) {
+      return false;
+    }
+    if (obj == this) {
+      return true;
+    }
+    final ScrapeResult rhs = (ScrapeResult) obj;
+    return Objects.equal(link, rhs.link)
+        && Objects.equal(website, rhs.website)
+        && Objects.equal(error, rhs.error)
+        && Objects.equal(cached, rhs.cached);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(link, website, error, cached);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("link", link)
+        .add("website", website)
+        .add("error", error)
+        .add("cached", cached)
+        .toString();
+  }
+}
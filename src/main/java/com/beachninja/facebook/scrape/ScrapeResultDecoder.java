@@ -0,0 +1,40 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.batch.BatchBodyDecoder;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.error.FacebookErrorResponse;
+import com.beachninja.facebook.model.Website;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Decodes a scrape batch item body into a Website on success, or a FacebookError otherwise.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class ScrapeResultDecoder implements BatchBodyDecoder<ScrapeResult> {
+
+  private final ObjectMapper om;
+
+  public ScrapeResultDecoder(final ObjectMapper om) {
+    this.om = om;
+  }
+
+  @Override
+  public ScrapeResult decode(final int code, final JsonParser body) throws IOException {
+    if (body == null) {
+      return ScrapeResult.of(FacebookError.builder().code(code).message("Empty batch response body").build());
+    }
+    if (code == 200) {
+      return ScrapeResult.of(om.readValue(body, Website.class));
+    }
+    final FacebookError error = om.readValue(body, FacebookErrorResponse.class).getFacebookError();
+    if (error == null) {
+      // Not a Graph error, e.g. an empty object from a proxy
+      return ScrapeResult.of(FacebookError.builder().code(code).message("Batch item failed without an error").build());
+    }
+    return ScrapeResult.of(error);
+  }
+}
@@ -0,0 +1,512 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.model.Url;
+import com.beachninja.facebook.model.Website;
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * On-disk store of scraped Websites keyed by link, backed by two memory-mapped files, so a
+ * restarted worker knows what it already scraped without holding the Websites on the heap.
+ *
+ * websites.dat holds the records, appended one after the other. websites.idx is an open-addressing
+ * hash table from a 64-bit hash of the link to the record's offset. A lookup probes the index and
+ * compares the stored link bytes, then decodes only what it needs: a single field, the scrape
+ * time, or the whole Website.
+ *
+ * Storing a link again appends a new record and points the index at it; the old record is left
+ * as garbage. Writes reach the files through the page cache; call flush() to force them to disk.
+ * A full index is rebuilt at twice the size in websites.idx.tmp and moved over websites.idx, so a
+ * crash mid-resize leaves the old index whole. Each file is limited to 2 GB.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class WebsiteStore implements Closeable {
+
+  /**
+   * Website fields that can be read without decoding the whole record.
+   */
+  public enum Field {
+    URL, TYPE, TITLE, DESCRIPTION, ID
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private static final int MAGIC = 0x57534931; // "WSI1"
+  private static final int HEADER_SIZE = 32;
+  private static final int SLOT_SIZE = 16;
+  private static final double MAX_LOAD = 0.7;
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final Path indexFile;
+  private final Path dataFile;
+  private final Clock clock;
+  private final Path resizeFile;
+  private final FileChannel dataChannel;
+  private FileChannel indexChannel; // Guarded by this
+  private MappedByteBuffer index; // Guarded by this
+  private MappedByteBuffer data; // Guarded by this
+  private int capacity; // Guarded by this
+  private int size; // Guarded by this
+  private int dataEnd; // Guarded by this
+
+  private WebsiteStore(final Builder builder) {
+    this.indexFile = builder.directory.resolve("websites.idx");
+    this.dataFile = builder.directory.resolve("websites.dat");
+    this.resizeFile = builder.directory.resolve("websites.idx.tmp");
+    this.clock = builder.clock;
+    try {
+      Files.createDirectories(builder.directory);
+      final boolean exists = Files.exists(indexFile) && Files.size(indexFile) >= HEADER_SIZE;
+      indexChannel = FileChannel.open(indexFile,
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      dataChannel = FileChannel.open(dataFile,
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (exists) {
+        final MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) {
+          throw new IllegalStateException("Not a website store index: " + indexFile);
+        }
+        capacity = header.getInt(4);
+        size = header.getInt(8);
+        dataEnd = header.getInt(12);
+      } else {
+        capacity = builder.initialCapacity;
+        dataEnd = 0;
+      }
+      index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+      data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+          Math.max(Math.max(dataChannel.size(), dataEnd), builder.initialDataSize));
+      writeHeader();
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Stores the Website of a link, scraped now.
+   */
+  public void put(final String link, final Website website) {
+    put(link, website, clock.instant());
+  }
+
+  /**
+   * Stores the Website of a link, scraped at the given time.
+   */
+  public synchronized void put(final String link, final Website website, final Instant scrapedAt) {
+    checkNotNull(website);
+    final byte[] linkBytes = link.getBytes(Charsets.UTF_8);
+    final byte[] record = encode(linkBytes, website, scrapedAt);
+    ensureData(record.length);
+    final int offset = dataEnd;
+    data.position(offset);
+    data.put(record);
+    dataEnd += record.length;
+
+    final long hash = hashOf(link);
+    int slot = findSlot(hash, linkBytes);
+    if (slotOffset(slot) < 0) {
+      if (size + 1 > capacity * MAX_LOAD) {
+        resizeIndex(capacity * 2);
+        slot = findSlot(hash, linkBytes);
+      }
+      size++;
+    }
+    index.putLong(slotPosition(slot), hash);
+    index.putLong(slotPosition(slot) + 8, offset);
+    writeHeader();
+  }
+
+  /**
+   * Returns the stored Website of a link, or null if there is none.
+   */
+  public synchronized Website get(final String link) {
+    final int offset = find(link);
+    return offset < 0 ? null : decode(offset);
+  }
+
+  /**
+   * Returns the stored Website of a link if it was scraped within maxAge, else null.
+   */
+  public synchronized Website get(final String link, final Duration maxAge) {
+    final int offset = find(link);
+    if (offset < 0 || scrapedAt(offset).plus(maxAge).isBefore(clock.instant())) {
+      return null;
+    }
+    return decode(offset);
+  }
+
+  /**
+   * Returns one field of the stored Website of a link, or null if there is none.
+   */
+  public synchronized String get(final String link, final Field field) {
+    final int offset = find(link);
+    if (offset < 0) {
+      return null;
+    }
+    int position = skipString(offset + 12);
+    for (int i = 0; i < field.ordinal(); i++) {
+      position = skipString(position);
+    }
+    return readString(position);
+  }
+
+  /**
+   * Returns when the stored Website of a link was scraped, or null if there is none.
+   */
+  public synchronized Instant getScrapedAt(final String link) {
+    final int offset = find(link);
+    return offset < 0 ? null : scrapedAt(offset);
+  }
+
+  public synchronized boolean contains(final String link) {
+    return find(link) >= 0;
+  }
+
+  /**
+   * Number of stored links.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Forces all writes to disk. Records go first, so the index never points past what is on disk.
+   */
+  public synchronized void flush() {
+    data.force();
+    index.force();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    flush();
+    try {
+      indexChannel.close();
+    } finally {
+      dataChannel.close();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("dataFile", dataFile)
+        .add("size", size)
+        .add("capacity", capacity)
+        .add("dataSize", dataEnd)
+        .toString();
+  }
+
+  private int find(final String link) {
+    final int slot = findSlot(hashOf(link), link.getBytes(Charsets.UTF_8));
+    return (int) slotOffset(slot);
+  }
+
+  /**
+   * Returns the slot holding the link, or the empty slot where it would go.
+   */
+  private int findSlot(final long hash, final byte[] linkBytes) {
+    int slot = (int) (hash & (capacity - 1));
+    while (true) {
+      final long offset = slotOffset(slot);
+      if (offset < 0 || (index.getLong(slotPosition(slot)) == hash && linkEquals((int) offset, linkBytes))) {
+        return slot;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+  }
+
+  /**
+   * Returns the record offset in a slot, or -1 if the slot is empty.
+   */
+  private long slotOffset(final int slot) {
+    final int position = slotPosition(slot);
+    return index.getLong(position) == 0 ? -1 : index.getLong(position + 8);
+  }
+
+  private static int slotPosition(final int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static long hashOf(final String link) {
+    final long hash = HASH.hashString(link, Charsets.UTF_8).asLong();
+    return hash == 0 ? 1 : hash; // 0 marks an empty slot
+  }
+
+  private boolean linkEquals(final int offset, final byte[] linkBytes) {
+    final int position = offset + 12;
+    if (data.getInt(position) != linkBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < linkBytes.length; i++) {
+      if (data.get(position + 4 + i) != linkBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Instant scrapedAt(final int offset) {
+    return Instant.ofEpochMilli(data.getLong(offset + 4));
+  }
+
+  /**
+   * Rehashes the index into a new file and moves it over the old one, which stays untouched until
+   * the move.
+   */
+  private void resizeIndex(final int newCapacity) {
+    if (HEADER_SIZE + (long) newCapacity * SLOT_SIZE > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Website store index is full: " + indexFile);
+    }
+    FileChannel newChannel = null;
+    try {
+      newChannel = FileChannel.open(resizeFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+      final MappedByteBuffer newIndex = newChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+      for (int i = 0; i < capacity; i++) {
+        final long hash = index.getLong(slotPosition(i));
+        if (hash != 0) {
+          int slot = (int) (hash & (newCapacity - 1));
+          while (newIndex.getLong(slotPosition(slot)) != 0) {
+            slot = (slot + 1) & (newCapacity - 1);
+          }
+          newIndex.putLong(slotPosition(slot), hash);
+          newIndex.putLong(slotPosition(slot) + 8, index.getLong(slotPosition(i) + 8));
+        }
+      }
+      newIndex.putInt(0, MAGIC);
+      newIndex.putInt(4, newCapacity);
+      newIndex.putInt(8, size);
+      newIndex.putInt(12, dataEnd);
+      data.force();
+      newIndex.force();
+      Files.move(resizeFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      final FileChannel oldChannel = indexChannel;
+      indexChannel = newChannel;
+      index = newIndex;
+      capacity = newCapacity;
+      oldChannel.close();
+    } catch (final IOException e) {
+      if (newChannel != null && newChannel != indexChannel) {
+        try {
+          newChannel.close();
+          Files.deleteIfExists(resizeFile);
+        } catch (final IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+      }
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void ensureData(final int length) {
+    if ((long) dataEnd + length <= data.capacity()) {
+      return;
+    }
+    long newSize = data.capacity();
+    while (newSize < (long) dataEnd + length) {
+      newSize *= 2;
+    }
+    if ((long) dataEnd + length > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Website store data file is full: " + dataFile);
+    }
+    try {
+      data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(newSize, Integer.MAX_VALUE));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeHeader() {
+    index.putInt(0, MAGIC);
+    index.putInt(4, capacity);
+    index.putInt(8, size);
+    index.putInt(12, dataEnd);
+  }
+
+  /**
+   * Record layout: length, scraped-at epoch millis, link, url, type, title, description, id, then
+   * the image count and image urls. Strings are a byte length, or -1 for null, and UTF-8 bytes.
+   */
+  private static byte[] encode(final byte[] linkBytes, final Website website, final Instant scrapedAt) {
+    final RecordWriter writer = new RecordWriter();
+    writer.writeInt(0);
+    writer.writeLong(scrapedAt.toEpochMilli());
+    writer.writeBytes(linkBytes);
+    writer.writeString(website.getUrl());
+    writer.writeString(website.getType());
+    writer.writeString(website.getTitle());
+    writer.writeString(website.getDescription());
+    writer.writeString(website.getId());
+    if (website.getImages() == null) {
+      writer.writeInt(-1);
+    } else {
+      writer.writeInt(website.getImages().size());
+      for (final Url image : website.getImages()) {
+        writer.writeString(image == null ? null : image.getUrl());
+      }
+    }
+    return writer.toByteArray();
+  }
+
+  private Website decode(final int offset) {
+    int position = skipString(offset + 12);
+    final String[] fields = new String[Field.values().length];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = readString(position);
+      position = skipString(position);
+    }
+    final Website.Builder website = Website.builder()
+        .url(fields[Field.URL.ordinal()])
+        .type(fields[Field.TYPE.ordinal()])
+        .title(fields[Field.TITLE.ordinal()])
+        .description(fields[Field.DESCRIPTION.ordinal()])
+        .id(fields[Field.ID.ordinal()]);
+    final int images = data.getInt(position);
+    position += 4;
+    for (int i = 0; i < images; i++) {
+      final String image = readString(position);
+      website.addImage(image == null ? null : Url.of(image));
+      position = skipString(position);
+    }
+    return website.build();
+  }
+
+  private int skipString(final int position) {
+    return position + 4 + Math.max(0, data.getInt(position));
+  }
+
+  private String readString(final int position) {
+    final int length = data.getInt(position);
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    final ByteBuffer view = data.duplicate();
+    view.position(position + 4);
+    view.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * Growable buffer for encoding one record.
+   */
+  private static final class RecordWriter {
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    private void writeInt(final int value) {
+      ensure(4);
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        buffer[length++] = (byte) (value >>> shift);
+      }
+    }
+
+    private void writeLong(final long value) {
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[length++] = (byte) (value >>> shift);
+      }
+    }
+
+    private void writeBytes(final byte[] bytes) {
+      writeInt(bytes.length);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buffer, length, bytes.length);
+      length += bytes.length;
+    }
+
+    private void writeString(final String value) {
+      if (value == null) {
+        writeInt(-1);
+      } else {
+        writeBytes(value.getBytes(Charsets.UTF_8));
+      }
+    }
+
+    private void ensure(final int more) {
+      if (length + more > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+      }
+    }
+
+    private byte[] toByteArray() {
+      final byte[] record = Arrays.copyOf(buffer, length);
+      final int recordLength = length - 4;
+      for (int i = 0; i < 4; i++) {
+        record[i] = (byte) (recordLength >>> (24 - 8 * i));
+      }
+      return record;
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private Path directory;
+    private int initialCapacity = 1 << 16;
+    private int initialDataSize = 1 << 20;
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * Directory holding the store files. Created if missing; reopened if it already has a store.
+     */
+    public Builder directory(final Path directory) {
+      this.directory = checkNotNull(directory);
+      return this;
+    }
+
+    /**
+     * Initial number of index slots, rounded up to a power of two. The index doubles as it fills.
+     */
+    public Builder initialCapacity(final int initialCapacity) {
+      checkArgument(initialCapacity > 0 && initialCapacity <= 1 << 26, "initialCapacity must be in (0, 2^26]");
+      this.initialCapacity = initialCapacity == 1 ? 1 : Integer.highestOneBit(initialCapacity - 1) << 1;
+      return this;
+    }
+
+    /**
+     * Initial size of the data file in bytes. The file doubles as it fills.
+     */
+    public Builder initialDataSize(final int initialDataSize) {
+      checkArgument(initialDataSize > 0, "initialDataSize must be positive");
+      this.initialDataSize = initialDataSize;
+      return this;
+    }
+
+    public Builder clock(final Clock clock) {
+      this.clock = checkNotNull(clock);
+      return this;
+    }
+
+    public WebsiteStore build() {
+      checkNotNull(directory, "directory is required");
+      return new WebsiteStore(this);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.error.ErrorCategory;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.beachninja.facebook.util.CompletableFutures;
+import com.google.common.collect.Lists;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static com.beachninja.facebook.util.CompletableFutures.delay;
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+
+/**
+ * Resubmits only the retryable failed items of a batch, as a smaller follow-up batch after a
+ * backoff, and merges their results back into the original positions. Also retries whole calls
+ * that fail outright.
+ *
+ * Items that are named or depend on other items are never retried on their own, since their
+ * references only resolve within the batch they were sent in.
+ *
+ * Retries of one logical call draw from a single retry budget, also when item retries wrap calls
+ * that retry themselves; a resent whole call costs one operation. Once it is spent, remaining
+ * failures are returned as they are instead of being resent.
+ *
+ * A whole call that is not idempotent, such as a post, is only resent if it failed before its
+ * request was sent, so a retry can never publish twice.
+ *
+ * @author bradwee2000@gmail.com
+ */
+final class BatchRetrier {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchRetrier.class);
+
+  /**
+   * @param request batch request
+   * @param policy retry policy
+   * @param submit submits a batch, returning one result per item
+   * @param classify classifies a non-null item result; results that are not retryable are kept
+   * @return results for every item, in request order, from the last attempt of each item
+   */
+  static <T> CompletableFuture<List<T>> submit(final BatchRequest request,
+                                               final BatchRetryPolicy policy,
+                                               final Function<BatchRequest, CompletableFuture<List<T>>> submit,
+                                               final Function<? super T, ErrorCategory> classify) {
+    return submit(request, policy, Budget.of(policy, request.getBatchItems().size()), submit, classify);
+  }
+
+  /**
+   * @param budget retry budget of the logical call, shared with retries inside submit
+   */
+  static <T> CompletableFuture<List<T>> submit(final BatchRequest request,
+                                               final BatchRetryPolicy policy,
+                                               final Budget budget,
+                                               final Function<BatchRequest, CompletableFuture<List<T>>> submit,
+                                               final Function<? super T, ErrorCategory> classify) {
+    return new Run<>(request, policy, budget, submit, classify).attempt(1, request);
+  }
+
+  /**
+   * Retries a whole call while it fails with a retryable error.
+   * @param policy retry policy
+   * @param call starts the call
+   * @param idempotent whether the call may be resent after any retryable failure; if not, it is only
+   *                   resent if it failed before its request was sent
+   * @param budget retry budget of the logical call the call belongs to
+   * @return result of the first successful attempt, or the failure of the last
+   */
+  static <T> CompletableFuture<T> call(final BatchRetryPolicy policy, final Supplier<CompletableFuture<T>> call,
+                                       final boolean idempotent, final Budget budget) {
+    return call(policy, call, idempotent ? e -> true : BatchRetrier::isUnsent, budget, 1, null);
+  }
+
+  private static <T> CompletableFuture<T> call(final BatchRetryPolicy policy,
+                                               final Supplier<CompletableFuture<T>> call,
+                                               final Predicate<Throwable> resendable,
+                                               final Budget budget,
+                                               final int attempt,
+                                               final Duration previousBackoff) {
+    return call.get().handle((result, e) -> {
+      if (e == null) {
+        return CompletableFuture.completedFuture(result);
+      }
+      final ErrorCategory category = policy.classify(e);
+      if (!category.isRetryable() || attempt >= policy.getMaxAttempts() || !resendable.test(e)
+          || budget.take(1) == 0) {
+        return CompletableFutures.<T>failed(e);
+      }
+      final Duration backoff = policy.nextBackoff(category, previousBackoff);
+      LOG.debug("Retrying {} call in {}, attempt {}", category, backoff, attempt + 1);
+      return delay(backoff).thenCompose(v -> call(policy, call, resendable, budget, attempt + 1, backoff));
+    }).thenCompose(Function.identity());
+  }
+
+  /**
+   * True if a failed call never reached Facebook, so resending it cannot repeat it: connection
+   * failures, HTTP 429 or 503 without a Graph error, calls a bulkhead or circuit breaker turned
+   * away, and timeouts that fired before the request left.
+   */
+  static boolean isUnsent(final Throwable failure) {
+    final Throwable cause = unwrap(failure);
+    if (cause instanceof BulkheadFullException || cause instanceof CircuitOpenException) {
+      return true;
+    }
+    if (cause instanceof FacebookTimeoutException && !((FacebookTimeoutException) cause).isSent()) {
+      return true;
+    }
+    if (cause instanceof FacebookException && !(cause instanceof FacebookTimeoutException)) {
+      final FacebookException e = (FacebookException) cause;
+      final FacebookError error = e.getFacebookError();
+      return (e.getStatusCode() == 429 || e.getStatusCode() == 503) && (error == null || error.getCode() == 0);
+    }
+    for (Throwable t = cause; t != null; t = t.getCause()) {
+      if (t instanceof ConnectException || t instanceof ConnectTimeoutException
+          || t instanceof NoRouteToHostException || t instanceof UnknownHostException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Operations one logical call may still resend, shared by every layer that retries part of it.
+   */
+  static final class Budget {
+    private final AtomicInteger remaining;
+
+    private Budget(final int operations) {
+      this.remaining = new AtomicInteger(operations);
+    }
+
+    /**
+     * @param policy policy that sizes the budget
+     * @param operations operations in the logical call
+     */
+    static Budget of(final BatchRetryPolicy policy, final int operations) {
+      return new Budget(policy.getRetryBudget(operations));
+    }
+
+    /**
+     * Takes up to the given number of operations from the budget.
+     * @return number of operations granted, 0 once the budget is spent
+     */
+    int take(final int operations) {
+      final int before = remaining.getAndUpdate(left -> left - Math.min(left, operations));
+      return Math.min(before, operations);
+    }
+  }
+
+  private static final class Run<T> {
+    private final BatchRequest request;
+    private final BatchRetryPolicy policy;
+    private final Function<BatchRequest, CompletableFuture<List<T>>> submit;
+    private final Function<? super T, ErrorCategory> classify;
+    private final Budget budget;
+    private final Object[] results;
+    private int[] indexes;
+    private Duration backoff;
+
+    private Run(final BatchRequest request,
+                final BatchRetryPolicy policy,
+                final Budget budget,
+                final Function<BatchRequest, CompletableFuture<List<T>>> submit,
+                final Function<? super T, ErrorCategory> classify) {
+      this.request = request;
+      this.policy = policy;
+      this.budget = budget;
+      this.submit = submit;
+      this.classify = classify;
+      this.results = new Object[request.getBatchItems().size()];
+      this.indexes = new int[results.length];
+      Arrays.setAll(indexes, i -> i);
+    }
+
+    private CompletableFuture<List<T>> attempt(final int attempt, final BatchRequest batch) {
+      return submit.apply(batch).thenCompose(batchResults -> {
+        final List<Integer> retry = Lists.newArrayList();
+        ErrorCategory category = ErrorCategory.RETRYABLE;
+        for (int i = 0; i < indexes.length; i++) {
+          final int index = indexes[i];
+          final T result = i < batchResults.size() ? batchResults.get(i) : null;
+          results[index] = result;
+          final ErrorCategory itemCategory = categoryOf(request.getBatchItems().get(index), result);
+          if (itemCategory != null && itemCategory.isRetryable()) {
+            retry.add(index);
+            if (itemCategory == ErrorCategory.THROTTLED) {
+              category = ErrorCategory.THROTTLED;
+            }
+          }
+        }
+
+        if (retry.isEmpty() || attempt >= policy.getMaxAttempts()) {
+          return CompletableFuture.completedFuture(resultList());
+        }
+        final int granted = budget.take(retry.size());
+        if (granted == 0) {
+          return CompletableFuture.completedFuture(resultList());
+        }
+        if (granted < retry.size()) {
+          LOG.debug("Retry budget allows {} of {} failed batch items", granted, retry.size());
+          retry.subList(granted, retry.size()).clear();
+        }
+
+        backoff = policy.nextBackoff(category, backoff);
+        LOG.debug("Retrying {} of {} batch items in {}, attempt {}", retry.size(), results.length, backoff,
+            attempt + 1);
+        indexes = retry.stream().mapToInt(Integer::intValue).toArray();
+        final BatchRequest.Builder retryBatch = BatchRequest.builder().accessToken(request.getAccessToken());
+        for (final int index : indexes) {
+          retryBatch.addItem(request.getBatchItems().get(index));
+        }
+        return delay(backoff).thenCompose(v -> attempt(attempt + 1, retryBatch.build()));
+      });
+    }
+
+    /**
+     * Returns the category of a failed item, or null if it must not be retried.
+     */
+    private ErrorCategory categoryOf(final BatchItem item, final T result) {
+      if (item.getName() != null || !item.getDependencies().isEmpty()) {
+        return null;
+      }
+      if (result == null) {
+        // Null items are either omitted on success or timed out server-side
+        return Boolean.TRUE.equals(item.getOmitResponseOnSuccess()) ? null : ErrorCategory.RETRYABLE;
+      }
+      return classify.apply(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> resultList() {
+      return (List<T>) Arrays.asList(results.clone());
+    }
+  }
+
+  private BatchRetrier() {}
+}
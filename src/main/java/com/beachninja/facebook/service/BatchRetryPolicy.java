@@ -0,0 +1,304 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.error.ErrorCategory;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Classifies failed calls and batch items, and decides which are worth resubmitting, how many
+ * times, and how long to wait between attempts.
+ *
+ * Failures are classified by FacebookError code first, then type, then HTTP status:
+ * <ul>
+ *   <li>THROTTLED: Graph throttling errors (codes 4, 17, 32, 341, 613 and 80001 to 80009) and
+ *   HTTP 429.</li>
+ *   <li>AUTH: token and permission errors (codes 10, 102, 190, 200, 463 and 467) and HTTP 401.</li>
+ *   <li>RETRYABLE: Graph transient errors (codes 1 and 2), 5xx codes and network errors.</li>
+ *   <li>PERMANENT: everything else.</li>
+ * </ul>
+ * Retryable and throttled failures are retried. Batch items the Graph API left out of the
+ * response, which happens when the batch times out server-side, are retried as well.
+ *
+ * Waits use decorrelated jitter: each is random between the initial backoff and three times the
+ * previous wait, capped at the maximum, so clients that failed together do not retry together.
+ * Throttled failures start from a longer initial backoff. Each call also has a retry budget, so
+ * retries add at most a fraction of the call's operations on top of the call itself.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BatchRetryPolicy {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration throttledInitialBackoff;
+  private final Duration maxBackoff;
+  private final double retryBudget;
+  private final int minRetryBudget;
+  private final Set<Integer> retryableCodes;
+  private final Set<Integer> retryableErrorCodes;
+  private final Set<String> retryableErrorTypes;
+  private final Set<Integer> throttledCodes;
+  private final Set<Integer> throttledErrorCodes;
+  private final Set<Integer> authCodes;
+  private final Set<Integer> authErrorCodes;
+
+  private BatchRetryPolicy(final Builder builder) {
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoff = builder.initialBackoff;
+    this.throttledInitialBackoff = builder.throttledInitialBackoff;
+    this.maxBackoff = builder.maxBackoff;
+    this.retryBudget = builder.retryBudget;
+    this.minRetryBudget = builder.minRetryBudget;
+    this.retryableCodes = builder.retryableCodes;
+    this.retryableErrorCodes = builder.retryableErrorCodes;
+    this.retryableErrorTypes = builder.retryableErrorTypes;
+    this.throttledCodes = builder.throttledCodes;
+    this.throttledErrorCodes = builder.throttledErrorCodes;
+    this.authCodes = builder.authCodes;
+    this.authErrorCodes = builder.authErrorCodes;
+  }
+
+  /**
+   * Classifies a failed response.
+   * @param code HTTP status or batch item code
+   * @param error error decoded from the body, or null
+   */
+  public ErrorCategory classify(final int code, final FacebookError error) {
+    if (error != null) {
+      if (throttledErrorCodes.contains(error.getCode())) {
+        return ErrorCategory.THROTTLED;
+      } else if (authErrorCodes.contains(error.getCode())) {
+        return ErrorCategory.AUTH;
+      } else if (retryableErrorCodes.contains(error.getCode()) || retryableErrorTypes.contains(error.getType())) {
+        return ErrorCategory.RETRYABLE;
+      }
+    }
+    if (throttledCodes.contains(code)) {
+      return ErrorCategory.THROTTLED;
+    } else if (authCodes.contains(code)) {
+      return ErrorCategory.AUTH;
+    } else if (retryableCodes.contains(code)) {
+      return ErrorCategory.RETRYABLE;
+    }
+    return ErrorCategory.PERMANENT;
+  }
+
+  /**
+   * Classifies the failure of a whole call. I/O errors and attempt timeouts are retryable; a
+   * passed deadline is permanent. A call turned away by a full bulkhead or an open circuit is
+   * throttled, so it is retried after the longer throttled backoff.
+   */
+  public ErrorCategory classify(final Throwable failure) {
+    final Throwable cause = unwrap(failure);
+    if (cause instanceof BulkheadFullException || cause instanceof CircuitOpenException) {
+      return ErrorCategory.THROTTLED;
+    } else if (cause instanceof FacebookTimeoutException) {
+      return ((FacebookTimeoutException) cause).isDeadlineExceeded()
+          ? ErrorCategory.PERMANENT : ErrorCategory.RETRYABLE;
+    } else if (cause instanceof FacebookException) {
+      final FacebookException e = (FacebookException) cause;
+      return classify(e.getStatusCode(), e.getFacebookError());
+    } else if (cause instanceof IOException || cause instanceof UncheckedIOException
+        || cause.getCause() instanceof IOException) {
+      return ErrorCategory.RETRYABLE;
+    }
+    return ErrorCategory.PERMANENT;
+  }
+
+  /**
+   * @param code batch item code
+   * @param error error decoded from the item body, or null
+   * @return true if the item should be resubmitted
+   */
+  public boolean isRetryable(final int code, final FacebookError error) {
+    return classify(code, error).isRetryable();
+  }
+
+  /**
+   * Total number of attempts per item, including the first.
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Returns the number of operations a call of the given size may resend in total across all its
+   * retries.
+   */
+  public int getRetryBudget(final int operations) {
+    return Math.max(minRetryBudget, (int) Math.ceil(operations * retryBudget));
+  }
+
+  /**
+   * Returns a decorrelated-jitter wait before the next retry.
+   * @param category category of the failure being retried
+   * @param previous previous wait, or null before the first retry
+   */
+  public Duration nextBackoff(final ErrorCategory category, final Duration previous) {
+    final Duration base = category == ErrorCategory.THROTTLED ? throttledInitialBackoff : initialBackoff;
+    final long low = base.toNanos();
+    final long high = Math.max(low, (previous == null ? base : previous).multipliedBy(3).toNanos());
+    final long nanos = ThreadLocalRandom.current().nextLong(low, high + 1);
+    return Duration.ofNanos(Math.min(nanos, maxBackoff.toNanos()));
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxAttempts", maxAttempts)
+        .add("initialBackoff", initialBackoff)
+        .add("throttledInitialBackoff", throttledInitialBackoff)
+        .add("maxBackoff", maxBackoff)
+        .add("retryBudget", retryBudget)
+        .add("minRetryBudget", minRetryBudget)
+        .add("retryableCodes", retryableCodes)
+        .add("retryableErrorCodes", retryableErrorCodes)
+        .add("retryableErrorTypes", retryableErrorTypes)
+        .add("throttledCodes", throttledCodes)
+        .add("throttledErrorCodes", throttledErrorCodes)
+        .add("authCodes", authCodes)
+        .add("authErrorCodes", authErrorCodes)
+        .toString();
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private int maxAttempts = 3;
+    private Duration initialBackoff = Duration.ofMillis(500);
+    private Duration throttledInitialBackoff = Duration.ofSeconds(2);
+    private Duration maxBackoff = Duration.ofSeconds(10);
+    private double retryBudget = 0.2;
+    private int minRetryBudget = 2;
+    private Set<Integer> retryableCodes = ImmutableSet.of(500, 502, 503, 504);
+    private Set<Integer> retryableErrorCodes = ImmutableSet.of(1, 2);
+    private Set<String> retryableErrorTypes = ImmutableSet.of();
+    private Set<Integer> throttledCodes = ImmutableSet.of(429);
+    private Set<Integer> throttledErrorCodes = ImmutableSet.of(4, 17, 32, 341, 613,
+        80001, 80002, 80003, 80004, 80005, 80006, 80007, 80008, 80009);
+    private Set<Integer> authCodes = ImmutableSet.of(401);
+    private Set<Integer> authErrorCodes = ImmutableSet.of(10, 102, 190, 200, 463, 467);
+
+    public Builder maxAttempts(final int maxAttempts) {
+      checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    public Builder initialBackoff(final Duration initialBackoff) {
+      this.initialBackoff = checkNotNull(initialBackoff);
+      return this;
+    }
+
+    /**
+     * Initial backoff for throttled failures.
+     */
+    public Builder throttledInitialBackoff(final Duration throttledInitialBackoff) {
+      this.throttledInitialBackoff = checkNotNull(throttledInitialBackoff);
+      return this;
+    }
+
+    public Builder maxBackoff(final Duration maxBackoff) {
+      this.maxBackoff = checkNotNull(maxBackoff);
+      return this;
+    }
+
+    /**
+     * Operations a call may resend across all retries, as a fraction of its operations.
+     */
+    public Builder retryBudget(final double retryBudget) {
+      checkArgument(retryBudget >= 0, "retryBudget must not be negative");
+      this.retryBudget = retryBudget;
+      return this;
+    }
+
+    /**
+     * Operations any call may resend, however small it is.
+     */
+    public Builder minRetryBudget(final int minRetryBudget) {
+      checkArgument(minRetryBudget >= 0, "minRetryBudget must not be negative");
+      this.minRetryBudget = minRetryBudget;
+      return this;
+    }
+
+    /**
+     * HTTP statuses and batch item codes to retry when the error body does not say otherwise.
+     */
+    public Builder retryableCodes(final Integer ... codes) {
+      this.retryableCodes = ImmutableSet.copyOf(codes);
+      return this;
+    }
+
+    /**
+     * FacebookError codes of transient errors.
+     */
+    public Builder retryableErrorCodes(final Integer ... errorCodes) {
+      this.retryableErrorCodes = ImmutableSet.copyOf(errorCodes);
+      return this;
+    }
+
+    /**
+     * FacebookError types to retry.
+     */
+    public Builder retryableErrorTypes(final String ... errorTypes) {
+      this.retryableErrorTypes = ImmutableSet.copyOf(errorTypes);
+      return this;
+    }
+
+    /**
+     * HTTP statuses and batch item codes that mean throttling.
+     */
+    public Builder throttledCodes(final Integer ... codes) {
+      this.throttledCodes = ImmutableSet.copyOf(codes);
+      return this;
+    }
+
+    /**
+     * FacebookError codes that mean throttling.
+     */
+    public Builder throttledErrorCodes(final Integer ... errorCodes) {
+      this.throttledErrorCodes = ImmutableSet.copyOf(errorCodes);
+      return this;
+    }
+
+    /**
+     * HTTP statuses and batch item codes that mean an authentication failure.
+     */
+    public Builder authCodes(final Integer ... codes) {
+      this.authCodes = ImmutableSet.copyOf(codes);
+      return this;
+    }
+
+    /**
+     * FacebookError codes of token and permission errors.
+     */
+    public Builder authErrorCodes(final Integer ... errorCodes) {
+      this.authErrorCodes = ImmutableSet.copyOf(errorCodes);
+      return this;
+    }
+
+    public BatchRetryPolicy build() {
+      return new BatchRetryPolicy(this);
+    }
+  }
+}
@@ -0,0 +1,386 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.scrape.NdjsonScrapeSink;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.beachninja.facebook.util.FacebookConstants.MAX_BATCH_SIZE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Resumable scrape of a file of links, one link per line.
+ *
+ * Links are read in batches. Each batch is scraped, its results are written and synced to the
+ * sink, and then the checkpoint is saved. A restarted job seeks straight to the checkpoint's byte
+ * offset and skips batches the checkpoint marks done, so finished links are never sent again. At
+ * most the batches that were in flight during a crash are sent again, and their results may then
+ * appear twice in the sink.
+ *
+ * A batch whose call fails outright is recorded as per-link errors and counts as done, the same
+ * as per-link errors returned by the Graph API.
+ *
+ * Scrape calls complete on the transport's I/O threads. Writing, fsyncing and checkpointing a
+ * batch run on the job's executor instead, so disk latency never stalls other calls.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BulkScrapeJob {
+  private static final Logger LOG = LoggerFactory.getLogger(BulkScrapeJob.class);
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final FacebookService facebookService;
+  private final String accessToken;
+  private final Path linkFile;
+  private final Path checkpointFile;
+  private final NdjsonScrapeSink sink;
+  private final int batchSize;
+  private final int maxInFlightBatches;
+  private final Executor executor;
+
+  private BulkScrapeJob(final Builder builder) {
+    this.facebookService = checkNotNull(builder.facebookService, "facebookService is required");
+    this.accessToken = checkNotNull(builder.accessToken, "accessToken is required");
+    this.linkFile = checkNotNull(builder.linkFile, "linkFile is required");
+    this.checkpointFile = checkNotNull(builder.checkpointFile, "checkpointFile is required");
+    this.sink = checkNotNull(builder.sink, "sink is required");
+    this.batchSize = builder.batchSize;
+    this.maxInFlightBatches = builder.maxInFlightBatches;
+    this.executor = builder.executor;
+  }
+
+  /**
+   * Runs the job to the end of the link file, resuming from the checkpoint if there is one.
+   * Blocks until every batch is done. The sink is left open.
+   * @return counts of scraped and skipped work
+   */
+  public Stats run() throws IOException, InterruptedException {
+    final ScrapeCheckpoint checkpoint = ScrapeCheckpoint.load(checkpointFile)
+        .orElseGet(() -> ScrapeCheckpoint.start(batchSize));
+    checkState(checkpoint.getBatchSize() == batchSize,
+        "Checkpoint was written with batch size %s, not %s", checkpoint.getBatchSize(), batchSize);
+    LOG.info("Starting scrape of {} from {}", linkFile, checkpoint);
+
+    final ExecutorService ownedExecutor = executor != null ? null
+        : Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("facebook-bulk-scrape-job-%d").setDaemon(true).build());
+    final Run run = new Run(checkpoint, executor != null ? executor : ownedExecutor);
+    try (final LinkReader reader = new LinkReader(linkFile, checkpoint.getBaseOffset())) {
+      long batch = checkpoint.getBaseBatch();
+      while (run.failure.get() == null) {
+        final List<String> links = reader.readLinks(batchSize);
+        if (links.isEmpty()) {
+          break;
+        }
+        run.batchEnds(batch, reader.getOffset());
+        if (checkpoint.isDone(batch)) {
+          run.skipped.incrementAndGet();
+          run.done(batch);
+        } else {
+          run.permits.acquire();
+          run.submit(batch, links);
+        }
+        batch++;
+      }
+    } finally {
+      try {
+        run.permits.acquire(maxInFlightBatches);
+      } finally {
+        if (ownedExecutor != null) {
+          ownedExecutor.shutdown();
+        }
+      }
+    }
+
+    final Throwable failure = run.failure.get();
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure != null) {
+      throw failure instanceof RuntimeException ? (RuntimeException) failure : new RuntimeException(failure);
+    }
+    return new Stats(run.scraped.get(), run.skipped.get(), run.links.get());
+  }
+
+  /**
+   * State of one run of the job.
+   */
+  private final class Run {
+    private final ScrapeCheckpoint checkpoint;
+    private final Executor executor;
+    private final TreeMap<Long, Long> endOffsets = new TreeMap<>(); // Guarded by this
+    private final Semaphore permits = new Semaphore(maxInFlightBatches);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong scraped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong links = new AtomicLong();
+
+    private Run(final ScrapeCheckpoint checkpoint, final Executor executor) {
+      this.checkpoint = checkpoint;
+      this.executor = executor;
+    }
+
+    private synchronized void batchEnds(final long batch, final long offset) {
+      endOffsets.put(batch, offset);
+    }
+
+    private void submit(final long batch, final List<String> batchLinks) {
+      final CompletableFuture<List<ScrapeResult>> scrape;
+      try {
+        scrape = facebookService.scrapeResultsAsync(accessToken, batchLinks);
+      } catch (final RuntimeException e) {
+        failure.compareAndSet(null, e);
+        permits.release();
+        return;
+      }
+      scrape.whenComplete((results, e) -> {
+        try {
+          executor.execute(() -> record(batch, batchLinks, results, e));
+        } catch (final RejectedExecutionException ex) {
+          failure.compareAndSet(null, ex);
+          permits.release();
+        }
+      });
+    }
+
+    /**
+     * Writes and syncs the results of a batch, then records it as done.
+     */
+    private void record(final long batch, final List<String> batchLinks, final List<ScrapeResult> results,
+                        final Throwable e) {
+      try {
+        for (int i = 0; i < batchLinks.size(); i++) {
+          final ScrapeResult result = e != null ? ScrapeResult.of(errorOf(e))
+              : i < results.size() && results.get(i) != null ? results.get(i)
+              : ScrapeResult.of(FacebookError.builder().message("No batch response for link").build());
+          sink.write(result.withLink(batchLinks.get(i)));
+        }
+        sink.sync();
+        scraped.incrementAndGet();
+        links.addAndGet(batchLinks.size());
+        done(batch);
+      } catch (final IOException | RuntimeException ex) {
+        failure.compareAndSet(null, ex);
+      } finally {
+        permits.release();
+      }
+    }
+
+    /**
+     * Records the batch as done and saves the checkpoint.
+     */
+    private synchronized void done(final long batch) {
+      try {
+        checkpoint.markDone(batch, endOffsets::get);
+        endOffsets.headMap(checkpoint.getBaseBatch()).clear();
+        checkpoint.save(checkpointFile);
+      } catch (final IOException e) {
+        failure.compareAndSet(null, e);
+      }
+    }
+  }
+
+  private static FacebookError errorOf(final Throwable t) {
+    final Throwable cause = unwrap(t);
+    if (cause instanceof FacebookException && ((FacebookException) cause).getFacebookError() != null) {
+      return ((FacebookException) cause).getFacebookError();
+    }
+    return FacebookError.builder().message(String.valueOf(cause)).build();
+  }
+
+  /**
+   * Reads non-blank lines from a file, tracking the byte offset after the last line read.
+   */
+  private static final class LinkReader implements Closeable {
+    private final InputStream in;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private long offset;
+
+    private LinkReader(final Path path, final long offset) throws IOException {
+      final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      channel.position(offset);
+      this.in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+      this.offset = offset;
+    }
+
+    private List<String> readLinks(final int max) throws IOException {
+      final List<String> links = Lists.newArrayListWithCapacity(max);
+      String link;
+      while (links.size() < max && (link = readLine()) != null) {
+        if (!link.isEmpty()) {
+          links.add(link);
+        }
+      }
+      return links;
+    }
+
+    private String readLine() throws IOException {
+      line.reset();
+      int b;
+      while ((b = in.read()) != -1) {
+        offset++;
+        if (b == '\n') {
+          return new String(line.toByteArray(), Charsets.UTF_8).trim();
+        }
+        line.write(b);
+      }
+      return line.size() == 0 ? null : new String(line.toByteArray(), Charsets.UTF_8).trim();
+    }
+
+    private long getOffset() {
+      return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Outcome of a run.
+   */
+  public static final class Stats {
+    private final long scrapedBatches;
+    private final long skippedBatches;
+    private final long scrapedLinks;
+
+    private Stats(final long scrapedBatches, final long skippedBatches, final long scrapedLinks) {
+      this.scrapedBatches = scrapedBatches;
+      this.skippedBatches = skippedBatches;
+      this.scrapedLinks = scrapedLinks;
+    }
+
+    public long getScrapedBatches() {
+      return scrapedBatches;
+    }
+
+    /**
+     * Batches after the checkpoint's base that were already done and not sent again.
+     */
+    public long getSkippedBatches() {
+      return skippedBatches;
+    }
+
+    public long getScrapedLinks() {
+      return scrapedLinks;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("scrapedBatches", scrapedBatches)
+          .add("skippedBatches", skippedBatches)
+          .add("scrapedLinks", scrapedLinks)
+          .toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private FacebookService facebookService;
+    private String accessToken;
+    private Path linkFile;
+    private Path checkpointFile;
+    private NdjsonScrapeSink sink;
+    private int batchSize = MAX_BATCH_SIZE;
+    private int maxInFlightBatches = 4;
+    private Executor executor;
+
+    public Builder facebookService(final FacebookService facebookService) {
+      this.facebookService = facebookService;
+      return this;
+    }
+
+    public Builder accessToken(final String accessToken) {
+      this.accessToken = accessToken;
+      return this;
+    }
+
+    /**
+     * File of links to scrape, one per line. Must not change between runs.
+     */
+    public Builder linkFile(final Path linkFile) {
+      this.linkFile = linkFile;
+      return this;
+    }
+
+    public Builder checkpointFile(final Path checkpointFile) {
+      this.checkpointFile = checkpointFile;
+      return this;
+    }
+
+    /**
+     * Sink for results. Open it in append mode so a resumed run keeps earlier results. A gzipped
+     * sink that was not closed, e.g. after a crash, is repaired when it is opened again: lines
+     * after its last sync are dropped, and their batches were not checkpointed yet, so the resumed
+     * run scrapes them again.
+     */
+    public Builder sink(final NdjsonScrapeSink sink) {
+      this.sink = sink;
+      return this;
+    }
+
+    /**
+     * Links per batch call, at most 50. Must stay the same between runs of a job.
+     */
+    public Builder batchSize(final int batchSize) {
+      checkArgument(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+          "batchSize must be between 1 and %s", MAX_BATCH_SIZE);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder maxInFlightBatches(final int maxInFlightBatches) {
+      checkArgument(maxInFlightBatches > 0, "maxInFlightBatches must be positive");
+      this.maxInFlightBatches = maxInFlightBatches;
+      return this;
+    }
+
+    /**
+     * Executor that writes, syncs and checkpoints finished batches. Defaults to a single thread
+     * per run, shut down when the run ends.
+     */
+    public Builder executor(final Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public BulkScrapeJob build() {
+      return new BulkScrapeJob(this);
+    }
+  }
+}
@@ -0,0 +1,402 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.beachninja.facebook.util.CompletableFutures;
+import com.beachninja.facebook.util.IteratorPublisher;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.beachninja.facebook.util.FacebookConstants.MAX_BATCH_SIZE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Scrapes an unbounded stream of links with constant memory.
+ *
+ * Links are pulled from upstream one batch at a time, and at most maxInFlightBatches batches are
+ * being filled, scraped or waiting for downstream demand at once. Upstream is only asked for
+ * more links once a batch's results have all been delivered, so a slow subscriber slows down
+ * link consumption instead of growing a buffer.
+ *
+ * Each link yields exactly one ScrapeResult carrying the link. Results of a batch are emitted in
+ * link order; batches are emitted in completion order. A failed batch call yields error results
+ * for its links rather than failing the stream. A partially filled batch is sent once upstream
+ * completes.
+ *
+ * Scrape calls complete on the transport's I/O threads, so results are handed downstream, and
+ * upstream is asked for more links, on the executor instead. A subscriber may block in onNext and
+ * an upstream iterator may block on I/O without stalling other calls.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class BulkScraper {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+      .setNameFormat("facebook-bulk-scrape-%d").setDaemon(true).build());
+
+  private final FacebookService facebookService;
+  private final String accessToken;
+  private final int batchSize;
+  private final int maxInFlightBatches;
+  private final Executor executor;
+
+  private BulkScraper(final Builder builder) {
+    this.facebookService = checkNotNull(builder.facebookService, "facebookService is required");
+    this.accessToken = checkNotNull(builder.accessToken, "accessToken is required");
+    this.batchSize = builder.batchSize;
+    this.maxInFlightBatches = builder.maxInFlightBatches;
+    this.executor = builder.executor;
+  }
+
+  /**
+   * @param links links to scrape
+   * @return publisher of one ScrapeResult per link; each subscription subscribes to links once
+   */
+  public Flow.Publisher<ScrapeResult> scrape(final Flow.Publisher<String> links) {
+    checkNotNull(links);
+    return subscriber -> {
+      final Pipeline pipeline = new Pipeline(checkNotNull(subscriber));
+      subscriber.onSubscribe(pipeline);
+      links.subscribe(pipeline);
+    };
+  }
+
+  /**
+   * @param links links to scrape, pulled lazily on the executor; the publisher allows a single
+   *              subscriber
+   */
+  public Flow.Publisher<ScrapeResult> scrape(final Iterator<String> links) {
+    return scrape(IteratorPublisher.of(links, executor));
+  }
+
+  /**
+   * @param links links to scrape, pulled lazily; the caller closes the stream once done
+   */
+  public Flow.Publisher<ScrapeResult> scrape(final Stream<String> links) {
+    return scrape(links.iterator());
+  }
+
+  /**
+   * A scraped batch whose results are being handed downstream.
+   */
+  private static final class Batch {
+    private final List<ScrapeResult> results;
+    private int next;
+
+    private Batch(final List<ScrapeResult> results) {
+      this.results = results;
+    }
+  }
+
+  /**
+   * One subscription: subscribes to the links and publishes results to a single subscriber.
+   */
+  private final class Pipeline implements Flow.Subscriber<String>, Flow.Subscription {
+    private final Flow.Subscriber<? super ScrapeResult> downstream;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private Flow.Subscription upstream;
+    private List<String> filling;
+    private int slotsUsed; // Batches being filled, scraped or delivered
+    private final ArrayDeque<Batch> ready = new ArrayDeque<>();
+    private long demand;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private Throwable failure;
+    private boolean cancelled;
+    private boolean terminated;
+
+    private Pipeline(final Flow.Subscriber<? super ScrapeResult> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      synchronized (lock) {
+        if (upstream != null || cancelled) {
+          subscription.cancel();
+          return;
+        }
+        upstream = subscription;
+      }
+      pull();
+    }
+
+    @Override
+    public void onNext(final String link) {
+      List<String> full = null;
+      synchronized (lock) {
+        if (filling == null || cancelled) {
+          return;
+        }
+        filling.add(link);
+        if (filling.size() >= batchSize) {
+          full = filling;
+          filling = null;
+        }
+      }
+      if (full != null) {
+        submit(full);
+        pull();
+      }
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+      finishUpstream(t);
+    }
+
+    @Override
+    public void onComplete() {
+      finishUpstream(null);
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        cancel();
+        downstream.onError(new IllegalArgumentException("Requested " + n + " results, must be positive"));
+        return;
+      }
+      synchronized (lock) {
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      final Flow.Subscription subscription;
+      synchronized (lock) {
+        cancelled = true;
+        ready.clear();
+        subscription = upstream;
+      }
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+
+    private void finishUpstream(final Throwable t) {
+      List<String> partial = null;
+      synchronized (lock) {
+        upstreamDone = true;
+        upstreamError = t;
+        if (filling != null) {
+          if (filling.isEmpty()) {
+            slotsUsed--;
+          } else {
+            partial = filling;
+          }
+          filling = null;
+        }
+      }
+      if (partial != null) {
+        submit(partial);
+      }
+      drain();
+    }
+
+    /**
+     * Starts filling a new batch if a slot is free.
+     */
+    private void pull() {
+      final Flow.Subscription subscription;
+      synchronized (lock) {
+        if (upstream == null || upstreamDone || cancelled || filling != null || slotsUsed >= maxInFlightBatches) {
+          return;
+        }
+        filling = Lists.newArrayListWithCapacity(batchSize);
+        slotsUsed++;
+        subscription = upstream;
+      }
+      subscription.request(batchSize);
+    }
+
+    private void submit(final List<String> links) {
+      CompletableFuture<List<ScrapeResult>> scrape;
+      try {
+        scrape = facebookService.scrapeResultsAsync(accessToken, links);
+      } catch (final RuntimeException e) {
+        scrape = CompletableFutures.failed(e); // Delivered as error results, which frees the batch's slot
+      }
+      scrape.whenComplete((results, e) -> {
+        final List<ScrapeResult> linkResults = Lists.newArrayListWithCapacity(links.size());
+        for (int i = 0; i < links.size(); i++) {
+          final ScrapeResult result = e != null ? ScrapeResult.of(errorOf(e))
+              : i < results.size() && results.get(i) != null ? results.get(i)
+              : ScrapeResult.of(FacebookError.builder().message("No batch response for link").build());
+          linkResults.add(result.withLink(links.get(i)));
+        }
+        synchronized (lock) {
+          if (!cancelled) {
+            ready.add(new Batch(linkResults));
+          }
+        }
+        drainOnExecutor();
+      });
+    }
+
+    /**
+     * Drains on the executor rather than on the calling I/O thread. If the executor rejects the
+     * task, the stream fails.
+     */
+    private void drainOnExecutor() {
+      try {
+        executor.execute(this::drain);
+      } catch (final RejectedExecutionException e) {
+        final Flow.Subscription subscription;
+        synchronized (lock) {
+          failure = e;
+          ready.clear();
+          subscription = upstream;
+        }
+        if (subscription != null) {
+          subscription.cancel();
+        }
+        drain();
+      }
+    }
+
+    /**
+     * Delivers ready results while there is demand, and terminates once everything is delivered.
+     * Only one thread drains at a time; signals from other threads are picked up by that thread.
+     */
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        while (true) {
+          ScrapeResult next = null;
+          boolean released = false;
+          boolean complete = false;
+          Throwable error = null;
+
+          synchronized (lock) {
+            if (cancelled || terminated) {
+              break;
+            }
+            if (failure != null) {
+              terminated = true;
+              complete = true;
+              error = failure;
+            } else if (demand > 0 && !ready.isEmpty()) {
+              final Batch batch = ready.peek();
+              next = batch.results.get(batch.next++);
+              demand--;
+              if (batch.next == batch.results.size()) {
+                ready.poll();
+                slotsUsed--;
+                released = true;
+              }
+            } else if (upstreamDone && slotsUsed == 0 && ready.isEmpty()) {
+              terminated = true;
+              complete = true;
+              error = upstreamError;
+            } else {
+              break;
+            }
+          }
+
+          if (complete) {
+            if (error != null) {
+              downstream.onError(error);
+            } else {
+              downstream.onComplete();
+            }
+            break;
+          }
+          downstream.onNext(next);
+          if (released) {
+            pull();
+          }
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+
+  private static FacebookError errorOf(final Throwable t) {
+    final Throwable cause = unwrap(t);
+    if (cause instanceof FacebookException && ((FacebookException) cause).getFacebookError() != null) {
+      return ((FacebookException) cause).getFacebookError();
+    }
+    return FacebookError.builder().message(String.valueOf(cause)).build();
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private FacebookService facebookService;
+    private String accessToken;
+    private int batchSize = MAX_BATCH_SIZE;
+    private int maxInFlightBatches = 4;
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    public Builder facebookService(final FacebookService facebookService) {
+      this.facebookService = facebookService;
+      return this;
+    }
+
+    public Builder accessToken(final String accessToken) {
+      this.accessToken = accessToken;
+      return this;
+    }
+
+    /**
+     * Links per batch call. At most 50, the Graph batch limit.
+     */
+    public Builder batchSize(final int batchSize) {
+      checkArgument(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+          "batchSize must be between 1 and %s", MAX_BATCH_SIZE);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Maximum number of batches being filled, scraped or delivered at once. Bounds both memory
+     * and concurrent Graph calls.
+     */
+    public Builder maxInFlightBatches(final int maxInFlightBatches) {
+      checkArgument(maxInFlightBatches > 0, "maxInFlightBatches must be positive");
+      this.maxInFlightBatches = maxInFlightBatches;
+      return this;
+    }
+
+    /**
+     * Executor that hands results downstream and pulls links from upstream. Defaults to a shared
+     * cached pool of daemon threads.
+     */
+    public Builder executor(final Executor executor) {
+      this.executor = checkNotNull(executor);
+      return this;
+    }
+
+    public BulkScraper build() {
+      return new BulkScraper(this);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.beachninja.facebook.util.FacebookConstants.MAX_BATCH_SIZE;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Splits oversized batch requests into Graph-compliant chunks and runs them with a bounded
+ * number of chunks in flight. Results are reassembled in the original item order; a chunk that
+ * answers fewer items than it sent is padded with nulls, so later results never shift onto the
+ * wrong item. The first chunk to fail fails the whole submission, cancels the chunks in flight and
+ * stops launching more.
+ *
+ * Chunk boundaries never separate an item from the named items it depends on, since the Graph
+ * API only resolves dependencies within a single batch call.
+ *
+ * @author bradwee2000@gmail.com
+ */
+final class ChunkedSubmitter {
+
+  private final int concurrency;
+
+  ChunkedSubmitter(final int concurrency) {
+    this.concurrency = concurrency;
+  }
+
+  /**
+   * @param request batch request of any size
+   * @param submitChunk submits a single compliant chunk, returning one result per item
+   * @return results for every item, in request order, null for items a chunk did not answer
+   */
+  <T> CompletableFuture<List<T>> submit(final BatchRequest request,
+                                        final Function<BatchRequest, CompletableFuture<List<T>>> submitChunk) {
+    final List<BatchItem> items = request.getBatchItems();
+    if (items.size() <= MAX_BATCH_SIZE) {
+      return submitChunk.apply(request);
+    }
+
+    final List<BatchRequest> chunks = Lists.newArrayList();
+    for (final List<BatchItem> chunkItems : partition(items)) {
+      chunks.add(BatchRequest.builder().accessToken(request.getAccessToken()).addItems(chunkItems).build());
+    }
+    return new Run<>(chunks, submitChunk).start();
+  }
+
+  /**
+   * Splits items into chunks of at most MAX_BATCH_SIZE, cutting only where no later item
+   * depends on an earlier one.
+   */
+  static List<List<BatchItem>> partition(final List<BatchItem> items) {
+    // noCut[i] is true if items i-1 and i must be in the same chunk
+    final boolean[] noCut = new boolean[items.size() + 1];
+    final Map<String, Integer> indexByName = Maps.newHashMap();
+    for (int i = 0; i < items.size(); i++) {
+      for (final String dependency : items.get(i).getDependencies()) {
+        final Integer parent = indexByName.get(dependency);
+        if (parent != null) {
+          for (int j = parent + 1; j <= i; j++) {
+            noCut[j] = true;
+          }
+        }
+      }
+      if (items.get(i).getName() != null) {
+        indexByName.put(items.get(i).getName(), i);
+      }
+    }
+
+    final List<List<BatchItem>> chunks = Lists.newArrayList();
+    int start = 0;
+    while (start < items.size()) {
+      int end = Math.min(start + MAX_BATCH_SIZE, items.size());
+      while (end > start && noCut[end] && end < items.size()) {
+        end--;
+      }
+      checkArgument(end > start, "Dependent batch items span more than %s operations", MAX_BATCH_SIZE);
+      chunks.add(items.subList(start, end));
+      start = end;
+    }
+    return chunks;
+  }
+
+  /**
+   * A single chunked submission. Each completed chunk launches the next pending one.
+   */
+  private final class Run<T> {
+    private final List<BatchRequest> chunks;
+    private final Function<BatchRequest, CompletableFuture<List<T>>> submitChunk;
+    private final AtomicReferenceArray<List<T>> results;
+    private final AtomicReferenceArray<CompletableFuture<List<T>>> launched;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final AtomicInteger remaining;
+    private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+
+    private Run(final List<BatchRequest> chunks,
+                final Function<BatchRequest, CompletableFuture<List<T>>> submitChunk) {
+      this.chunks = chunks;
+      this.submitChunk = submitChunk;
+      this.results = new AtomicReferenceArray<>(chunks.size());
+      this.launched = new AtomicReferenceArray<>(chunks.size());
+      this.remaining = new AtomicInteger(chunks.size());
+    }
+
+    private CompletableFuture<List<T>> start() {
+      result.whenComplete((all, e) -> {
+        if (e != null) {
+          cancelLaunched();
+        }
+      });
+      for (int i = 0; i < Math.min(concurrency, chunks.size()); i++) {
+        launchNext();
+      }
+      return result;
+    }
+
+    private void launchNext() {
+      final int index = nextChunk.getAndIncrement();
+      if (index >= chunks.size() || result.isDone()) {
+        return;
+      }
+
+      final CompletableFuture<List<T>> chunkResult;
+      try {
+        chunkResult = submitChunk.apply(chunks.get(index));
+      } catch (final RuntimeException e) {
+        result.completeExceptionally(e);
+        return;
+      }
+      launched.set(index, chunkResult);
+      if (result.isDone()) {
+        chunkResult.cancel(true); // Failed while this chunk was being launched
+        return;
+      }
+
+      chunkResult.whenComplete((chunkResponses, e) -> {
+        if (e != null) {
+          result.completeExceptionally(unwrap(e));
+          return;
+        }
+        results.set(index, chunkResponses);
+        if (remaining.decrementAndGet() == 0) {
+          result.complete(concat());
+        } else {
+          launchNext();
+        }
+      });
+    }
+
+    private void cancelLaunched() {
+      for (int i = 0; i < launched.length(); i++) {
+        final CompletableFuture<List<T>> chunkResult = launched.get(i);
+        if (chunkResult != null) {
+          chunkResult.cancel(true);
+        }
+      }
+    }
+
+    /**
+     * Concatenates the chunk results, padding or cutting each to the size of its chunk.
+     */
+    private List<T> concat() {
+      final List<T> all = Lists.newArrayList();
+      for (int i = 0; i < results.length(); i++) {
+        final List<T> chunkResults = results.get(i) == null ? ImmutableList.of() : results.get(i);
+        final int size = chunks.get(i).getBatchItems().size();
+        for (int j = 0; j < size; j++) {
+          all.add(j < chunkResults.size() ? chunkResults.get(j) : null);
+        }
+      }
+      return all;
+    }
+  }
+}
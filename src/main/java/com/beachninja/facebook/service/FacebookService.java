@@ -1,40 +1,84 @@
 package com.beachninja.facebook.service;
 
+import com.beachninja.facebook.batch.BatchBodyDecoder;
+import com.beachninja.facebook.batch.BatchBodyIterator;
+import com.beachninja.facebook.batch.BatchItem;
 import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.batch.BatchRequestEntity;
 import com.beachninja.facebook.batch.BatchResponse;
+import com.beachninja.facebook.batch.BatchResponseIterator;
+import com.beachninja.facebook.breaker.CircuitBreaker;
+import com.beachninja.facebook.bulkhead.Bulkhead;
+import com.beachninja.facebook.bulkhead.Bulkheads;
+import com.beachninja.facebook.bulkhead.Bulkheads.Operation;
+import com.beachninja.facebook.error.ErrorCategory;
+import com.beachninja.facebook.error.FacebookError;
 import com.beachninja.facebook.error.FacebookErrorResponse;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.exception.CircuitOpenException;
 import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.beachninja.facebook.model.Header;
 import com.beachninja.facebook.model.Website;
 import com.beachninja.facebook.post.FacebookPostRequest;
 import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.post.PostResult;
+import com.beachninja.facebook.post.PostResultDecoder;
+import com.beachninja.facebook.ratelimit.RateGovernor;
 import com.beachninja.facebook.scrape.FacebookScrapeRequest;
 import com.beachninja.facebook.scrape.FacebookScrapeResponse;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.beachninja.facebook.scrape.ScrapeCache;
+import com.beachninja.facebook.scrape.ScrapeErrorCache;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.beachninja.facebook.scrape.ScrapeResultDecoder;
+import com.beachninja.facebook.token.AccessTokenProvider;
+import com.beachninja.facebook.transport.FacebookTransport;
+import com.beachninja.facebook.transport.PooledHttpTransport;
+import com.beachninja.facebook.util.CompletableFutures;
+import com.beachninja.facebook.util.Deadline;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.base.Charsets;
-import org.apache.commons.io.IOUtils;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.apache.http.Consts;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.fluent.Form;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URLEncoder;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
 import static com.beachninja.facebook.util.FacebookConstants.BATCH_URL;
-import static com.beachninja.facebook.util.FacebookConstants.CHARSET_UTF8;
+import static com.beachninja.facebook.util.FacebookConstants.MAX_BATCH_SIZE;
 import static com.beachninja.facebook.util.FacebookConstants.POST_URL;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Service to post on Facebook account time line.
  *
  * This API requires Facebook long-lived access token, which expires within 60 days of no use.
  *
+ * Set an AccessTokenProvider to have steps 2 and 3 below done automatically: posts and scrapes
+ * without an access token then use the provider's page or user token.
+ *
  * To request for long-lived access tokens:
  *
  * 1. Request user_access_token via https://developers.facebook.com/tools/explorer
@@ -53,10 +97,104 @@ import static com.beachninja.facebook.util.FacebookConstants.POST_URL;
 public class FacebookService {
   private static final Logger LOG = LoggerFactory.getLogger(FacebookService.class);
 
+  public static Builder builder() {
+    return new Builder();
+  }
+
   private final ObjectMapper om;
+  private final FacebookTransport transport;
+  private final ScrapeResultDecoder scrapeResultDecoder;
+  private final PostResultDecoder postResultDecoder;
+  private final ChunkedSubmitter chunkedSubmitter;
+  private final BatchRetryPolicy scrapeRetryPolicy;
+  private final BatchRetryPolicy retryPolicy;
+  private final RateGovernor rateGovernor;
+  private final CircuitBreaker circuitBreaker;
+  private final Hedger hedger;
+  private final Bulkheads bulkheads;
+  private final ScrapeCache scrapeCache;
+  private final ScrapeErrorCache scrapeErrorCache;
+  private final AccessTokenProvider accessTokenProvider;
+  private final PostDeduplicator postDeduplicator;
+  private final Duration timeout;
+  private final Duration connectTimeout;
+  private final Duration socketTimeout;
+  private final BatchRetryPolicy classifier;
 
+  /**
+   * Creates a service with a default pooled transport.
+   */
   public FacebookService(final ObjectMapper om) {
-    this.om = om;
+    this(builder().objectMapper(om));
+  }
+
+  public FacebookService(final ObjectMapper om, final FacebookTransport transport) {
+    this(builder().objectMapper(om).transport(transport));
+  }
+
+  private FacebookService(final Builder builder) {
+    this.om = checkNotNull(builder.om, "objectMapper is required");
+    this.transport = builder.transport == null ? PooledHttpTransport.builder().build() : builder.transport;
+    this.scrapeResultDecoder = new ScrapeResultDecoder(om);
+    this.postResultDecoder = new PostResultDecoder(om);
+    this.chunkedSubmitter = new ChunkedSubmitter(builder.batchConcurrency);
+    this.scrapeRetryPolicy = builder.scrapeRetryPolicy;
+    this.retryPolicy = builder.retryPolicy;
+    this.rateGovernor = builder.rateGovernor == null
+        ? RateGovernor.builder().objectMapper(om).build() : builder.rateGovernor;
+    this.circuitBreaker = builder.circuitBreaker == null ? CircuitBreaker.builder().build() : builder.circuitBreaker;
+    this.hedger = builder.hedger;
+    this.bulkheads = builder.bulkheads == null ? Bulkheads.builder().build() : builder.bulkheads;
+    this.scrapeCache = builder.scrapeCache;
+    this.scrapeErrorCache = builder.scrapeErrorCache;
+    this.accessTokenProvider = builder.accessTokenProvider;
+    this.postDeduplicator = builder.postDeduplicator;
+    this.timeout = builder.timeout;
+    this.connectTimeout = builder.connectTimeout;
+    this.socketTimeout = builder.socketTimeout;
+    this.classifier = retryPolicy == null ? BatchRetryPolicy.builder().build() : retryPolicy;
+  }
+
+  /**
+   * Returns the post deduplicator, or null if posts are not deduplicated.
+   */
+  public PostDeduplicator getPostDeduplicator() {
+    return postDeduplicator;
+  }
+
+  /**
+   * Bulkheads bounding concurrent calls per operation type and page.
+   */
+  public Bulkheads getBulkheads() {
+    return bulkheads;
+  }
+
+  /**
+   * Cache of recently scraped Websites, or null if scrapes are not cached.
+   */
+  public ScrapeCache getScrapeCache() {
+    return scrapeCache;
+  }
+
+  /**
+   * Cache of links whose scrape failed permanently, or null if scrape errors are not cached.
+   */
+  public ScrapeErrorCache getScrapeErrorCache() {
+    return scrapeErrorCache;
+  }
+
+  /**
+   * Circuit breaker guarding posts per page and access token.
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Rate governor pacing this service's calls.
+   */
+  public RateGovernor getRateGovernor() {
+    return rateGovernor;
   }
 
   /**
@@ -65,25 +203,247 @@ public class FacebookService {
    * @return FacebookPostResponse
    */
   public FacebookPostResponse post(final FacebookPostRequest request) {
+    return await(postAsync(request));
+  }
+
+  /**
+   * Post on Facebook user / page's timeline, giving up once the deadline passes.
+   * @param request
+   * @param deadline time by which the post must be done
+   * @return FacebookPostResponse
+   * @throws FacebookTimeoutException if the deadline passes first
+   */
+  public FacebookPostResponse post(final FacebookPostRequest request, final Deadline deadline) {
+    return await(postAsync(request, deadline));
+  }
+
+  /**
+   * Post on Facebook user / page's timeline without blocking the calling thread.
+   * @param request
+   * @return future FacebookPostResponse
+   */
+  public CompletableFuture<FacebookPostResponse> postAsync(final FacebookPostRequest request) {
+    return postAsync(request, defaultDeadline());
+  }
+
+  /**
+   * Post on Facebook user / page's timeline without blocking the calling thread, failing with a
+   * FacebookTimeoutException once the deadline passes.
+   * @param request
+   * @param deadline time by which the post must be done
+   * @return future FacebookPostResponse
+   */
+  public CompletableFuture<FacebookPostResponse> postAsync(final FacebookPostRequest request,
+                                                           final Deadline deadline) {
+    if (postDeduplicator != null) {
+      return postDeduplicator.post(request, post -> publishAsync(post, deadline));
+    }
+    return publishAsync(request, deadline);
+  }
+
+  private CompletableFuture<FacebookPostResponse> publishAsync(final FacebookPostRequest request,
+                                                               final Deadline deadline) {
+    if (request.getAccessToken() == null && accessTokenProvider != null) {
+      final String pageId = request.getFacebookId();
+      return bounded(deadline, accessTokenProvider.getPageTokenAsync(pageId)
+          .thenCompose(token -> publishAsync(request.withAccessToken(token), deadline))
+          .whenComplete((response, e) -> {
+            if (e != null && isTokenRejected(e)) {
+              accessTokenProvider.invalidate(pageId);
+            }
+          }));
+    }
+    final String pageId = request.getFacebookId();
+    final String circuit = CircuitBreaker.keyOf(pageId, request.getAccessToken());
     try {
-      final HttpResponse response = Request.Post(String.format(POST_URL, request.getFacebookId()))
-              .bodyForm(Form.form()
-                      .add("title", request.getName().orElse(""))
-                      .add("message", request.getMessage().orElse(""))
-                      .add("link", request.getLink().orElse(""))
-                      .add("picture", request.getImageUrl().orElse(""))
-                      .add("description", request.getDescription().orElse(""))
-                      .add("access_token", request.getAccessToken())
-                      .build())
-              .execute()
-              .returnResponse();
-
-      assertSuccessfulResponse(response);
-      final String apiResponse  = IOUtils.toString(response.getEntity().getContent(), Charsets.UTF_8);
-      return om.readValue(apiResponse, FacebookPostResponse.class);
-    } catch (final Exception e) {
-      throw new RuntimeException(e);
+      circuitBreaker.acquire(circuit);
+    } catch (final CircuitOpenException e) {
+      return CompletableFutures.failed(e);
+    }
+    final Dispatch dispatch = new Dispatch();
+    return dispatch.track(bounded(deadline, withRetries(false, null, () -> rateGovernor.acquire(ImmutableSet.of(pageId)).thenCompose(ready ->
+        withDeadline(deadline, () -> bulkheads.call(Operation.POST, pageId, () -> {
+          if (!dispatch.send()) {
+            return CompletableFutures.failed(unsentDeadlineExceeded());
+          }
+          return transport.executeAsync(toHttpPost(request, deadline), response -> {
+            rateGovernor.record(response, pageId);
+            assertSuccessfulResponse(response);
+            return om.readValue(response.getEntity().getContent(), FacebookPostResponse.class);
+          });
+        }))))))
+        .whenComplete((response, e) -> {
+          if (e == null) {
+            circuitBreaker.onSuccess(circuit);
+          } else {
+            final Throwable cause = unwrap(e);
+            recordCircuit(circuit, cause instanceof FacebookException
+                ? ((FacebookException) cause).getFacebookError() : null, classifier.classify(cause));
+          }
+        });
+  }
+
+  /**
+   * Publishes several posts through the Graph batch API instead of one HTTP call per post.
+   * @param requests posts to publish
+   * @return one PostResult per request, in request order
+   */
+  public List<PostResult> postBatch(final List<FacebookPostRequest> requests) {
+    return await(postBatchAsync(requests));
+  }
+
+  /**
+   * Publishes several posts through the Graph batch API without blocking the calling thread.
+   *
+   * Each post carries its own access token, so posts to different pages share batch calls:
+   * N posts take ceil(N / 50) HTTP calls whatever their pages and tokens.
+   * @param requests posts to publish
+   * @return future PostResult per request, in request order
+   */
+  public CompletableFuture<List<PostResult>> postBatchAsync(final List<FacebookPostRequest> requests) {
+    return postDeduplicator == null ? publishBatchAsync(requests) : dedupedBatchAsync(requests);
+  }
+
+  /**
+   * Publishes only the posts that are not repeats, then answers each repeat with the outcome of
+   * its original post.
+   */
+  private CompletableFuture<List<PostResult>> dedupedBatchAsync(final List<FacebookPostRequest> requests) {
+    final List<PostDeduplicator.Claim> claims = Lists.newArrayList();
+    final List<Integer> owned = Lists.newArrayList();
+    for (int i = 0; i < requests.size(); i++) {
+      final PostDeduplicator.Claim claim = postDeduplicator.claim(requests.get(i));
+      claims.add(claim);
+      if (claim.isOwner()) {
+        owned.add(i);
+      }
     }
+    final PostResult[] results = new PostResult[requests.size()];
+    final CompletableFuture<List<PostResult>> published = owned.isEmpty()
+        ? CompletableFuture.completedFuture(Lists.newArrayList())
+        : publishBatchAsync(Lists.transform(owned, requests::get));
+    return published.whenComplete((ownedResults, e) -> {
+      for (int i = 0; i < owned.size(); i++) {
+        final PostDeduplicator.Claim claim = claims.get(owned.get(i));
+        final PostResult result = e == null ? ownedResults.get(i) : null;
+        results[owned.get(i)] = result;
+        if (e != null) {
+          claim.fail(unwrap(e));
+        } else if (result == null) {
+          claim.fail(new FacebookTimeoutException("No batch response for post", false, null));
+        } else if (result.isSuccess()) {
+          claim.complete(result.getResponse());
+        } else {
+          claim.fail(new FacebookException(result.getError()));
+        }
+      }
+    }).thenCompose(ready -> {
+      final List<CompletableFuture<FacebookPostResponse>> repeats = Lists.newArrayList();
+      for (int i = 0; i < claims.size(); i++) {
+        if (!claims.get(i).isOwner()) {
+          final int index = i;
+          repeats.add(claims.get(i).getFuture().whenComplete((response, e) ->
+              results[index] = e == null ? PostResult.of(response) : PostResult.of(errorOf(unwrap(e)))));
+        }
+      }
+      return CompletableFuture.allOf(repeats.toArray(new CompletableFuture<?>[0]))
+          .handle((done, e) -> Lists.newArrayList(results));
+    });
+  }
+
+  /**
+   * True if Facebook answered the call with an auth error. Calls that a circuit breaker or bulkhead
+   * turned away, or that timed out, never got an answer, so they say nothing about the token.
+   */
+  private boolean isTokenRejected(final Throwable failure) {
+    final Throwable cause = unwrap(failure);
+    return cause instanceof FacebookException && !(cause instanceof CircuitOpenException)
+        && !(cause instanceof BulkheadFullException) && !(cause instanceof FacebookTimeoutException)
+        && classifier.classify(cause) == ErrorCategory.AUTH;
+  }
+
+  private static FacebookError errorOf(final Throwable failure) {
+    if (failure instanceof FacebookException && ((FacebookException) failure).getFacebookError() != null) {
+      return ((FacebookException) failure).getFacebookError();
+    }
+    return FacebookError.builder().message(String.valueOf(failure.getMessage())).build();
+  }
+
+  private CompletableFuture<List<PostResult>> publishBatchAsync(final List<FacebookPostRequest> requests) {
+    if (accessTokenProvider != null && requests.stream().anyMatch(request -> request.getAccessToken() == null)) {
+      final List<CompletableFuture<FacebookPostRequest>> withTokens = Lists.newArrayList();
+      for (final FacebookPostRequest request : requests) {
+        withTokens.add(request.getAccessToken() != null ? CompletableFuture.completedFuture(request)
+            : accessTokenProvider.getPageTokenAsync(request.getFacebookId()).thenApply(request::withAccessToken));
+      }
+      return CompletableFuture.allOf(withTokens.toArray(new CompletableFuture<?>[0]))
+          .thenCompose(ready -> publishBatchAsync(Lists.transform(withTokens, CompletableFuture::join)));
+    }
+    final PostResult[] results = new PostResult[requests.size()];
+    final List<Integer> sent = Lists.newArrayList();
+    final List<String> circuits = Lists.newArrayList();
+    for (int i = 0; i < requests.size(); i++) {
+      final FacebookPostRequest request = requests.get(i);
+      final String circuit = CircuitBreaker.keyOf(request.getFacebookId(), request.getAccessToken());
+      try {
+        circuitBreaker.acquire(circuit);
+        sent.add(i);
+        circuits.add(circuit);
+      } catch (final CircuitOpenException e) {
+        results[i] = PostResult.of(circuitOpenError(e));
+      }
+    }
+    if (sent.isEmpty()) {
+      return CompletableFuture.completedFuture(Lists.newArrayList(results));
+    }
+
+    final BatchRequest.Builder batchRequest = BatchRequest.builder()
+        .accessToken(requests.get(sent.get(0)).getAccessToken()); // Graph requires a top-level fallback token
+    for (final int index : sent) {
+      batchRequest.addItem(requests.get(index).toBatchItem());
+    }
+    return submitBatchAsync(batchRequest.build(), postResultDecoder, Operation.POST, defaultDeadline(), null).whenComplete((sentResults, e) -> {
+      for (int i = 0; i < circuits.size(); i++) {
+        final PostResult result = e == null && i < sentResults.size() ? sentResults.get(i) : null;
+        if (result == null) {
+          circuitBreaker.release(circuits.get(i));
+        } else if (result.isSuccess()) {
+          circuitBreaker.onSuccess(circuits.get(i));
+        } else {
+          final ErrorCategory category = classifier.classify(0, result.getError());
+          recordCircuit(circuits.get(i), result.getError(), category);
+          if (category == ErrorCategory.AUTH && accessTokenProvider != null) {
+            accessTokenProvider.invalidate(requests.get(sent.get(i)).getFacebookId());
+          }
+        }
+      }
+    }).thenApply(sentResults -> {
+      for (int i = 0; i < sent.size(); i++) {
+        results[sent.get(i)] = i < sentResults.size() ? sentResults.get(i) : null;
+      }
+      return Lists.newArrayList(results);
+    });
+  }
+
+  /**
+   * Auth and permission failures count towards opening the circuit. Other failures say nothing
+   * about the page and token, so they only free a half-open probe.
+   */
+  private void recordCircuit(final String circuit, final FacebookError error, final ErrorCategory category) {
+    if (category == ErrorCategory.AUTH) {
+      circuitBreaker.onFailure(circuit, error);
+    } else {
+      circuitBreaker.release(circuit);
+    }
+  }
+
+  private static FacebookError circuitOpenError(final CircuitOpenException e) {
+    final FacebookError lastError = e.getFacebookError();
+    return FacebookError.builder()
+        .message(e.getMessage())
+        .type(lastError == null ? null : lastError.getType())
+        .code(lastError == null ? 0 : lastError.getCode())
+        .build();
   }
 
   /**
@@ -94,71 +454,744 @@ public class FacebookService {
    * @return FacebookScrapeResponse
    */
   public FacebookScrapeResponse scrape(final FacebookScrapeRequest request) {
-    final BatchRequest batchRequest = BatchRequest.builder()
-        .accessToken(request.getAccessToken())
-        .addItems(request.toBatchItems())
-        .build();
-
-    LOG.debug("Batch Scrape Request: {}", batchRequest);
+    return await(scrapeAsync(request));
+  }
 
-    final List<BatchResponse> batchResponses = submitBatch(batchRequest);
+  /**
+   * Request Facebook to scrape URLs, giving up once the deadline passes.
+   * @param request
+   * @param deadline time by which every link must be scraped
+   * @return FacebookScrapeResponse
+   * @throws FacebookTimeoutException if the deadline passes first
+   */
+  public FacebookScrapeResponse scrape(final FacebookScrapeRequest request, final Deadline deadline) {
+    return await(scrapeAsync(request, deadline));
+  }
 
-    final FacebookScrapeResponse.Builder scrapeResponseBuilder = FacebookScrapeResponse.builder();
-    try {
-      for (final BatchResponse batchResponse : batchResponses) {
-        LOG.debug("Batch Scrape Response: {}", batchResponse);
+  /**
+   * Request Facebook to scrape URLs without blocking the calling thread.
+   *
+   * @param request
+   * @return future FacebookScrapeResponse
+   */
+  public CompletableFuture<FacebookScrapeResponse> scrapeAsync(final FacebookScrapeRequest request) {
+    return scrapeAsync(request, defaultDeadline());
+  }
 
-        if (batchResponse.getCode() == 200)   {
-          scrapeResponseBuilder.addWebsite(om.readValue(batchResponse.getBody(), Website.class));
+  /**
+   * Request Facebook to scrape URLs without blocking the calling thread, failing with a
+   * FacebookTimeoutException once the deadline passes.
+   * @param request
+   * @param deadline time by which every link must be scraped
+   * @return future FacebookScrapeResponse
+   */
+  public CompletableFuture<FacebookScrapeResponse> scrapeAsync(final FacebookScrapeRequest request,
+                                                               final Deadline deadline) {
+    if (request.getAccessToken() == null && accessTokenProvider != null) {
+      return bounded(deadline, accessTokenProvider.getUserTokenAsync().thenCompose(token -> scrapeAsync(
+          FacebookScrapeRequest.builder().accessToken(token).addLinks(request.getLinks()).build(), deadline)));
+    }
+    return scrapeResultsAsync(request.getAccessToken(), request.getLinks(), deadline).thenApply(results -> {
+      final FacebookScrapeResponse.Builder scrapeResponseBuilder = FacebookScrapeResponse.builder();
+      for (final ScrapeResult result : results) {
+        if (result == null) {
+          scrapeResponseBuilder.addError(FacebookError.builder().message("No batch response for link").build());
+        } else if (result.isSuccess()) {
+          scrapeResponseBuilder.addWebsite(result.getWebsite());
+        } else if (result.isCached()) {
+          scrapeResponseBuilder.addCachedError(result.getError());
         } else {
-          final FacebookErrorResponse errorResponse = om.readValue(batchResponse.getBody(), FacebookErrorResponse.class);
-          scrapeResponseBuilder.addError(errorResponse.getFacebookError());
+          scrapeResponseBuilder.addError(result.getError());
         }
       }
       return scrapeResponseBuilder.build();
-    } catch (final Exception e) {
-      throw new RuntimeException(e);
+    });
+  }
+
+  /**
+   * Scrapes links, applying the scrape caches and retry policy if they are set. Only links missing
+   * from both caches are sent. Results are in link order; links the API left out are null.
+   */
+  CompletableFuture<List<ScrapeResult>> scrapeResultsAsync(final String accessToken, final List<String> links) {
+    return scrapeResultsAsync(accessToken, links, defaultDeadline());
+  }
+
+  private CompletableFuture<List<ScrapeResult>> scrapeResultsAsync(final String accessToken,
+                                                                   final List<String> links,
+                                                                   final Deadline deadline) {
+    final ScrapeResult[] results = new ScrapeResult[links.size()];
+    final List<Integer> misses = Lists.newArrayList();
+    for (int i = 0; i < links.size(); i++) {
+      final Website website = scrapeCache == null ? null : scrapeCache.get(links.get(i));
+      final FacebookError error = website != null || scrapeErrorCache == null
+          ? null : scrapeErrorCache.get(links.get(i));
+      if (website != null) {
+        results[i] = ScrapeResult.of(website);
+      } else if (error != null) {
+        results[i] = ScrapeResult.cached(error);
+      } else {
+        misses.add(i);
+      }
+    }
+    if (misses.isEmpty()) {
+      return CompletableFuture.completedFuture(Lists.newArrayList(results));
     }
+
+    final BatchRequest batchRequest = BatchRequest.builder()
+        .accessToken(accessToken)
+        .addItems(FacebookScrapeRequest.builder()
+            .accessToken(accessToken)
+            .addLinks(Lists.transform(misses, links::get))
+            .build()
+            .toBatchItems())
+        .build();
+
+    LOG.debug("Batch Scrape Request: {}", batchRequest);
+
+    return submitScrapesAsync(batchRequest, deadline).thenApply(sentResults -> {
+      for (int i = 0; i < misses.size(); i++) {
+        final ScrapeResult result = i < sentResults.size() ? sentResults.get(i) : null;
+        results[misses.get(i)] = result;
+        if (result == null) {
+          continue;
+        }
+        if (scrapeCache != null && result.isSuccess()) {
+          scrapeCache.put(links.get(misses.get(i)), result.getWebsite());
+        } else if (scrapeErrorCache != null && !result.isSuccess()
+            && classifier.classify(0, result.getError()) == ErrorCategory.PERMANENT) {
+          scrapeErrorCache.put(links.get(misses.get(i)), result.getError());
+        }
+      }
+      return Lists.newArrayList(results);
+    });
+  }
+
+  private CompletableFuture<List<ScrapeResult>> submitScrapesAsync(final BatchRequest batchRequest,
+                                                                   final Deadline deadline) {
+    if (scrapeRetryPolicy == null) {
+      return submitBatchAsync(batchRequest, scrapeResultDecoder, Operation.SCRAPE, deadline, null);
+    }
+    final BatchBodyDecoder<Coded<ScrapeResult>> decoder = Coded.decoder(scrapeResultDecoder);
+    final BatchRetrier.Budget budget = BatchRetrier.Budget.of(scrapeRetryPolicy, batchRequest.getBatchItems().size());
+    return bounded(deadline, BatchRetrier.submit(batchRequest, scrapeRetryPolicy, budget,
+        request -> submitBatchAsync(request, decoder, Operation.SCRAPE, deadline, budget),
+        result -> scrapeRetryPolicy.classify(result.code, result.value.getError()))
+        .thenApply(results -> Lists.transform(results, result -> result == null ? null : result.value)));
   }
 
   /**
-   * Submits a batch request to Facebook Graph API
+   * Submits a batch request to Facebook Graph API. Requests over the Graph limit of 50 operations
+   * are split into chunks that run in parallel; responses keep the original item order.
    * @param request batch request
    * @return Facebook Graph API response
-   * @throws JsonProcessingException
-   * @throws ExecutionException
-   * @throws InterruptedException
    */
   public List<BatchResponse> submitBatch(final BatchRequest request) {
-    try {
-      final HttpResponse response = Request.Post(BATCH_URL)
-              .bodyForm(Form.form()
-                      .add("access_token", request.getAccessToken())
-                      .add("batch", URLEncoder.encode(om.writeValueAsString(request.getBatchItems()), CHARSET_UTF8))
-                      .build()
-              ).execute()
-              .returnResponse();
+    return await(submitBatchAsync(request));
+  }
+
+  /**
+   * Submits a batch request to Facebook Graph API, giving up once the deadline passes.
+   * @param request batch request
+   * @param deadline time by which every chunk must be answered
+   * @return Facebook Graph API response
+   * @throws FacebookTimeoutException if the deadline passes first
+   */
+  public List<BatchResponse> submitBatch(final BatchRequest request, final Deadline deadline) {
+    return await(submitBatchAsync(request, deadline));
+  }
+
+  /**
+   * Submits a batch request to Facebook Graph API without blocking the calling thread.
+   * @param request batch request
+   * @return future Facebook Graph API response
+   */
+  public CompletableFuture<List<BatchResponse>> submitBatchAsync(final BatchRequest request) {
+    return submitBatchAsync(request, defaultDeadline());
+  }
+
+  /**
+   * Submits a batch request to Facebook Graph API without blocking the calling thread, failing
+   * with a FacebookTimeoutException once the deadline passes.
+   * @param request batch request
+   * @param deadline time by which every chunk must be answered
+   * @return future Facebook Graph API response
+   */
+  public CompletableFuture<List<BatchResponse>> submitBatchAsync(final BatchRequest request,
+                                                                 final Deadline deadline) {
+    return submitBatchAsync(request, deadline, null);
+  }
+
+  /**
+   * @param budget retry budget shared with the caller's retries, or null for one per chunk
+   */
+  private CompletableFuture<List<BatchResponse>> submitBatchAsync(final BatchRequest request,
+                                                                  final Deadline deadline,
+                                                                  final BatchRetrier.Budget budget) {
+    return bounded(deadline, chunkedSubmitter.submit(request, chunk -> submitChunkAsync(chunk, deadline, budget)));
+  }
+
+  /**
+   * Submits a batch request, then resubmits only the items that failed with a retryable code or
+   * error as smaller follow-up batches, with backoff. Responses of retried items replace the
+   * failed ones in their original positions.
+   * @param request batch request
+   * @param retryPolicy decides which items to retry and how often
+   * @return Facebook Graph API response, from the last attempt of each item
+   */
+  public List<BatchResponse> submitBatch(final BatchRequest request, final BatchRetryPolicy retryPolicy) {
+    return await(submitBatchAsync(request, retryPolicy));
+  }
+
+  /**
+   * Submits a batch request with selective item retries without blocking the calling thread.
+   * @param request batch request
+   * @param retryPolicy decides which items to retry and how often
+   * @return future Facebook Graph API response, from the last attempt of each item
+   */
+  public CompletableFuture<List<BatchResponse>> submitBatchAsync(final BatchRequest request,
+                                                                 final BatchRetryPolicy retryPolicy) {
+    final Deadline deadline = defaultDeadline();
+    final BatchRetrier.Budget budget = BatchRetrier.Budget.of(retryPolicy, request.getBatchItems().size());
+    return BatchRetrier.submit(request, retryPolicy, budget, attempt -> submitBatchAsync(attempt, deadline, budget),
+        response -> retryPolicy.classify(response.getCode(), errorOf(response)));
+  }
+
+  /**
+   * Submits a batch request and decodes each item's body in a single pass with the given decoder.
+   * @param request batch request
+   * @param decoder decodes each item by its code
+   * @return future decoded items, in request order
+   */
+  public <T> CompletableFuture<List<T>> submitBatchAsync(final BatchRequest request,
+                                                         final BatchBodyDecoder<T> decoder) {
+    return submitBatchAsync(request, decoder, Operation.BATCH, defaultDeadline(), null);
+  }
+
+  /**
+   * @param budget retry budget shared with the caller's retries, or null for one per chunk
+   */
+  private <T> CompletableFuture<List<T>> submitBatchAsync(final BatchRequest request,
+                                                          final BatchBodyDecoder<T> decoder,
+                                                          final Operation operation,
+                                                          final Deadline deadline,
+                                                          final BatchRetrier.Budget budget) {
+    return bounded(deadline, chunkedSubmitter.submit(request,
+        chunk -> decodeChunkAsync(chunk, decoder, operation, deadline, budget)));
+  }
+
+  private CompletableFuture<List<BatchResponse>> submitChunkAsync(final BatchRequest request,
+                                                                  final Deadline deadline,
+                                                                  final BatchRetrier.Budget budget) {
+    final Set<String> pageIds = RateGovernor.pageIdsOf(request);
+    return withRetries(isIdempotent(request), budget, () -> rateGovernor.acquire(pageIds).thenCompose(ready ->
+        hedged(request, () -> withDeadline(deadline, () -> bulkheads.call(Operation.BATCH, onlyPageOf(pageIds), () ->
+            transport.executeAsync(toHttpPost(request, deadline), response -> {
+              rateGovernor.record(response, null);
+              assertSuccessfulResponse(response);
+              try (final BatchResponseIterator batchResponses = readBatchResponses(response)) {
+                return Lists.newArrayList(recordingHeaders(request, batchResponses));
+              }
+            }))))));
+  }
+
+  private <T> CompletableFuture<List<T>> decodeChunkAsync(final BatchRequest request,
+                                                          final BatchBodyDecoder<T> decoder,
+                                                          final Operation operation,
+                                                          final Deadline deadline,
+                                                          final BatchRetrier.Budget budget) {
+    final Set<String> pageIds = RateGovernor.pageIdsOf(request);
+    return withRetries(isIdempotent(request), budget, () -> rateGovernor.acquire(pageIds).thenCompose(ready ->
+        hedged(request, () -> withDeadline(deadline, () -> bulkheads.call(operation, onlyPageOf(pageIds), () ->
+            transport.executeAsync(toHttpPost(request, deadline),
+                response -> decodeChunk(request, decoder, response)))))));
+  }
+
+  /**
+   * Returns the page of a batch whose items are all for one page, else null.
+   */
+  private static String onlyPageOf(final Set<String> pageIds) {
+    return pageIds.size() == 1 ? pageIds.iterator().next() : null;
+  }
+
+  /**
+   * Starts the call through the hedger if one is set and every item of the batch is safe to
+   * repeat.
+   */
+  private <T> CompletableFuture<T> hedged(final BatchRequest request, final Supplier<CompletableFuture<T>> call) {
+    return hedger == null || !isIdempotent(request) ? call.get() : hedger.call(call);
+  }
+
+  /**
+   * True if every item of the batch is safe to repeat: GET requests and scrapes.
+   */
+  private static boolean isIdempotent(final BatchRequest request) {
+    for (final BatchItem item : request.getBatchItems()) {
+      final boolean scrape = item.getBody() != null && item.getBody().contains("scrape=true");
+      if (!"GET".equals(item.getMethod()) && !scrape) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Starts one HTTP exchange, cancelling it if the deadline passes first. Connect and socket
+   * timeouts are reported as FacebookTimeoutException too.
+   */
+  private <T> CompletableFuture<T> withDeadline(final Deadline deadline, final Supplier<CompletableFuture<T>> call) {
+    if (deadline.isExpired()) {
+      return CompletableFutures.failed(unsentDeadlineExceeded());
+    }
+    final CompletableFuture<T> exchange = CompletableFutures.within(call.get(), deadline.remaining(),
+        FacebookService::deadlineExceeded);
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    exchange.whenComplete((value, e) -> {
+      if (e == null) {
+        result.complete(value);
+      } else {
+        final Throwable cause = unwrap(e);
+        result.completeExceptionally(cause instanceof InterruptedIOException
+            ? new FacebookTimeoutException(cause.toString(), deadline.isExpired(),
+                !(cause instanceof ConnectTimeoutException), cause) : e);
+      }
+    });
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) {
+        exchange.cancel(true);
+      }
+    });
+    return result;
+  }
 
-      assertSuccessfulResponse(response);
+  /**
+   * Fails the future with a FacebookTimeoutException if it is not done by the deadline.
+   */
+  private static <T> CompletableFuture<T> bounded(final Deadline deadline, final CompletableFuture<T> future) {
+    return CompletableFutures.within(future, deadline.remaining(), FacebookService::deadlineExceeded);
+  }
 
-      final String apiResponse = IOUtils.toString(response.getEntity().getContent(), Charsets.UTF_8);
+  private static FacebookTimeoutException deadlineExceeded() {
+    return new FacebookTimeoutException("Deadline exceeded", true, null);
+  }
+
+  private static FacebookTimeoutException unsentDeadlineExceeded() {
+    return new FacebookTimeoutException("Deadline exceeded before the request was sent", true, false, null);
+  }
+
+  private Deadline defaultDeadline() {
+    return Deadline.after(timeout);
+  }
+
+  /**
+   * Starts the call, retrying it on retryable failures if a retry policy is set. A call that is
+   * not idempotent is only resent if it failed before its request was sent.
+   * @param budget retry budget shared with the caller's retries, or null for one of its own
+   */
+  private <T> CompletableFuture<T> withRetries(final boolean idempotent, final BatchRetrier.Budget budget,
+                                               final Supplier<CompletableFuture<T>> call) {
+    if (retryPolicy == null) {
+      return call.get();
+    }
+    final BatchRetrier.Budget shared = budget != null ? budget : BatchRetrier.Budget.of(retryPolicy, 1);
+    return BatchRetrier.call(retryPolicy, call, idempotent, shared);
+  }
+
+  private <T> List<T> decodeChunk(final BatchRequest request,
+                                  final BatchBodyDecoder<T> decoder,
+                                  final HttpResponse response) throws IOException {
+    rateGovernor.record(response, null);
+    assertSuccessfulResponse(response);
+
+    final List<BatchItem> items = request.getBatchItems();
+    final List<T> results = Lists.newArrayList();
+    try (final BatchBodyIterator<T> iterator = BatchBodyIterator.of(om.getFactory(),
+        response.getEntity().getContent(), decoder, (index, name, value) ->
+            rateGovernor.record(name, value, index < items.size()
+                ? RateGovernor.pageIdOf(items.get(index).getRelativeUrl()) : null))) {
+      while (iterator.hasNext()) {
+        final T result = iterator.next();
+        LOG.debug("Batch Response: {}", result);
+        results.add(result);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Records the usage headers of each batch response as it is read.
+   */
+  private Iterator<BatchResponse> recordingHeaders(final BatchRequest request,
+                                                   final Iterator<BatchResponse> batchResponses) {
+    final List<BatchItem> items = request.getBatchItems();
+    final int[] index = {0};
+    return Iterators.transform(batchResponses, response -> {
+      final int i = index[0]++;
+      if (response != null) {
+        final String pageId = i < items.size() ? RateGovernor.pageIdOf(items.get(i).getRelativeUrl()) : null;
+        for (final Header header : response.getHeaders()) {
+          rateGovernor.record(header.getName(), header.getValue(), pageId);
+        }
+      }
+      return response;
+    });
+  }
 
-      return om.readValue(apiResponse, new TypeReference<List<BatchResponse>>() {});
-    } catch (final Exception e) {
+  /**
+   * Submits a batch request to Facebook Graph API and hands the responses to the consumer as they
+   * are parsed off the wire, so item N can be handled while item N+1 is still arriving.
+   *
+   * The iterator is only valid inside the consumer; the connection is released once it returns.
+   * The request must fit in a single Graph batch.
+   *
+   * @param request batch request
+   * @param consumer pulls batch responses from the iterator
+   * @return result of the consumer
+   */
+  public <T> T streamBatch(final BatchRequest request,
+                           final Function<? super Iterator<BatchResponse>, ? extends T> consumer) {
+    checkArgument(request.getBatchItems().size() <= MAX_BATCH_SIZE,
+        "Cannot stream more than %s batch items in one call", MAX_BATCH_SIZE);
+    await(rateGovernor.acquire(RateGovernor.pageIdsOf(request)));
+    final Bulkhead bulkhead = bulkheads.get(Operation.BATCH);
+    await(bulkhead.acquire());
+    try {
+      return transport.execute(toHttpPost(request, defaultDeadline()), response -> {
+        rateGovernor.record(response, null);
+        assertSuccessfulResponse(response);
+        try (final BatchResponseIterator batchResponses = readBatchResponses(response)) {
+          return consumer.apply(recordingHeaders(request, batchResponses));
+        }
+      });
+    } catch (final IOException e) {
       throw new RuntimeException(e);
+    } finally {
+      bulkhead.release();
     }
   }
 
+  private HttpPost toHttpPost(final FacebookPostRequest request, final Deadline deadline) {
+    final HttpPost httpPost = new HttpPost(String.format(POST_URL, request.getFacebookId()));
+    httpPost.setConfig(requestConfig(deadline));
+    httpPost.setEntity(new UrlEncodedFormEntity(Form.form()
+            .add("title", request.getName().orElse(""))
+            .add("message", request.getMessage().orElse(""))
+            .add("link", request.getLink().orElse(""))
+            .add("picture", request.getImageUrl().orElse(""))
+            .add("description", request.getDescription().orElse(""))
+            .add("access_token", request.getAccessToken())
+            .build(), Consts.UTF_8));
+    return httpPost;
+  }
+
+  private HttpPost toHttpPost(final BatchRequest request, final Deadline deadline) {
+    final HttpPost httpPost = new HttpPost(BATCH_URL);
+    httpPost.setConfig(requestConfig(deadline));
+    httpPost.setEntity(new BatchRequestEntity(om, request));
+    return httpPost;
+  }
+
+  /**
+   * Connect, pool lease and socket timeouts, none longer than the time left.
+   */
+  private RequestConfig requestConfig(final Deadline deadline) {
+    final long remaining = Math.max(1, deadline.remaining().toMillis());
+    return RequestConfig.custom()
+        .setConnectTimeout((int) Math.min(connectTimeout.toMillis(), remaining))
+        .setConnectionRequestTimeout((int) Math.min(connectTimeout.toMillis(), remaining))
+        .setSocketTimeout((int) Math.min(socketTimeout.toMillis(), remaining))
+        .build();
+  }
+
+  /**
+   * Lazily parses the JSON array of batch responses straight from the entity stream.
+   */
+  private BatchResponseIterator readBatchResponses(final HttpResponse response) throws IOException {
+    return BatchResponseIterator.of(om, response.getEntity().getContent());
+  }
+
+  /**
+   * Returns the error in a failed batch response, or null if there is none.
+   */
+  private FacebookError errorOf(final BatchResponse response) {
+    if (response.getCode() == 200 || response.getBody() == null) {
+      return null;
+    }
+    try {
+      return om.readValue(response.getBody(), FacebookErrorResponse.class).getFacebookError();
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Throws a FacebookException carrying the HTTP status if the response failed. Error bodies that
+   * are not Graph errors, such as a proxy's 502 page, become an error with the status line as its
+   * message.
+   */
   private void assertSuccessfulResponse(final HttpResponse response) {
+    final int status = response.getStatusLine().getStatusCode();
+    if (status == 200) {
+      return;
+    }
+    FacebookError error = null;
     try {
-      if (response.getStatusLine().getStatusCode() != 200) {
-        final InputStream is = response.getEntity().getContent();
-        final FacebookErrorResponse errorResponse = om.readValue(IOUtils.toString(is, Charsets.UTF_8),
-            FacebookErrorResponse.class);
-        throw new FacebookException(errorResponse);
-      }
+      final InputStream is = response.getEntity().getContent();
+      error = om.readValue(is, FacebookErrorResponse.class).getFacebookError();
     } catch (final IOException e) {
+      LOG.debug("Unreadable error response with status {}", status, e);
+    }
+    if (error == null) {
+      error = FacebookError.builder().message(String.valueOf(response.getStatusLine())).build();
+    }
+    throw new FacebookException(error, status);
+  }
+
+  /**
+   * Waits for the future, rethrowing its failure unchecked.
+   */
+  private static <T> T await(final CompletableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
       throw new RuntimeException(e);
+    } catch (final ExecutionException e) {
+      final Throwable cause = unwrap(e);
+      throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Whether a post's request was handed to the transport. A post that timed out before it was sent
+   * is abandoned, so no retry queued behind a rate limit or bulkhead can send it afterwards.
+   */
+  private static final class Dispatch {
+    private static final int PENDING = 0;
+    private static final int SENT = 1;
+    private static final int ABANDONED = 2;
+
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    /**
+     * @return false if the post was abandoned and must not be sent
+     */
+    private boolean send() {
+      return state.compareAndSet(PENDING, SENT) || state.get() == SENT;
+    }
+
+    /**
+     * Reports a timeout of a post that was never sent as unsent, abandoning the post.
+     */
+    private <T> CompletableFuture<T> track(final CompletableFuture<T> future) {
+      final CompletableFuture<T> result = new CompletableFuture<>();
+      future.whenComplete((value, e) -> {
+        if (e == null) {
+          result.complete(value);
+          return;
+        }
+        final Throwable cause = unwrap(e);
+        if (cause instanceof FacebookTimeoutException && ((FacebookTimeoutException) cause).isSent()
+            && (state.compareAndSet(PENDING, ABANDONED) || state.get() == ABANDONED)) {
+          final FacebookTimeoutException timeout = (FacebookTimeoutException) cause;
+          result.completeExceptionally(new FacebookTimeoutException(timeout.getFacebookError().getMessage(),
+              timeout.isDeadlineExceeded(), false, timeout.getCause()));
+        } else {
+          result.completeExceptionally(e);
+        }
+      });
+      result.whenComplete((value, e) -> {
+        if (result.isCancelled()) {
+          future.cancel(true);
+        }
+      });
+      return result;
+    }
+  }
+
+  /**
+   * Decoded batch item along with its code.
+   */
+  private static final class Coded<T> {
+    private final int code;
+    private final T value;
+
+    private Coded(final int code, final T value) {
+      this.code = code;
+      this.value = value;
+    }
+
+    private static <T> BatchBodyDecoder<Coded<T>> decoder(final BatchBodyDecoder<T> decoder) {
+      return (code, body) -> new Coded<>(code, decoder.decode(code, body));
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("code", code).add("value", value).toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private ObjectMapper om;
+    private FacebookTransport transport;
+    private int batchConcurrency = 4;
+    private BatchRetryPolicy scrapeRetryPolicy;
+    private BatchRetryPolicy retryPolicy;
+    private RateGovernor rateGovernor;
+    private CircuitBreaker circuitBreaker;
+    private Hedger hedger;
+    private Bulkheads bulkheads;
+    private ScrapeCache scrapeCache;
+    private ScrapeErrorCache scrapeErrorCache;
+    private AccessTokenProvider accessTokenProvider;
+    private PostDeduplicator postDeduplicator;
+    private Duration timeout = Duration.ofSeconds(60);
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration socketTimeout = Duration.ofSeconds(30);
+
+    public Builder objectMapper(final ObjectMapper om) {
+      this.om = om;
+      return this;
+    }
+
+    /**
+     * HTTP transport to use. Defaults to a PooledHttpTransport with default settings.
+     */
+    public Builder transport(final FacebookTransport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Maximum number of batch chunks in flight when a request exceeds the Graph batch limit.
+     */
+    public Builder batchConcurrency(final int batchConcurrency) {
+      checkArgument(batchConcurrency > 0, "batchConcurrency must be positive");
+      this.batchConcurrency = batchConcurrency;
+      return this;
+    }
+
+    /**
+     * Retries links whose scrape failed with a retryable code or error. Defaults to no retries.
+     */
+    public Builder scrapeRetryPolicy(final BatchRetryPolicy scrapeRetryPolicy) {
+      this.scrapeRetryPolicy = scrapeRetryPolicy;
+      return this;
+    }
+
+    /**
+     * Retries calls that fail outright with a retryable or throttled error, such as a 5xx,
+     * a network error or a Graph rate limit. Defaults to no retries.
+     */
+    public Builder retryPolicy(final BatchRetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Paces calls from the usage headers Facebook returns. Defaults to a RateGovernor with
+     * default settings, which never delays until usage headers report high usage.
+     */
+    public Builder rateGovernor(final RateGovernor rateGovernor) {
+      this.rateGovernor = rateGovernor;
+      return this;
+    }
+
+    /**
+     * Fails posts fast per page and access token after repeated auth or permission errors.
+     * Defaults to a CircuitBreaker with default settings.
+     */
+    public Builder circuitBreaker(final CircuitBreaker circuitBreaker) {
+      this.circuitBreaker = circuitBreaker;
+      return this;
+    }
+
+    /**
+     * Hedges slow batch calls whose items are all GETs or scrapes. Defaults to no hedging.
+     */
+    public Builder hedger(final Hedger hedger) {
+      this.hedger = hedger;
+      return this;
+    }
+
+    /**
+     * Bounds concurrent posts, scrapes and raw batches separately, and optionally per page, so one
+     * kind of call cannot starve the others. Defaults to Bulkheads with default limits.
+     */
+    public Builder bulkheads(final Bulkheads bulkheads) {
+      this.bulkheads = bulkheads;
+      return this;
+    }
+
+    /**
+     * Answers links scraped within the cache's TTL locally instead of scraping them again.
+     * Defaults to no caching, so every scrape reaches Facebook.
+     */
+    public Builder scrapeCache(final ScrapeCache scrapeCache) {
+      this.scrapeCache = scrapeCache;
+      return this;
+    }
+
+    /**
+     * Answers links whose scrape failed with a permanent error from the cache, reporting them as
+     * cached errors, instead of sending them again. Defaults to no caching.
+     */
+    public Builder scrapeErrorCache(final ScrapeErrorCache scrapeErrorCache) {
+      this.scrapeErrorCache = scrapeErrorCache;
+      return this;
+    }
+
+    /**
+     * Supplies page tokens to posts and user tokens to scrapes that have no access token of their
+     * own. Page tokens Facebook rejects are dropped so the next post gets a new one. Defaults to
+     * none, so every request must carry its token.
+     */
+    public Builder accessTokenProvider(final AccessTokenProvider accessTokenProvider) {
+      this.accessTokenProvider = accessTokenProvider;
+      return this;
+    }
+
+    /**
+     * Publishes repeats of a post within its window only once, answering them with the original
+     * FacebookPostResponse. Applies to single and batched posts. Defaults to none.
+     */
+    public Builder postDeduplicator(final PostDeduplicator postDeduplicator) {
+      this.postDeduplicator = postDeduplicator;
+      return this;
+    }
+
+    /**
+     * Deadline for calls made without one, counted from the call.
+     */
+    public Builder timeout(final Duration timeout) {
+      checkArgument(!timeout.isNegative() && !timeout.isZero(), "timeout must be positive");
+      this.timeout = timeout;
+      return this;
+    }
+
+    /**
+     * Maximum time to connect or to lease a pooled connection, per HTTP exchange.
+     */
+    public Builder connectTimeout(final Duration connectTimeout) {
+      checkArgument(!connectTimeout.isNegative() && !connectTimeout.isZero(), "connectTimeout must be positive");
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /**
+     * Maximum time without data while sending or receiving, per HTTP exchange.
+     */
+    public Builder socketTimeout(final Duration socketTimeout) {
+      checkArgument(!socketTimeout.isNegative() && !socketTimeout.isZero(), "socketTimeout must be positive");
+      this.socketTimeout = socketTimeout;
+      return this;
+    }
+
+    public FacebookService build() {
+      return new FacebookService(this);
     }
   }
 }
@@ -0,0 +1,308 @@
+package com.beachninja.facebook.service;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.beachninja.facebook.util.CompletableFutures.delay;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sends a duplicate of a slow idempotent call and takes whichever answers first, cancelling the
+ * other.
+ *
+ * A call is hedged once it has been outstanding longer than the configured percentile of recent
+ * successful latencies. Hedging starts after minSamples latencies have been seen. Hedges are
+ * capped by a budget that earns maxHedgeRate of a hedge per call, so hedges add at most that
+ * fraction of extra calls, with short bursts of up to maxBurst.
+ *
+ * Only use it for calls that are safe to repeat, such as reads and scrapes.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class Hedger {
+  private static final Logger LOG = LoggerFactory.getLogger(Hedger.class);
+  private static final int PERCENTILE_REFRESH = 16;
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final double percentile;
+  private final Duration minDelay;
+  private final int minSamples;
+  private final double maxHedgeRate;
+  private final double maxBurst;
+
+  private final long[] latencies; // Guarded by this
+  private long samples; // Guarded by this
+  private double budget; // Guarded by this
+  private volatile long hedgeDelayNanos = -1;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
+  private Hedger(final Builder builder) {
+    this.percentile = builder.percentile;
+    this.minDelay = builder.minDelay;
+    this.minSamples = builder.minSamples;
+    this.maxHedgeRate = builder.maxHedgeRate;
+    this.maxBurst = builder.maxBurst;
+    this.latencies = new long[builder.windowSize];
+    this.budget = builder.maxBurst;
+  }
+
+  /**
+   * Starts the call, and starts it again if it is slow.
+   * @param call starts one attempt; cancelling its future must abort the attempt
+   * @return result of the first attempt to succeed, or the failure of the last to fail
+   */
+  public <T> CompletableFuture<T> call(final Supplier<CompletableFuture<T>> call) {
+    calls.incrementAndGet();
+    final long hedgeDelay = hedgeDelayNanos;
+    earnBudget();
+
+    final Race<T> race = new Race<>();
+    race.result.whenComplete((value, e) -> {
+      if (race.result.isCancelled()) {
+        race.cancelOthers(null);
+      }
+    });
+    race.start(call, false);
+    if (hedgeDelay >= 0) {
+      delay(Duration.ofNanos(hedgeDelay)).thenRun(() -> {
+        if (!race.result.isDone() && spendBudget()) {
+          hedges.incrementAndGet();
+          LOG.debug("Hedging call outstanding for over {} ms", hedgeDelay / 1_000_000);
+          race.start(call, true);
+        }
+      });
+    }
+    return race.result;
+  }
+
+  /**
+   * Current delay before a call is hedged, or null while there are too few samples.
+   */
+  public Duration getHedgeDelay() {
+    final long nanos = hedgeDelayNanos;
+    return nanos < 0 ? null : Duration.ofNanos(nanos);
+  }
+
+  public Stats getStats() {
+    return new Stats(calls.get(), hedges.get(), hedgeWins.get());
+  }
+
+  /**
+   * Attempts of one call racing each other.
+   */
+  private final class Race<T> {
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final CompletableFuture<?>[] attempts = new CompletableFuture<?>[2];
+
+    private void start(final Supplier<CompletableFuture<T>> call, final boolean hedge) {
+      outstanding.incrementAndGet();
+      final long start = System.nanoTime();
+      final CompletableFuture<T> attempt;
+      try {
+        attempt = call.get();
+      } catch (final RuntimeException e) {
+        fail(e);
+        return;
+      }
+      synchronized (this) {
+        attempts[hedge ? 1 : 0] = attempt;
+        if (hedge && result.isDone()) {
+          attempt.cancel(true); // The original won while the hedge was starting
+        }
+      }
+      attempt.whenComplete((value, e) -> {
+        if (e == null) {
+          recordLatency(System.nanoTime() - start);
+          if (result.complete(value)) {
+            if (hedge) {
+              hedgeWins.incrementAndGet();
+            }
+            cancelOthers(attempt);
+          }
+        } else {
+          fail(e);
+        }
+      });
+    }
+
+    private void fail(final Throwable e) {
+      // A failed attempt only fails the call once no other attempt can still succeed
+      if (outstanding.decrementAndGet() == 0) {
+        result.completeExceptionally(e);
+      }
+    }
+
+    private synchronized void cancelOthers(final CompletableFuture<T> winner) {
+      for (final CompletableFuture<?> attempt : attempts) {
+        if (attempt != null && attempt != winner) {
+          attempt.cancel(true);
+        }
+      }
+    }
+  }
+
+  private synchronized void earnBudget() {
+    budget = Math.min(maxBurst, budget + maxHedgeRate);
+  }
+
+  private synchronized boolean spendBudget() {
+    if (budget < 1) {
+      return false;
+    }
+    budget--;
+    return true;
+  }
+
+  private synchronized void recordLatency(final long nanos) {
+    latencies[(int) (samples % latencies.length)] = nanos;
+    samples++;
+    if (samples == minSamples || (samples > minSamples && samples % PERCENTILE_REFRESH == 0)) {
+      final long[] sorted = Arrays.copyOf(latencies, (int) Math.min(samples, latencies.length));
+      Arrays.sort(sorted);
+      final int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+      hedgeDelayNanos = Math.max(minDelay.toNanos(), sorted[Math.max(0, index)]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("percentile", percentile)
+        .add("maxHedgeRate", maxHedgeRate)
+        .add("hedgeDelay", getHedgeDelay())
+        .add("stats", getStats())
+        .toString();
+  }
+
+  /**
+   * Counts of hedged calls.
+   */
+  public static final class Stats {
+    private final long calls;
+    private final long hedges;
+    private final long hedgeWins;
+
+    private Stats(final long calls, final long hedges, final long hedgeWins) {
+      this.calls = calls;
+      this.hedges = hedges;
+      this.hedgeWins = hedgeWins;
+    }
+
+    public long getCalls() {
+      return calls;
+    }
+
+    /**
+     * Duplicate calls sent.
+     */
+    public long getHedges() {
+      return hedges;
+    }
+
+    /**
+     * Calls answered by the duplicate rather than the original.
+     */
+    public long getHedgeWins() {
+      return hedgeWins;
+    }
+
+    public double getHedgeRate() {
+      return calls == 0 ? 0 : (double) hedges / calls;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("calls", calls)
+          .add("hedges", hedges)
+          .add("hedgeWins", hedgeWins)
+          .add("hedgeRate", getHedgeRate())
+          .toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private double percentile = 0.95;
+    private Duration minDelay = Duration.ofMillis(50);
+    private int minSamples = 20;
+    private int windowSize = 512;
+    private double maxHedgeRate = 0.05;
+    private double maxBurst = 5;
+
+    /**
+     * Latency percentile after which a call is hedged, between 0 and 1.
+     */
+    public Builder percentile(final double percentile) {
+      checkArgument(percentile > 0 && percentile <= 1, "percentile must be in (0, 1]");
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * Shortest delay before hedging, however fast recent calls were.
+     */
+    public Builder minDelay(final Duration minDelay) {
+      this.minDelay = checkNotNull(minDelay);
+      return this;
+    }
+
+    /**
+     * Latencies to observe before hedging starts.
+     */
+    public Builder minSamples(final int minSamples) {
+      checkArgument(minSamples > 0, "minSamples must be positive");
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Number of recent latencies the percentile is taken over.
+     */
+    public Builder windowSize(final int windowSize) {
+      checkArgument(windowSize > 0, "windowSize must be positive");
+      this.windowSize = windowSize;
+      return this;
+    }
+
+    /**
+     * Most hedges per call on average, e.g. 0.05 for at most 5% extra calls.
+     */
+    public Builder maxHedgeRate(final double maxHedgeRate) {
+      checkArgument(maxHedgeRate >= 0 && maxHedgeRate <= 1, "maxHedgeRate must be between 0 and 1");
+      this.maxHedgeRate = maxHedgeRate;
+      return this;
+    }
+
+    /**
+     * Most hedges that may be sent back to back.
+     */
+    public Builder maxBurst(final int maxBurst) {
+      checkArgument(maxBurst > 0, "maxBurst must be positive");
+      this.maxBurst = maxBurst;
+      return this;
+    }
+
+    public Hedger build() {
+      return new Hedger(this);
+    }
+  }
+}
@@ -0,0 +1,286 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.post.PostResult;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.beachninja.facebook.util.CompletableFutures.failed;
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.beachninja.facebook.util.FacebookConstants.MAX_BATCH_SIZE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces individual posts into Graph batch calls.
+ *
+ * Posts are queued and flushed as a single batch once maxBatchSize posts have accumulated, or
+ * once the first queued post has waited for the linger time, whichever comes first. Each
+ * caller's future completes from the batch response matching its post.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class PostBatcher implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(PostBatcher.class);
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final FacebookService facebookService;
+  private final int maxBatchSize;
+  private final Duration linger;
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+
+  private final Object lock = new Object();
+  private List<Pending> pending = Lists.newArrayList();
+  private ScheduledFuture<?> lingerTimer;
+  private boolean closed;
+
+  private final LongAdder sizeFlushes = new LongAdder();
+  private final LongAdder lingerFlushes = new LongAdder();
+  private final LongAdder posts = new LongAdder();
+
+  private PostBatcher(final Builder builder) {
+    this.facebookService = checkNotNull(builder.facebookService, "facebookService is required");
+    this.maxBatchSize = builder.maxBatchSize;
+    this.linger = builder.linger;
+    this.ownsScheduler = builder.scheduler == null;
+    this.scheduler = ownsScheduler
+        ? Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("facebook-post-batcher-%d")
+            .setDaemon(true)
+            .build())
+        : builder.scheduler;
+  }
+
+  /**
+   * Queues a post for the next batch.
+   * @param request post to publish
+   * @return future FacebookPostResponse; fails with FacebookException if the post was rejected
+   */
+  public CompletableFuture<FacebookPostResponse> post(final FacebookPostRequest request) {
+    final Pending post = new Pending(request);
+    List<Pending> full = null;
+
+    synchronized (lock) {
+      if (closed) {
+        return failed(new IllegalStateException("PostBatcher is closed"));
+      }
+      pending.add(post);
+      if (pending.size() >= maxBatchSize) {
+        full = drain();
+      } else if (pending.size() == 1) {
+        lingerTimer = scheduler.schedule(this::lingerExpired, linger.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+
+    if (full != null) {
+      sizeFlushes.increment();
+      submit(full);
+    }
+    return post.future;
+  }
+
+  /**
+   * Submits all queued posts immediately.
+   */
+  public void flush() {
+    final List<Pending> batch;
+    synchronized (lock) {
+      batch = drain();
+    }
+    if (!batch.isEmpty()) {
+      lingerFlushes.increment();
+      submit(batch);
+    }
+  }
+
+  public Stats getStats() {
+    return new Stats(sizeFlushes.sum(), lingerFlushes.sum(), posts.sum(), maxBatchSize);
+  }
+
+  /**
+   * Flushes queued posts and stops accepting new ones.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+    }
+    flush();
+    if (ownsScheduler) {
+      scheduler.shutdown();
+    }
+  }
+
+  private void lingerExpired() {
+    flush();
+  }
+
+  /**
+   * Takes the queued posts. Must hold the lock.
+   */
+  private List<Pending> drain() {
+    final List<Pending> batch = pending;
+    pending = Lists.newArrayList();
+    if (lingerTimer != null) {
+      lingerTimer.cancel(false);
+      lingerTimer = null;
+    }
+    return batch;
+  }
+
+  private void submit(final List<Pending> batch) {
+    posts.add(batch.size());
+    LOG.debug("Flushing {} posts", batch.size());
+
+    final List<FacebookPostRequest> requests = batch.stream().map(p -> p.request).collect(Collectors.toList());
+    facebookService.postBatchAsync(requests).whenComplete((results, e) -> {
+      for (int i = 0; i < batch.size(); i++) {
+        final CompletableFuture<FacebookPostResponse> future = batch.get(i).future;
+        if (e != null) {
+          future.completeExceptionally(unwrap(e));
+        } else if (results.get(i) == null) {
+          future.completeExceptionally(new IllegalStateException("No batch response for post"));
+        } else {
+          final PostResult result = results.get(i);
+          if (result.isSuccess()) {
+            future.complete(result.getResponse());
+          } else {
+            future.completeExceptionally(new FacebookException(result.getError()));
+          }
+        }
+      }
+    });
+  }
+
+  private static final class Pending {
+    private final FacebookPostRequest request;
+    private final CompletableFuture<FacebookPostResponse> future = new CompletableFuture<>();
+
+    private Pending(final FacebookPostRequest request) {
+      this.request = request;
+    }
+  }
+
+  /**
+   * Batching statistics.
+   */
+  public static final class Stats {
+    private final long sizeFlushes;
+    private final long lingerFlushes;
+    private final long posts;
+    private final int maxBatchSize;
+
+    private Stats(final long sizeFlushes, final long lingerFlushes, final long posts, final int maxBatchSize) {
+      this.sizeFlushes = sizeFlushes;
+      this.lingerFlushes = lingerFlushes;
+      this.posts = posts;
+      this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Batches flushed because they were full.
+     */
+    public long getSizeFlushes() {
+      return sizeFlushes;
+    }
+
+    /**
+     * Batches flushed because the linger time expired, or by an explicit flush.
+     */
+    public long getLingerFlushes() {
+      return lingerFlushes;
+    }
+
+    public long getFlushes() {
+      return sizeFlushes + lingerFlushes;
+    }
+
+    public long getPosts() {
+      return posts;
+    }
+
+    /**
+     * Average number of posts per flushed batch, relative to maxBatchSize. 1.0 means every batch
+     * was full.
+     */
+    public double getFillRatio() {
+      final long flushes = getFlushes();
+      return flushes == 0 ? 0 : (double) posts / (flushes * maxBatchSize);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("sizeFlushes", sizeFlushes)
+          .add("lingerFlushes", lingerFlushes)
+          .add("posts", posts)
+          .add("fillRatio", getFillRatio())
+          .toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private FacebookService facebookService;
+    private int maxBatchSize = MAX_BATCH_SIZE;
+    private Duration linger = Duration.ofMillis(50);
+    private ScheduledExecutorService scheduler;
+
+    public Builder facebookService(final FacebookService facebookService) {
+      this.facebookService = facebookService;
+      return this;
+    }
+
+    /**
+     * Number of queued posts that triggers a flush. At most 50, the Graph batch limit.
+     */
+    public Builder maxBatchSize(final int maxBatchSize) {
+      checkArgument(maxBatchSize > 0 && maxBatchSize <= MAX_BATCH_SIZE,
+          "maxBatchSize must be between 1 and %s", MAX_BATCH_SIZE);
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * Maximum time the first queued post waits before its batch is flushed.
+     */
+    public Builder linger(final Duration linger) {
+      this.linger = checkNotNull(linger);
+      return this;
+    }
+
+    /**
+     * Scheduler for linger timers. Defaults to a dedicated daemon thread owned by the batcher.
+     */
+    public Builder scheduler(final ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    public PostBatcher build() {
+      return new PostBatcher(this);
+    }
+  }
+}
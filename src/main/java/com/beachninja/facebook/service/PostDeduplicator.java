@@ -0,0 +1,336 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publishes each post at most once within a time window, so a post repeated after a timeout or a
+ * caller retry returns the original FacebookPostResponse instead of publishing again.
+ *
+ * Posts are identified by their idempotency key and facebookId when the caller set a key, and
+ * otherwise by a 128-bit murmur3 hash of their page and content. The access token is not part of
+ * the identity, so a post repeated with a refreshed token is still a repeat.
+ *
+ * A repeat of a post in flight shares its outcome. A published post is remembered for the window,
+ * counted from when it completed. A post that failed without reaching Facebook, or that Facebook
+ * rejected, is forgotten so a retry publishes it. This includes posts turned away by a bulkhead or
+ * circuit breaker, posts whose connection could not be opened, and posts whose deadline passed
+ * before they were sent. A post whose outcome is unknown, because the call timed out or the
+ * connection failed after the request was sent, is remembered with its failure: it may have been
+ * published, so repeats fail the same way until the window ends or the post is forgotten
+ * explicitly.
+ *
+ * Settled posts are kept in a bounded cache; when it is full, the least recently used are evicted
+ * first. Posts in flight are held apart until they settle, so they are never evicted.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class PostDeduplicator {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final Duration window;
+  private final Cache<HashCode, CompletableFuture<FacebookPostResponse>> records;
+  private final Map<HashCode, CompletableFuture<FacebookPostResponse>> inFlight = Maps.newHashMap(); // Guarded by lock
+  private final Object lock = new Object();
+  private final LongAdder published = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+
+  private PostDeduplicator(final Builder builder) {
+    this.window = builder.window;
+    this.records = CacheBuilder.newBuilder()
+        .expireAfterWrite(window.toNanos(), TimeUnit.NANOSECONDS)
+        .maximumSize(builder.maximumSize)
+        .ticker(builder.ticker)
+        .build();
+  }
+
+  /**
+   * Publishes the post unless it is a repeat.
+   * @param request post to publish
+   * @param publish publishes the post; called only if the post is not a repeat
+   * @return future FacebookPostResponse, shared with every repeat of the post within the window
+   */
+  public CompletableFuture<FacebookPostResponse> post(final FacebookPostRequest request,
+      final Function<FacebookPostRequest, CompletableFuture<FacebookPostResponse>> publish) {
+    final Claim claim = claim(request);
+    if (claim.isOwner()) {
+      try {
+        publish.apply(request).whenComplete((response, e) -> {
+          if (e == null) {
+            claim.complete(response);
+          } else {
+            claim.fail(unwrap(e));
+          }
+        });
+      } catch (final RuntimeException e) {
+        claim.fail(e);
+      }
+    }
+    return claim.getFuture();
+  }
+
+  /**
+   * Claims a post. The first caller owns it and must publish it, then settle the claim with
+   * complete() or fail(). Repeats get the owner's outcome.
+   */
+  Claim claim(final FacebookPostRequest request) {
+    final HashCode key = keyOf(request);
+    synchronized (lock) {
+      CompletableFuture<FacebookPostResponse> existing = inFlight.get(key);
+      if (existing == null) {
+        existing = records.getIfPresent(key);
+      }
+      if (existing != null) {
+        duplicates.increment();
+        return new Claim(key, existing, false);
+      }
+      final CompletableFuture<FacebookPostResponse> created = new CompletableFuture<>();
+      inFlight.put(key, created);
+      published.increment();
+      return new Claim(key, created, true);
+    }
+  }
+
+  /**
+   * Forgets a post, so its next repeat is published again. Use it once a post whose outcome was
+   * unknown turns out not to have been published.
+   */
+  public void forget(final FacebookPostRequest request) {
+    final HashCode key = keyOf(request);
+    synchronized (lock) {
+      inFlight.remove(key);
+      records.invalidate(key);
+    }
+  }
+
+  public long size() {
+    synchronized (lock) {
+      return records.size() + inFlight.size();
+    }
+  }
+
+  public Stats getStats() {
+    return new Stats(published.sum(), duplicates.sum(), size());
+  }
+
+  /**
+   * Returns the identity of a post: its idempotency key and page if it has a key, else its page and
+   * content.
+   */
+  static HashCode keyOf(final FacebookPostRequest request) {
+    final Hasher hasher = HASH.newHasher();
+    if (request.getIdempotencyKey() != null) {
+      hasher.putByte((byte) 1);
+      putString(hasher, request.getFacebookId());
+      putString(hasher, request.getIdempotencyKey());
+    } else {
+      hasher.putByte((byte) 0);
+      putString(hasher, request.getFacebookId());
+      putString(hasher, request.getName().orElse(null));
+      putString(hasher, request.getMessage().orElse(null));
+      putString(hasher, request.getLink().orElse(null));
+      putString(hasher, request.getImageUrl().orElse(null));
+      putString(hasher, request.getDescription().orElse(null));
+      hasher.putBoolean(request.isPublished());
+      hasher.putLong(request.getScheduledPublishTimeEpoch());
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * Length-prefixed, so adjacent fields cannot run into each other.
+   */
+  private static void putString(final Hasher hasher, final String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+    }
+  }
+
+  /**
+   * True if the post may have reached Facebook despite the failure.
+   */
+  private static boolean isOutcomeUnknown(final Throwable failure) {
+    if (BatchRetrier.isUnsent(failure)) {
+      return false;
+    }
+    return failure instanceof FacebookTimeoutException || failure instanceof IOException || failure instanceof UncheckedIOException
+        || failure instanceof CancellationException || failure.getCause() instanceof IOException;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("window", window)
+        .add("stats", getStats())
+        .toString();
+  }
+
+  /**
+   * A claimed post.
+   */
+  final class Claim {
+    private final HashCode key;
+    private final CompletableFuture<FacebookPostResponse> future;
+    private final boolean owner;
+
+    private Claim(final HashCode key, final CompletableFuture<FacebookPostResponse> future, final boolean owner) {
+      this.key = key;
+      this.future = future;
+      this.owner = owner;
+    }
+
+    /**
+     * True if this caller must publish the post.
+     */
+    boolean isOwner() {
+      return owner;
+    }
+
+    /**
+     * Outcome of the post. Cancelling it does not affect other callers.
+     */
+    CompletableFuture<FacebookPostResponse> getFuture() {
+      return future.thenApply(Function.identity());
+    }
+
+    /**
+     * Records the post as published. Its window starts now.
+     */
+    void complete(final FacebookPostResponse response) {
+      settle(true);
+      future.complete(response);
+    }
+
+    /**
+     * Records a failed post. It is forgotten unless it may have been published anyway.
+     */
+    void fail(final Throwable failure) {
+      settle(isOutcomeUnknown(failure));
+      future.completeExceptionally(failure);
+    }
+
+    /**
+     * Moves the post out of flight, into the records if it is to be remembered.
+     */
+    private void settle(final boolean remember) {
+      synchronized (lock) {
+        if (inFlight.remove(key, future) && remember) {
+          records.put(key, future);
+        }
+      }
+    }
+  }
+
+  /**
+   * Deduplication statistics.
+   */
+  public static final class Stats {
+    private final long published;
+    private final long duplicates;
+    private final long size;
+
+    private Stats(final long published, final long duplicates, final long size) {
+      this.published = published;
+      this.duplicates = duplicates;
+      this.size = size;
+    }
+
+    /**
+     * Posts handed on to be published.
+     */
+    public long getPublished() {
+      return published;
+    }
+
+    /**
+     * Repeats answered with the outcome of an earlier post.
+     */
+    public long getDuplicates() {
+      return duplicates;
+    }
+
+    /**
+     * Posts currently remembered.
+     */
+    public long getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("published", published)
+          .add("duplicates", duplicates)
+          .add("size", size)
+          .toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private Duration window = Duration.ofMinutes(10);
+    private long maximumSize = 100_000;
+    private Ticker ticker = Ticker.systemTicker();
+
+    /**
+     * How long a post is remembered after it completed.
+     */
+    public Builder window(final Duration window) {
+      checkArgument(!window.isNegative() && !window.isZero(), "window must be positive");
+      this.window = window;
+      return this;
+    }
+
+    /**
+     * Maximum number of posts remembered.
+     */
+    public Builder maximumSize(final long maximumSize) {
+      checkArgument(maximumSize > 0, "maximumSize must be positive");
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    public Builder ticker(final Ticker ticker) {
+      this.ticker = checkNotNull(ticker);
+      return this;
+    }
+
+    public PostDeduplicator build() {
+      return new PostDeduplicator(this);
+    }
+  }
+}
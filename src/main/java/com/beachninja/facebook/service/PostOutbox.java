@@ -0,0 +1,820 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.error.ErrorCategory;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.post.PostResult;
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+import static com.beachninja.facebook.util.CompletableFutures.failed;
+import static com.beachninja.facebook.util.CompletableFutures.unwrap;
+import static com.beachninja.facebook.util.FacebookConstants.MAX_BATCH_SIZE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Durable write-ahead outbox for posts.
+ *
+ * A post is appended to a local log and forced to disk before post() returns, so callers do not
+ * wait on Facebook and a crash does not lose the post. A background drainer submits pending posts
+ * through the Graph batch API, oldest first, and appends an acknowledgement per post to a second
+ * log: the post id on success, or the error once the post has failed for good. On startup the
+ * outbox replays every post in the log that has no acknowledgement.
+ *
+ * Delivery is at least once: a crash after Facebook accepted a batch but before its
+ * acknowledgements were written publishes those posts again on replay.
+ *
+ * Retryable and throttled failures, and posts left out of a batch response, stay pending for the
+ * next drain, up to maxAttempts. A batch call that fails as a whole with a transient error, e.g.
+ * while Facebook or the network is down, counts as an attempt for each of its posts and ends the
+ * drain. One that fails for good, e.g. because the first post's token, sent as the batch's fallback
+ * token, was revoked, is split in halves and resent until the posts that cause it fail on their
+ * own. Once acknowledged posts make up most of the log, it is rewritten with only the pending
+ * posts.
+ *
+ * Posts are stored with their access token, so the directory must be as private as the tokens.
+ * Posts without a token are resolved by the FacebookService's AccessTokenProvider when drained.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class PostOutbox implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(PostOutbox.class);
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private static final int LOG_MAGIC = 0x46424f4c; // "FBOL"
+  private static final int ACKS_MAGIC = 0x46424f41; // "FBOA"
+  private static final int VERSION = 1;
+  private static final int LOG_HEADER_SIZE = 16;
+  private static final int ACKS_HEADER_SIZE = 8;
+  private static final byte POSTED = 1;
+  private static final byte FAILED = 2;
+
+  private final FacebookService facebookService;
+  private final BatchRetryPolicy classifier;
+  private final Path logFile;
+  private final Path acksFile;
+  private final int maxBatchSize;
+  private final int maxAttempts;
+  private final long compactThreshold;
+  private final BiConsumer<FacebookPostRequest, PostResult> listener;
+  private final ScheduledExecutorService scheduler;
+
+  private final Object lock = new Object();
+  private final Object drainLock = new Object();
+  private final NavigableMap<Long, Entry> pending = Maps.newTreeMap(); // Guarded by lock
+  private FileChannel log; // Guarded by lock
+  private FileChannel acks; // Guarded by lock
+  private long nextSeq; // Guarded by lock
+  private long pendingBytes; // Guarded by lock
+  private boolean closed; // Guarded by lock
+
+  private final LongAdder appended = new LongAdder();
+  private final LongAdder replayed = new LongAdder();
+  private final LongAdder posted = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder compactions = new LongAdder();
+
+  private PostOutbox(final Builder builder) {
+    this.facebookService = checkNotNull(builder.facebookService, "facebookService is required");
+    checkNotNull(builder.directory, "directory is required");
+    this.classifier = builder.retryPolicy;
+    this.logFile = builder.directory.resolve("outbox.log");
+    this.acksFile = builder.directory.resolve("outbox.acks");
+    this.maxBatchSize = builder.maxBatchSize;
+    this.maxAttempts = builder.maxAttempts;
+    this.compactThreshold = builder.compactThreshold;
+    this.listener = builder.listener;
+
+    try {
+      Files.createDirectories(builder.directory);
+      recover();
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Unable to open post outbox in " + builder.directory, e);
+    }
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("facebook-post-outbox-%d")
+        .setDaemon(true)
+        .build());
+    final long interval = builder.drainInterval.toMillis();
+    scheduler.scheduleWithFixedDelay(this::drainQuietly, 0, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Appends a post to the outbox and forces it to disk. Returns as soon as the post is durable.
+   * @param request post to publish
+   * @return future FacebookPostResponse, completed once the drainer has published the post; fails
+   * with FacebookException if Facebook rejected it, or right away if it could not be written
+   */
+  public CompletableFuture<FacebookPostResponse> post(final FacebookPostRequest request) {
+    checkNotNull(request);
+    checkArgument(request.getFacebookId() != null, "facebookId is required");
+    final byte[] encoded = encode(request);
+    synchronized (lock) {
+      if (closed) {
+        return failed(new IllegalStateException("PostOutbox is closed"));
+      }
+      final Entry entry = new Entry(nextSeq, request, frameSize(8 + encoded.length));
+      try {
+        append(log, seqPrefixed(nextSeq, encoded));
+        log.force(false);
+      } catch (final IOException e) {
+        return failed(new UncheckedIOException("Unable to append post to outbox", e));
+      }
+      nextSeq++;
+      pending.put(entry.seq, entry);
+      pendingBytes += entry.size;
+      appended.increment();
+      return entry.future;
+    }
+  }
+
+  /**
+   * Submits every pending post now, on the calling thread, and returns once each has been sent
+   * once. Posts that fail with a retryable error stay pending.
+   */
+  public void flush() {
+    drain();
+  }
+
+  /**
+   * Number of posts not acknowledged yet.
+   */
+  public int getPending() {
+    synchronized (lock) {
+      return pending.size();
+    }
+  }
+
+  public Stats getStats() {
+    synchronized (lock) {
+      return new Stats(appended.sum(), replayed.sum(), posted.sum(), failures.sum(), pending.size(),
+          compactions.sum());
+    }
+  }
+
+  /**
+   * Stops the drainer and closes the logs. Pending posts stay in the log and are replayed by the
+   * next outbox opened on the same directory.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (drainLock) {
+      synchronized (lock) {
+        try {
+          log.close();
+        } finally {
+          acks.close();
+        }
+      }
+    }
+  }
+
+  private void drainQuietly() {
+    try {
+      drain();
+    } catch (final RuntimeException e) {
+      LOG.warn("Unable to drain post outbox", e);
+    }
+  }
+
+  private void drain() {
+    synchronized (drainLock) {
+      long after = -1;
+      while (true) {
+        final List<Entry> batch = Lists.newArrayList();
+        synchronized (lock) {
+          if (closed) {
+            return;
+          }
+          for (final Entry entry : pending.tailMap(after, false).values()) {
+            if (batch.size() == maxBatchSize) {
+              break;
+            }
+            batch.add(entry);
+          }
+        }
+        if (batch.isEmpty()) {
+          break;
+        }
+        after = batch.get(batch.size() - 1).seq;
+        if (!submit(batch)) {
+          break;
+        }
+      }
+      compactIfNeeded();
+    }
+  }
+
+  /**
+   * Sends one batch and acknowledges the posts that are done.
+   * @return false if the whole call failed with a transient error, in which case the drain stops
+   * until the next round
+   */
+  private boolean submit(final List<Entry> batch) {
+    final List<PostResult> results;
+    try {
+      results = facebookService.postBatchAsync(Lists.transform(batch, entry -> entry.request)).join();
+    } catch (final RuntimeException e) {
+      return callFailed(batch, unwrap(e));
+    }
+
+    final List<Entry> done = Lists.newArrayList();
+    final List<PostResult> doneResults = Lists.newArrayList();
+    for (int i = 0; i < batch.size(); i++) {
+      final Entry entry = batch.get(i);
+      final PostResult result = i < results.size() ? results.get(i) : null;
+      entry.attempts++;
+      if (result != null && (result.isSuccess() || !isRetryable(result.getError()))) {
+        done.add(entry);
+        doneResults.add(result);
+      } else if (entry.attempts >= maxAttempts) {
+        done.add(entry);
+        doneResults.add(PostResult.of(result != null ? result.getError() : FacebookError.builder()
+            .message("No batch response for post after " + entry.attempts + " attempts").build()));
+      }
+    }
+    acknowledge(done, doneResults);
+    return true;
+  }
+
+  /**
+   * Handles a batch call that failed as a whole. A transient failure counts as an attempt for every
+   * post in the batch. Any other failure comes from the batch itself, so the batch is split until
+   * the post that causes it is sent alone and fails.
+   * @return false if the failure was transient
+   */
+  private boolean callFailed(final List<Entry> batch, final Throwable failure) {
+    if (isTransient(failure)) {
+      LOG.warn("Unable to submit {} outbox posts; will retry", batch.size(), failure);
+      final List<Entry> done = Lists.newArrayList();
+      final List<PostResult> doneResults = Lists.newArrayList();
+      for (final Entry entry : batch) {
+        if (++entry.attempts >= maxAttempts) {
+          done.add(entry);
+          doneResults.add(PostResult.of(errorOf(failure)));
+        }
+      }
+      acknowledge(done, doneResults);
+      return false;
+    }
+    if (batch.size() > 1) {
+      LOG.debug("Splitting {} outbox posts after a failed batch call: {}", batch.size(), failure.toString());
+      final int half = batch.size() / 2;
+      return submit(batch.subList(0, half)) && submit(batch.subList(half, batch.size()));
+    }
+    final Entry entry = batch.get(0);
+    entry.attempts++;
+    acknowledge(batch, ImmutableList.of(PostResult.of(errorOf(failure))));
+    return true;
+  }
+
+  /**
+   * Records the posts as done and completes them.
+   */
+  private void acknowledge(final List<Entry> done, final List<PostResult> doneResults) {
+    if (done.isEmpty()) {
+      return;
+    }
+    synchronized (lock) {
+      try {
+        for (int i = 0; i < done.size(); i++) {
+          final PostResult result = doneResults.get(i);
+          append(acks, encodeAck(done.get(i).seq, result));
+        }
+        acks.force(false);
+      } catch (final IOException e) {
+        // Not acknowledged, so the posts are sent again on replay
+        LOG.error("Unable to acknowledge {} outbox posts", done.size(), e);
+      }
+      for (final Entry entry : done) {
+        pending.remove(entry.seq);
+        pendingBytes -= entry.size;
+      }
+    }
+
+    for (int i = 0; i < done.size(); i++) {
+      complete(done.get(i), doneResults.get(i));
+    }
+  }
+
+  /**
+   * True if a failed batch call may succeed as it is later: retryable and throttled errors, timeouts
+   * and calls turned away by a bulkhead or circuit breaker.
+   */
+  private boolean isTransient(final Throwable failure) {
+    return failure instanceof FacebookTimeoutException || failure instanceof BulkheadFullException
+        || failure instanceof CircuitOpenException || classifier.classify(failure).isRetryable();
+  }
+
+  private static FacebookError errorOf(final Throwable failure) {
+    if (failure instanceof FacebookException && ((FacebookException) failure).getFacebookError() != null) {
+      return ((FacebookException) failure).getFacebookError();
+    }
+    return FacebookError.builder().message(String.valueOf(failure)).build();
+  }
+
+  private boolean isRetryable(final FacebookError error) {
+    final ErrorCategory category = classifier.classify(0, error);
+    return category == ErrorCategory.RETRYABLE || category == ErrorCategory.THROTTLED;
+  }
+
+  private void complete(final Entry entry, final PostResult result) {
+    if (result.isSuccess()) {
+      posted.increment();
+      entry.future.complete(result.getResponse());
+    } else {
+      failures.increment();
+      LOG.warn("Outbox post {} to {} failed: {}", entry.seq, entry.request.getFacebookId(), result.getError());
+      entry.future.completeExceptionally(new FacebookException(result.getError()));
+    }
+    if (listener != null) {
+      try {
+        listener.accept(entry.request, result);
+      } catch (final RuntimeException e) {
+        LOG.warn("Outbox listener failed for post {}", entry.seq, e);
+      }
+    }
+  }
+
+  /**
+   * Rewrites the log with only the pending posts once acknowledged posts take up most of it, then
+   * empties the acknowledgements. A crash in between leaves acknowledgements of posts no longer in
+   * the log, which are ignored. The old log stays open until the new one is in place, so a failed
+   * compaction leaves the outbox writing to it.
+   */
+  private void compactIfNeeded() {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      try {
+        final long size = log.size();
+        if (size < compactThreshold || pendingBytes > (size - LOG_HEADER_SIZE) / 2) {
+          return;
+        }
+        final Path temp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        final FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+          writeHeader(out, LOG_MAGIC, nextSeq);
+          for (final Entry entry : pending.values()) {
+            append(out, seqPrefixed(entry.seq, encode(entry.request)));
+          }
+          out.force(true);
+          Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+          // The old log is still open and in place, so posts keep going to it
+          out.close();
+          Files.deleteIfExists(temp);
+          throw e;
+        }
+        final FileChannel old = log;
+        log = out; // Still open on the moved file, positioned at its end
+        old.close();
+
+        acks.truncate(ACKS_HEADER_SIZE);
+        acks.position(ACKS_HEADER_SIZE);
+        acks.force(true);
+        compactions.increment();
+        LOG.debug("Compacted post outbox from {} to {} bytes", size, log.size());
+      } catch (final IOException e) {
+        LOG.warn("Unable to compact post outbox", e);
+      }
+    }
+  }
+
+  /**
+   * Reads both logs, drops a torn record at the end of either, and queues every post without an
+   * acknowledgement.
+   */
+  private void recover() throws IOException {
+    acks = open(acksFile, ACKS_MAGIC, ACKS_HEADER_SIZE);
+    final Map<Long, Boolean> acknowledged = Maps.newHashMap();
+    readRecords(acks, ACKS_HEADER_SIZE, (payload, size) -> acknowledged.put(payload.readLong(), Boolean.TRUE));
+
+    log = open(logFile, LOG_MAGIC, LOG_HEADER_SIZE);
+    final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+    log.read(header, 0);
+    nextSeq = header.getLong(8);
+    readRecords(log, LOG_HEADER_SIZE, (payload, size) -> {
+      final long seq = payload.readLong();
+      nextSeq = Math.max(nextSeq, seq + 1);
+      if (!acknowledged.containsKey(seq)) {
+        pending.put(seq, new Entry(seq, decode(payload), size));
+        pendingBytes += size;
+      }
+    });
+    replayed.add(pending.size());
+    if (!pending.isEmpty()) {
+      LOG.info("Replaying {} unacknowledged posts from {}", pending.size(), logFile);
+    }
+  }
+
+  /**
+   * Opens a log, writing its header if the file is new or was cut short before the header was
+   * complete.
+   */
+  private static FileChannel open(final Path file, final int magic, final int headerSize) throws IOException {
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    if (channel.size() < headerSize) {
+      channel.truncate(0);
+      final ByteBuffer header = ByteBuffer.allocate(headerSize).putInt(magic).putInt(VERSION);
+      header.clear();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      channel.force(true);
+    }
+    final ByteBuffer header = ByteBuffer.allocate(8);
+    channel.read(header, 0);
+    if (header.getInt(0) != magic || header.getInt(4) != VERSION) {
+      channel.close();
+      throw new IOException("Not a post outbox file: " + file);
+    }
+    return channel;
+  }
+
+  private static void writeHeader(final FileChannel channel, final int magic, final long nextSeq) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE).putInt(magic).putInt(VERSION).putLong(nextSeq);
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header, header.position());
+    }
+    channel.position(LOG_HEADER_SIZE);
+  }
+
+  /**
+   * Reads length- and CRC-framed records from the header to the end of the file. The file is
+   * truncated at the first short or corrupt record, which can only be a write torn by a crash.
+   */
+  private static void readRecords(final FileChannel channel, final int headerSize, final RecordReader reader)
+      throws IOException {
+    final long size = channel.size();
+    long position = headerSize;
+    final ByteBuffer frame = ByteBuffer.allocate(8);
+    while (position + 8 <= size) {
+      frame.clear();
+      channel.read(frame, position);
+      final int length = frame.getInt(0);
+      final int crc = frame.getInt(4);
+      if (length < 0 || position + 8 + length > size) {
+        break;
+      }
+      final ByteBuffer payload = ByteBuffer.allocate(length);
+      while (payload.hasRemaining() && channel.read(payload, position + 8 + payload.position()) > 0) {
+        // read until full
+      }
+      if (crc32(payload.array()) != crc) {
+        break;
+      }
+      reader.read(new DataInputStream(new ByteArrayInputStream(payload.array())), frameSize(length));
+      position += frameSize(length);
+    }
+    if (position < size) {
+      LOG.warn("Truncating torn outbox record at {} of {}", position, size);
+      channel.truncate(position);
+      channel.force(true);
+    }
+    channel.position(position);
+  }
+
+  /**
+   * Appends a framed record. A partly written record is cut off again, so a failed append does not
+   * leave a torn record in front of later ones.
+   */
+  private static void append(final FileChannel channel, final byte[] payload) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length)
+        .putInt(payload.length)
+        .putInt(crc32(payload))
+        .put(payload);
+    buffer.flip();
+    final long start = channel.position();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (final IOException e) {
+      try {
+        channel.truncate(start);
+        channel.position(start);
+      } catch (final IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Bytes a record takes in its file: length, CRC and payload.
+   */
+  private static int frameSize(final int payloadLength) {
+    return 8 + payloadLength;
+  }
+
+  private static int crc32(final byte[] bytes) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static byte[] seqPrefixed(final long seq, final byte[] encoded) {
+    return ByteBuffer.allocate(8 + encoded.length).putLong(seq).put(encoded).array();
+  }
+
+  private static byte[] encode(final FacebookPostRequest request) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (final DataOutputStream out = new DataOutputStream(bytes)) {
+      writeString(out, request.getAccessToken());
+      writeString(out, request.getFacebookId());
+      writeString(out, request.getName().orElse(null));
+      writeString(out, request.getMessage().orElse(null));
+      writeString(out, request.getLink().orElse(null));
+      writeString(out, request.getImageUrl().orElse(null));
+      writeString(out, request.getDescription().orElse(null));
+      out.writeBoolean(request.isPublished());
+      out.writeLong(request.getScheduledPublishTimeEpoch());
+      writeString(out, request.getIdempotencyKey());
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static FacebookPostRequest decode(final DataInputStream in) throws IOException {
+    return new FacebookPostRequest()
+        .setAccessToken(readString(in))
+        .setFacebookId(readString(in))
+        .setName(readString(in))
+        .setMessage(readString(in))
+        .setLink(readString(in))
+        .setImageUrl(readString(in))
+        .setDescription(readString(in))
+        .setPublished(in.readBoolean())
+        .setScheduledPublishTimeEpoch(in.readLong())
+        .setIdempotencyKey(in.available() > 0 ? readString(in) : null);
+  }
+
+  private static byte[] encodeAck(final long seq, final PostResult result) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try (final DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeLong(seq);
+      out.writeByte(result.isSuccess() ? POSTED : FAILED);
+      writeString(out, result.isSuccess() ? result.getResponse().getId() : result.getError().getMessage());
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(Charsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("logFile", logFile)
+        .add("stats", getStats())
+        .toString();
+  }
+
+  private interface RecordReader {
+    void read(DataInputStream payload, int size) throws IOException;
+  }
+
+  private static final class Entry {
+    private final long seq;
+    private final FacebookPostRequest request;
+    private final int size;
+    private final CompletableFuture<FacebookPostResponse> future = new CompletableFuture<>();
+    private int attempts; // Accessed by the drainer only
+
+    private Entry(final long seq, final FacebookPostRequest request, final int size) {
+      this.seq = seq;
+      this.request = request;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Outbox statistics.
+   */
+  public static final class Stats {
+    private final long appended;
+    private final long replayed;
+    private final long posted;
+    private final long failed;
+    private final int pending;
+    private final long compactions;
+
+    private Stats(final long appended, final long replayed, final long posted, final long failed,
+                  final int pending, final long compactions) {
+      this.appended = appended;
+      this.replayed = replayed;
+      this.posted = posted;
+      this.failed = failed;
+      this.pending = pending;
+      this.compactions = compactions;
+    }
+
+    /**
+     * Posts appended since the outbox was opened.
+     */
+    public long getAppended() {
+      return appended;
+    }
+
+    /**
+     * Unacknowledged posts found in the log when the outbox was opened.
+     */
+    public long getReplayed() {
+      return replayed;
+    }
+
+    public long getPosted() {
+      return posted;
+    }
+
+    /**
+     * Posts acknowledged as failed: rejected by Facebook, or out of attempts.
+     */
+    public long getFailed() {
+      return failed;
+    }
+
+    public int getPending() {
+      return pending;
+    }
+
+    public long getCompactions() {
+      return compactions;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("appended", appended)
+          .add("replayed", replayed)
+          .add("posted", posted)
+          .add("failed", failed)
+          .add("pending", pending)
+          .add("compactions", compactions)
+          .toString();
+    }
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private FacebookService facebookService;
+    private Path directory;
+    private BatchRetryPolicy retryPolicy = BatchRetryPolicy.builder().build();
+    private int maxBatchSize = MAX_BATCH_SIZE;
+    private int maxAttempts = 10;
+    private Duration drainInterval = Duration.ofSeconds(1);
+    private long compactThreshold = 4 << 20;
+    private BiConsumer<FacebookPostRequest, PostResult> listener;
+
+    public Builder facebookService(final FacebookService facebookService) {
+      this.facebookService = facebookService;
+      return this;
+    }
+
+    /**
+     * Directory of the outbox.log and outbox.acks files. Created if missing.
+     */
+    public Builder directory(final Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    /**
+     * Decides which failed posts stay pending for another drain.
+     */
+    public Builder retryPolicy(final BatchRetryPolicy retryPolicy) {
+      this.retryPolicy = checkNotNull(retryPolicy);
+      return this;
+    }
+
+    /**
+     * Posts per batch call. At most 50, the Graph batch limit.
+     */
+    public Builder maxBatchSize(final int maxBatchSize) {
+      checkArgument(maxBatchSize > 0 && maxBatchSize <= MAX_BATCH_SIZE,
+          "maxBatchSize must be between 1 and %s", MAX_BATCH_SIZE);
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * Drains a post is sent in before it is acknowledged as failed.
+     */
+    public Builder maxAttempts(final int maxAttempts) {
+      checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * Delay between the end of one drain and the start of the next.
+     */
+    public Builder drainInterval(final Duration drainInterval) {
+      checkArgument(!drainInterval.isNegative() && !drainInterval.isZero(), "drainInterval must be positive");
+      this.drainInterval = drainInterval;
+      return this;
+    }
+
+    /**
+     * Log size in bytes from which it is compacted, once acknowledged posts make up most of it.
+     */
+    public Builder compactThreshold(final long compactThreshold) {
+      checkArgument(compactThreshold > 0, "compactThreshold must be positive");
+      this.compactThreshold = compactThreshold;
+      return this;
+    }
+
+    /**
+     * Called with every acknowledged post and its result, including posts replayed from an earlier
+     * run, which have no caller waiting on them.
+     */
+    public Builder listener(final BiConsumer<FacebookPostRequest, PostResult> listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    public PostOutbox build() {
+      return new PostOutbox(this);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.beachninja.facebook.service;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.function.LongFunction;
+
+/**
+ * Progress of a BulkScrapeJob: every batch before baseBatch is done, and baseOffset is the byte
+ * offset in the link file where baseBatch starts. Batches after baseBatch that finished out of
+ * order are kept as a bitmap relative to baseBatch.
+ *
+ * Stored as a small binary file, replaced atomically on every save.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class ScrapeCheckpoint {
+  private static final int MAGIC = 0x46425343; // "FBSC"
+  private static final int VERSION = 1;
+
+  /**
+   * Returns the checkpoint saved at the path, if any.
+   */
+  public static Optional<ScrapeCheckpoint> load(final Path path) throws IOException {
+    try (final DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a scrape checkpoint: " + path);
+      }
+      final int batchSize = in.readInt();
+      final long baseBatch = in.readLong();
+      final long baseOffset = in.readLong();
+      final byte[] bitmap = new byte[in.readInt()];
+      in.readFully(bitmap);
+      return Optional.of(new ScrapeCheckpoint(batchSize, baseBatch, baseOffset, BitSet.valueOf(bitmap)));
+    } catch (final NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  static ScrapeCheckpoint start(final int batchSize) {
+    return new ScrapeCheckpoint(batchSize, 0, 0, new BitSet());
+  }
+
+  private final int batchSize;
+  private long baseBatch;
+  private long baseOffset;
+  private final BitSet doneAfterBase;
+
+  private ScrapeCheckpoint(final int batchSize, final long baseBatch, final long baseOffset, final BitSet doneAfterBase) {
+    this.batchSize = batchSize;
+    this.baseBatch = baseBatch;
+    this.baseOffset = baseOffset;
+    this.doneAfterBase = doneAfterBase;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * First batch that is not done.
+   */
+  public long getBaseBatch() {
+    return baseBatch;
+  }
+
+  /**
+   * Byte offset in the link file where the base batch starts.
+   */
+  public long getBaseOffset() {
+    return baseOffset;
+  }
+
+  public boolean isDone(final long batch) {
+    return batch < baseBatch || doneAfterBase.get(Math.toIntExact(batch - baseBatch));
+  }
+
+  /**
+   * Marks the batch done, moving the base past every leading done batch whose end is known.
+   * @param endOffsets returns the byte offset where a batch ends, or null if not read yet
+   */
+  void markDone(final long batch, final LongFunction<Long> endOffsets) {
+    if (batch < baseBatch) {
+      return;
+    }
+    doneAfterBase.set(Math.toIntExact(batch - baseBatch));
+
+    int leading = 0;
+    while (doneAfterBase.get(leading)) {
+      final Long end = endOffsets.apply(baseBatch + leading);
+      if (end == null) {
+        break;
+      }
+      baseOffset = end;
+      leading++;
+    }
+    if (leading > 0) {
+      baseBatch += leading;
+      final BitSet shifted = doneAfterBase.get(leading, Math.max(leading, doneAfterBase.length()));
+      doneAfterBase.clear();
+      doneAfterBase.or(shifted);
+    }
+  }
+
+  /**
+   * Writes the checkpoint to a temp file, forces it to disk and moves it over the path.
+   */
+  void save(final Path path) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try (final DataOutputStream out = new DataOutputStream(bytes)) {
+      final byte[] bitmap = doneAfterBase.toByteArray();
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(batchSize);
+      out.writeLong(baseBatch);
+      out.writeLong(baseOffset);
+      out.writeInt(bitmap.length);
+      out.write(bitmap);
+    }
+
+    final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("batchSize", batchSize)
+        .add("baseBatch", baseBatch)
+        .add("baseOffset", baseOffset)
+        .add("doneAfterBase", doneAfterBase)
+        .toString();
+  }
+}
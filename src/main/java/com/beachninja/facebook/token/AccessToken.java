@@ -0,0 +1,54 @@
+package com.beachninja.facebook.token;
+
+import com.google.common.base.MoreObjects;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An access token and when it expires.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public final class AccessToken {
+
+  private final String value;
+  private final Instant expiresAt;
+
+  /**
+   * @param value token
+   * @param expiresAt expiry, or null if the token does not expire
+   */
+  public AccessToken(final String value, final Instant expiresAt) {
+    this.value = checkNotNull(value);
+    this.expiresAt = expiresAt;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Expiry, or null if the token does not expire.
+   */
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+
+  /**
+   * True if the token expires within the given time from now.
+   */
+  public boolean expiresWithin(final Duration duration, final Instant now) {
+    return expiresAt != null && !now.plus(duration).isBefore(expiresAt);
+  }
+
+  @Override
+  public String toString() {
+    // Never log the token itself
+    return MoreObjects.toStringHelper(this)
+        .add("expiresAt", expiresAt)
+        .toString();
+  }
+}
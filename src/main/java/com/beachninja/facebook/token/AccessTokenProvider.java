@@ -0,0 +1,351 @@
+package com.beachninja.facebook.token;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.error.FacebookErrorResponse;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.transport.FacebookTransport;
+import com.beachninja.facebook.util.CompletableFutures;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.escape.Escaper;
+import com.google.common.net.UrlEscapers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import static com.beachninja.facebook.util.FacebookConstants.GRAPH_URL;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Obtains and caches long-lived user and page access tokens, replacing the manual token steps.
+ *
+ * The user token given to the builder is exchanged for a long-lived one with
+ * oauth/access_token?grant_type=fb_exchange_token. Page tokens are then read with
+ * /{page}?fields=access_token using the long-lived user token. A page token lives no longer than
+ * the user token it was read with.
+ *
+ * Tokens are cached per page. A token within refreshBefore of its expiry is refreshed in the
+ * background while it is still handed out. A token within expiryMargin of its expiry is never
+ * handed out; callers wait for the refresh instead. Concurrent callers share a single exchange per
+ * token.
+ *
+ * Invalidating a token also disowns the exchanges in flight for it, so a token read before the
+ * invalidation is never cached after it.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class AccessTokenProvider {
+  private static final Logger LOG = LoggerFactory.getLogger(AccessTokenProvider.class);
+  private static final String USER_KEY = ""; // Cache key of the long-lived user token
+  private static final Escaper ESCAPER = UrlEscapers.urlFormParameterEscaper();
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final ObjectMapper om;
+  private final FacebookTransport transport;
+  private final String graphUrl;
+  private final String clientId;
+  private final String clientSecret;
+  private final String userAccessToken;
+  private final Duration refreshBefore;
+  private final Duration expiryMargin;
+  private final Clock clock;
+  private final Map<String, AccessToken> tokens = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<AccessToken>> exchanges = new ConcurrentHashMap<>();
+  private final Map<String, Long> generations = new ConcurrentHashMap<>(); // Bumped on invalidation
+
+  private AccessTokenProvider(final Builder builder) {
+    this.om = checkNotNull(builder.om, "objectMapper is required");
+    this.transport = checkNotNull(builder.transport, "transport is required");
+    this.graphUrl = builder.graphUrl;
+    this.clientId = checkNotNull(builder.clientId, "clientId is required");
+    this.clientSecret = checkNotNull(builder.clientSecret, "clientSecret is required");
+    this.userAccessToken = checkNotNull(builder.userAccessToken, "userAccessToken is required");
+    this.refreshBefore = builder.refreshBefore;
+    this.expiryMargin = builder.expiryMargin;
+    this.clock = builder.clock;
+  }
+
+  /**
+   * Returns a long-lived user access token.
+   */
+  public String getUserToken() {
+    return await(getUserTokenAsync());
+  }
+
+  public CompletableFuture<String> getUserTokenAsync() {
+    return userTokenAsync().thenApply(AccessToken::getValue);
+  }
+
+  /**
+   * Returns the access token of a page.
+   */
+  public String getPageToken(final String pageId) {
+    return await(getPageTokenAsync(pageId));
+  }
+
+  public CompletableFuture<String> getPageTokenAsync(final String pageId) {
+    checkArgument(pageId != null && !pageId.isEmpty(), "pageId is required");
+    return tokenAsync(pageId, () -> freshUserTokenAsync().thenCompose(userToken -> exchangePageToken(pageId, userToken)))
+        .thenApply(AccessToken::getValue);
+  }
+
+  /**
+   * Drops the cached token of a page, e.g. after Facebook rejected it, so the next caller gets a
+   * new one.
+   */
+  public void invalidate(final String pageId) {
+    generations.merge(pageId, 1L, Long::sum);
+    exchanges.remove(pageId);
+    tokens.remove(pageId);
+  }
+
+  /**
+   * Drops every cached token, including the long-lived user token.
+   */
+  public void invalidateAll() {
+    ImmutableSet.copyOf(Sets.union(tokens.keySet(), exchanges.keySet())).forEach(this::invalidate);
+  }
+
+  private CompletableFuture<AccessToken> userTokenAsync() {
+    return tokenAsync(USER_KEY, this::exchangeUserToken);
+  }
+
+  /**
+   * Page tokens inherit the expiry of the user token they are read with, so a page refresh first
+   * waits for a user token that is not due for a refresh itself.
+   */
+  private CompletableFuture<AccessToken> freshUserTokenAsync() {
+    final AccessToken token = tokens.get(USER_KEY);
+    if (token == null || token.expiresWithin(refreshBefore, clock.instant())) {
+      return refresh(USER_KEY, this::exchangeUserToken);
+    }
+    return CompletableFuture.completedFuture(token);
+  }
+
+  private CompletableFuture<AccessToken> tokenAsync(final String key,
+                                                    final Supplier<CompletableFuture<AccessToken>> exchange) {
+    final AccessToken token = tokens.get(key);
+    final Instant now = clock.instant();
+    if (token == null || token.expiresWithin(expiryMargin, now)) {
+      return refresh(key, exchange);
+    }
+    if (token.expiresWithin(refreshBefore, now)) {
+      refresh(key, exchange).whenComplete((refreshed, e) -> {
+        if (e != null) {
+          LOG.warn("Unable to refresh access token {} ahead of expiry at {}", key, token.getExpiresAt(), e);
+        }
+      });
+    }
+    return CompletableFuture.completedFuture(token);
+  }
+
+  /**
+   * Starts an exchange for the key, or joins the one already in flight.
+   */
+  private CompletableFuture<AccessToken> refresh(final String key,
+                                                 final Supplier<CompletableFuture<AccessToken>> exchange) {
+    final CompletableFuture<AccessToken> created = new CompletableFuture<>();
+    final CompletableFuture<AccessToken> inFlight = exchanges.putIfAbsent(key, created);
+    if (inFlight != null) {
+      return inFlight;
+    }
+    final long generation = generations.getOrDefault(key, 0L);
+    CompletableFuture<AccessToken> started;
+    try {
+      started = exchange.get();
+    } catch (final RuntimeException e) {
+      started = CompletableFutures.failed(e);
+    }
+    started.whenComplete((token, e) -> {
+      if (e == null) {
+        tokens.put(key, token);
+        if (generations.getOrDefault(key, 0L) != generation) {
+          tokens.remove(key, token); // Invalidated while in flight
+        }
+      }
+      exchanges.remove(key, created);
+      if (e == null) {
+        created.complete(token);
+      } else {
+        created.completeExceptionally(e);
+      }
+    });
+    return created;
+  }
+
+  private CompletableFuture<AccessToken> exchangeUserToken() {
+    final AccessToken current = tokens.get(USER_KEY);
+    final String url = graphUrl + "/oauth/access_token?grant_type=fb_exchange_token"
+        + "&client_id=" + ESCAPER.escape(clientId)
+        + "&client_secret=" + ESCAPER.escape(clientSecret)
+        + "&fb_exchange_token=" + ESCAPER.escape(current == null ? userAccessToken : current.getValue());
+    final Instant requestedAt = clock.instant();
+    LOG.debug("Exchanging user access token for a long-lived one");
+    return transport.executeAsync(new HttpGet(url), response -> {
+      final JsonNode body = readBody(response);
+      if (!body.hasNonNull("access_token")) {
+        throw new FacebookException(FacebookError.builder().message("No access token in exchange response").build());
+      }
+      final JsonNode expiresIn = body.get("expires_in");
+      return new AccessToken(body.get("access_token").asText(),
+          expiresIn == null || expiresIn.asLong() <= 0 ? null : requestedAt.plusSeconds(expiresIn.asLong()));
+    });
+  }
+
+  private CompletableFuture<AccessToken> exchangePageToken(final String pageId, final AccessToken userToken) {
+    final String url = graphUrl + "/" + ESCAPER.escape(pageId) + "?fields=access_token"
+        + "&access_token=" + ESCAPER.escape(userToken.getValue());
+    LOG.debug("Reading access token of page {}", pageId);
+    return transport.executeAsync(new HttpGet(url), response -> {
+      final JsonNode body = readBody(response);
+      if (!body.hasNonNull("access_token")) {
+        throw new FacebookException(FacebookError.builder()
+            .message("No access token for page " + pageId + "; is the user a page admin?").build());
+      }
+      // Page tokens read with a long-lived user token do not expire on their own
+      return new AccessToken(body.get("access_token").asText(), userToken.getExpiresAt());
+    });
+  }
+
+  private JsonNode readBody(final HttpResponse response) throws IOException {
+    final int status = response.getStatusLine().getStatusCode();
+    if (status == 200) {
+      return om.readTree(response.getEntity().getContent());
+    }
+    FacebookError error = null;
+    try {
+      error = om.readValue(response.getEntity().getContent(), FacebookErrorResponse.class).getFacebookError();
+    } catch (final IOException e) {
+      LOG.debug("Unreadable error response with status {}", status, e);
+    }
+    if (error == null) {
+      error = FacebookError.builder().message(String.valueOf(response.getStatusLine())).build();
+    }
+    throw new FacebookException(error, status);
+  }
+
+  private static <T> T await(final CompletableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for access token", e);
+    } catch (final ExecutionException e) {
+      final Throwable cause = CompletableFutures.unwrap(e);
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("graphUrl", graphUrl)
+        .add("clientId", clientId)
+        .add("tokens", tokens)
+        .toString();
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private ObjectMapper om;
+    private FacebookTransport transport;
+    private String graphUrl = GRAPH_URL;
+    private String clientId;
+    private String clientSecret;
+    private String userAccessToken;
+    private Duration refreshBefore = Duration.ofDays(7);
+    private Duration expiryMargin = Duration.ofMinutes(5);
+    private Clock clock = Clock.systemUTC();
+
+    public Builder objectMapper(final ObjectMapper om) {
+      this.om = om;
+      return this;
+    }
+
+    public Builder transport(final FacebookTransport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Graph API base URL, including the version. Point it at a local stub in tests.
+     */
+    public Builder graphUrl(final String graphUrl) {
+      checkArgument(graphUrl != null && !graphUrl.isEmpty(), "graphUrl is required");
+      this.graphUrl = graphUrl.endsWith("/") ? graphUrl.substring(0, graphUrl.length() - 1) : graphUrl;
+      return this;
+    }
+
+    /**
+     * App ID.
+     */
+    public Builder clientId(final String clientId) {
+      this.clientId = clientId;
+      return this;
+    }
+
+    /**
+     * App secret.
+     */
+    public Builder clientSecret(final String clientSecret) {
+      this.clientSecret = clientSecret;
+      return this;
+    }
+
+    /**
+     * User access token of a page admin, e.g. from the Graph API Explorer. It may be short-lived.
+     */
+    public Builder userAccessToken(final String userAccessToken) {
+      this.userAccessToken = userAccessToken;
+      return this;
+    }
+
+    /**
+     * How long before expiry a token is refreshed in the background.
+     */
+    public Builder refreshBefore(final Duration refreshBefore) {
+      this.refreshBefore = checkNotNull(refreshBefore);
+      return this;
+    }
+
+    /**
+     * How long before expiry a token is no longer handed out.
+     */
+    public Builder expiryMargin(final Duration expiryMargin) {
+      this.expiryMargin = checkNotNull(expiryMargin);
+      return this;
+    }
+
+    public Builder clock(final Clock clock) {
+      this.clock = checkNotNull(clock);
+      return this;
+    }
+
+    public AccessTokenProvider build() {
+      return new AccessTokenProvider(this);
+    }
+  }
+}
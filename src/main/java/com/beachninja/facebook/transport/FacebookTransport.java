@@ -0,0 +1,41 @@
+package com.beachninja.facebook.transport;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP transport used by FacebookService to talk to the Graph API.
+ *
+ * Implementations own the underlying connections. The response handler is invoked while the
+ * connection is still leased, and the response entity is fully consumed afterwards so the
+ * connection can be reused.
+ *
+ * Asynchronous calls must not block a caller thread for the duration of the round trip.
+ * Cancelling the returned future aborts the underlying exchange.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public interface FacebookTransport extends Closeable {
+
+  /**
+   * Executes the request and hands the response to the given handler.
+   * @param request HTTP request
+   * @param handler converts the HTTP response into the result
+   * @return result of the handler
+   * @throws IOException on connection or protocol failure
+   */
+  <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException;
+
+  /**
+   * Executes the request without blocking and hands the response to the given handler once it
+   * has been received.
+   * @param request HTTP request
+   * @param handler converts the HTTP response into the result
+   * @return future result of the handler
+   */
+  <T> CompletableFuture<T> executeAsync(HttpUriRequest request, ResponseHandler<? extends T> handler);
+}
@@ -0,0 +1,290 @@
+package com.beachninja.facebook.transport;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * FacebookTransport backed by a pooled, keep-alive Apache HttpClient.
+ *
+ * Connections to graph.facebook.com are kept alive and reused across calls, so the TCP and TLS
+ * handshakes are paid once per pooled connection instead of once per request.
+ *
+ * Asynchronous calls run on a non-blocking HttpAsyncClient with its own connection pool, sized
+ * with the same limits as the blocking pool. Their response handlers run on a handler executor as
+ * soon as the headers arrive and read the body as it streams in, so decoding never runs on, or
+ * blocks, the I/O reactor.
+ *
+ * Both clients default to the configured connect, socket and pool lease timeouts. A request can
+ * override them with its own RequestConfig.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class PooledHttpTransport implements FacebookTransport {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final CloseableHttpClient httpClient;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpAsyncClient asyncClient;
+  private final PoolingNHttpClientConnectionManager asyncConnectionManager;
+  private final ScheduledExecutorService asyncEvictor;
+  private final ExecutorService handlerExecutor;
+  private final boolean ownsHandlerExecutor;
+  private final int responseBufferSize;
+
+  private PooledHttpTransport(final Builder builder) {
+    this.responseBufferSize = builder.responseBufferSize;
+    this.ownsHandlerExecutor = builder.handlerExecutor == null;
+    this.handlerExecutor = ownsHandlerExecutor
+        ? Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("facebook-async-handler-%d")
+            .setDaemon(true)
+            .build())
+        : builder.handlerExecutor;
+    final Duration keepAlive = builder.keepAlive;
+    final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      final long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return serverKeepAlive > 0 ? serverKeepAlive : keepAlive.toMillis();
+    };
+
+    final RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(Math.toIntExact(builder.connectTimeout.toMillis()))
+        .setSocketTimeout(Math.toIntExact(builder.socketTimeout.toMillis()))
+        .setConnectionRequestTimeout(Math.toIntExact(builder.connectionRequestTimeout.toMillis()))
+        .build();
+
+    connectionManager = new PoolingHttpClientConnectionManager(
+        builder.connectionTtl.toMillis(), TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(builder.maxTotal);
+    connectionManager.setDefaultMaxPerRoute(builder.maxPerRoute);
+
+    httpClient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(keepAliveStrategy)
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections(builder.maxIdleTime.toMillis(), TimeUnit.MILLISECONDS)
+        .build();
+
+    try {
+      asyncConnectionManager = new PoolingNHttpClientConnectionManager(
+          new DefaultConnectingIOReactor(),
+          null,
+          RegistryBuilder.<SchemeIOSessionStrategy>create()
+              .register("http", NoopIOSessionStrategy.INSTANCE)
+              .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+              .build(),
+          null,
+          null,
+          builder.connectionTtl.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (final IOReactorException e) {
+      throw new IllegalStateException("Unable to start async I/O reactor", e);
+    }
+    asyncConnectionManager.setMaxTotal(builder.maxTotal);
+    asyncConnectionManager.setDefaultMaxPerRoute(builder.maxPerRoute);
+
+    asyncClient = HttpAsyncClients.custom()
+        .setConnectionManager(asyncConnectionManager)
+        .setKeepAliveStrategy(keepAliveStrategy)
+        .setDefaultRequestConfig(requestConfig)
+        .build();
+    asyncClient.start();
+
+    // HttpAsyncClient has no built-in idle evictor
+    final long maxIdleMillis = builder.maxIdleTime.toMillis();
+    asyncEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("facebook-async-evictor-%d")
+        .setDaemon(true)
+        .build());
+    asyncEvictor.scheduleWithFixedDelay(() -> {
+      asyncConnectionManager.closeExpiredConnections();
+      asyncConnectionManager.closeIdleConnections(maxIdleMillis, TimeUnit.MILLISECONDS);
+    }, maxIdleMillis, maxIdleMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) throws IOException {
+    return httpClient.execute(request, handler);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> executeAsync(final HttpUriRequest request,
+                                               final ResponseHandler<? extends T> handler) {
+    final StreamingResponseConsumer<T> consumer =
+        new StreamingResponseConsumer<>(handler, handlerExecutor, responseBufferSize);
+    final CompletableFuture<T> result = consumer.getHandlerResult();
+    final Future<Void> exchange = asyncClient.execute(HttpAsyncMethods.create(request), consumer, null);
+
+    result.whenComplete((r, e) -> {
+      if (result.isCancelled()) {
+        exchange.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    asyncEvictor.shutdownNow();
+    try {
+      asyncClient.close();
+    } finally {
+      try {
+        httpClient.close();
+      } finally {
+        if (ownsHandlerExecutor) {
+          handlerExecutor.shutdown();
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("pool", connectionManager.getTotalStats())
+        .add("asyncPool", asyncConnectionManager.getTotalStats())
+        .toString();
+  }
+
+  /**
+   * Builder class
+   */
+  public static final class Builder {
+    private int maxTotal = 100;
+    private int maxPerRoute = 50;
+    private Duration connectionTtl = Duration.ofMinutes(5);
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    private Duration keepAlive = Duration.ofSeconds(30);
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration socketTimeout = Duration.ofSeconds(30);
+    private Duration connectionRequestTimeout = Duration.ofSeconds(5);
+    private ExecutorService handlerExecutor;
+    private int responseBufferSize = 64 * 1024;
+
+    /**
+     * Maximum number of pooled connections across all routes.
+     */
+    public Builder maxTotal(final int maxTotal) {
+      checkArgument(maxTotal > 0, "maxTotal must be positive");
+      this.maxTotal = maxTotal;
+      return this;
+    }
+
+    /**
+     * Maximum number of pooled connections per route (e.g. to graph.facebook.com:443).
+     */
+    public Builder maxPerRoute(final int maxPerRoute) {
+      checkArgument(maxPerRoute > 0, "maxPerRoute must be positive");
+      this.maxPerRoute = maxPerRoute;
+      return this;
+    }
+
+    /**
+     * Maximum lifetime of a pooled connection, regardless of activity.
+     */
+    public Builder connectionTtl(final Duration connectionTtl) {
+      this.connectionTtl = checkNotNull(connectionTtl);
+      return this;
+    }
+
+    /**
+     * Idle connections older than this are evicted by a background thread.
+     */
+    public Builder maxIdleTime(final Duration maxIdleTime) {
+      checkArgument(!maxIdleTime.isNegative() && !maxIdleTime.isZero(), "maxIdleTime must be positive");
+      this.maxIdleTime = maxIdleTime;
+      return this;
+    }
+
+    /**
+     * Keep-alive to use when the server does not send a Keep-Alive header.
+     */
+    public Builder keepAlive(final Duration keepAlive) {
+      this.keepAlive = checkNotNull(keepAlive);
+      return this;
+    }
+
+    /**
+     * Maximum time to establish a connection.
+     */
+    public Builder connectTimeout(final Duration connectTimeout) {
+      checkArgument(!connectTimeout.isNegative(), "connectTimeout must not be negative");
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /**
+     * Maximum time without data between two packets, while sending or receiving.
+     */
+    public Builder socketTimeout(final Duration socketTimeout) {
+      checkArgument(!socketTimeout.isNegative(), "socketTimeout must not be negative");
+      this.socketTimeout = socketTimeout;
+      return this;
+    }
+
+    /**
+     * Maximum time to wait for a connection from the pool.
+     */
+    public Builder connectionRequestTimeout(final Duration connectionRequestTimeout) {
+      checkArgument(!connectionRequestTimeout.isNegative(), "connectionRequestTimeout must not be negative");
+      this.connectionRequestTimeout = connectionRequestTimeout;
+      return this;
+    }
+
+    /**
+     * Executor that runs the response handlers of asynchronous calls. Defaults to a cached pool
+     * of daemon threads owned by the transport.
+     */
+    public Builder handlerExecutor(final ExecutorService handlerExecutor) {
+      this.handlerExecutor = handlerExecutor;
+      return this;
+    }
+
+    /**
+     * Bytes of an asynchronous response buffered ahead of its handler before the connection stops
+     * reading.
+     */
+    public Builder responseBufferSize(final int responseBufferSize) {
+      checkArgument(responseBufferSize > 0, "responseBufferSize must be positive");
+      this.responseBufferSize = responseBufferSize;
+      return this;
+    }
+
+    public PooledHttpTransport build() {
+      return new PooledHttpTransport(this);
+    }
+  }
+}
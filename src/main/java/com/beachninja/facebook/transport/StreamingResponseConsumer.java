@@ -0,0 +1,127 @@
+package com.beachninja.facebook.transport;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Response consumer that hands the response to a ResponseHandler on an executor as soon as the
+ * headers arrive, while the body is still being received.
+ *
+ * The I/O reactor only copies body bytes into a bounded buffer; the handler reads them from the
+ * entity stream on its own thread. When the buffer is full, the reactor stops reading from the
+ * connection until the handler catches up, so a slow handler slows its own response down but never
+ * blocks other connections.
+ *
+ * @author bradwee2000@gmail.com
+ */
+final class StreamingResponseConsumer<T> extends AbstractAsyncResponseConsumer<Void> {
+
+  private final ResponseHandler<? extends T> handler;
+  private final Executor executor;
+  private final int bufferSize;
+  private final CompletableFuture<T> result = new CompletableFuture<>();
+
+  private HttpResponse response;
+  private SharedInputBuffer buffer;
+  private boolean handlerStarted;
+  private boolean received;
+
+  StreamingResponseConsumer(final ResponseHandler<? extends T> handler, final Executor executor,
+                            final int bufferSize) {
+    this.handler = handler;
+    this.executor = executor;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Result of the handler, or the failure of the exchange.
+   */
+  CompletableFuture<T> getHandlerResult() {
+    return result;
+  }
+
+  @Override
+  protected void onResponseReceived(final HttpResponse response) {
+    this.response = response;
+  }
+
+  @Override
+  protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+    buffer = new SharedInputBuffer(bufferSize, HeapByteBufferAllocator.INSTANCE);
+    final BasicHttpEntity streaming = new BasicHttpEntity();
+    streaming.setContent(new ContentInputStream(buffer));
+    streaming.setContentLength(entity.getContentLength());
+    streaming.setContentType(entity.getContentType());
+    streaming.setContentEncoding(entity.getContentEncoding());
+    streaming.setChunked(entity.isChunked());
+    response.setEntity(streaming);
+    startHandler();
+  }
+
+  @Override
+  protected void onContentReceived(final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+    buffer.consumeContent(decoder, ioControl);
+  }
+
+  @Override
+  protected Void buildResult(final HttpContext context) {
+    received = true;
+    if (!handlerStarted) {
+      startHandler(); // Response without a body
+    }
+    return null;
+  }
+
+  @Override
+  protected void releaseResources() {
+    if (getException() != null) {
+      result.completeExceptionally(getException());
+    } else if (!received) {
+      result.cancel(false);
+    } else {
+      return; // Completed normally; the handler may still be reading the buffer
+    }
+    if (buffer != null) {
+      buffer.shutdown();
+    }
+  }
+
+  private void startHandler() {
+    handlerStarted = true;
+    try {
+      executor.execute(this::runHandler);
+    } catch (final RejectedExecutionException e) {
+      result.completeExceptionally(e);
+      if (buffer != null) {
+        buffer.shutdown();
+      }
+    }
+  }
+
+  private void runHandler() {
+    try {
+      result.complete(handler.handleResponse(response));
+    } catch (final Exception e) {
+      result.completeExceptionally(e);
+    } finally {
+      // Drain what the handler left unread so the exchange can complete and release the connection
+      EntityUtils.consumeQuietly(response.getEntity());
+    }
+  }
+}
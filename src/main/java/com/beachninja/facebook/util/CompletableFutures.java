@@ -0,0 +1,90 @@
+package com.beachninja.facebook.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * CompletableFuture helpers.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class CompletableFutures {
+
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1,
+      new ThreadFactoryBuilder().setNameFormat("facebook-timer-%d").setDaemon(true).build());
+
+  static {
+    TIMER.setRemoveOnCancelPolicy(true); // Timeouts are usually cancelled long before they fire
+  }
+
+  /**
+   * Returns a future already completed with the given failure.
+   */
+  public static <T> CompletableFuture<T> failed(final Throwable t) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  /**
+   * Returns a future that completes after the given delay. Dependent stages should stay short,
+   * since they run on a shared timer thread unless an async variant is used.
+   */
+  public static CompletableFuture<Void> delay(final Duration delay) {
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    TIMER.schedule(() -> future.complete(null), delay.toNanos(), TimeUnit.NANOSECONDS);
+    return future;
+  }
+
+  /**
+   * Returns a future that completes like the source, or fails with the given exception if the
+   * source has not completed within the timeout. On timeout, and when the returned future is
+   * cancelled, the source is cancelled.
+   */
+  public static <T> CompletableFuture<T> within(final CompletableFuture<T> source,
+                                                final Duration timeout,
+                                                final Supplier<? extends Throwable> onTimeout) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final ScheduledFuture<?> timer = TIMER.schedule(() -> {
+      if (result.completeExceptionally(onTimeout.get())) {
+        source.cancel(true);
+      }
+    }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+    source.whenComplete((value, e) -> {
+      timer.cancel(false);
+      if (e == null) {
+        result.complete(value);
+      } else {
+        result.completeExceptionally(e);
+      }
+    });
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) {
+        source.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Strips CompletionException / ExecutionException wrappers added by future composition.
+   */
+  public static Throwable unwrap(final Throwable t) {
+    Throwable cause = t;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+
+  private CompletableFutures() {}
+}
@@ -0,0 +1,61 @@
+package com.beachninja.facebook.util;
+
+import com.google.common.base.MoreObjects;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Point in time by which a call must finish, measured on the monotonic clock.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public final class Deadline {
+
+  /**
+   * Deadline the given time from now.
+   */
+  public static Deadline after(final Duration timeout) {
+    checkNotNull(timeout, "timeout is required");
+    return new Deadline(System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * Deadline at the given wall-clock instant.
+   */
+  public static Deadline at(final Instant instant) {
+    return after(Duration.between(Clock.systemUTC().instant(), instant));
+  }
+
+  private final long deadlineNanos;
+
+  private Deadline(final long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * Time left, or zero once the deadline has passed.
+   */
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+  }
+
+  public boolean isExpired() {
+    return deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * Returns the earlier of this deadline and the other.
+   */
+  public Deadline min(final Deadline other) {
+    return other.deadlineNanos - deadlineNanos < 0 ? other : this;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("remaining", remaining()).toString();
+  }
+}
@@ -8,7 +8,9 @@ public class FacebookConstants {
   public static final String BATCH_URL = "https://graph.facebook.com";
   public static final String POST_URL = "https://graph.facebook.com/v2.8/%s/feed";
   public static final String SCRAPE_URL = "https://graph.facebook.com/v2.8/";
+  public static final String GRAPH_URL = "https://graph.facebook.com/v2.8";
   public static final String CHARSET_UTF8 = "UTF-8";
+  public static final int MAX_BATCH_SIZE = 50; // Graph API limit on operations per batch
 
   private FacebookConstants() {}
 }
@@ -0,0 +1,126 @@
+package com.beachninja.facebook.util;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Single-subscriber Flow.Publisher that pulls items from an iterator only as they are requested.
+ *
+ * Items are pulled and emitted on the given executor, or on the thread that requests them if no
+ * executor is given. Use an executor when requests may come from a thread that must not block on
+ * the iterator, such as an I/O thread completing a call.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class IteratorPublisher<T> implements Flow.Publisher<T> {
+
+  public static <T> IteratorPublisher<T> of(final Iterator<? extends T> iterator) {
+    return new IteratorPublisher<>(iterator, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * @param iterator items to publish
+   * @param executor pulls items from the iterator and emits them to the subscriber
+   */
+  public static <T> IteratorPublisher<T> of(final Iterator<? extends T> iterator, final Executor executor) {
+    return new IteratorPublisher<>(iterator, executor);
+  }
+
+  private final Iterator<? extends T> iterator;
+  private final Executor executor;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  private IteratorPublisher(final Iterator<? extends T> iterator, final Executor executor) {
+    this.iterator = checkNotNull(iterator);
+    this.executor = checkNotNull(executor);
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super T> subscriber) {
+    checkNotNull(subscriber);
+    if (!subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(final long n) {}
+
+        @Override
+        public void cancel() {}
+      });
+      subscriber.onError(new IllegalStateException("IteratorPublisher allows a single subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new IteratorSubscription(subscriber));
+  }
+
+  private final class IteratorSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super T> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean done;
+
+    private IteratorSubscription(final Flow.Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        cancel();
+        subscriber.onError(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+        return;
+      }
+      demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      try {
+        executor.execute(this::drain);
+      } catch (final RejectedExecutionException e) {
+        done = true;
+        subscriber.onError(e);
+      }
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+    }
+
+    /**
+     * Emits while there is demand. Requests made while draining, including reentrant requests from
+     * onNext, only add demand; the drain already running emits it.
+     */
+    private void drain() {
+      int missed = 1;
+      do {
+        while (!done && demand.get() > 0) {
+          final T next;
+          try {
+            if (!iterator.hasNext()) {
+              done = true;
+              subscriber.onComplete();
+              return;
+            }
+            next = iterator.next();
+          } catch (final RuntimeException e) {
+            done = true;
+            subscriber.onError(e);
+            return;
+          }
+          demand.decrementAndGet();
+          subscriber.onNext(next);
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.beachninja.facebook.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Percent-encodes bytes on the fly for application/x-www-form-urlencoded bodies, producing the
+ * same output as URLEncoder.encode(value, "UTF-8") for UTF-8 input.
+ *
+ * Closing this stream does not close the underlying stream.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class PercentEncodingOutputStream extends FilterOutputStream {
+
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+  private static final boolean[] UNRESERVED = new boolean[256];
+
+  static {
+    for (int c = 'a'; c <= 'z'; c++) {
+      UNRESERVED[c] = true;
+    }
+    for (int c = 'A'; c <= 'Z'; c++) {
+      UNRESERVED[c] = true;
+    }
+    for (int c = '0'; c <= '9'; c++) {
+      UNRESERVED[c] = true;
+    }
+    UNRESERVED['.'] = true;
+    UNRESERVED['-'] = true;
+    UNRESERVED['*'] = true;
+    UNRESERVED['_'] = true;
+  }
+
+  private final byte[] buffer = new byte[4096];
+  private int position;
+
+  public PercentEncodingOutputStream(final OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    if (position > buffer.length - 3) {
+      flushBuffer();
+    }
+    final int c = b & 0xFF;
+    if (UNRESERVED[c]) {
+      buffer[position++] = (byte) c;
+    } else if (c == ' ') {
+      buffer[position++] = '+';
+    } else {
+      buffer[position++] = '%';
+      buffer[position++] = HEX[c >> 4];
+      buffer[position++] = HEX[c & 0xF];
+    }
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      write(b[i]);
+    }
+  }
+
+  /**
+   * Writes bytes as-is, e.g. form delimiters and parameter names.
+   */
+  public void writeUnencoded(final byte[] b) throws IOException {
+    flushBuffer();
+    out.write(b);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+}
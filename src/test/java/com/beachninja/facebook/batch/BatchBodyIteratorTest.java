@@ -0,0 +1,80 @@
+package com.beachninja.facebook.batch;
+
+import com.beachninja.facebook.post.PostResult;
+import com.beachninja.facebook.post.PostResultDecoder;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.beachninja.facebook.scrape.ScrapeResultDecoder;
+import com.beachninja.facebook.util.TestUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BatchBodyIteratorTest {
+  private static final ObjectMapper om = TestUtil.om();
+
+  @Test
+  public void testIterate_shouldDecodeBodiesByCode() throws IOException {
+    try (final BatchBodyIterator<ScrapeResult> iterator = BatchBodyIterator.of(om.getFactory(),
+        getClass().getResourceAsStream("/batch-scrape-error-response.json"), new ScrapeResultDecoder(om))) {
+      final List<ScrapeResult> results = Lists.newArrayList(iterator);
+
+      assertThat(results).hasSize(3);
+      assertThat(results.get(0).isSuccess()).isFalse();
+      assertThat(results.get(0).getError().getMessage()).isEqualTo("Invalid parameter");
+      assertThat(results.get(0).getError().getCode()).isEqualTo(100);
+      assertThat(results.get(1).getWebsite().getTitle()).isEqualTo("Valid website");
+      assertThat(results.get(1).getWebsite().getUrl()).isEqualTo("https://localhost:8080/valid_site");
+      assertThat(results.get(2).getError().getCode()).isEqualTo(2500);
+    }
+  }
+
+  @Test
+  public void testIterateWithBodyBeforeCode_shouldDecodeBody() throws IOException {
+    final String json = "[{\"body\":\"{\\\"id\\\":\\\"1\\\"}\",\"code\":200},null,{\"code\":500}]";
+
+    try (final BatchBodyIterator<String> iterator = BatchBodyIterator.of(om.getFactory(), stream(json),
+        (code, body) -> code + ":" + (body == null ? "none" : om.readValue(body, Map.class).get("id")))) {
+      assertThat(Lists.newArrayList(iterator)).containsExactly("200:1", null, "500:none");
+    }
+  }
+
+  @Test
+  public void testIterateFailedPostsWithoutGraphError_shouldDecodeErrorFromCode() throws IOException {
+    final String json = "[{\"code\":502,\"body\":\"{}\"},{\"code\":403,\"body\":\"{\\\"status\\\":\\\"denied\\\"}\"}]";
+
+    try (final BatchBodyIterator<PostResult> iterator = BatchBodyIterator.of(om.getFactory(), stream(json),
+        new PostResultDecoder(om))) {
+      final List<PostResult> results = Lists.newArrayList(iterator);
+      assertThat(results).extracting(PostResult::isSuccess).containsExactly(false, false);
+      assertThat(results).extracting(result -> result.getError().getCode()).containsExactly(502, 403);
+    }
+  }
+
+  @Test
+  public void testIterateFailedScrapesWithoutGraphError_shouldDecodeErrorFromCode() throws IOException {
+    final String json = "[{\"code\":502,\"body\":\"{}\"},{\"code\":403,\"body\":\"{\\\"status\\\":\\\"denied\\\"}\"}]";
+
+    try (final BatchBodyIterator<ScrapeResult> iterator = BatchBodyIterator.of(om.getFactory(), stream(json),
+        new ScrapeResultDecoder(om))) {
+      final List<ScrapeResult> results = Lists.newArrayList(iterator);
+      assertThat(results).extracting(ScrapeResult::isSuccess).containsExactly(false, false);
+      assertThat(results).extracting(result -> result.getError().getCode()).containsExactly(502, 403);
+    }
+  }
+
+  private static InputStream stream(final String json) {
+    return new ByteArrayInputStream(json.getBytes(Charsets.UTF_8));
+  }
+}
@@ -42,6 +42,54 @@ public class BatchItemTest {
         .containsOnly(orig, diffMethod, diffUrl, diffBody);
   }
 
+  @Test
+  public void testSerializeDependentItem_shouldWriteGraphFieldNames() throws IOException {
+    final BatchItem item = BatchItem.builder().get()
+        .relativeUrl(BatchReference.id("create-post").toString())
+        .name("read-post")
+        .dependsOn("create-post")
+        .omitResponseOnSuccess(false)
+        .build();
+
+    final String json = TestUtil.om().writeValueAsString(item);
+
+    assertThat(json).contains("\"name\":\"read-post\"")
+        .contains("\"depends_on\":\"create-post\"")
+        .contains("\"omit_response_on_success\":false");
+    assertThat(TestUtil.om().readValue(json, BatchItem.class)).isEqualTo(item);
+  }
+
+  @Test
+  public void testSerializeSimpleItem_shouldOmitDependencyFields() throws IOException {
+    assertThat(TestUtil.om().writeValueAsString(orig))
+        .doesNotContain("name").doesNotContain("depends_on").doesNotContain("omit_response_on_success");
+  }
+
+  @Test
+  public void testGetDependencies_shouldIncludeDependsOnAndReferences() {
+    final BatchItem item = BatchItem.builder().post()
+        .relativeUrl(BatchReference.result("page", "$.id") + "/feed")
+        .body("message=hi&link=" + BatchReference.result("link", "$.data.0.url"))
+        .dependsOn("token")
+        .build();
+
+    assertThat(item.getDependencies()).containsExactly("token", "page", "link");
+    assertThat(orig.getDependencies()).isEmpty();
+  }
+
+  @Test
+  public void testBuildWithAccessToken_shouldAddTokenToBodyOrUrl() {
+    final BatchItem post = BatchItem.builder().post().relativeUrl("page/feed").body("message=hi")
+        .accessToken("page token").build();
+    final BatchItem get = BatchItem.builder().get().relativeUrl("me?fields=id").accessToken("user").build();
+
+    assertThat(post.getBody()).isEqualTo("message=hi&access_token=page+token");
+    assertThat(post.getRelativeUrl()).isEqualTo("page/feed");
+    assertThat(post.getAccessToken()).isEqualTo("page token");
+    assertThat(get.getRelativeUrl()).isEqualTo("me?fields=id&access_token=user");
+    assertThat(get.getBody()).isNull();
+  }
+
   @Test
   public void testSerializeDeserialize_shouldReturnEqualObject() throws IOException {
     final ObjectMapper om = TestUtil.om();
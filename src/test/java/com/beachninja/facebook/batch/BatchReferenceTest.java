@@ -0,0 +1,32 @@
+package com.beachninja.facebook.batch;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BatchReferenceTest {
+
+  @Test
+  public void testToString_shouldUseGraphFormat() {
+    assertThat(BatchReference.result("get-friends", "$.data.*.id").toString())
+        .isEqualTo("{result=get-friends:$.data.*.id}");
+    assertThat(BatchReference.id("create-post").toString()).isEqualTo("{result=create-post:$.id}");
+  }
+
+  @Test
+  public void testNamesIn_shouldFindAllReferencedNames() {
+    assertThat(BatchReference.namesIn("?ids={result=a:$.data.*.id},{result=b:$.id}")).containsExactly("a", "b");
+    assertThat(BatchReference.namesIn("me/feed")).isEmpty();
+    assertThat(BatchReference.namesIn(null)).isEmpty();
+  }
+
+  @Test
+  public void testInvalidName_shouldThrowException() {
+    assertThatThrownBy(() -> BatchReference.result("a:b", "$.id")).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> BatchReference.result("", "$.id")).isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,135 @@
+package com.beachninja.facebook.batch;
+
+import com.beachninja.facebook.util.TestUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.nio.ContentEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BatchRequestEntityTest {
+  private static final ObjectMapper om = TestUtil.om();
+
+  private final BatchRequest request = BatchRequest.builder().accessToken("sample token")
+      .addItem(BatchItem.builder().post().relativeUrl("/post").body("message=hello&description=world").build())
+      .addItem(BatchItem.builder().get().relativeUrl("/get?key=1").build())
+      .build();
+
+  @Test
+  public void testWriteTo_shouldWriteFormEncodedParameters() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BatchRequestEntity(om, request).writeTo(out);
+
+    assertThat(out.toString("UTF-8")).isEqualTo("access_token=sample+token&batch=" + URLEncoder.encode(
+        "[{\"method\":\"POST\",\"relative_url\":\"/post\",\"body\":\"message=hello&description=world\"}," +
+            "{\"method\":\"GET\",\"relative_url\":\"/get?key=1\"}]", "UTF-8"));
+  }
+
+  @Test
+  public void testContentLength_shouldMatchWrittenBytes() throws IOException {
+    final BatchRequestEntity entity = new BatchRequestEntity(om, request);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+
+    assertThat(entity.getContentLength()).isEqualTo(out.size());
+    assertThat(entity.getContentType().getValue()).startsWith("application/x-www-form-urlencoded");
+  }
+
+  @Test
+  public void testGetContent_shouldMatchWrittenBytes() throws IOException {
+    final BatchRequestEntity entity = new BatchRequestEntity(om, request);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+
+    assertThat(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8)).isEqualTo(out.toString("UTF-8"));
+  }
+
+  @Test
+  public void testProduceContent_shouldStopWhenConnectionIsFullAndMatchWrittenBytes() throws IOException {
+    final BatchRequestEntity entity = new BatchRequestEntity(om, request);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+
+    final ThrottledEncoder encoder = new ThrottledEncoder(16);
+    int calls = 0;
+    while (!encoder.isCompleted()) {
+      entity.produceContent(encoder, null);
+      calls++;
+    }
+
+    assertThat(encoder.toString()).isEqualTo(out.toString("UTF-8"));
+    assertThat(calls).isGreaterThan(out.size() / 16);
+    assertThat(entity.isChunked()).isFalse();
+    assertThat(entity.getContentLength()).isEqualTo(out.size());
+  }
+
+  @Test
+  public void testProduceContentAfterClose_shouldStartOver() throws IOException {
+    final BatchRequestEntity entity = new BatchRequestEntity(om, request);
+    final ThrottledEncoder partial = new ThrottledEncoder(16);
+    entity.produceContent(partial, null);
+    entity.close();
+
+    final ThrottledEncoder encoder = new ThrottledEncoder(Integer.MAX_VALUE);
+    entity.produceContent(encoder, null);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    assertThat(encoder.isCompleted()).isTrue();
+    assertThat(encoder.toString()).isEqualTo(out.toString("UTF-8"));
+  }
+
+  /**
+   * Encoder that takes at most a fixed number of bytes per produceContent call, like a connection
+   * whose send buffer fills up.
+   */
+  private static class ThrottledEncoder implements ContentEncoder {
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final int capacity;
+    private int available;
+    private boolean completed;
+
+    private ThrottledEncoder(final int capacity) {
+      this.capacity = capacity;
+      this.available = capacity;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+      final int n = Math.min(available, src.remaining());
+      for (int i = 0; i < n; i++) {
+        content.write(src.get());
+      }
+      available -= n;
+      if (available == 0) {
+        available = capacity; // Drained before the next call
+      }
+      return n;
+    }
+
+    @Override
+    public void complete() {
+      completed = true;
+    }
+
+    @Override
+    public boolean isCompleted() {
+      return completed;
+    }
+
+    @Override
+    public String toString() {
+      return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -8,6 +8,7 @@ import org.junit.Test;
 import java.io.IOException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author bradwee2000@gmail.com
@@ -41,6 +42,15 @@ public class BatchRequestTest {
         .containsOnly(orig, diffToken, diffItems);
   }
 
+  @Test
+  public void testBuildWithDuplicateItemNames_shouldThrowException() {
+    final BatchItem named = BatchItem.builder().get().relativeUrl("me").name("me").build();
+
+    assertThatThrownBy(() -> BatchRequest.builder().accessToken("token").addItems(named, named).build())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Duplicate batch item name");
+  }
+
   @Test
   public void testSerializeDeserialize_shouldReturnEqualObject() throws IOException {
     final ObjectMapper om = TestUtil.om();
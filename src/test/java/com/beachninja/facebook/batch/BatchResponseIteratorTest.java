@@ -0,0 +1,42 @@
+package com.beachninja.facebook.batch;
+
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BatchResponseIteratorTest {
+
+  @Test
+  public void testIterate_shouldReturnNullForOmittedItems() throws IOException {
+    final String json = "[{\"code\":200,\"body\":\"{}\"},null,{\"code\":400,\"body\":\"{\\\"error\\\":{}}\"}]";
+
+    final List<BatchResponse> responses;
+    try (final BatchResponseIterator iterator = BatchResponseIterator.of(TestUtil.om(),
+        new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)))) {
+      responses = Lists.newArrayList(iterator);
+    }
+
+    assertThat(responses).hasSize(3);
+    assertThat(responses.get(0).getCode()).isEqualTo(200);
+    assertThat(responses.get(1)).isNull();
+    assertThat(responses.get(2).getCode()).isEqualTo(400);
+  }
+
+  @Test
+  public void testIterateEmptyArray_shouldHaveNoItems() throws IOException {
+    try (final BatchResponseIterator iterator = BatchResponseIterator.of(TestUtil.om(),
+        new ByteArrayInputStream("[]".getBytes(Charsets.UTF_8)))) {
+      assertThat(iterator.hasNext()).isFalse();
+    }
+  }
+}
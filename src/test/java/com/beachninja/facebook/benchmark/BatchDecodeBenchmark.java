@@ -0,0 +1,99 @@
+package com.beachninja.facebook.benchmark;
+
+import com.beachninja.facebook.batch.BatchBodyIterator;
+import com.beachninja.facebook.batch.BatchResponse;
+import com.beachninja.facebook.error.FacebookErrorResponse;
+import com.beachninja.facebook.model.Website;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.beachninja.facebook.scrape.ScrapeResultDecoder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a 50-item scrape batch response: BatchResponse + second readValue per body, versus
+ * single-pass decoding with BatchBodyIterator.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.beachninja.facebook.benchmark.BatchDecodeBenchmark
+ *
+ * @author bradwee2000@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchDecodeBenchmark {
+
+  private static final int BATCH_SIZE = 50;
+
+  private final ObjectMapper om = new ObjectMapper();
+  private final ScrapeResultDecoder decoder = new ScrapeResultDecoder(om);
+  private byte[] response;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    final String json = IOUtils.toString(getClass().getResourceAsStream("/batch-scrape-error-response.json"),
+        Charsets.UTF_8);
+    final List<Object> items = om.readValue(json, new TypeReference<List<Object>>() {});
+    final List<Object> batch = Lists.newArrayList();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      batch.add(items.get(i % items.size()));
+    }
+    response = om.writeValueAsBytes(batch);
+  }
+
+  @Benchmark
+  public void twoStage(final Blackhole bh) throws IOException {
+    final List<BatchResponse> batchResponses = om.readValue(new ByteArrayInputStream(response),
+        new TypeReference<List<BatchResponse>>() {});
+    for (final BatchResponse batchResponse : batchResponses) {
+      if (batchResponse.getCode() == 200) {
+        bh.consume(om.readValue(batchResponse.getBody(), Website.class));
+      } else {
+        bh.consume(om.readValue(batchResponse.getBody(), FacebookErrorResponse.class).getFacebookError());
+      }
+    }
+  }
+
+  @Benchmark
+  public void singlePass(final Blackhole bh) throws IOException {
+    try (final BatchBodyIterator<ScrapeResult> results = BatchBodyIterator.of(om.getFactory(),
+        new ByteArrayInputStream(response), decoder)) {
+      while (results.hasNext()) {
+        bh.consume(results.next());
+      }
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(BatchDecodeBenchmark.class.getSimpleName())
+        .addProfiler("gc")
+        .build()).run();
+  }
+}
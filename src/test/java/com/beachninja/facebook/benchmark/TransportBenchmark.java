@@ -0,0 +1,98 @@
+package com.beachninja.facebook.benchmark;
+
+import com.beachninja.facebook.transport.PooledHttpTransport;
+import com.beachninja.facebook.util.StubGraphServer;
+import org.apache.http.Consts;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.fluent.Form;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second against a local stub Graph server, comparing fluent-hc's global executor
+ * with the pooled keep-alive transport.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.beachninja.facebook.benchmark.TransportBenchmark
+ *
+ * @author bradwee2000@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class TransportBenchmark {
+
+  private StubGraphServer server;
+  private PooledHttpTransport transport;
+  private String url;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    server = StubGraphServer.start().recordBodies(false);
+    url = server.url() + "/v2.8/id/feed";
+    transport = PooledHttpTransport.builder().maxTotal(32).maxPerRoute(32).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    transport.close();
+    server.close();
+  }
+
+  @Benchmark
+  public int fluentRequest() throws IOException {
+    final HttpResponse response = Request.Post(url)
+        .bodyForm(form())
+        .execute()
+        .returnResponse();
+    return response.getStatusLine().getStatusCode();
+  }
+
+  @Benchmark
+  public int pooledTransport() throws IOException {
+    final HttpPost httpPost = new HttpPost(url);
+    httpPost.setEntity(new UrlEncodedFormEntity(form(), Consts.UTF_8));
+    return transport.execute(httpPost, response -> {
+      EntityUtils.consume(response.getEntity());
+      return response.getStatusLine().getStatusCode();
+    });
+  }
+
+  private static Iterable<NameValuePair> form() {
+    return Form.form()
+        .add("message", "Post Message")
+        .add("access_token", "token")
+        .build();
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(TransportBenchmark.class.getSimpleName())
+        .timeUnit(TimeUnit.SECONDS)
+        .build()).run();
+  }
+}
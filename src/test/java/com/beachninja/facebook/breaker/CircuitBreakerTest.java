@@ -0,0 +1,144 @@
+package com.beachninja.facebook.breaker;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class CircuitBreakerTest {
+
+  private final FacebookError revoked = FacebookError.builder().code(190).message("Token revoked").build();
+  private final MutableClock clock = new MutableClock();
+  private final CircuitBreaker breaker = CircuitBreaker.builder()
+      .failureThreshold(2)
+      .openDuration(Duration.ofMinutes(1))
+      .maxOpenDuration(Duration.ofMinutes(3))
+      .clock(clock)
+      .build();
+  private final String key = CircuitBreaker.keyOf("page", "token");
+
+  @Test
+  public void testKeyOf_shouldNotExposeToken() {
+    assertThat(key).startsWith("page#").doesNotContain("token");
+    assertThat(CircuitBreaker.keyOf("page", "other")).isNotEqualTo(key);
+  }
+
+  @Test
+  public void testFailures_shouldOpenAfterThreshold() {
+    breaker.onFailure(key, revoked);
+    breaker.acquire(key);
+    breaker.onFailure(key, revoked);
+
+    assertThat(breaker.getState("page", "token")).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThatThrownBy(() -> breaker.acquire(key))
+        .isInstanceOfSatisfying(CircuitOpenException.class, e -> {
+          assertThat(e.getFacebookError()).isEqualTo(revoked);
+          assertThat(e.getRetryAt()).isEqualTo(clock.instant().plus(Duration.ofMinutes(1)));
+        });
+  }
+
+  @Test
+  public void testSuccess_shouldResetConsecutiveFailures() {
+    breaker.onFailure(key, revoked);
+    breaker.onSuccess(key);
+    breaker.onFailure(key, revoked);
+
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.getStates()).containsOnlyKeys(key);
+  }
+
+  @Test
+  public void testHalfOpen_shouldLetOneProbeThroughAndCloseOnSuccess() {
+    open();
+    clock.advance(Duration.ofMinutes(1));
+
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    breaker.acquire(key);
+    assertThatThrownBy(() -> breaker.acquire(key)).isInstanceOf(CircuitOpenException.class);
+
+    breaker.onSuccess(key);
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.getStates()).isEmpty();
+  }
+
+  @Test
+  public void testHalfOpen_shouldReopenForLongerOnFailedProbe() {
+    open();
+    clock.advance(Duration.ofMinutes(1));
+    breaker.acquire(key);
+    breaker.onFailure(key, revoked);
+
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.OPEN);
+    clock.advance(Duration.ofMinutes(1));
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.OPEN);
+    clock.advance(Duration.ofMinutes(1));
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+  }
+
+  @Test
+  public void testRelease_shouldAllowAnotherProbe() {
+    open();
+    clock.advance(Duration.ofMinutes(1));
+    breaker.acquire(key);
+    breaker.release(key);
+
+    breaker.acquire(key);
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+  }
+
+  @Test
+  public void testIdleCircuits_shouldBeForgotten() {
+    final String other = CircuitBreaker.keyOf("other-page", "token");
+    open();
+    breaker.onFailure(other, revoked);
+
+    clock.advance(Duration.ofMinutes(1));
+    assertThat(breaker.getStates()).containsOnlyKeys(key);
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+    clock.advance(Duration.ofMinutes(1));
+    assertThat(breaker.getStates()).isEmpty();
+    breaker.acquire(key);
+    breaker.onFailure(key, revoked);
+    assertThat(breaker.getState(key)).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  private void open() {
+    breaker.onFailure(key, revoked);
+    breaker.onFailure(key, revoked);
+  }
+
+  private static final class MutableClock extends Clock {
+    private Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+    private void advance(final Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.beachninja.facebook.bulkhead;
+
+import com.beachninja.facebook.bulkhead.Bulkheads.Operation;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BulkheadTest {
+
+  private final Bulkhead bulkhead = new Bulkhead("test", 1, 1);
+
+  @Test
+  public void testCall_shouldQueueThenRejectWhenFull() {
+    final CompletableFuture<String> first = new CompletableFuture<>();
+    final CompletableFuture<String> running = bulkhead.call(() -> first);
+    final CompletableFuture<String> queued = bulkhead.call(() -> CompletableFuture.completedFuture("second"));
+    final CompletableFuture<String> rejected = bulkhead.call(() -> CompletableFuture.completedFuture("third"));
+
+    assertThat(queued).isNotDone();
+    assertThatThrownBy(rejected::get).hasCauseInstanceOf(BulkheadFullException.class);
+    assertThat(bulkhead.getStats().getActive()).isEqualTo(1);
+    assertThat(bulkhead.getStats().getQueued()).isEqualTo(1);
+    assertThat(bulkhead.getStats().getRejected()).isEqualTo(1);
+
+    first.complete("first");
+
+    assertThat(running.join()).isEqualTo("first");
+    assertThat(queued.join()).isEqualTo("second");
+    assertThat(bulkhead.getStats().getActive()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCancelQueuedCall_shouldGiveUpPlaceWithoutStarting() {
+    final CompletableFuture<String> first = new CompletableFuture<>();
+    bulkhead.call(() -> first);
+    final boolean[] started = new boolean[1];
+    final CompletableFuture<String> queued = bulkhead.call(() -> {
+      started[0] = true;
+      return CompletableFuture.completedFuture("second");
+    });
+
+    queued.cancel(true);
+    first.complete("first");
+
+    assertThat(started[0]).isFalse();
+    assertThat(bulkhead.getStats().getActive()).isEqualTo(0);
+    assertThat(bulkhead.getStats().getQueued()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCancelRunningCall_shouldCancelCallAndFreeSlot() {
+    final CompletableFuture<String> first = new CompletableFuture<>();
+    final CompletableFuture<String> running = bulkhead.call(() -> first);
+
+    running.cancel(true);
+
+    assertThat(first).isCancelled();
+    assertThat(bulkhead.getStats().getActive()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFailedCall_shouldFreeSlot() {
+    final CompletableFuture<String> call = bulkhead.call(() -> {
+      throw new IllegalStateException("boom");
+    });
+
+    assertThatThrownBy(call::get).isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThat(bulkhead.getStats().getActive()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBulkheads_shouldIsolateOperationsAndPages() {
+    final Bulkheads bulkheads = Bulkheads.builder()
+        .limit(Operation.SCRAPE, 1, 0)
+        .limit(Operation.POST, 10, 0)
+        .pageLimit(1, 0)
+        .build();
+
+    bulkheads.call(Operation.SCRAPE, null, CompletableFuture::new);
+    bulkheads.call(Operation.POST, "page1", CompletableFuture::new);
+
+    assertThatThrownBy(() -> bulkheads.call(Operation.SCRAPE, null, () -> CompletableFuture.completedFuture(1)).get())
+        .hasCauseInstanceOf(BulkheadFullException.class)
+        .hasMessageContaining("Bulkhead SCRAPE is full");
+    assertThatThrownBy(() -> bulkheads.call(Operation.POST, "page1", () -> CompletableFuture.completedFuture(1)).get())
+        .hasCauseInstanceOf(BulkheadFullException.class)
+        .hasMessageContaining("Bulkhead POST:page1 is full");
+    assertThat(bulkheads.call(Operation.POST, "page2", () -> CompletableFuture.completedFuture(2)).join())
+        .isEqualTo(2);
+    assertThat(bulkheads.getStats()).containsKeys("POST", "SCRAPE", "BATCH", "POST:page1");
+  }
+
+  @Test
+  public void testBulkheads_shouldDropPageCompartmentsOnceIdle() {
+    final Bulkheads bulkheads = Bulkheads.builder().pageLimit(1, 1).build();
+    final CompletableFuture<Integer> running = new CompletableFuture<>();
+
+    bulkheads.call(Operation.POST, "page1", () -> running);
+    final CompletableFuture<Integer> queued = bulkheads.call(Operation.POST, "page1",
+        () -> CompletableFuture.completedFuture(2));
+    for (int i = 0; i < 100; i++) {
+      bulkheads.call(Operation.POST, "page" + (i + 2), () -> CompletableFuture.completedFuture(1)).join();
+    }
+    assertThat(bulkheads.getStats()).containsOnlyKeys("POST", "SCRAPE", "BATCH", "POST:page1");
+
+    running.complete(1);
+    assertThat(queued.join()).isEqualTo(2);
+    assertThat(bulkheads.getStats()).containsOnlyKeys("POST", "SCRAPE", "BATCH");
+  }
+}
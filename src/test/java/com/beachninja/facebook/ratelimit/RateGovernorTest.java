@@ -0,0 +1,141 @@
+package com.beachninja.facebook.ratelimit;
+
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class RateGovernorTest {
+
+  private final MutableClock clock = new MutableClock();
+  private final RateGovernor governor = RateGovernor.builder()
+      .objectMapper(TestUtil.om())
+      .threshold(50)
+      .maxDelay(Duration.ofSeconds(8))
+      .clock(clock)
+      .build();
+
+  @Test
+  public void testDelay_shouldBeZeroBelowThreshold() {
+    governor.record(RateGovernor.APP_USAGE, "{\"call_count\":40,\"total_time\":10,\"total_cputime\":5}", null);
+
+    assertThat(governor.delayFor(ImmutableSet.of())).isEqualTo(Duration.ZERO);
+    assertThat(governor.getUsage()).containsEntry(RateGovernor.APP, 40);
+  }
+
+  @Test
+  public void testDelay_shouldGrowSmoothlyAboveThreshold() {
+    governor.record(RateGovernor.APP_USAGE, "{\"call_count\":10,\"total_time\":75,\"total_cputime\":5}", null);
+    final Duration halfway = governor.delayFor(ImmutableSet.of());
+
+    governor.record(RateGovernor.APP_USAGE, "{\"call_count\":100,\"total_time\":75,\"total_cputime\":5}", null);
+    final Duration full = governor.delayFor(ImmutableSet.of());
+
+    assertThat(halfway).isEqualTo(Duration.ofSeconds(2));
+    assertThat(full).isEqualTo(Duration.ofSeconds(8));
+  }
+
+  @Test
+  public void testDelay_shouldTrackPagesSeparately() {
+    governor.record(RateGovernor.PAGE_USAGE, "{\"call_count\":100}", "page1");
+
+    assertThat(governor.delayFor(ImmutableSet.of("page2"))).isEqualTo(Duration.ZERO);
+    assertThat(governor.delayFor(ImmutableSet.of("page1", "page2"))).isEqualTo(Duration.ofSeconds(8));
+  }
+
+  @Test
+  public void testDelay_shouldWaitUntilAccessIsRegained() {
+    governor.record(RateGovernor.BUSINESS_USE_CASE_USAGE, "{\"page1\":["
+        + "{\"type\":\"pages\",\"call_count\":20,\"estimated_time_to_regain_access\":0},"
+        + "{\"type\":\"messenger\",\"call_count\":100,\"estimated_time_to_regain_access\":15}]}", null);
+
+    assertThat(governor.getUsage()).containsEntry("page1", 100);
+    assertThat(governor.delayFor(ImmutableSet.of("page1"))).isEqualTo(Duration.ofMinutes(15));
+
+    clock.advance(Duration.ofMinutes(10));
+    assertThat(governor.delayFor(ImmutableSet.of("page1"))).isEqualTo(Duration.ofMinutes(5));
+  }
+
+  @Test
+  public void testUsage_shouldDecayOverWindow() {
+    governor.record(RateGovernor.APP_USAGE, "{\"call_count\":100}", null);
+
+    clock.advance(Duration.ofMinutes(30));
+    assertThat(governor.getUsage()).containsEntry(RateGovernor.APP, 50);
+    assertThat(governor.delayFor(ImmutableSet.of())).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void testAcquire_shouldSpaceConcurrentCallsApart() {
+    governor.record(RateGovernor.PAGE_USAGE, "{\"call_count\":100}", "page1");
+
+    assertThat(governor.reserve(ImmutableSet.of("page1"))).isEqualTo(Duration.ofSeconds(8));
+    assertThat(governor.reserve(ImmutableSet.of("page1"))).isEqualTo(Duration.ofSeconds(16));
+    assertThat(governor.reserve(ImmutableSet.of("page2"))).isEqualTo(Duration.ZERO);
+    assertThat(governor.delayFor(ImmutableSet.of("page1"))).isEqualTo(Duration.ofSeconds(24));
+
+    clock.advance(Duration.ofSeconds(10)); // Next slot is one interval, slightly decayed, after the 16s slot
+    assertThat(governor.reserve(ImmutableSet.of("page1", "page2")))
+        .isBetween(Duration.ofSeconds(13), Duration.ofSeconds(14));
+  }
+
+  @Test
+  public void testUsage_shouldBeForgottenOnceDecayed() {
+    governor.record(RateGovernor.PAGE_USAGE, "{\"call_count\":100}", "page1");
+    governor.reserve(ImmutableSet.of("page1"));
+
+    clock.advance(Duration.ofHours(1));
+    assertThat(governor.getUsage()).isEmpty();
+    assertThat(governor.delayFor(ImmutableSet.of("page1"))).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void testRecord_shouldIgnoreUnreadableHeaders() {
+    governor.record(RateGovernor.APP_USAGE, "not json", null);
+    governor.record("Content-Type", "application/json", null);
+
+    assertThat(governor.getUsage()).isEmpty();
+  }
+
+  @Test
+  public void testPageIdOf_shouldReadFirstPathSegment() {
+    assertThat(RateGovernor.pageIdOf("12345/feed")).isEqualTo("12345");
+    assertThat(RateGovernor.pageIdOf("/v5.0/12345?fields=id")).isEqualTo("12345");
+    assertThat(RateGovernor.pageIdOf("{result=first:$.id}/feed")).isNull();
+    assertThat(RateGovernor.pageIdOf("")).isNull();
+    assertThat(RateGovernor.pageIdOf(null)).isNull();
+  }
+
+  private static final class MutableClock extends Clock {
+    private Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+    private void advance(final Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
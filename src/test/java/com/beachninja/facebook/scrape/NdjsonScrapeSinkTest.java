@@ -0,0 +1,147 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.model.Website;
+import com.beachninja.facebook.util.IteratorPublisher;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class NdjsonScrapeSinkTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final ScrapeResult success = ScrapeResult.of(website("https://localhost/1")).withLink("https://localhost/1");
+  private final ScrapeResult failure = ScrapeResult.of(FacebookError.builder().code(100).message("Invalid").build())
+      .withLink("https://localhost/2");
+
+  @Test
+  public void testWrite_shouldWriteOneLinePerResult() throws IOException {
+    final Path path = folder.newFile("results.ndjson").toPath();
+    try (final NdjsonScrapeSink sink = NdjsonScrapeSink.builder().path(path).objectMapper(TestUtil.om()).build()) {
+      sink.write(success);
+      sink.write(failure);
+      assertThat(sink.getCount()).isEqualTo(2);
+    }
+
+    final List<String> lines = Files.readAllLines(path, Charsets.UTF_8);
+    assertThat(lines).hasSize(2);
+    assertThat(TestUtil.om().readValue(lines.get(0), ScrapeResult.class)).isEqualTo(success);
+    assertThat(TestUtil.om().readValue(lines.get(1), ScrapeResult.class)).isEqualTo(failure);
+  }
+
+  @Test
+  public void testSync_shouldMakeLinesReadableBeforeClose() throws IOException {
+    final Path path = folder.newFile("results.ndjson").toPath();
+    try (final NdjsonScrapeSink sink = NdjsonScrapeSink.builder().path(path).objectMapper(TestUtil.om())
+        .syncInterval(Duration.ofHours(1)).build()) {
+      sink.write(success);
+      assertThat(Files.size(path)).isZero();
+
+      sink.sync();
+      assertThat(Files.readAllLines(path, Charsets.UTF_8)).hasSize(1);
+    }
+  }
+
+  @Test
+  public void testGzipAppend_shouldBeReadableAsOneStream() throws IOException {
+    final Path path = folder.newFile("results.ndjson.gz").toPath();
+    try (final NdjsonScrapeSink sink = gzipSink(path)) {
+      sink.write(success);
+    }
+    try (final NdjsonScrapeSink sink = gzipSink(path)) {
+      sink.write(failure);
+    }
+
+    try (final InputStream is = new GZIPInputStream(Files.newInputStream(path))) {
+      assertThat(IOUtils.readLines(is, Charsets.UTF_8)).hasSize(2);
+    }
+  }
+
+  @Test
+  public void testGzipAppendAfterCrash_shouldKeepSyncedLinesAndStayReadable() throws IOException {
+    final Path path = folder.newFile("results.ndjson.gz").toPath();
+    try (final NdjsonScrapeSink sink = gzipSink(path)) {
+      sink.write(success);
+    }
+    final NdjsonScrapeSink crashed = NdjsonScrapeSink.builder().path(path).objectMapper(TestUtil.om())
+        .gzip(true).append(true).bufferSize(16).syncInterval(Duration.ofHours(1)).build();
+    crashed.write(failure);
+    crashed.sync();
+    crashed.write(success); // Partly flushed by the small buffer, never synced; never closed
+
+    try (final NdjsonScrapeSink sink = gzipSink(path)) {
+      sink.write(failure);
+    }
+
+    try (final InputStream is = new GZIPInputStream(Files.newInputStream(path))) {
+      final List<String> lines = IOUtils.readLines(is, Charsets.UTF_8);
+      assertThat(lines).hasSize(3);
+      assertThat(TestUtil.om().readValue(lines.get(0), ScrapeResult.class)).isEqualTo(success);
+      assertThat(TestUtil.om().readValue(lines.get(1), ScrapeResult.class)).isEqualTo(failure);
+      assertThat(TestUtil.om().readValue(lines.get(2), ScrapeResult.class)).isEqualTo(failure);
+    }
+  }
+
+  @Test
+  public void testGzipAppendAfterCrashBeforeSync_shouldDropUnsyncedMember() throws IOException {
+    final Path path = folder.newFile("results.ndjson.gz").toPath();
+    try (final NdjsonScrapeSink sink = gzipSink(path)) {
+      sink.write(success);
+    }
+    final long closedSize = Files.size(path);
+    final NdjsonScrapeSink crashed = NdjsonScrapeSink.builder().path(path).objectMapper(TestUtil.om())
+        .gzip(true).append(true).bufferSize(16).syncInterval(Duration.ofHours(1)).build();
+    for (int i = 0; i < 10_000; i++) {
+      crashed.write(failure.withLink("https://localhost/" + UUID.randomUUID())); // Never synced or closed
+    }
+    assertThat(Files.size(path)).isGreaterThan(closedSize); // Some compressed blocks reached the file
+
+    try (final NdjsonScrapeSink sink = gzipSink(path)) {
+      sink.write(success);
+    }
+
+    try (final InputStream is = new GZIPInputStream(Files.newInputStream(path))) {
+      assertThat(IOUtils.readLines(is, Charsets.UTF_8)).hasSize(2);
+    }
+  }
+
+  @Test
+  public void testSubscribe_shouldCompleteWithLineCount() throws IOException {
+    final Path path = folder.newFile("results.ndjson").toPath();
+    final NdjsonScrapeSink sink = NdjsonScrapeSink.builder().path(path).objectMapper(TestUtil.om()).build();
+
+    IteratorPublisher.of(ImmutableList.of(success, failure, success).iterator()).subscribe(sink);
+
+    assertThat(sink.completion().join()).isEqualTo(3);
+    assertThat(Files.readAllLines(path, Charsets.UTF_8)).hasSize(3);
+  }
+
+  private NdjsonScrapeSink gzipSink(final Path path) throws IOException {
+    return NdjsonScrapeSink.builder().path(path).objectMapper(TestUtil.om()).gzip(true).append(true).build();
+  }
+
+  private static Website website(final String url) {
+    return TestUtil.om().convertValue(ImmutableMap.of("url", url), Website.class);
+  }
+}
@@ -0,0 +1,143 @@
+package com.beachninja.facebook.scrape;
+
+import com.beachninja.facebook.model.Url;
+import com.beachninja.facebook.model.Website;
+import com.beachninja.facebook.scrape.WebsiteStore.Field;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class WebsiteStoreTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final Clock clock = Clock.fixed(Instant.parse("2020-01-01T00:00:00Z"), ZoneOffset.UTC);
+  private final Website website = Website.builder()
+      .url("http://localhost/a").type("website").title("Sample Title").description("Désc")
+      .addImage(Url.of("http://localhost/img1.png")).addImage(Url.of("http://localhost/img2.png"))
+      .build();
+
+  private Path directory;
+  private WebsiteStore store;
+
+  @Before
+  public void before() throws IOException {
+    directory = folder.newFolder().toPath();
+    store = open();
+  }
+
+  @After
+  public void after() throws IOException {
+    store.close();
+  }
+
+  @Test
+  public void testPutAndGet_shouldRoundTripWebsite() {
+    store.put("link-a", website);
+
+    assertThat(store.get("link-a")).isEqualTo(website);
+    assertThat(store.get("link-b")).isNull();
+    assertThat(store.contains("link-a")).isTrue();
+    assertThat(store.getScrapedAt("link-a")).isEqualTo(clock.instant());
+  }
+
+  @Test
+  public void testGetField_shouldReadSingleField() {
+    store.put("link-a", website);
+
+    assertThat(store.get("link-a", Field.TITLE)).isEqualTo("Sample Title");
+    assertThat(store.get("link-a", Field.DESCRIPTION)).isEqualTo("Désc");
+    assertThat(store.get("link-a", Field.ID)).isNull();
+    assertThat(store.get("link-b", Field.TITLE)).isNull();
+  }
+
+  @Test
+  public void testPutAgain_shouldReplaceRecord() {
+    store.put("link-a", website);
+    store.put("link-a", Website.builder().url("http://localhost/a").title("New Title").build());
+
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(store.get("link-a", Field.TITLE)).isEqualTo("New Title");
+  }
+
+  @Test
+  public void testGetWithMaxAge_shouldSkipOldRecords() {
+    store.put("old", website, clock.instant().minus(Duration.ofHours(2)));
+    store.put("new", website, clock.instant().minus(Duration.ofMinutes(30)));
+
+    assertThat(store.get("old", Duration.ofHours(1))).isNull();
+    assertThat(store.get("new", Duration.ofHours(1))).isEqualTo(website);
+  }
+
+  @Test
+  public void testReopen_shouldKeepRecords() throws IOException {
+    store.put("link-a", website);
+    store.close();
+
+    store = open();
+
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(store.get("link-a")).isEqualTo(website);
+  }
+
+  @Test
+  public void testManyRecords_shouldGrowIndexAndData() throws IOException {
+    for (int i = 0; i < 1000; i++) {
+      store.put("link-" + i, Website.builder().url("http://localhost/" + i).title("Title " + i).build());
+    }
+    store.close();
+    store = open();
+
+    assertThat(store.size()).isEqualTo(1000);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(store.get("link-" + i, Field.TITLE)).isEqualTo("Title " + i);
+    }
+  }
+
+  @Test
+  public void testGrowIndex_shouldReplaceIndexFileWhole() throws IOException {
+    for (int i = 0; i < 3; i++) {
+      store.put("link-" + i, website);
+    }
+
+    final ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(directory.resolve("websites.idx")));
+    assertThat(index.getInt(4)).isEqualTo(8);
+    assertThat(index.getInt(8)).isEqualTo(3);
+    assertThat(index.capacity()).isEqualTo(32 + 8 * 16);
+    assertThat(directory.resolve("websites.idx.tmp")).doesNotExist();
+    assertThat(store.get("link-2")).isEqualTo(website);
+  }
+
+  @Test
+  public void testScrapeCacheWithStore_shouldBeWarmAfterRestart() throws IOException {
+    ScrapeCache.builder().store(store).build().put("link-a", website);
+    store.close();
+    store = open();
+
+    final ScrapeCache cache = ScrapeCache.builder().store(store).build();
+
+    assertThat(cache.get("link-a")).isEqualTo(website);
+    assertThat(cache.getStoreHits()).isEqualTo(1);
+  }
+
+  private WebsiteStore open() {
+    return WebsiteStore.builder().directory(directory).initialCapacity(4).initialDataSize(64).clock(clock).build();
+  }
+}
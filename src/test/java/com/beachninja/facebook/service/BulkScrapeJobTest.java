@@ -0,0 +1,212 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.scrape.NdjsonScrapeSink;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BulkScrapeJobTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private FakeTransport transport;
+  private Path linkFile;
+  private Path checkpointFile;
+  private Path resultFile;
+
+  @Before
+  public void before() throws IOException {
+    transport = new FakeTransport().respond(BulkScrapeJobTest::scrapeResponses);
+    linkFile = folder.newFile("links.txt").toPath();
+    checkpointFile = folder.getRoot().toPath().resolve("links.checkpoint");
+    resultFile = folder.getRoot().toPath().resolve("results.ndjson");
+  }
+
+  @Test
+  public void testRun_shouldScrapeEveryLinkAndCheckpoint() throws Exception {
+    appendLinks(0, 25);
+
+    final BulkScrapeJob.Stats stats = run();
+
+    assertThat(stats.getScrapedBatches()).isEqualTo(3);
+    assertThat(stats.getScrapedLinks()).isEqualTo(25);
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(Files.readAllLines(resultFile, Charsets.UTF_8)).hasSize(25);
+
+    final ScrapeCheckpoint checkpoint = ScrapeCheckpoint.load(checkpointFile).get();
+    assertThat(checkpoint.getBaseBatch()).isEqualTo(3);
+    assertThat(checkpoint.getBaseOffset()).isEqualTo(Files.size(linkFile));
+  }
+
+  @Test
+  public void testRunAgain_shouldResumeWithoutResendingDoneLinks() throws Exception {
+    appendLinks(0, 20);
+    run();
+    transport.getRequests().clear();
+
+    appendLinks(20, 35);
+    final BulkScrapeJob.Stats stats = run();
+
+    assertThat(stats.getScrapedLinks()).isEqualTo(15);
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(FakeTransport.batchItems(transport.getRequests().get(0)).get(0).getBody())
+        .contains("https://localhost/20");
+    assertThat(Files.readAllLines(resultFile, Charsets.UTF_8)).hasSize(35);
+  }
+
+  @Test
+  public void testCheckpoint_shouldTrackOutOfOrderBatches() throws IOException {
+    final ScrapeCheckpoint checkpoint = ScrapeCheckpoint.start(10);
+    final Map<Long, Long> ends = ImmutableMap.of(0L, 100L, 1L, 200L, 2L, 300L, 3L, 400L);
+
+    checkpoint.markDone(1, ends::get);
+    checkpoint.markDone(3, ends::get);
+    assertThat(checkpoint.getBaseBatch()).isZero();
+
+    checkpoint.markDone(0, ends::get);
+    checkpoint.save(checkpointFile);
+
+    final ScrapeCheckpoint loaded = ScrapeCheckpoint.load(checkpointFile).get();
+    assertThat(loaded.getBaseBatch()).isEqualTo(2);
+    assertThat(loaded.getBaseOffset()).isEqualTo(200);
+    assertThat(loaded.isDone(1)).isTrue();
+    assertThat(loaded.isDone(2)).isFalse();
+    assertThat(loaded.isDone(3)).isTrue();
+  }
+
+  @Test
+  public void testRunAgainAfterCrashWithGzipSink_shouldKeepResultsReadable() throws Exception {
+    appendLinks(0, 20);
+    try (final NdjsonScrapeSink sink = gzipSink()) {
+      job(sink).build().run();
+    }
+    final NdjsonScrapeSink crashed = gzipSink();
+    crashed.write(ScrapeResult.of(FacebookError.builder().message("Unsynced").build()));
+    crashed.sync();
+    crashed.write(ScrapeResult.of(FacebookError.builder().message("Unsynced").build())); // Never closed
+
+    appendLinks(20, 35);
+    try (final NdjsonScrapeSink sink = gzipSink()) {
+      assertThat(job(sink).build().run().getScrapedLinks()).isEqualTo(15);
+    }
+
+    try (final InputStream is = new GZIPInputStream(Files.newInputStream(resultFile))) {
+      assertThat(IOUtils.readLines(is, Charsets.UTF_8)).hasSize(36);
+    }
+  }
+
+  @Test
+  public void testRun_shouldRecordBatchesOnExecutor() throws Exception {
+    appendLinks(0, 25);
+    final AtomicInteger recorded = new AtomicInteger();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (final NdjsonScrapeSink sink = NdjsonScrapeSink.builder().path(resultFile).objectMapper(TestUtil.om()).build()) {
+      job(sink).executor(command -> {
+        recorded.incrementAndGet();
+        executor.execute(command);
+      }).build().run();
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(recorded.get()).isEqualTo(3);
+    assertThat(Files.readAllLines(resultFile, Charsets.UTF_8)).hasSize(25);
+  }
+
+  @Test(timeout = 10000)
+  public void testRunWhenSubmitThrows_shouldFailInsteadOfHanging() throws Exception {
+    appendLinks(0, 25);
+    final FacebookService failing = new FacebookService(TestUtil.om(), transport) {
+      @Override
+      CompletableFuture<List<ScrapeResult>> scrapeResultsAsync(final String accessToken, final List<String> links) {
+        throw new IllegalStateException("Service closed");
+      }
+    };
+
+    try (final NdjsonScrapeSink sink = NdjsonScrapeSink.builder().path(resultFile).objectMapper(TestUtil.om()).build()) {
+      assertThatThrownBy(() -> job(sink).facebookService(failing).build().run())
+          .isInstanceOf(IllegalStateException.class).hasMessage("Service closed");
+    }
+    assertThat(transport.getRequests()).isEmpty();
+  }
+
+  private BulkScrapeJob.Stats run() throws Exception {
+    try (final NdjsonScrapeSink sink = NdjsonScrapeSink.builder()
+        .path(resultFile).objectMapper(TestUtil.om()).append(true).build()) {
+      return job(sink).build().run();
+    }
+  }
+
+  private BulkScrapeJob.Builder job(final NdjsonScrapeSink sink) {
+    return BulkScrapeJob.builder()
+        .facebookService(new FacebookService(TestUtil.om(), transport))
+        .accessToken("token")
+        .linkFile(linkFile)
+        .checkpointFile(checkpointFile)
+        .sink(sink)
+        .batchSize(10)
+        .maxInFlightBatches(2);
+  }
+
+  private NdjsonScrapeSink gzipSink() throws IOException {
+    return NdjsonScrapeSink.builder().path(resultFile).objectMapper(TestUtil.om()).gzip(true).append(true).build();
+  }
+
+  private void appendLinks(final int from, final int to) throws IOException {
+    final List<String> links = IntStream.range(from, to).mapToObj(i -> "https://localhost/" + i)
+        .collect(Collectors.toList());
+    Files.write(linkFile, links, Charsets.UTF_8, StandardOpenOption.APPEND);
+  }
+
+  private static HttpResponse scrapeResponses(final HttpUriRequest request) {
+    final List<Map<String, Object>> responses = Lists.newArrayList();
+    for (final BatchItem item : FakeTransport.batchItems(request)) {
+      final String link = item.getBody().replace("&id=", "").replace("&scrape=true", "");
+      responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("url", link))));
+    }
+    return FakeTransport.response(200, json(responses));
+  }
+
+  private static String json(final Object value) {
+    try {
+      return TestUtil.om().writeValueAsString(value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
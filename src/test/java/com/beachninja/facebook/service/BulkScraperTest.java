@@ -0,0 +1,318 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.scrape.ScrapeResult;
+import com.beachninja.facebook.transport.FacebookTransport;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class BulkScraperTest {
+
+  private FakeTransport transport;
+  private BulkScraper scraper;
+
+  @Before
+  public void before() {
+    transport = new FakeTransport().respond(BulkScraperTest::scrapeResponses);
+    scraper = BulkScraper.builder()
+        .facebookService(new FacebookService(TestUtil.om(), transport))
+        .accessToken("token")
+        .batchSize(10)
+        .maxInFlightBatches(2)
+        .executor(MoreExecutors.directExecutor())
+        .build();
+  }
+
+  @Test
+  public void testScrapeStream_shouldEmitOneResultPerLink() {
+    final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+    scraper.scrape(IntStream.range(0, 95).mapToObj(i -> "https://localhost/" + i)).subscribe(subscriber);
+
+    assertThat(subscriber.completed).isTrue();
+    assertThat(subscriber.results).hasSize(95);
+    assertThat(subscriber.results).allMatch(ScrapeResult::isSuccess);
+    assertThat(subscriber.results.stream().map(ScrapeResult::getLink).collect(Collectors.toSet())).hasSize(95);
+    assertThat(subscriber.results).allMatch(result -> result.getLink().equals(result.getWebsite().getUrl()));
+    assertThat(transport.getRequests()).hasSize(10);
+  }
+
+  @Test
+  public void testScrapeWithoutDemand_shouldStopPullingLinks() {
+    final AtomicInteger pulled = new AtomicInteger();
+    final Iterator<String> endless = new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return true;
+      }
+
+      @Override
+      public String next() {
+        return "https://localhost/" + pulled.getAndIncrement();
+      }
+    };
+    final TestSubscriber subscriber = new TestSubscriber(5);
+
+    scraper.scrape(endless).subscribe(subscriber);
+
+    assertThat(subscriber.results).hasSize(5);
+    assertThat(pulled.get()).isLessThanOrEqualTo(20);
+
+    subscriber.subscription.request(10);
+    assertThat(subscriber.results).hasSize(15);
+    assertThat(pulled.get()).isLessThanOrEqualTo(30);
+
+    subscriber.subscription.cancel();
+    assertThat(subscriber.completed).isFalse();
+  }
+
+  @Test
+  public void testScrapeWithFailedBatch_shouldEmitErrorResultsAndContinue() {
+    final AtomicInteger calls = new AtomicInteger();
+    transport.respond(request -> calls.getAndIncrement() == 0
+        ? FakeTransport.response(500, "{\"error\":{\"message\":\"Service unavailable\",\"code\":2}}")
+        : scrapeResponses(request));
+    final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+    scraper.scrape(IntStream.range(0, 20).mapToObj(i -> "https://localhost/" + i).iterator()).subscribe(subscriber);
+
+    assertThat(subscriber.completed).isTrue();
+    assertThat(subscriber.results).hasSize(20);
+    assertThat(subscriber.results.stream().filter(result -> !result.isSuccess()))
+        .hasSize(10)
+        .allMatch(result -> result.getError().getMessage().equals("Service unavailable"))
+        .allMatch(result -> result.getLink() != null);
+  }
+
+  @Test
+  public void testScrapeWhenSubmitThrows_shouldEmitErrorResultsAndContinue() {
+    final AtomicInteger calls = new AtomicInteger();
+    final BulkScraper scraper = BulkScraper.builder()
+        .facebookService(new FacebookService(TestUtil.om(), transport) {
+          @Override
+          CompletableFuture<List<ScrapeResult>> scrapeResultsAsync(final String accessToken, final List<String> links) {
+            if (calls.getAndIncrement() < 2) {
+              throw new IllegalStateException("Service closed");
+            }
+            return super.scrapeResultsAsync(accessToken, links);
+          }
+        })
+        .accessToken("token")
+        .batchSize(10)
+        .maxInFlightBatches(2)
+        .executor(MoreExecutors.directExecutor())
+        .build();
+    final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+    scraper.scrape(IntStream.range(0, 30).mapToObj(i -> "https://localhost/" + i).iterator()).subscribe(subscriber);
+
+    assertThat(subscriber.completed).isTrue();
+    assertThat(subscriber.results).hasSize(30);
+    assertThat(subscriber.results.stream().filter(result -> !result.isSuccess())).hasSize(20);
+  }
+
+  @Test
+  public void testScrapePublisher_shouldCompleteAfterUpstreamCompletes() throws Exception {
+    final CompletableFuture<List<ScrapeResult>> done = new CompletableFuture<>();
+    final List<ScrapeResult> results = Lists.newCopyOnWriteArrayList();
+
+    try (final SubmissionPublisher<String> links = new SubmissionPublisher<>()) {
+      scraper.scrape(links).subscribe(new Flow.Subscriber<ScrapeResult>() {
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final ScrapeResult item) {
+          results.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+          done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+          done.complete(results);
+        }
+      });
+      for (int i = 0; i < 25; i++) {
+        links.submit("https://localhost/" + i);
+      }
+    }
+
+    assertThat(done.get(5, TimeUnit.SECONDS)).hasSize(25);
+  }
+
+  @Test
+  public void testScrape_shouldDeliverResultsAndPullLinksOnExecutor() throws Exception {
+    final ExecutorService reactor = Executors.newSingleThreadExecutor(r -> new Thread(r, "reactor"));
+    final ExecutorService delivery = Executors.newSingleThreadExecutor(r -> new Thread(r, "delivery"));
+    final Set<String> pullThreads = ConcurrentHashMap.newKeySet();
+    final Set<String> deliveryThreads = ConcurrentHashMap.newKeySet();
+    final CompletableFuture<Integer> done = new CompletableFuture<>();
+    try {
+      final BulkScraper scraper = BulkScraper.builder()
+          .facebookService(new FacebookService(TestUtil.om(), new ReactorTransport(transport, reactor)))
+          .accessToken("token")
+          .batchSize(10)
+          .executor(delivery)
+          .build();
+      final Iterator<String> links = IntStream.range(0, 30).mapToObj(i -> "https://localhost/" + i)
+          .peek(link -> pullThreads.add(Thread.currentThread().getName()))
+          .iterator();
+
+      scraper.scrape(links).subscribe(new Flow.Subscriber<ScrapeResult>() {
+        private int count;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final ScrapeResult item) {
+          deliveryThreads.add(Thread.currentThread().getName());
+          count++;
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+          done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+          done.complete(count);
+        }
+      });
+
+      assertThat(done.get(5, TimeUnit.SECONDS)).isEqualTo(30);
+      assertThat(pullThreads).containsExactly("delivery");
+      assertThat(deliveryThreads).containsExactly("delivery");
+    } finally {
+      reactor.shutdown();
+      delivery.shutdown();
+    }
+  }
+
+  private static HttpResponse scrapeResponses(final HttpUriRequest request) {
+    final List<Map<String, Object>> responses = Lists.newArrayList();
+    for (final BatchItem item : FakeTransport.batchItems(request)) {
+      final String link = item.getBody().replace("&id=", "").replace("&scrape=true", "");
+      responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("url", link))));
+    }
+    return FakeTransport.response(200, json(responses));
+  }
+
+  private static String json(final Object value) {
+    try {
+      return TestUtil.om().writeValueAsString(value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Completes asynchronous calls on its own thread, like the I/O reactor of a real transport.
+   */
+  private static final class ReactorTransport implements FacebookTransport {
+    private final FacebookTransport delegate;
+    private final ExecutorService reactor;
+
+    private ReactorTransport(final FacebookTransport delegate, final ExecutorService reactor) {
+      this.delegate = delegate;
+      this.reactor = reactor;
+    }
+
+    @Override
+    public <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) throws IOException {
+      return delegate.execute(request, handler);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeAsync(final HttpUriRequest request,
+                                                 final ResponseHandler<? extends T> handler) {
+      final CompletableFuture<T> exchange = new CompletableFuture<>();
+      reactor.execute(() -> delegate.<T>executeAsync(request, handler).whenComplete((result, e) -> {
+        if (e != null) {
+          exchange.completeExceptionally(e);
+        } else {
+          exchange.complete(result);
+        }
+      }));
+      return exchange;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Records results, requesting the given number up front.
+   */
+  private static final class TestSubscriber implements Flow.Subscriber<ScrapeResult> {
+    private final long initialRequest;
+    private final List<ScrapeResult> results = Lists.newArrayList();
+    private Flow.Subscription subscription;
+    private boolean completed;
+
+    private TestSubscriber(final long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(initialRequest);
+    }
+
+    @Override
+    public void onNext(final ScrapeResult item) {
+      results.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      throw new AssertionError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchReference;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class ChunkedSubmitterTest {
+
+  private final List<CompletableFuture<List<String>>> inFlight = Lists.newArrayList();
+  private final List<BatchRequest> submitted = Lists.newArrayList();
+
+  @Test
+  public void testSubmit_shouldLimitChunksInFlight() {
+    final CompletableFuture<List<String>> result = new ChunkedSubmitter(2).submit(request(220), this::submitChunk);
+
+    assertThat(submitted).hasSize(2);
+
+    inFlight.get(1).complete(bodies(submitted.get(1)));
+    assertThat(submitted).hasSize(3);
+
+    inFlight.get(0).complete(bodies(submitted.get(0)));
+    inFlight.get(2).complete(bodies(submitted.get(2)));
+    assertThat(submitted).hasSize(5);
+    inFlight.get(4).complete(bodies(submitted.get(4)));
+    assertThat(result).isNotDone();
+    inFlight.get(3).complete(bodies(submitted.get(3)));
+
+    final List<String> responses = result.join();
+    assertThat(responses).hasSize(220);
+    for (int i = 0; i < 220; i++) {
+      assertThat(responses.get(i)).isEqualTo("item" + i);
+    }
+  }
+
+  @Test
+  public void testSubmitWithFailedChunk_shouldFailWithoutLaunchingMore() {
+    final CompletableFuture<List<String>> result = new ChunkedSubmitter(1).submit(request(120), this::submitChunk);
+
+    inFlight.get(0).completeExceptionally(new IllegalStateException("chunk failed"));
+
+    assertThat(submitted).hasSize(1);
+    assertThatThrownBy(result::join).hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testSubmitWithFailedChunk_shouldCancelChunksInFlight() {
+    final CompletableFuture<List<String>> result = new ChunkedSubmitter(2).submit(request(220), this::submitChunk);
+
+    inFlight.get(0).completeExceptionally(new IllegalStateException("chunk failed"));
+
+    assertThat(inFlight.get(1)).isCancelled();
+    assertThat(submitted).hasSize(2);
+    assertThatThrownBy(result::join).hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testSubmitWithShortChunkResponse_shouldKeepLaterResultsInPlace() {
+    final CompletableFuture<List<String>> result = new ChunkedSubmitter(3).submit(request(120), this::submitChunk);
+
+    inFlight.get(0).complete(bodies(submitted.get(0)).subList(0, 48));
+    inFlight.get(1).complete(bodies(submitted.get(1)));
+    inFlight.get(2).complete(bodies(submitted.get(2)));
+
+    final List<String> responses = result.join();
+    assertThat(responses).hasSize(120);
+    assertThat(responses.subList(48, 50)).containsOnlyNulls();
+    for (int i = 50; i < 120; i++) {
+      assertThat(responses.get(i)).isEqualTo("item" + i);
+    }
+  }
+
+  @Test
+  public void testSubmitSmallRequest_shouldSubmitAsIs() {
+    final BatchRequest request = request(50);
+    new ChunkedSubmitter(2).submit(request, this::submitChunk);
+
+    assertThat(submitted).containsExactly(request);
+  }
+
+  @Test
+  public void testSubmitWithDependencies_shouldKeepDependentItemsInOneChunk() {
+    final BatchRequest.Builder builder = BatchRequest.builder().accessToken("token");
+    for (int i = 0; i < 48; i++) {
+      builder.addItem(BatchItem.builder().post().body("item" + i).build());
+    }
+    builder.addItem(BatchItem.builder().post().name("create").body("item48").build());
+    builder.addItem(BatchItem.builder().get().dependsOn("create").body("item49").build());
+    builder.addItem(BatchItem.builder().get().relativeUrl(BatchReference.id("create").toString()).body("item50").build());
+    builder.addItem(BatchItem.builder().post().body("item51").build());
+
+    final CompletableFuture<List<String>> result = new ChunkedSubmitter(4).submit(builder.build(), this::submitChunk);
+
+    assertThat(submitted).hasSize(2);
+    assertThat(submitted.get(0).getBatchItems()).hasSize(48);
+    assertThat(submitted.get(1).getBatchItems()).hasSize(4);
+    inFlight.get(0).complete(bodies(submitted.get(0)));
+    inFlight.get(1).complete(bodies(submitted.get(1)));
+    assertThat(result.join()).hasSize(52).endsWith("item48", "item49", "item50", "item51");
+  }
+
+  @Test
+  public void testPartitionWithOversizedDependencyChain_shouldThrowException() {
+    final List<BatchItem> items = Lists.newArrayList();
+    items.add(BatchItem.builder().post().name("root").build());
+    for (int i = 0; i < 50; i++) {
+      items.add(BatchItem.builder().get().dependsOn("root").build());
+    }
+
+    assertThatThrownBy(() -> ChunkedSubmitter.partition(items)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private CompletableFuture<List<String>> submitChunk(final BatchRequest chunk) {
+    final CompletableFuture<List<String>> future = new CompletableFuture<>();
+    submitted.add(chunk);
+    inFlight.add(future);
+    return future;
+  }
+
+  private static List<String> bodies(final BatchRequest request) {
+    return request.getBatchItems().stream().map(BatchItem::getBody).collect(Collectors.toList());
+  }
+
+  private static BatchRequest request(final int size) {
+    final BatchRequest.Builder builder = BatchRequest.builder().accessToken("token");
+    for (int i = 0; i < size; i++) {
+      builder.addItem(BatchItem.builder().post().body("item" + i).build());
+    }
+    return builder.build();
+  }
+}
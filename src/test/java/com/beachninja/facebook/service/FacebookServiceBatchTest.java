@@ -0,0 +1,239 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.batch.BatchResponse;
+import com.beachninja.facebook.breaker.CircuitBreaker;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.PostResult;
+import com.beachninja.facebook.scrape.FacebookScrapeRequest;
+import com.beachninja.facebook.scrape.FacebookScrapeResponse;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookServiceBatchTest {
+
+  private static String SCRAPE_JSON_RESPONSE;
+  private static String SCRAPE_JSON_ERROR_RESPONSE;
+
+  private final BatchRequest request = BatchRequest.builder().accessToken("token")
+      .addItem(BatchItem.builder().post().body("&id=localhost1&scrape=true").build())
+      .addItem(BatchItem.builder().post().body("&id=localhost2&scrape=true").build())
+      .build();
+
+  private FakeTransport transport;
+  private FacebookService facebookService;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    SCRAPE_JSON_RESPONSE = IOUtils.toString(
+        FacebookServiceBatchTest.class.getResourceAsStream("/batch-scrape-success-response.json"), Charsets.UTF_8);
+    SCRAPE_JSON_ERROR_RESPONSE = IOUtils.toString(
+        FacebookServiceBatchTest.class.getResourceAsStream("/batch-scrape-error-response.json"), Charsets.UTF_8);
+  }
+
+  @Before
+  public void before() {
+    transport = new FakeTransport().respond(200, SCRAPE_JSON_RESPONSE);
+    facebookService = new FacebookService(TestUtil.om(), transport);
+  }
+
+  @Test
+  public void testSubmitBatch_shouldReturnResponsesInOrder() {
+    final List<BatchResponse> responses = facebookService.submitBatch(request);
+
+    assertThat(responses).hasSize(3);
+    assertThat(responses.get(0).getCode()).isEqualTo(200);
+    assertThat(responses.get(0).getBody()).contains("Sample Title");
+    assertThat(responses.get(1).getBody()).contains("Yet another website");
+    assertThat(responses.get(2).getCode()).isEqualTo(400);
+  }
+
+  @Test
+  public void testStreamBatch_shouldIterateResponsesInOrder() {
+    final List<String> bodies = facebookService.streamBatch(request, iterator -> {
+      final List<String> result = Lists.newArrayList();
+      iterator.forEachRemaining(response -> result.add(response.getBody()));
+      return result;
+    });
+
+    assertThat(bodies).hasSize(3);
+    assertThat(bodies.get(0)).contains("Sample Title");
+    assertThat(bodies.get(1)).contains("Yet another website");
+    assertThat(bodies.get(2)).contains("Cannot specify an empty identifier");
+  }
+
+  @Test
+  public void testSubmitBatchWithErrorResponse_shouldThrowFacebookException() {
+    transport.respond(400, "{\"error\":{\"message\":\"Sample Facebook Error Message\"," +
+        "\"type\":\"OAuthException\",\"code\":100,\"fbtrace_id\":\"FpPiqIX8gRv\"}}");
+
+    assertThatThrownBy(() -> facebookService.submitBatch(request))
+        .isInstanceOf(FacebookException.class)
+        .hasMessageContaining("Sample Facebook Error Message");
+  }
+
+  @Test
+  public void testScrapeWithErrorResponse_shouldKeepErrorsInResponse() {
+    transport.respond(200, SCRAPE_JSON_ERROR_RESPONSE);
+
+    final FacebookScrapeResponse response = facebookService.scrape(FacebookScrapeRequest.builder()
+        .accessToken("token").addLinks("localhost1", "localhost2", "localhost3").build());
+
+    assertThat(response.getWebsites()).hasSize(1);
+    assertThat(response.getWebsites().get(0).getTitle()).isEqualTo("Valid website");
+    assertThat(response.getErrors()).hasSize(2);
+    assertThat(response.getErrors().get(0).getMessage()).isEqualTo("Invalid parameter");
+    assertThat(response.getErrors().get(1).getMessage()).isEqualTo("Cannot specify an empty identifier");
+  }
+
+  @Test
+  public void testSubmitOversizedBatch_shouldSplitIntoChunksAndKeepOrder() {
+    transport.respond(FakeTransport::echoBatch);
+    final BatchRequest.Builder builder = BatchRequest.builder().accessToken("token");
+    for (int i = 0; i < 120; i++) {
+      builder.addItem(BatchItem.builder().post().body("item" + i).build());
+    }
+
+    final List<BatchResponse> responses = facebookService.submitBatch(builder.build());
+
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(transport.getRequests().stream().map(r -> FakeTransport.batchItems(r).size()))
+        .containsExactlyInAnyOrder(50, 50, 20);
+    assertThat(responses).hasSize(120);
+    for (int i = 0; i < 120; i++) {
+      assertThat(responses.get(i).getBody()).isEqualTo("item" + i);
+    }
+  }
+
+  @Test
+  public void testScrapeOversizedRequest_shouldSplitIntoChunks() {
+    transport.respond(request -> {
+      final List<Map<String, Object>> responses = Lists.newArrayList();
+      for (final BatchItem item : FakeTransport.batchItems(request)) {
+        final String link = item.getBody().replace("&id=", "").replace("&scrape=true", "");
+        responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("url", link))));
+      }
+      return FakeTransport.response(200, json(responses));
+    });
+    final FacebookScrapeRequest.Builder builder = FacebookScrapeRequest.builder().accessToken("token");
+    for (int i = 0; i < 75; i++) {
+      builder.addLink("https://localhost/" + i);
+    }
+
+    final FacebookScrapeResponse response = facebookService.scrape(builder.build());
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(response.getWebsites()).hasSize(75);
+    for (int i = 0; i < 75; i++) {
+      assertThat(response.getWebsites().get(i).getUrl()).isEqualTo("https://localhost/" + i);
+    }
+  }
+
+  @Test
+  public void testPostBatchToManyPages_shouldPackIntoFewBatchCalls() {
+    transport.respond(request -> {
+      final List<Map<String, Object>> responses = Lists.newArrayList();
+      for (final BatchItem item : FakeTransport.batchItems(request)) {
+        responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("id", item.getRelativeUrl()))));
+      }
+      return FakeTransport.response(200, json(responses));
+    });
+    final List<FacebookPostRequest> requests = Lists.newArrayList();
+    for (int i = 0; i < 60; i++) {
+      requests.add(FacebookPostRequest.builder().facebookId("page" + i).accessToken("token" + i)
+          .message("campaign").build());
+    }
+
+    final List<PostResult> results = facebookService.postBatch(requests);
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(FakeTransport.batchItems(transport.getRequests().get(0)).get(7).getBody())
+        .endsWith("&access_token=token7");
+    assertThat(results).hasSize(60);
+    for (int i = 0; i < 60; i++) {
+      assertThat(results.get(i).getResponse().getId()).isEqualTo("page" + i + "/feed");
+    }
+  }
+
+  @Test
+  public void testSubmitBatch_shouldRecordUsageHeaders() {
+    transport.respond(request -> {
+      final List<Map<String, Object>> responses = Lists.newArrayList();
+      for (final BatchItem item : FakeTransport.batchItems(request)) {
+        responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("id", item.getRelativeUrl())),
+            "headers", Lists.newArrayList(ImmutableMap.of("name", "X-Page-Usage", "value", "{\"call_count\":70}"))));
+      }
+      final HttpResponse response = FakeTransport.response(200, json(responses));
+      response.addHeader("X-App-Usage", "{\"call_count\":30,\"total_time\":45,\"total_cputime\":12}");
+      return response;
+    });
+    final List<FacebookPostRequest> requests = Lists.newArrayList(
+        FacebookPostRequest.builder().facebookId("page1").accessToken("token").message("hi").build(),
+        FacebookPostRequest.builder().facebookId("page2").accessToken("token").message("hi").build());
+
+    facebookService.postBatch(requests);
+    assertThat(facebookService.getRateGovernor().getUsage())
+        .containsEntry("app", 45).containsEntry("page1", 70).containsEntry("page2", 70);
+
+    facebookService.submitBatch(BatchRequest.builder().accessToken("token")
+        .addItem(BatchItem.builder().get().relativeUrl("page3/feed").build()).build());
+    assertThat(facebookService.getRateGovernor().getUsage()).containsEntry("page3", 70);
+  }
+
+  @Test
+  public void testPostWithRevokedToken_shouldFailFastOnceCircuitOpens() {
+    transport.respond(request -> FakeTransport.response(400, json(ImmutableMap.of("error",
+        ImmutableMap.of("message", "Error validating access token", "type", "OAuthException", "code", 190)))));
+    final FacebookPostRequest post = FacebookPostRequest.builder().facebookId("page1").accessToken("revoked")
+        .message("hi").build();
+
+    for (int i = 0; i < 3; i++) {
+      assertThatThrownBy(() -> facebookService.post(post)).isInstanceOf(FacebookException.class);
+    }
+    assertThatThrownBy(() -> facebookService.post(post)).isInstanceOf(CircuitOpenException.class);
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(facebookService.getCircuitBreaker().getState("page1", "revoked"))
+        .isEqualTo(CircuitBreaker.State.OPEN);
+
+    transport.respond(request -> FakeTransport.response(200,
+        json(Lists.newArrayList(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("id", "post2")))))));
+    final List<PostResult> results = facebookService.postBatch(Lists.newArrayList(post,
+        FacebookPostRequest.builder().facebookId("page2").accessToken("token").message("hi").build()));
+
+    assertThat(transport.getRequests()).hasSize(4);
+    assertThat(FakeTransport.batchItems(transport.getRequests().get(3))).hasSize(1);
+    assertThat(results.get(0).getError().getCode()).isEqualTo(190);
+    assertThat(results.get(0).getError().getMessage()).startsWith("Circuit open for page1#");
+    assertThat(results.get(1).getResponse().getId()).isEqualTo("post2");
+  }
+
+  private static String json(final Object value) {
+    try {
+      return TestUtil.om().writeValueAsString(value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
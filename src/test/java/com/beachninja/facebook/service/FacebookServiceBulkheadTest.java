@@ -0,0 +1,83 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.bulkhead.Bulkheads;
+import com.beachninja.facebook.bulkhead.Bulkheads.Operation;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.scrape.FacebookScrapeRequest;
+import com.beachninja.facebook.scrape.FacebookScrapeResponse;
+import com.beachninja.facebook.util.HangingTransport;
+import com.beachninja.facebook.util.TestUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookServiceBulkheadTest {
+
+  private HangingTransport transport;
+  private FacebookService facebookService;
+
+  @Before
+  public void before() {
+    transport = new HangingTransport();
+    facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .bulkheads(Bulkheads.builder().limit(Operation.SCRAPE, 1, 0).build())
+        .build();
+  }
+
+  @Test
+  public void testScrapeSurge_shouldBeRejectedWithoutStarvingPosts() {
+    final CompletableFuture<FacebookScrapeResponse> running = facebookService.scrapeAsync(scrape());
+
+    assertThatThrownBy(() -> facebookService.scrape(scrape())).isInstanceOfSatisfying(BulkheadFullException.class,
+        e -> assertThat(e.getCompartment()).isEqualTo("SCRAPE"));
+
+    final CompletableFuture<FacebookPostResponse> post = facebookService.postAsync(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build());
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(post).isNotDone();
+    assertThat(facebookService.getBulkheads().getStats().get("SCRAPE").getRejected()).isEqualTo(1);
+    running.cancel(true);
+    post.cancel(true);
+  }
+
+  @Test
+  public void testPostRejectedByFullBulkhead_shouldBeRetried() {
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .bulkheads(Bulkheads.builder().limit(Operation.POST, 1, 0).build())
+        .retryPolicy(BatchRetryPolicy.builder()
+            .maxAttempts(3)
+            .throttledInitialBackoff(Duration.ofMillis(1))
+            .build())
+        .build();
+    final CompletableFuture<FacebookPostResponse> running = service.postAsync(post());
+
+    assertThatThrownBy(() -> service.post(post())).isInstanceOf(BulkheadFullException.class);
+
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(service.getBulkheads().getStats().get("POST").getRejected()).isEqualTo(3);
+    running.cancel(true);
+  }
+
+  private static FacebookPostRequest post() {
+    return FacebookPostRequest.builder().facebookId("page").accessToken("token").message("hi").build();
+  }
+
+  private static FacebookScrapeRequest scrape() {
+    return FacebookScrapeRequest.builder().accessToken("token").addLinks("a").build();
+  }
+}
@@ -0,0 +1,110 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.error.ErrorCategory;
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.scrape.FacebookScrapeRequest;
+import com.beachninja.facebook.util.Deadline;
+import com.beachninja.facebook.util.HangingTransport;
+import com.beachninja.facebook.util.TestUtil;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookServiceDeadlineTest {
+
+  private HangingTransport transport;
+  private FacebookService facebookService;
+
+  @Before
+  public void before() {
+    transport = new HangingTransport();
+    facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .connectTimeout(Duration.ofSeconds(5))
+        .socketTimeout(Duration.ofSeconds(30))
+        .build();
+  }
+
+  @Test
+  public void testPostWithDeadline_shouldTimeOutAndCancelExchange() {
+    final long start = System.nanoTime();
+
+    assertThatThrownBy(() -> facebookService.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build(), Deadline.after(Duration.ofMillis(100))))
+        .isInstanceOfSatisfying(FacebookTimeoutException.class,
+            e -> assertThat(e.isDeadlineExceeded()).isTrue());
+
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+    assertThat(transport.getExchanges()).hasSize(1);
+    assertCancelled(transport.getExchanges().get(0));
+  }
+
+  @Test
+  public void testScrapeWithDeadline_shouldTimeOut() {
+    assertThatThrownBy(() -> facebookService.scrape(FacebookScrapeRequest.builder()
+        .accessToken("token").addLinks("a", "b").build(), Deadline.after(Duration.ofMillis(100))))
+        .isInstanceOf(FacebookTimeoutException.class);
+
+    transport.getExchanges().forEach(FacebookServiceDeadlineTest::assertCancelled);
+  }
+
+  @Test
+  public void testSubmitBatchWithDeadline_shouldClipTimeoutsToTimeLeft() {
+    final CompletableFuture<?> result = facebookService.submitBatchAsync(BatchRequest.builder()
+        .accessToken("token").addItem(BatchItem.builder().get().relativeUrl("me").build()).build(),
+        Deadline.after(Duration.ofSeconds(1)));
+
+    final RequestConfig config = ((HttpRequestBase) transport.getRequests().get(0)).getConfig();
+    assertThat(config.getConnectTimeout()).isBetween(1, 1000);
+    assertThat(config.getSocketTimeout()).isBetween(1, 1000);
+    result.cancel(true);
+  }
+
+  @Test
+  public void testSubmitBatchWithExpiredDeadline_shouldFailWithoutSending() {
+    assertThatThrownBy(() -> facebookService.submitBatch(BatchRequest.builder()
+        .accessToken("token").addItem(BatchItem.builder().get().relativeUrl("me").build()).build(),
+        Deadline.after(Duration.ZERO)))
+        .isInstanceOf(FacebookTimeoutException.class);
+
+    assertThat(transport.getRequests()).isEmpty();
+  }
+
+  @Test
+  public void testConnectTimeout_shouldBeRetryableTimeout() {
+    final ConnectTimeoutException failure = new ConnectTimeoutException("connect timed out");
+    transport.fail(failure);
+
+    assertThatThrownBy(() -> facebookService.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build(), Deadline.after(Duration.ofSeconds(10))))
+        .isInstanceOfSatisfying(FacebookTimeoutException.class, e -> {
+          assertThat(e.isDeadlineExceeded()).isFalse();
+          assertThat(e.getCause()).isSameAs(failure);
+          assertThat(BatchRetryPolicy.builder().build().classify(e)).isEqualTo(ErrorCategory.RETRYABLE);
+        });
+  }
+
+  /**
+   * The caller may see the timeout just before the exchange is cancelled, so wait briefly.
+   */
+  private static void assertCancelled(final CompletableFuture<?> exchange) {
+    assertThatThrownBy(() -> exchange.get(1, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+  }
+}
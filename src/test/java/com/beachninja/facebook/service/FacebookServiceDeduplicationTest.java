@@ -0,0 +1,224 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.bulkhead.Bulkheads;
+import com.beachninja.facebook.bulkhead.Bulkheads.Operation;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.exception.FacebookTimeoutException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.post.PostResult;
+import com.beachninja.facebook.transport.FacebookTransport;
+import com.beachninja.facebook.util.Deadline;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.HangingTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookServiceDeduplicationTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final AtomicInteger postIds = new AtomicInteger();
+  private PostDeduplicator postDeduplicator;
+  private FakeTransport transport;
+  private FacebookService facebookService;
+
+  @Before
+  public void before() {
+    postDeduplicator = PostDeduplicator.builder().window(Duration.ofMinutes(10)).ticker(ticker).build();
+    transport = new FakeTransport().respond(request -> FakeTransport.response(200,
+        "{\"id\":\"post-" + postIds.incrementAndGet() + "\"}"));
+    facebookService = service(transport);
+  }
+
+  @Test
+  public void testRepeatedPost_shouldReturnOriginalResponse() {
+    final FacebookPostResponse first = facebookService.post(post("token", "hello"));
+    final FacebookPostResponse repeat = facebookService.post(post("refreshed-token", "hello"));
+
+    assertThat(repeat).isEqualTo(first);
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(postDeduplicator.getStats().getDuplicates()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDifferentContent_shouldPublishBoth() {
+    facebookService.post(post("token", "hello"));
+    facebookService.post(post("token", "hello again"));
+    facebookService.post(FacebookPostRequest.builder().accessToken("token").facebookId("other-page")
+        .message("hello").build());
+
+    assertThat(transport.getRequests()).hasSize(3);
+  }
+
+  @Test
+  public void testSameIdempotencyKey_shouldPublishOncePerPage() {
+    final FacebookPostResponse first = facebookService.post(FacebookPostRequest.builder()
+        .accessToken("token").facebookId("page").message("v1").idempotencyKey("order-1").build());
+    final FacebookPostResponse repeat = facebookService.post(FacebookPostRequest.builder()
+        .accessToken("token").facebookId("page").message("v2").idempotencyKey("order-1").build());
+    facebookService.post(FacebookPostRequest.builder()
+        .accessToken("token").facebookId("page").message("v1").idempotencyKey("order-2").build());
+
+    assertThat(repeat).isEqualTo(first);
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testRepeatWhileInFlight_shouldShareOneCall() throws Exception {
+    final HangingTransport hanging = new HangingTransport();
+    final FacebookService facebookService = service(hanging);
+
+    final CompletableFuture<FacebookPostResponse> first = facebookService.postAsync(post("token", "hello"));
+    final CompletableFuture<FacebookPostResponse> repeat = facebookService.postAsync(post("token", "hello"));
+    assertThat(hanging.getRequests()).hasSize(1);
+
+    complete(hanging.getExchanges().get(0), FacebookPostResponse.builder().id("post-1").build());
+    assertThat(first.get(1, TimeUnit.SECONDS).getId()).isEqualTo("post-1");
+    assertThat(repeat.get(1, TimeUnit.SECONDS).getId()).isEqualTo("post-1");
+  }
+
+  @Test
+  public void testRejectedPost_shouldBeForgotten() {
+    transport.respond(400, "{\"error\":{\"message\":\"Invalid link\",\"code\":100}}");
+    assertThatThrownBy(() -> facebookService.post(post("token", "hello"))).isInstanceOf(FacebookException.class);
+
+    transport.respond(200, "{\"id\":\"post-1\"}");
+    assertThat(facebookService.post(post("token", "hello")).getId()).isEqualTo("post-1");
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testTimedOutPost_shouldNotBePublishedAgainUntilForgotten() {
+    final HangingTransport hanging = new HangingTransport();
+    final FacebookService facebookService = service(hanging);
+
+    assertThatThrownBy(() -> facebookService.post(post("token", "hello"), Deadline.after(Duration.ofMillis(50))))
+        .isInstanceOf(FacebookTimeoutException.class);
+    assertThatThrownBy(() -> facebookService.post(post("token", "hello"), Deadline.after(Duration.ofMillis(50))))
+        .isInstanceOf(FacebookTimeoutException.class);
+    assertThat(hanging.getRequests()).hasSize(1);
+
+    postDeduplicator.forget(post("token", "hello"));
+    facebookService.postAsync(post("token", "hello"));
+    assertThat(hanging.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testPostTimedOutInBulkhead_shouldBeForgotten() {
+    final HangingTransport hanging = new HangingTransport();
+    final FacebookService facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(hanging)
+        .postDeduplicator(postDeduplicator)
+        .bulkheads(Bulkheads.builder().limit(Operation.POST, 1, 10).build())
+        .build();
+    facebookService.postAsync(post("token", "first"));
+
+    assertThatThrownBy(() -> facebookService.post(post("token", "hello"), Deadline.after(Duration.ofMillis(50))))
+        .isInstanceOfSatisfying(FacebookTimeoutException.class, e -> assertThat(e.isSent()).isFalse());
+    complete(hanging.getExchanges().get(0), FacebookPostResponse.builder().id("post-1").build());
+    facebookService.postAsync(post("token", "hello"));
+
+    assertThat(hanging.getRequests()).hasSize(2);
+    assertThat(FakeTransport.body(hanging.getRequests().get(1))).contains("message=hello");
+  }
+
+  @Test
+  public void testPostInFlight_shouldNotBeEvictedBySettledPosts() {
+    final PostDeduplicator postDeduplicator = PostDeduplicator.builder().maximumSize(1).ticker(ticker).build();
+
+    final PostDeduplicator.Claim first = postDeduplicator.claim(post("token", "a"));
+    for (final String message : ImmutableList.of("b", "c", "d")) {
+      postDeduplicator.claim(post("token", message)).complete(FacebookPostResponse.builder().id(message).build());
+    }
+
+    assertThat(first.isOwner()).isTrue();
+    assertThat(postDeduplicator.claim(post("token", "a")).isOwner()).isFalse();
+  }
+
+  @Test
+  public void testRepeatAfterWindow_shouldPublishAgain() {
+    facebookService.post(post("token", "hello"));
+    ticker.advance(Duration.ofMinutes(11));
+    facebookService.post(post("token", "hello"));
+
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testPostBatch_shouldPublishEachPostOnce() {
+    transport.respond(this::postBatchResponses);
+    final List<PostResult> results = facebookService.postBatch(ImmutableList.of(
+        post("token", "a"), post("token", "a"), post("token", "b")));
+
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(FakeTransport.batchItems(transport.getRequests().get(0))).hasSize(2);
+    assertThat(results).hasSize(3);
+    assertThat(results).extracting(result -> result.getResponse().getId())
+        .containsExactly("post-1", "post-1", "post-2");
+
+    final List<PostResult> repeated = facebookService.postBatch(ImmutableList.of(post("token", "b")));
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(repeated).containsExactly(results.get(2));
+  }
+
+  private FacebookService service(final FacebookTransport transport) {
+    return FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .postDeduplicator(postDeduplicator)
+        .build();
+  }
+
+  private static FacebookPostRequest post(final String token, final String message) {
+    return FacebookPostRequest.builder().accessToken(token).facebookId("page").message(message).build();
+  }
+
+  /**
+   * Answers each batched post with a new post id.
+   */
+  private HttpResponse postBatchResponses(final HttpUriRequest request) {
+    final List<String> items = Lists.newArrayList();
+    for (int i = 0; i < FakeTransport.batchItems(request).size(); i++) {
+      items.add("{\"code\":200,\"body\":\"{\\\"id\\\":\\\"post-" + postIds.incrementAndGet() + "\\\"}\"}");
+    }
+    return FakeTransport.response(200, "[" + String.join(",", items) + "]");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void complete(final CompletableFuture<?> exchange, final Object value) {
+    ((CompletableFuture<Object>) exchange).complete(value);
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    private void advance(final Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.batch.BatchResponse;
+import com.beachninja.facebook.error.ErrorCategory;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.BulkheadFullException;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.scrape.FacebookScrapeRequest;
+import com.beachninja.facebook.scrape.FacebookScrapeResponse;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookServiceRetryTest {
+
+  private final BatchRetryPolicy retryPolicy = BatchRetryPolicy.builder()
+      .maxAttempts(3)
+      .initialBackoff(Duration.ofMillis(1))
+      .throttledInitialBackoff(Duration.ofMillis(1))
+      .build();
+
+  private final AtomicInteger attempts = new AtomicInteger();
+  private FakeTransport transport;
+  private FacebookService facebookService;
+
+  @Before
+  public void before() {
+    transport = new FakeTransport().respond(this::flakyBatch);
+    facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .scrapeRetryPolicy(retryPolicy)
+        .build();
+  }
+
+  @Test
+  public void testSubmitBatchWithRetry_shouldResubmitOnlyRetryableItems() {
+    final List<BatchResponse> responses = facebookService.submitBatch(request("ok", "transient", "bad", "ok2"),
+        retryPolicy);
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(bodies(transport.getRequests().get(1))).containsExactly("transient");
+    assertThat(responses).extracting(BatchResponse::getCode).containsExactly(200, 200, 400, 200);
+    assertThat(responses.get(1).getBody()).contains("transient");
+  }
+
+  @Test
+  public void testSubmitBatchWithRetry_shouldRetryOmittedItems() {
+    final List<BatchResponse> responses = facebookService.submitBatch(request("ok", "timeout"), retryPolicy);
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(bodies(transport.getRequests().get(1))).containsExactly("timeout");
+    assertThat(responses.get(1).getBody()).contains("timeout");
+  }
+
+  @Test
+  public void testSubmitBatchWithRetry_shouldStopAfterMaxAttempts() {
+    final List<BatchResponse> responses = facebookService.submitBatch(request("ok", "throttled"), retryPolicy);
+
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(responses.get(0).getCode()).isEqualTo(200);
+    assertThat(responses.get(1).getCode()).isEqualTo(403);
+  }
+
+  @Test
+  public void testSubmitBatchWithoutRetry_shouldKeepFailures() {
+    final List<BatchResponse> responses = facebookService.submitBatch(request("ok", "transient"));
+
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(responses.get(1).getCode()).isEqualTo(500);
+  }
+
+  @Test
+  public void testScrapeWithRetryPolicy_shouldRetryTransientFailures() {
+    final FacebookScrapeResponse response = facebookService.scrape(FacebookScrapeRequest.builder()
+        .accessToken("token").addLinks("ok", "transient", "bad").build());
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(response.getWebsites()).hasSize(2);
+    assertThat(response.getErrors()).hasSize(1);
+    assertThat(response.getErrors().get(0).getCode()).isEqualTo(100);
+  }
+
+  @Test
+  public void testSubmitBatchWithRetry_shouldStopWhenBudgetIsSpent() {
+    final BatchRetryPolicy budgeted = BatchRetryPolicy.builder()
+        .maxAttempts(5)
+        .initialBackoff(Duration.ofMillis(1))
+        .throttledInitialBackoff(Duration.ofMillis(1))
+        .retryBudget(0)
+        .minRetryBudget(3)
+        .build();
+
+    final List<BatchResponse> responses = facebookService.submitBatch(request("throttled", "throttled", "ok"),
+        budgeted);
+
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(bodies(transport.getRequests().get(1))).hasSize(2);
+    assertThat(bodies(transport.getRequests().get(2))).hasSize(1);
+    assertThat(responses).extracting(BatchResponse::getCode).containsExactly(403, 403, 200);
+  }
+
+  @Test
+  public void testPostWithRetryPolicy_shouldRetryFailedCalls() {
+    final AtomicInteger calls = new AtomicInteger();
+    transport.respond(request -> calls.getAndIncrement() == 0
+        ? FakeTransport.response(503, "<html>Service Unavailable</html>")
+        : FakeTransport.response(200, json(ImmutableMap.of("id", "post1"))));
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om()).transport(transport).retryPolicy(retryPolicy).build();
+
+    final FacebookPostResponse response = service.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build());
+
+    assertThat(response.getId()).isEqualTo("post1");
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testPostWithRetryPolicy_shouldNotRetryAuthErrors() {
+    transport.respond(request -> FakeTransport.response(400, error(190, "Invalid OAuth access token")));
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om()).transport(transport).retryPolicy(retryPolicy).build();
+
+    assertThatThrownBy(() -> service.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build()))
+        .isInstanceOfSatisfying(FacebookException.class, e -> {
+          assertThat(e.getStatusCode()).isEqualTo(400);
+          assertThat(retryPolicy.classify(e)).isEqualTo(ErrorCategory.AUTH);
+        });
+    assertThat(transport.getRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testPostWithRetryPolicy_shouldNotResendAfterServerError() {
+    transport.respond(request -> FakeTransport.response(500, error(2, "Service temporarily unavailable")));
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om()).transport(transport).retryPolicy(retryPolicy).build();
+
+    assertThatThrownBy(() -> service.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build())).isInstanceOf(FacebookException.class);
+    assertThat(transport.getRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testPostWithRetryPolicy_shouldNotResendAfterReadFailure() {
+    transport.respond(request -> {
+      throw new UncheckedIOException(new SocketTimeoutException("Read timed out"));
+    });
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om()).transport(transport).retryPolicy(retryPolicy).build();
+
+    assertThatThrownBy(() -> service.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build()));
+    assertThat(transport.getRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testPostWithRetryPolicy_shouldResendAfterConnectFailure() {
+    final AtomicInteger calls = new AtomicInteger();
+    transport.respond(request -> {
+      if (calls.getAndIncrement() == 0) {
+        throw new UncheckedIOException(new ConnectException("Connection refused"));
+      }
+      return FakeTransport.response(200, json(ImmutableMap.of("id", "post1")));
+    });
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om()).transport(transport).retryPolicy(retryPolicy).build();
+
+    final FacebookPostResponse response = service.post(FacebookPostRequest.builder()
+        .facebookId("page").accessToken("token").message("hi").build());
+
+    assertThat(response.getId()).isEqualTo("post1");
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testScrapeWithBothRetryPolicies_shouldShareOneRetryBudget() {
+    final AtomicInteger calls = new AtomicInteger();
+    transport.respond(request -> calls.getAndIncrement() % 2 == 0
+        ? FakeTransport.response(502, "<html>Bad Gateway</html>")
+        : flakyBatch(request));
+    final FacebookService service = FacebookService.builder()
+        .objectMapper(TestUtil.om()).transport(transport)
+        .retryPolicy(retryPolicy).scrapeRetryPolicy(retryPolicy).build();
+
+    catchThrowable(() -> service.scrape(FacebookScrapeRequest.builder()
+        .accessToken("token").addLinks("throttled").build()));
+
+    // One call plus a budget of two resends, however the item and whole-call retries interleave
+    assertThat(transport.getRequests()).hasSize(1 + retryPolicy.getRetryBudget(1));
+  }
+
+  @Test
+  public void testClassify_shouldUseErrorCodeBeforeStatus() {
+    final BatchRetryPolicy policy = BatchRetryPolicy.builder().build();
+
+    assertThat(policy.classify(403, FacebookError.builder().code(613).build())).isEqualTo(ErrorCategory.THROTTLED);
+    assertThat(policy.classify(400, FacebookError.builder().code(80001).build())).isEqualTo(ErrorCategory.THROTTLED);
+    assertThat(policy.classify(400, FacebookError.builder().code(190).build())).isEqualTo(ErrorCategory.AUTH);
+    assertThat(policy.classify(500, FacebookError.builder().code(2).build())).isEqualTo(ErrorCategory.RETRYABLE);
+    assertThat(policy.classify(400, FacebookError.builder().code(100).build())).isEqualTo(ErrorCategory.PERMANENT);
+    assertThat(policy.classify(429, null)).isEqualTo(ErrorCategory.THROTTLED);
+    assertThat(policy.classify(502, null)).isEqualTo(ErrorCategory.RETRYABLE);
+    assertThat(policy.classify(new RuntimeException(new IOException("reset")))).isEqualTo(ErrorCategory.RETRYABLE);
+    assertThat(policy.classify(new BulkheadFullException("POST:page"))).isEqualTo(ErrorCategory.THROTTLED);
+    assertThat(policy.classify(new CircuitOpenException("page", FacebookError.builder().code(190).build(),
+        Instant.now()))).isEqualTo(ErrorCategory.THROTTLED);
+  }
+
+  @Test
+  public void testBackoff_shouldJitterBetweenBaseAndThreeTimesPreviousUpToMax() {
+    final BatchRetryPolicy policy = BatchRetryPolicy.builder()
+        .initialBackoff(Duration.ofMillis(100))
+        .throttledInitialBackoff(Duration.ofMillis(1000))
+        .maxBackoff(Duration.ofMillis(2000))
+        .build();
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.nextBackoff(ErrorCategory.RETRYABLE, null))
+          .isBetween(Duration.ofMillis(100), Duration.ofMillis(300));
+      assertThat(policy.nextBackoff(ErrorCategory.RETRYABLE, Duration.ofMillis(400)))
+          .isBetween(Duration.ofMillis(100), Duration.ofMillis(1200));
+      assertThat(policy.nextBackoff(ErrorCategory.THROTTLED, Duration.ofMillis(1500)))
+          .isBetween(Duration.ofMillis(1000), Duration.ofMillis(2000));
+    }
+  }
+
+  /**
+   * Answers each item by its body: "transient" fails with a 500 on the first attempt and "timeout"
+   * is left out once, "throttled" always fails with a rate limit error, "bad" always fails with a
+   * permanent error, and anything else succeeds.
+   */
+  private HttpResponse flakyBatch(final HttpUriRequest request) {
+    final boolean firstAttempt = attempts.getAndIncrement() == 0;
+    final List<Object> responses = Lists.newArrayList();
+    for (final BatchItem item : FakeTransport.batchItems(request)) {
+      final String key = item.getBody().replace("&id=", "").replace("&scrape=true", "");
+      if ("transient".equals(key) && firstAttempt) {
+        responses.add(ImmutableMap.of("code", 500, "body", error(2, "Service temporarily unavailable")));
+      } else if ("timeout".equals(key) && firstAttempt) {
+        responses.add(null);
+      } else if ("throttled".equals(key)) {
+        responses.add(ImmutableMap.of("code", 403, "body", error(613, "Calls to this api have exceeded the rate limit")));
+      } else if ("bad".equals(key)) {
+        responses.add(ImmutableMap.of("code", 400, "body", error(100, "Invalid parameter")));
+      } else {
+        responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("url", key, "id", key))));
+      }
+    }
+    return FakeTransport.response(200, json(responses));
+  }
+
+  private static BatchRequest request(final String... bodies) {
+    final BatchRequest.Builder builder = BatchRequest.builder().accessToken("token");
+    for (final String body : bodies) {
+      builder.addItem(BatchItem.builder().post().body(body).build());
+    }
+    return builder.build();
+  }
+
+  private static List<String> bodies(final HttpUriRequest request) {
+    return FakeTransport.batchItems(request).stream().map(BatchItem::getBody).collect(Collectors.toList());
+  }
+
+  private static String error(final int code, final String message) {
+    final Map<String, Object> error = ImmutableMap.of("message", message, "type", "OAuthException", "code", code);
+    return json(ImmutableMap.of("error", error));
+  }
+
+  private static String json(final Object value) {
+    try {
+      return TestUtil.om().writeValueAsString(value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.model.Website;
+import com.beachninja.facebook.scrape.FacebookScrapeRequest;
+import com.beachninja.facebook.scrape.FacebookScrapeResponse;
+import com.beachninja.facebook.scrape.ScrapeCache;
+import com.beachninja.facebook.scrape.ScrapeErrorCache;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class FacebookServiceScrapeCacheTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private ScrapeCache scrapeCache;
+  private ScrapeErrorCache scrapeErrorCache;
+  private FakeTransport transport;
+  private FacebookService facebookService;
+
+  @Before
+  public void before() {
+    scrapeCache = ScrapeCache.builder().ttl(Duration.ofMinutes(5)).maximumSize(100).ticker(ticker).build();
+    scrapeErrorCache = ScrapeErrorCache.builder().defaultTtl(Duration.ofHours(1))
+        .ttl(100, Duration.ofMinutes(1)).ticker(ticker).build();
+    transport = new FakeTransport().respond(FacebookServiceScrapeCacheTest::scrapeBatch);
+    facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .scrapeCache(scrapeCache)
+        .scrapeErrorCache(scrapeErrorCache)
+        .build();
+  }
+
+  @Test
+  public void testScrape_shouldOnlySendLinksMissingFromCache() {
+    facebookService.scrape(scrape("a", "b"));
+
+    final FacebookScrapeResponse response = facebookService.scrape(scrape("a", "c", "b"));
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(links(transport.getRequests().get(1))).containsExactly("c");
+    assertThat(response.getWebsites()).extracting(Website::getUrl).containsExactly("a", "c", "b");
+    assertThat(scrapeCache.getStats().hitCount()).isEqualTo(2);
+    assertThat(scrapeCache.getStats().missCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testScrapeAllCached_shouldNotCallFacebook() {
+    facebookService.scrape(scrape("a"));
+
+    final FacebookScrapeResponse response = facebookService.scrape(scrape("a"));
+
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(response.getWebsites()).extracting(Website::getUrl).containsExactly("a");
+  }
+
+  @Test
+  public void testScrapeAfterTtl_shouldScrapeAgain() {
+    facebookService.scrape(scrape("a"));
+    ticker.advance(Duration.ofMinutes(6));
+
+    facebookService.scrape(scrape("a"));
+
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testPermanentScrapeError_shouldBeReportedAsCachedError() {
+    final FacebookScrapeResponse first = facebookService.scrape(scrape("bad", "a"));
+
+    final FacebookScrapeResponse response = facebookService.scrape(scrape("bad", "a"));
+
+    assertThat(first.getErrors()).hasSize(1);
+    assertThat(first.getCachedErrors()).isEmpty();
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(response.getErrors()).isEmpty();
+    assertThat(response.getCachedErrors()).extracting(FacebookError::getCode).containsExactly(100);
+    assertThat(scrapeCache.size()).isEqualTo(1);
+    assertThat(scrapeErrorCache.getStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testCachedScrapeError_shouldExpireAfterTtlOfItsCode() {
+    facebookService.scrape(scrape("bad"));
+    ticker.advance(Duration.ofMinutes(2));
+
+    final FacebookScrapeResponse response = facebookService.scrape(scrape("bad"));
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(response.getErrors()).hasSize(1);
+    assertThat(scrapeErrorCache.getTtl(100)).isEqualTo(Duration.ofMinutes(1));
+    assertThat(scrapeErrorCache.getTtl(803)).isEqualTo(Duration.ofHours(1));
+  }
+
+  @Test
+  public void testRetryableScrapeError_shouldNotBeCached() {
+    facebookService.scrape(scrape("transient"));
+
+    facebookService.scrape(scrape("transient"));
+
+    assertThat(transport.getRequests()).hasSize(2);
+    assertThat(scrapeErrorCache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFullCache_shouldEvictLeastRecentlyUsed() {
+    final ScrapeCache cache = ScrapeCache.builder().maximumSize(2).ticker(ticker).build();
+    final Website website = Website.builder().url("url").build();
+    cache.put("a", website);
+    cache.put("b", website);
+    cache.get("a");
+
+    cache.put("c", website);
+
+    assertThat(cache.get("a")).isNotNull();
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.getStats().evictionCount()).isEqualTo(1);
+  }
+
+  private static FacebookScrapeRequest scrape(final String link, final String ... more) {
+    return FacebookScrapeRequest.builder().accessToken("token").addLinks(link, more).build();
+  }
+
+  private static List<String> links(final HttpUriRequest request) {
+    return FakeTransport.batchItems(request).stream().map(FacebookServiceScrapeCacheTest::linkOf)
+        .collect(Collectors.toList());
+  }
+
+  private static String linkOf(final BatchItem item) {
+    return item.getBody().replaceAll(".*id=([^&]*).*", "$1");
+  }
+
+  /**
+   * Answers each scrape with a Website whose url is the link, a permanent error for "bad" and a
+   * transient error for "transient".
+   */
+  private static HttpResponse scrapeBatch(final HttpUriRequest request) {
+    final List<Map<String, Object>> responses = Lists.newArrayList();
+    for (final BatchItem item : FakeTransport.batchItems(request)) {
+      final String link = linkOf(item);
+      if ("bad".equals(link)) {
+        responses.add(ImmutableMap.of("code", 400, "body", "{\"error\":{\"message\":\"Invalid parameter\",\"code\":100}}"));
+      } else if ("transient".equals(link)) {
+        responses.add(ImmutableMap.of("code", 500, "body", "{\"error\":{\"message\":\"Unknown error\",\"code\":2}}"));
+      } else {
+        responses.add(ImmutableMap.of("code", 200, "body", "{\"url\":\"" + link + "\"}"));
+      }
+    }
+    try {
+      return FakeTransport.response(200, TestUtil.om().writeValueAsString(responses));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    private void advance(final Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.beachninja.facebook.service;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class HedgerTest {
+
+  private final List<CompletableFuture<String>> attempts = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void testCall_shouldNotHedgeBeforeEnoughSamples() throws Exception {
+    final Hedger hedger = Hedger.builder().minSamples(2).minDelay(Duration.ofMillis(1)).build();
+    hedger.call(answered("fast")).get(1, TimeUnit.SECONDS);
+    attempts.clear();
+
+    assertThat(hedger.getHedgeDelay()).isNull();
+    final CompletableFuture<String> result = hedger.call(pending());
+    Thread.sleep(50);
+
+    assertThat(attempts).hasSize(1);
+    assertThat(result).isNotDone();
+  }
+
+  @Test
+  public void testSlowCall_shouldBeHedgedAndLoserCancelled() throws Exception {
+    final Hedger hedger = warmedUp(Hedger.builder());
+    final CompletableFuture<String> primary = new CompletableFuture<>();
+    final CompletableFuture<String> hedge = new CompletableFuture<>();
+
+    final CompletableFuture<String> result = hedger.call(sequence(primary, hedge));
+    waitForAttempts(2);
+    hedge.complete("hedge");
+
+    assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo("hedge");
+    assertThat(primary).isCancelled();
+    assertThat(hedger.getStats().getHedges()).isEqualTo(1);
+    assertThat(hedger.getStats().getHedgeWins()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFailedAttempt_shouldWaitForTheOther() throws Exception {
+    final Hedger hedger = warmedUp(Hedger.builder());
+    final CompletableFuture<String> primary = new CompletableFuture<>();
+    final CompletableFuture<String> hedge = new CompletableFuture<>();
+
+    final CompletableFuture<String> result = hedger.call(sequence(primary, hedge));
+    waitForAttempts(2);
+    hedge.completeExceptionally(new RuntimeException("hedge failed"));
+    assertThat(result).isNotDone();
+
+    primary.complete("primary");
+    assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo("primary");
+  }
+
+  @Test
+  public void testHedgeRate_shouldBeCappedByBudget() throws Exception {
+    final Hedger hedger = warmedUp(Hedger.builder().maxHedgeRate(0).maxBurst(1));
+
+    hedger.call(sequence(new CompletableFuture<>(), new CompletableFuture<>()));
+    waitForAttempts(2);
+    attempts.clear();
+    hedger.call(sequence(new CompletableFuture<>(), new CompletableFuture<>()));
+    Thread.sleep(50);
+
+    assertThat(attempts).hasSize(1);
+    assertThat(hedger.getStats().getHedges()).isEqualTo(1);
+  }
+
+  private Hedger warmedUp(final Hedger.Builder builder) throws Exception {
+    final Hedger hedger = builder.minSamples(1).minDelay(Duration.ofMillis(5)).build();
+    hedger.call(answered("warm-up")).get(1, TimeUnit.SECONDS);
+    attempts.clear();
+    return hedger;
+  }
+
+  private Supplier<CompletableFuture<String>> answered(final String value) {
+    return sequence(CompletableFuture.completedFuture(value));
+  }
+
+  private Supplier<CompletableFuture<String>> pending() {
+    return sequence(new CompletableFuture<>(), new CompletableFuture<>());
+  }
+
+  @SafeVarargs
+  private final Supplier<CompletableFuture<String>> sequence(final CompletableFuture<String>... futures) {
+    return () -> {
+      final CompletableFuture<String> future = futures[attempts.size() % futures.length];
+      attempts.add(future);
+      return future;
+    };
+  }
+
+  private void waitForAttempts(final int count) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (attempts.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(attempts).hasSize(count);
+  }
+}
@@ -0,0 +1,157 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class PostBatcherTest {
+
+  private FakeTransport transport;
+  private PostBatcher batcher;
+
+  @Before
+  public void before() {
+    transport = new FakeTransport().respond(PostBatcherTest::postResponses);
+    batcher = PostBatcher.builder()
+        .facebookService(new FacebookService(TestUtil.om(), transport))
+        .maxBatchSize(3)
+        .linger(Duration.ofMillis(20))
+        .build();
+  }
+
+  @After
+  public void after() {
+    batcher.close();
+  }
+
+  @Test
+  public void testPostUpToMaxBatchSize_shouldFlushOneBatch() throws Exception {
+    final CompletableFuture<FacebookPostResponse> first = batcher.post(post("token", "a"));
+    final CompletableFuture<FacebookPostResponse> second = batcher.post(post("token", "b"));
+    final CompletableFuture<FacebookPostResponse> third = batcher.post(post("token", "c"));
+
+    assertThat(first.get(1, TimeUnit.SECONDS).getId()).isEqualTo("a");
+    assertThat(second.get(1, TimeUnit.SECONDS).getId()).isEqualTo("b");
+    assertThat(third.get(1, TimeUnit.SECONDS).getId()).isEqualTo("c");
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(batcher.getStats().getSizeFlushes()).isEqualTo(1);
+    assertThat(batcher.getStats().getFillRatio()).isEqualTo(1.0);
+  }
+
+  @Test
+  public void testPostBelowMaxBatchSize_shouldFlushAfterLinger() throws Exception {
+    final CompletableFuture<FacebookPostResponse> first = batcher.post(post("token", "a"));
+    final CompletableFuture<FacebookPostResponse> second = batcher.post(post("token", "b"));
+
+    assertThat(first.get(1, TimeUnit.SECONDS).getId()).isEqualTo("a");
+    assertThat(second.get(1, TimeUnit.SECONDS).getId()).isEqualTo("b");
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(FakeTransport.batchItems(transport.getRequests().get(0))).hasSize(2);
+    assertThat(batcher.getStats().getLingerFlushes()).isEqualTo(1);
+    assertThat(batcher.getStats().getPosts()).isEqualTo(2);
+  }
+
+  @Test
+  public void testRejectedPost_shouldFailOnlyThatPost() throws Exception {
+    final CompletableFuture<FacebookPostResponse> ok = batcher.post(post("token", "a"));
+    final CompletableFuture<FacebookPostResponse> rejected = batcher.post(post("token", "bad"));
+    batcher.flush();
+
+    assertThat(ok.get(1, TimeUnit.SECONDS).getId()).isEqualTo("a");
+    assertThatThrownBy(() -> rejected.get(1, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(FacebookException.class)
+        .hasMessageContaining("Duplicate status message");
+  }
+
+  @Test
+  public void testFailedBatch_shouldFailEveryPost() {
+    transport.respond(500, "{\"error\":{\"message\":\"Service unavailable\",\"code\":2}}");
+    final CompletableFuture<FacebookPostResponse> first = batcher.post(post("token", "a"));
+    final CompletableFuture<FacebookPostResponse> second = batcher.post(post("token", "b"));
+    batcher.flush();
+
+    assertThatThrownBy(() -> first.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(FacebookException.class);
+    assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(FacebookException.class);
+  }
+
+  @Test
+  public void testPostsWithDifferentTokens_shouldShareOneBatch() throws Exception {
+    final CompletableFuture<FacebookPostResponse> first = batcher.post(post("token1", "a"));
+    final CompletableFuture<FacebookPostResponse> second = batcher.post(post("token2", "b"));
+    final CompletableFuture<FacebookPostResponse> third = batcher.post(post("token1", "c"));
+
+    assertThat(first.get(1, TimeUnit.SECONDS).getId()).isEqualTo("a");
+    assertThat(second.get(1, TimeUnit.SECONDS).getId()).isEqualTo("b");
+    assertThat(third.get(1, TimeUnit.SECONDS).getId()).isEqualTo("c");
+    assertThat(transport.getRequests()).hasSize(1);
+    assertThat(FakeTransport.batchItems(transport.getRequests().get(0)))
+        .extracting(BatchItem::getBody)
+        .containsExactly("&message=a&access_token=token1", "&message=b&access_token=token2",
+            "&message=c&access_token=token1");
+  }
+
+  @Test
+  public void testPostAfterClose_shouldFail() {
+    batcher.close();
+
+    assertThatThrownBy(() -> batcher.post(post("token", "a")).join())
+        .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  private static FacebookPostRequest post(final String token, final String message) {
+    return FacebookPostRequest.builder().accessToken(token).facebookId("page").message(message).build();
+  }
+
+  /**
+   * Answers each post with its message as the post id, or an error for the message "bad".
+   */
+  private static HttpResponse postResponses(final HttpUriRequest request) {
+    final List<Map<String, Object>> responses = Lists.newArrayList();
+    for (final BatchItem item : FakeTransport.batchItems(request)) {
+      final String message = URLEncodedUtils.parse(item.getBody(), Charsets.UTF_8).stream()
+          .filter(param -> "message".equals(param.getName()))
+          .findFirst().get().getValue();
+      if ("bad".equals(message)) {
+        responses.add(ImmutableMap.of("code", 400,
+            "body", json(ImmutableMap.of("error", ImmutableMap.of("message", "Duplicate status message", "code", 506)))));
+      } else {
+        responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("id", message))));
+      }
+    }
+    return FakeTransport.response(200, json(responses));
+  }
+
+  private static String json(final Object value) {
+    try {
+      return TestUtil.om().writeValueAsString(value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
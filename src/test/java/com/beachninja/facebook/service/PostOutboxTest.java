@@ -0,0 +1,254 @@
+package com.beachninja.facebook.service;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.post.FacebookPostResponse;
+import com.beachninja.facebook.post.PostResult;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class PostOutboxTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<PostResult> acknowledged = new CopyOnWriteArrayList<>();
+  private FakeTransport transport;
+  private Path directory;
+  private PostOutbox outbox;
+
+  @Before
+  public void before() throws IOException {
+    transport = new FakeTransport().respond(PostOutboxTest::postResponses);
+    directory = folder.newFolder("outbox").toPath();
+    outbox = open();
+  }
+
+  @After
+  public void after() throws IOException {
+    outbox.close();
+  }
+
+  @Test
+  public void testPost_shouldReturnBeforeSendingAndCompleteOnDrain() throws Exception {
+    final CompletableFuture<FacebookPostResponse> first = outbox.post(post("a"));
+    final CompletableFuture<FacebookPostResponse> second = outbox.post(post("b"));
+    outbox.flush();
+
+    assertThat(first.get(1, TimeUnit.SECONDS).getId()).isEqualTo("a");
+    assertThat(second.get(1, TimeUnit.SECONDS).getId()).isEqualTo("b");
+    assertThat(acknowledged).extracting(result -> result.getResponse().getId()).containsExactly("a", "b");
+    assertThat(outbox.getStats().getPosted()).isEqualTo(2);
+    assertThat(outbox.getPending()).isZero();
+  }
+
+  @Test
+  public void testRestartWithUnsentPosts_shouldReplayThem() throws Exception {
+    transport.respond(500, "{\"error\":{\"message\":\"Service unavailable\",\"code\":2}}");
+    final CompletableFuture<FacebookPostResponse> future = outbox.post(post("a"));
+    outbox.post(FacebookPostRequest.builder().accessToken("token").facebookId("page").message("b")
+        .schedulePublish(LocalDateTime.of(2030, 1, 1, 0, 0)).build());
+    outbox.flush();
+    assertThat(future).isNotDone();
+    assertThat(outbox.getPending()).isEqualTo(2);
+    outbox.close();
+
+    transport.respond(PostOutboxTest::postResponses);
+    outbox = open();
+    outbox.flush();
+
+    assertThat(outbox.getStats().getReplayed()).isEqualTo(2);
+    assertThat(acknowledged).extracting(result -> result.getResponse().getId()).containsExactly("a", "b");
+    final List<BatchItem> replayed = FakeTransport.batchItems(Lists.reverse(transport.getRequests()).get(0));
+    assertThat(replayed.get(1).getBody()).contains("published=false").contains("scheduled_publish_time=");
+
+    outbox.close();
+    outbox = open();
+    assertThat(outbox.getStats().getReplayed()).isZero();
+  }
+
+  @Test
+  public void testRejectedPost_shouldBeAcknowledgedAsFailed() throws Exception {
+    final CompletableFuture<FacebookPostResponse> rejected = outbox.post(post("bad"));
+    outbox.flush();
+
+    assertThatThrownBy(() -> rejected.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(FacebookException.class);
+    assertThat(outbox.getStats().getFailed()).isEqualTo(1);
+
+    outbox.close();
+    outbox = open();
+    assertThat(outbox.getPending()).isZero();
+  }
+
+  @Test
+  public void testRetryablePost_shouldFailAfterMaxAttempts() {
+    transport.respond(request -> FakeTransport.response(200,
+        "[{\"code\":500,\"body\":\"{\\\"error\\\":{\\\"message\\\":\\\"Try again\\\",\\\"code\\\":2}}\"}]"));
+    final CompletableFuture<FacebookPostResponse> future = outbox.post(post("a"));
+    outbox.flush();
+    outbox.flush();
+    outbox.flush();
+
+    assertThat(future).isCompletedExceptionally();
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(outbox.getPending()).isZero();
+  }
+
+  @Test
+  public void testFailedBatchCalls_shouldCountAsAttempts() {
+    transport.respond(500, "{\"error\":{\"message\":\"Service unavailable\",\"code\":2}}");
+    final CompletableFuture<FacebookPostResponse> future = outbox.post(post("a"));
+    outbox.flush();
+    outbox.flush();
+    outbox.flush();
+
+    assertThat(future).isCompletedExceptionally();
+    assertThat(transport.getRequests()).hasSize(3);
+    assertThat(outbox.getPending()).isZero();
+  }
+
+  @Test
+  public void testHeadPostWithRejectedToken_shouldFailAloneAndNotBlockOthers() throws Exception {
+    transport.respond(request -> "revoked".equals(accessToken(request))
+        ? FakeTransport.response(400, json(ImmutableMap.of("error", ImmutableMap.of(
+            "message", "Error validating access token", "type", "OAuthException", "code", 190))))
+        : postResponses(request));
+    final CompletableFuture<FacebookPostResponse> head = outbox.post(FacebookPostRequest.builder()
+        .accessToken("revoked").facebookId("page").message("a").build());
+    final CompletableFuture<FacebookPostResponse> second = outbox.post(post("b"));
+    final CompletableFuture<FacebookPostResponse> third = outbox.post(post("c"));
+    outbox.flush();
+
+    assertThatThrownBy(() -> head.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(FacebookException.class);
+    assertThat(second.get(1, TimeUnit.SECONDS).getId()).isEqualTo("b");
+    assertThat(third.get(1, TimeUnit.SECONDS).getId()).isEqualTo("c");
+    assertThat(outbox.getStats().getFailed()).isEqualTo(1);
+    assertThat(outbox.getPending()).isZero();
+  }
+
+  @Test
+  public void testTornRecordAtEndOfLog_shouldBeDropped() throws Exception {
+    transport.respond(500, "{\"error\":{\"message\":\"Service unavailable\",\"code\":2}}");
+    outbox.post(post("a"));
+    outbox.close();
+    Files.write(directory.resolve("outbox.log"), new byte[] {0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+    transport.respond(PostOutboxTest::postResponses);
+    outbox = open();
+    assertThat(outbox.getPending()).isEqualTo(1);
+    final CompletableFuture<FacebookPostResponse> next = outbox.post(post("b"));
+    outbox.flush();
+
+    assertThat(next.get(1, TimeUnit.SECONDS).getId()).isEqualTo("b");
+    assertThat(acknowledged).extracting(result -> result.getResponse().getId()).containsExactly("a", "b");
+  }
+
+  @Test
+  public void testAcknowledgedLog_shouldBeCompacted() throws Exception {
+    outbox.close();
+    outbox = PostOutbox.builder()
+        .facebookService(new FacebookService(TestUtil.om(), transport))
+        .directory(directory)
+        .drainInterval(Duration.ofHours(1))
+        .compactThreshold(256)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      outbox.post(post("message-" + i));
+    }
+    outbox.flush();
+
+    assertThat(outbox.getStats().getCompactions()).isEqualTo(1);
+    assertThat(Files.size(directory.resolve("outbox.log"))).isEqualTo(16);
+    assertThat(Files.size(directory.resolve("outbox.acks"))).isEqualTo(8);
+
+    outbox.close();
+    outbox = open();
+    assertThat(outbox.getPending()).isZero();
+    assertThat(outbox.post(post("c")).isCompletedExceptionally()).isFalse();
+  }
+
+  @Test
+  public void testPostAfterClose_shouldFail() throws IOException {
+    outbox.close();
+
+    assertThatThrownBy(() -> outbox.post(post("a")).join()).hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  private PostOutbox open() {
+    return PostOutbox.builder()
+        .facebookService(new FacebookService(TestUtil.om(), transport))
+        .directory(directory)
+        .drainInterval(Duration.ofHours(1))
+        .maxAttempts(3)
+        .listener((request, result) -> acknowledged.add(result))
+        .build();
+  }
+
+  private static FacebookPostRequest post(final String message) {
+    return FacebookPostRequest.builder().accessToken("token").facebookId("page").message(message).build();
+  }
+
+  /**
+   * Answers each post with its message as the post id, or an error for the message "bad".
+   */
+  private static HttpResponse postResponses(final HttpUriRequest request) {
+    final List<Map<String, Object>> responses = Lists.newArrayList();
+    for (final BatchItem item : FakeTransport.batchItems(request)) {
+      final String message = URLEncodedUtils.parse(item.getBody(), Charsets.UTF_8).stream()
+          .filter(param -> "message".equals(param.getName()))
+          .findFirst().get().getValue();
+      if ("bad".equals(message)) {
+        responses.add(ImmutableMap.of("code", 400,
+            "body", json(ImmutableMap.of("error", ImmutableMap.of("message", "Duplicate status message", "code", 506)))));
+      } else {
+        responses.add(ImmutableMap.of("code", 200, "body", json(ImmutableMap.of("id", message))));
+      }
+    }
+    return FakeTransport.response(200, json(responses));
+  }
+
+  private static String accessToken(final HttpUriRequest request) {
+    return URLEncodedUtils.parse(FakeTransport.body(request), Charsets.UTF_8).stream()
+        .filter(param -> "access_token".equals(param.getName()))
+        .findFirst().get().getValue();
+  }
+
+  private static String json(final Object value) {
+    try {
+      return TestUtil.om().writeValueAsString(value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.beachninja.facebook.token;
+
+import com.beachninja.facebook.breaker.CircuitBreaker;
+import com.beachninja.facebook.error.FacebookError;
+import com.beachninja.facebook.exception.CircuitOpenException;
+import com.beachninja.facebook.exception.FacebookException;
+import com.beachninja.facebook.post.FacebookPostRequest;
+import com.beachninja.facebook.service.FacebookService;
+import com.beachninja.facebook.transport.FacebookTransport;
+import com.beachninja.facebook.util.FakeTransport;
+import com.beachninja.facebook.util.TestUtil;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class AccessTokenProviderTest {
+
+  private static final long USER_TOKEN_LIFETIME = Duration.ofDays(60).getSeconds();
+
+  private final MutableClock clock = new MutableClock();
+  private final AtomicInteger exchanges = new AtomicInteger();
+  private FakeTransport transport;
+  private AccessTokenProvider provider;
+
+  @Before
+  public void before() {
+    transport = new FakeTransport().respond(this::graph);
+    provider = provider(transport);
+  }
+
+  @Test
+  public void testGetPageToken_shouldExchangeUserTokenThenReadPageToken() {
+    assertThat(provider.getPageToken("page1")).isEqualTo("page1-token-2");
+
+    assertThat(transport.getRequests()).extracting(request -> request.getURI().toString())
+        .containsExactly(
+            "http://stub/v9/oauth/access_token?grant_type=fb_exchange_token&client_id=app"
+                + "&client_secret=secret&fb_exchange_token=short-token",
+            "http://stub/v9/page1?fields=access_token&access_token=user-token-1");
+  }
+
+  @Test
+  public void testGetPageToken_shouldBeCachedPerPage() {
+    provider.getPageToken("page1");
+    provider.getPageToken("page1");
+    provider.getPageToken("page2");
+
+    assertThat(transport.getRequests()).hasSize(3);
+  }
+
+  @Test
+  public void testConcurrentCallers_shouldShareOneExchange() {
+    final DeferredTransport deferred = new DeferredTransport();
+    final AccessTokenProvider provider = provider(deferred);
+
+    final CompletableFuture<String> first = provider.getPageTokenAsync("page1");
+    final CompletableFuture<String> second = provider.getPageTokenAsync("page1");
+    deferred.completeAll();
+    deferred.completeAll();
+
+    assertThat(first.join()).isEqualTo(second.join());
+    assertThat(deferred.completed).hasValue(2);
+  }
+
+  @Test
+  public void testTokenNearExpiry_shouldBeRefreshedInBackground() {
+    final String token = provider.getPageToken("page1");
+    clock.advance(Duration.ofDays(55));
+
+    assertThat(provider.getPageToken("page1")).isEqualTo(token);
+    assertThat(provider.getPageToken("page1")).isNotEqualTo(token);
+    assertThat(transport.getRequests()).hasSize(4);
+  }
+
+  @Test
+  public void testTokenAtExpiry_shouldNeverBeHandedOut() {
+    final String token = provider.getPageToken("page1");
+    clock.advance(Duration.ofDays(60).minusMinutes(1));
+
+    assertThat(provider.getPageToken("page1")).isNotEqualTo(token);
+  }
+
+  @Test
+  public void testFailedExchange_shouldThrowFacebookExceptionAndRetryNextTime() {
+    transport.respond(400, "{\"error\":{\"message\":\"Error validating access token\",\"code\":190}}");
+
+    assertThatThrownBy(() -> provider.getPageToken("page1"))
+        .isInstanceOfSatisfying(FacebookException.class, e -> assertThat(e.getStatusCode()).isEqualTo(400));
+
+    transport.respond(this::graph);
+    assertThat(provider.getPageToken("page1")).startsWith("page1-token");
+  }
+
+  @Test
+  public void testPostWithoutToken_shouldUsePageToken() {
+    final FakeTransport postTransport = new FakeTransport().respond(200, "{\"id\":\"post1\"}");
+    final FacebookService facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(postTransport)
+        .accessTokenProvider(provider)
+        .build();
+
+    facebookService.post(FacebookPostRequest.builder().facebookId("page1").message("hi").build());
+
+    assertThat(FakeTransport.body(postTransport.getRequests().get(0))).contains("access_token=page1-token-2");
+  }
+
+  @Test
+  public void testRejectedPageToken_shouldBeInvalidated() {
+    final FakeTransport postTransport = new FakeTransport()
+        .respond(400, "{\"error\":{\"message\":\"Error validating access token\",\"code\":190}}");
+    final FacebookService facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(postTransport)
+        .accessTokenProvider(provider)
+        .build();
+
+    assertThatThrownBy(() -> facebookService.post(FacebookPostRequest.builder()
+        .facebookId("page1").message("hi").build())).isInstanceOf(FacebookException.class);
+    provider.getPageToken("page1");
+
+    assertThat(transport.getRequests()).hasSize(3);
+  }
+
+  @Test
+  public void testInvalidateDuringExchange_shouldNotCacheTheTokenInFlight() {
+    final DeferredTransport deferred = new DeferredTransport();
+    final AccessTokenProvider provider = provider(deferred);
+
+    final CompletableFuture<String> first = provider.getPageTokenAsync("page1");
+    deferred.completeAll(); // User token
+    provider.invalidate("page1");
+    deferred.completeAll(); // Page token read before the invalidation
+    assertThat(first.join()).isEqualTo("page1-token-2");
+
+    final CompletableFuture<String> next = provider.getPageTokenAsync("page1");
+    assertThat(next).isNotDone();
+    deferred.completeAll();
+    assertThat(next.join()).isEqualTo("page1-token-3");
+  }
+
+  @Test
+  public void testPostTurnedAwayByOpenCircuit_shouldKeepPageToken() {
+    final String token = provider.getPageToken("page1");
+    final CircuitBreaker circuitBreaker = CircuitBreaker.builder().failureThreshold(1).build();
+    circuitBreaker.onFailure(CircuitBreaker.keyOf("page1", token),
+        FacebookError.builder().message("Error validating access token").code(190).build());
+    final FakeTransport postTransport = new FakeTransport();
+    final FacebookService facebookService = FacebookService.builder()
+        .objectMapper(TestUtil.om())
+        .transport(postTransport)
+        .accessTokenProvider(provider)
+        .circuitBreaker(circuitBreaker)
+        .build();
+
+    assertThatThrownBy(() -> facebookService.post(FacebookPostRequest.builder()
+        .facebookId("page1").message("hi").build())).isInstanceOf(CircuitOpenException.class);
+
+    assertThat(postTransport.getRequests()).isEmpty();
+    assertThat(provider.getPageToken("page1")).isEqualTo(token);
+    assertThat(transport.getRequests()).hasSize(2);
+  }
+
+  private AccessTokenProvider provider(final FacebookTransport transport) {
+    return AccessTokenProvider.builder()
+        .objectMapper(TestUtil.om())
+        .transport(transport)
+        .graphUrl("http://stub/v9/")
+        .clientId("app")
+        .clientSecret("secret")
+        .userAccessToken("short-token")
+        .clock(clock)
+        .build();
+  }
+
+  /**
+   * Stub of the token endpoints. Every exchange returns a new token.
+   */
+  private HttpResponse graph(final HttpUriRequest request) {
+    final int n = exchanges.incrementAndGet();
+    final String path = request.getURI().getPath();
+    if (path.endsWith("/oauth/access_token")) {
+      return FakeTransport.response(200, "{\"access_token\":\"user-token-" + n + "\",\"token_type\":\"bearer\","
+          + "\"expires_in\":" + USER_TOKEN_LIFETIME + "}");
+    }
+    final String page = path.substring(path.lastIndexOf('/') + 1);
+    return FakeTransport.response(200, "{\"access_token\":\"" + page + "-token-" + n + "\",\"id\":\"" + page + "\"}");
+  }
+
+  /**
+   * Transport that answers exchanges only when told to.
+   */
+  private final class DeferredTransport implements FacebookTransport {
+    private final List<Runnable> pending = new CopyOnWriteArrayList<>();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    @Override
+    public <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeAsync(final HttpUriRequest request,
+                                                 final ResponseHandler<? extends T> handler) {
+      final CompletableFuture<T> future = new CompletableFuture<>();
+      pending.add(() -> {
+        completed.incrementAndGet();
+        try {
+          future.complete(handler.handleResponse(graph(request)));
+        } catch (final Exception e) {
+          future.completeExceptionally(e);
+        }
+      });
+      return future;
+    }
+
+    private void completeAll() {
+      final List<Runnable> running = List.copyOf(pending);
+      pending.clear();
+      running.forEach(Runnable::run);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static final class MutableClock extends Clock {
+    private Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+    private void advance(final Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.beachninja.facebook.transport;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.batch.BatchRequest;
+import com.beachninja.facebook.batch.BatchRequestEntity;
+import com.beachninja.facebook.util.StubGraphServer;
+import com.beachninja.facebook.util.TestUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class PooledHttpTransportTest {
+
+  private StubGraphServer server;
+  private PooledHttpTransport transport;
+
+  @Before
+  public void before() throws IOException {
+    server = StubGraphServer.start().respond(200, "{\"id\":\"sampleId\"}");
+    transport = PooledHttpTransport.builder().maxTotal(2).maxPerRoute(1).build();
+  }
+
+  @After
+  public void after() throws IOException {
+    transport.close();
+    server.close();
+  }
+
+  @Test
+  public void testExecute_shouldPassResponseToHandler() throws IOException {
+    final String body = transport.execute(new HttpPost(server.url()),
+        response -> IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8));
+
+    assertThat(body).isEqualTo("{\"id\":\"sampleId\"}");
+  }
+
+  @Test
+  public void testExecuteWithUnconsumedEntity_shouldReleaseConnectionToPool() throws IOException {
+    // Pool allows a single connection, so an unreleased lease would block the second call
+    for (int i = 0; i < 3; i++) {
+      final int status = transport.execute(new HttpPost(server.url()),
+          response -> response.getStatusLine().getStatusCode());
+      assertThat(status).isEqualTo(200);
+    }
+    assertThat(server.getRequestCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testExecuteAsync_shouldCompleteWithHandlerResult() {
+    final List<CompletableFuture<String>> futures = IntStream.range(0, 10)
+        .mapToObj(i -> transport.executeAsync(new HttpPost(server.url()),
+            response -> IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8)))
+        .collect(Collectors.toList());
+
+    assertThat(futures.stream().map(CompletableFuture::join))
+        .hasSize(10)
+        .containsOnly("{\"id\":\"sampleId\"}");
+    assertThat(server.getRequestCount()).isEqualTo(10);
+  }
+
+  @Test
+  public void testExecuteAsyncWithFailingHandler_shouldCompleteExceptionally() {
+    final CompletableFuture<String> future = transport.executeAsync(new HttpPost(server.url()), response -> {
+      throw new IllegalStateException("handler failed");
+    });
+
+    assertThatThrownBy(future::join).hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testExecuteAsync_shouldRunHandlerOffTheReactor() throws Exception {
+    transport.close();
+    transport = PooledHttpTransport.builder().maxTotal(4).maxPerRoute(2).build();
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CompletableFuture<String> blocked = transport.executeAsync(new HttpPost(server.url()), response -> {
+      awaitQuietly(release);
+      return Thread.currentThread().getName();
+    });
+    final String thread = transport.executeAsync(new HttpPost(server.url()),
+        response -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+
+    assertThat(thread).startsWith("facebook-async-handler-");
+    assertThat(blocked).isNotDone();
+    release.countDown();
+    assertThat(blocked.get(5, TimeUnit.SECONDS)).startsWith("facebook-async-handler-");
+  }
+
+  @Test
+  public void testExecuteAsyncWithLargeResponse_shouldStreamBodyToHandler() throws Exception {
+    final String large = "[" + String.join(",", Collections.nCopies(20_000, "{\"id\":\"sampleId\"}")) + "]";
+    server.respond(200, large);
+    transport.close();
+    transport = PooledHttpTransport.builder().responseBufferSize(1024).build();
+
+    final String body = transport.executeAsync(new HttpPost(server.url()),
+        response -> IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8))
+        .get(5, TimeUnit.SECONDS);
+
+    assertThat(body).isEqualTo(large);
+  }
+
+  @Test
+  public void testExecuteWithBatchRequestEntity_shouldSendSameBodyOnBothClients() throws IOException {
+    final BatchRequest request = BatchRequest.builder().accessToken("token")
+        .addItem(BatchItem.builder().post().body("&id=https://localhost/a b&scrape=true").build())
+        .build();
+    final HttpPost blocking = new HttpPost(server.url());
+    blocking.setEntity(new BatchRequestEntity(TestUtil.om(), request));
+    final HttpPost async = new HttpPost(server.url());
+    async.setEntity(new BatchRequestEntity(TestUtil.om(), request));
+
+    transport.execute(blocking, response -> response.getStatusLine().getStatusCode());
+    transport.executeAsync(async, response -> response.getStatusLine().getStatusCode()).join();
+
+    assertThat(server.getRequestBodies()).hasSize(2);
+    assertThat(server.getRequestBodies().get(0))
+        .startsWith("access_token=token&batch=")
+        .isEqualTo(server.getRequestBodies().get(1));
+  }
+
+  private static void awaitQuietly(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
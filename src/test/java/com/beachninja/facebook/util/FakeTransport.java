@@ -0,0 +1,122 @@
+package com.beachninja.facebook.util;
+
+import com.beachninja.facebook.batch.BatchItem;
+import com.beachninja.facebook.transport.FacebookTransport;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * In-memory FacebookTransport that records requests and answers them with canned responses.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class FakeTransport implements FacebookTransport {
+
+  public static HttpResponse response(final int status, final String body) {
+    final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+    response.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+    return response;
+  }
+
+  /**
+   * Returns the request body as a string.
+   */
+  public static String body(final HttpUriRequest request) {
+    try {
+      return EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity(), Charsets.UTF_8);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the batch items of a batch request.
+   */
+  public static List<BatchItem> batchItems(final HttpUriRequest request) {
+    for (final NameValuePair param : URLEncodedUtils.parse(body(request), Charsets.UTF_8)) {
+      if ("batch".equals(param.getName())) {
+        try {
+          return TestUtil.om().readValue(param.getValue(), new TypeReference<List<BatchItem>>() {});
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    throw new IllegalArgumentException("Not a batch request");
+  }
+
+  /**
+   * Answers each batch item with code 200 and the item's own body, so responses can be matched
+   * to the items that produced them.
+   */
+  public static HttpResponse echoBatch(final HttpUriRequest request) {
+    final List<Map<String, Object>> responses = Lists.newArrayList();
+    for (final BatchItem item : batchItems(request)) {
+      responses.add(ImmutableMap.of("code", 200, "body", item.getBody()));
+    }
+    try {
+      return response(200, TestUtil.om().writeValueAsString(responses));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private final List<HttpUriRequest> requests = new CopyOnWriteArrayList<>();
+  private volatile Function<HttpUriRequest, HttpResponse> responder = request -> response(200, "{}");
+
+  public FakeTransport respond(final int status, final String body) {
+    return respond(request -> response(status, body));
+  }
+
+  public FakeTransport respond(final Function<HttpUriRequest, HttpResponse> responder) {
+    this.responder = responder;
+    return this;
+  }
+
+  public List<HttpUriRequest> getRequests() {
+    return requests;
+  }
+
+  @Override
+  public <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) throws IOException {
+    requests.add(request);
+    return handler.handleResponse(responder.apply(request));
+  }
+
+  @Override
+  public <T> CompletableFuture<T> executeAsync(final HttpUriRequest request,
+                                               final ResponseHandler<? extends T> handler) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      future.complete(execute(request, handler));
+    } catch (final Exception e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public void close() {
+  }
+}
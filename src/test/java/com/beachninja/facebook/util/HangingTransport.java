@@ -0,0 +1,62 @@
+package com.beachninja.facebook.util;
+
+import com.beachninja.facebook.transport.FacebookTransport;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * FacebookTransport whose asynchronous exchanges never complete unless set to fail, for testing
+ * timeouts, cancellation and concurrency limits.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class HangingTransport implements FacebookTransport {
+
+  private final List<HttpUriRequest> requests = new CopyOnWriteArrayList<>();
+  private final List<CompletableFuture<?>> exchanges = new CopyOnWriteArrayList<>();
+  private volatile Exception failure;
+
+  /**
+   * Fails every later exchange at once with the given exception.
+   */
+  public HangingTransport fail(final Exception failure) {
+    this.failure = failure;
+    return this;
+  }
+
+  public List<HttpUriRequest> getRequests() {
+    return requests;
+  }
+
+  /**
+   * Futures returned by executeAsync(), in call order.
+   */
+  public List<CompletableFuture<?>> getExchanges() {
+    return exchanges;
+  }
+
+  @Override
+  public <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T> CompletableFuture<T> executeAsync(final HttpUriRequest request,
+                                               final ResponseHandler<? extends T> handler) {
+    requests.add(request);
+    final CompletableFuture<T> exchange = new CompletableFuture<>();
+    if (failure != null) {
+      exchange.completeExceptionally(failure);
+    }
+    exchanges.add(exchange);
+    return exchange;
+  }
+
+  @Override
+  public void close() {
+  }
+}
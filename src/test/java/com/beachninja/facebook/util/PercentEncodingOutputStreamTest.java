@@ -0,0 +1,51 @@
+package com.beachninja.facebook.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author bradwee2000@gmail.com
+ */
+public class PercentEncodingOutputStreamTest {
+
+  @Test
+  public void testWrite_shouldEncodeLikeUrlEncoder() throws IOException {
+    final String value = "[{\"method\":\"POST\",\"body\":\"&id=https://test.com/a b?c=1~*._-\"}] ñ 日本 😀";
+
+    assertThat(encode(value)).isEqualTo(URLEncoder.encode(value, "UTF-8"));
+  }
+
+  @Test
+  public void testWriteLargerThanBuffer_shouldEncodeEverything() throws IOException {
+    final String value = Strings.repeat("{\"a\":\"b c\"}", 2000);
+
+    assertThat(encode(value)).isEqualTo(URLEncoder.encode(value, "UTF-8"));
+  }
+
+  @Test
+  public void testWriteUnencoded_shouldKeepOrderWithEncodedBytes() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (final PercentEncodingOutputStream encoded = new PercentEncodingOutputStream(out)) {
+      encoded.writeUnencoded("a=".getBytes(Charsets.US_ASCII));
+      encoded.write("x y".getBytes(Charsets.UTF_8));
+      encoded.writeUnencoded("&b=".getBytes(Charsets.US_ASCII));
+      encoded.write("&".getBytes(Charsets.UTF_8));
+    }
+    assertThat(out.toString("UTF-8")).isEqualTo("a=x+y&b=%26");
+  }
+
+  private static String encode(final String value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (final PercentEncodingOutputStream encoded = new PercentEncodingOutputStream(out)) {
+      encoded.write(value.getBytes(Charsets.UTF_8));
+    }
+    return out.toString("UTF-8");
+  }
+}
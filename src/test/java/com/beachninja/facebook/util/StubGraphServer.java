@@ -0,0 +1,96 @@
+package com.beachninja.facebook.util;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server that stands in for graph.facebook.com in tests and benchmarks.
+ *
+ * @author bradwee2000@gmail.com
+ */
+public class StubGraphServer implements Closeable {
+
+  static {
+    // Avoid Nagle / delayed-ACK stalls on keep-alive connections
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  public static StubGraphServer start() throws IOException {
+    return new StubGraphServer();
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final List<String> requestBodies = new CopyOnWriteArrayList<>();
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  private volatile boolean recordBodies = true;
+  private volatile int status = 200;
+  private volatile String body = "{\"id\":\"sampleId\"}";
+
+  private StubGraphServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public StubGraphServer respond(final int status, final String body) {
+    this.status = status;
+    this.body = body;
+    return this;
+  }
+
+  /**
+   * Disable request body recording, e.g. for benchmarks.
+   */
+  public StubGraphServer recordBodies(final boolean recordBodies) {
+    this.recordBodies = recordBodies;
+    return this;
+  }
+
+  public String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  public List<String> getRequestBodies() {
+    return requestBodies;
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    requestCount.incrementAndGet();
+    final String requestBody = IOUtils.toString(exchange.getRequestBody(), Charsets.UTF_8);
+    if (recordBodies) {
+      requestBodies.add(requestBody);
+    }
+
+    final byte[] bytes = body.getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (final OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}